@@ -0,0 +1,57 @@
+package com.jumkid.vault.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+
+import java.net.URI;
+
+/**
+ * Client of the S3 compatible object store. Without an endpoint it talks to AWS S3 of the region, and without
+ * an access key the credentials come from the default AWS provider chain (environment, profile, instance role).
+ */
+@Slf4j
+@Configuration
+public class ObjectStoreConfig {
+
+    @Value("${vault.storage.object-store.endpoint}")
+    private String endpoint;
+
+    @Value("${vault.storage.object-store.region}")
+    private String region;
+
+    @Value("${vault.storage.object-store.access-key}")
+    private String accessKey;
+
+    @Value("${vault.storage.object-store.secret-key}")
+    private String secretKey;
+
+    @Value("${vault.storage.object-store.path-style-access}")
+    private boolean pathStyleAccess;
+
+    @Bean(destroyMethod = "close")
+    public S3Client s3Client() {
+        AwsCredentialsProvider credentialsProvider = accessKey == null || accessKey.isBlank() ?
+                DefaultCredentialsProvider.create() :
+                StaticCredentialsProvider.create(AwsBasicCredentials.create(accessKey, secretKey));
+
+        S3ClientBuilder builder = S3Client.builder()
+                .region(Region.of(region))
+                .credentialsProvider(credentialsProvider)
+                .forcePathStyle(pathStyleAccess);
+        if (endpoint != null && !endpoint.isBlank()) {
+            builder.endpointOverride(URI.create(endpoint));
+            log.info("object store endpoint {}", endpoint);
+        }
+        return builder.build();
+    }
+
+}
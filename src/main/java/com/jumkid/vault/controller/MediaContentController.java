@@ -19,12 +19,17 @@ import com.jumkid.vault.enums.ThumbnailNamespace;
 import com.jumkid.vault.exception.FileNotAvailableException;
 import com.jumkid.vault.exception.FileNotFoundException;
 import com.jumkid.vault.exception.FileStoreServiceException;
+import com.jumkid.vault.model.MediaFileMetadata;
+import com.jumkid.vault.repository.mapped.MappedFilePool;
 import com.jumkid.vault.service.MediaFileService;
+import com.jumkid.vault.service.mapper.MediaFileMapper;
+import com.jumkid.vault.util.HttpCachePolicy;
 import com.jumkid.vault.util.ResponseMediaFileWriter;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -48,11 +53,19 @@ public class MediaContentController {
 
     private final ThumbnailAPIHelper thumbnailAPIHelper;
 
+    private final HttpCachePolicy httpCachePolicy;
+
+    private final MediaFileMapper mediaFileMapper;
+
     @Autowired
-    public MediaContentController(MediaFileService fileService, ResponseMediaFileWriter responseMFileWriter, ThumbnailAPIHelper thumbnailAPIHelper) {
+    public MediaContentController(MediaFileService fileService, ResponseMediaFileWriter responseMFileWriter,
+                                  ThumbnailAPIHelper thumbnailAPIHelper, HttpCachePolicy httpCachePolicy,
+                                  MediaFileMapper mediaFileMapper) {
         this.fileService = fileService;
         this.responseMFileWriter = responseMFileWriter;
         this.thumbnailAPIHelper = thumbnailAPIHelper;
+        this.httpCachePolicy = httpCachePolicy;
+        this.mediaFileMapper = mediaFileMapper;
     }
 
     @GetMapping(value = "{id}", produces = MediaType.TEXT_PLAIN_VALUE)
@@ -61,14 +74,26 @@ public class MediaContentController {
             " || @securityService.isPublic(#mediaFileId)" +
             " || @securityService.isOwner(authentication, #mediaFileId)")
     public String getPlainContent(@PathVariable("id") String mediaFileId,
-                                  @RequestParam(required = false) Boolean ignoreTitle)
+                                  @RequestParam(required = false) Boolean ignoreTitle,
+                                  HttpServletRequest request, HttpServletResponse response)
             throws FileNotAvailableException, FileStoreServiceException, FileNotFoundException {
-        return getContent(mediaFileId, ignoreTitle);
+        MediaFileMetadata metadata = getActiveMetadata(mediaFileId);
+        HttpCachePolicy.Validators validators = httpCachePolicy.forContent(metadata,
+                Boolean.TRUE.equals(ignoreTitle) ? "text" : "text-title");
+        if (httpCachePolicy.checkNotModified(validators, request, response)) return null;
+
+        return getContent(mediaFileMapper.metadataToDto(metadata), ignoreTitle);
     }
 
-    private String getContent(String mediaFileId, Boolean ignoreTitle)
-            throws FileNotAvailableException, FileStoreServiceException, FileNotFoundException {
-        MediaFile mediaFile = fileService.getMediaFile(mediaFileId);
+    private MediaFileMetadata getActiveMetadata(String mediaFileId)
+            throws FileNotAvailableException, FileNotFoundException, FileStoreServiceException {
+        // the metadata is loaded already by the access check of this request
+        MediaFileMetadata metadata = fileService.getMediaFileMetadata(mediaFileId);
+        if (!Boolean.TRUE.equals(metadata.getActivated())) throw new FileNotAvailableException();
+        return metadata;
+    }
+
+    private String getContent(MediaFile mediaFile, Boolean ignoreTitle) {
         StringBuilder sb = new StringBuilder();
         boolean addedTitle = false;
         String title = mediaFile.getTitle();
@@ -124,41 +149,49 @@ public class MediaContentController {
     public void stream(@PathVariable("id") String mediaFileId,
                        HttpServletRequest request, HttpServletResponse response)
             throws FileNotAvailableException, FileStoreServiceException, FileNotFoundException {
-        MediaFile mediaFile = fileService.getMediaFile(mediaFileId);
-        String mimeType = mediaFile.getMimeType();
-
-        if(mimeType != null && (mimeType.startsWith("audio") || mimeType.startsWith("video"))){
-            log.debug("stream media content");
-
-            try (FileChannel fc = fileService.getFileChannel(mediaFileId)) {
-                if (fc != null) {
-                    response = responseMFileWriter.stream(mediaFile, fc, request, response);
-                } else {
-                    log.error("File is blank. There is nothing to stream");
-                    throw new FileNotFoundException(mediaFileId);
-                }
-            } catch (IOException | FileNotFoundException ex) {
-                log.error("failed to stream file resource {}", ex.getMessage());
-            } finally {
-                try{
-                    response.flushBuffer();
-                } catch (Exception e) {
-                    log.error("fatal response issue {}", e.getMessage());
+        MediaFileMetadata metadata = getActiveMetadata(mediaFileId);
+        HttpCachePolicy.Validators validators = httpCachePolicy.forContent(metadata, null);
+        if (httpCachePolicy.checkNotModified(validators, request, response)) return;
+        MediaFile mediaFile = mediaFileMapper.metadataToDto(metadata);
+
+        // small hot files are served from the mapped file pool unless a part of them is requested
+        if (request.getHeader(HttpHeaders.RANGE) == null && mediaFile.getMimeType() != null) {
+            Optional<MappedFilePool.Lease> mapped = fileService.getMappedFile(mediaFileId);
+            if (mapped.isPresent()) {
+                try (MappedFilePool.Lease lease = mapped.get()) {
+                    responseMFileWriter.stream(mediaFile, lease.buffer(), validators, request, response);
+                } catch (IOException ex) {
+                    log.error("failed to stream mapped file {}", ex.getMessage());
                 }
+                return;
             }
+        }
 
-        } else {
-            Optional<byte[]> optional = fileService.getFileSource(mediaFileId);
-            if (optional.isPresent()) {
-                responseMFileWriter.write(mediaFile, optional.get(), response);
-                return;
-            } else {
-                log.info("File is blank. Streams the content in metadata instead.");
-                responseMFileWriter.write(mediaFile, response);
+        FileChannel fc = fileService.getFileChannel(mediaFileId);
+        if (fc == null) {
+            String mimeType = mediaFile.getMimeType();
+            if (mimeType != null && (mimeType.startsWith("audio") || mimeType.startsWith("video"))) {
+                log.error("File is blank. There is nothing to stream");
+                throw new FileNotFoundException(mediaFileId);
             }
+            log.info("File is blank. Streams the content in metadata instead.");
+            responseMFileWriter.write(mediaFile, response);
+            return;
         }
 
-        throw new FileStoreServiceException(mediaFileId);
+        log.debug("stream media content");
+        try (fc) {
+            response = responseMFileWriter.stream(mediaFile, fc, fileService.getLocalFile(mediaFileId).orElse(null),
+                    validators, request, response);
+        } catch (IOException ex) {
+            log.error("failed to stream file resource {}", ex.getMessage());
+        } finally {
+            try{
+                response.flushBuffer();
+            } catch (Exception e) {
+                log.error("fatal response issue {}", e.getMessage());
+            }
+        }
     }
 
     @GetMapping(value="/thumbnail/{id}")
@@ -168,7 +201,7 @@ public class MediaContentController {
             " || @securityService.isOwner(authentication, #mediaFileId)")
     public void thumbnail(@PathVariable("id") String mediaFileId,
                           @RequestParam(value = "size", required = false) ThumbnailNamespace thumbnailNamespace,
-                          HttpServletResponse response)
+                          HttpServletRequest request, HttpServletResponse response)
             throws FileNotAvailableException, FileNotFoundException, FileStoreServiceException {
         final ThumbnailNamespace size = thumbnailNamespace == null ? ThumbnailNamespace.SMALL : thumbnailNamespace;
 
@@ -186,7 +219,7 @@ public class MediaContentController {
             targetMediaFileId = featuredIdProp != null ? featuredIdProp.getTextValue() : mediaFileId;
         }
 
-        thumbnailAPIHelper.response(targetMediaFileId, size, response);
+        thumbnailAPIHelper.response(targetMediaFileId, size, request, response);
     }
 
 }
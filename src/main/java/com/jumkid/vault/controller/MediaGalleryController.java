@@ -18,7 +18,6 @@ import org.springframework.web.multipart.MultipartFile;
 
 import jakarta.validation.constraints.NotNull;
 
-import java.io.IOException;
 import java.util.*;
 
 import static com.jumkid.vault.util.Constants.PROP_FEATURED_ID;
@@ -51,27 +50,22 @@ public class MediaGalleryController {
                 .build();
 
         List<MediaFile> galleryItemsList = new ArrayList<>();
-        MediaFile galleryItem = null;
-        try {
-            if (files != null) {
-                for (MultipartFile file : files) {
-                    galleryItem = MediaFile.builder()
-                            .accessScope(accessScope)
-                            .filename(file.getOriginalFilename())
-                            .size((int)file.getSize())
-                            .mimeType(file.getContentType())
-                            .build();
-
-                    galleryItem.setFile(file.getBytes());
+        if (files != null) {
+            for (MultipartFile file : files) {
+                MediaFile galleryItem = MediaFile.builder()
+                        .accessScope(accessScope)
+                        .filename(file.getOriginalFilename())
+                        .size((int)file.getSize())
+                        .mimeType(file.getContentType())
+                        .build();
 
-                    galleryItemsList.add(galleryItem);
-                }
+                galleryItem.setFileSource(file);
 
-                gallery.setChildren(galleryItemsList);
-                log.debug("media gallery {} created with {} children", gallery.getTitle(), gallery.getChildren().size());
+                galleryItemsList.add(galleryItem);
             }
-        } catch (IOException ioe) {
-            throw new FileStoreServiceException("Failed to upload gallery item {} ", galleryItem);
+
+            gallery.setChildren(galleryItemsList);
+            log.debug("media gallery {} created with {} children", gallery.getTitle(), gallery.getChildren().size());
         }
 
         return fileService.addMediaGallery(gallery);
@@ -166,14 +160,15 @@ public class MediaGalleryController {
                             .size((int)file.getSize())
                             .mimeType(file.getContentType())
                             .build();
-                    mediaFile.setFile(file.getBytes());
-
-                    mediaFile = fileService.addMediaFile(mediaFile, MediaFileModule.FILE);
+                    mediaFile.setFileSource(file);
 
                     itemList.add(mediaFile);
                 }
+                itemList = fileService.addMediaFiles(itemList, MediaFileModule.FILE).stream()
+                        .filter(item -> item.getError() == null)
+                        .toList();
             }
-        } catch (IOException | FileStoreServiceException ioe) {
+        } catch (FileStoreServiceException ioe) {
             log.error("Failed to upload file {}", ioe.getMessage());
         }
 
@@ -5,19 +5,28 @@ import com.jumkid.vault.enums.MediaFileModule;
 import com.jumkid.vault.exception.FileNotAvailableException;
 import com.jumkid.vault.exception.FileNotFoundException;
 import com.jumkid.vault.exception.FileStoreServiceException;
+import com.jumkid.vault.model.SearchPage;
 import com.jumkid.vault.service.MediaFileService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotNull;
 import java.util.List;
 
+import static com.jumkid.vault.util.Constants.MAX_PAGE_SIZE;
+import static com.jumkid.vault.util.Constants.NEXT_CURSOR;
+
 @Slf4j
 @RestController
+@Validated
 @RequestMapping("/metadata")
 public class MediaMetadataController {
 
@@ -32,9 +41,14 @@ public class MediaMetadataController {
     @ResponseStatus(HttpStatus.OK)
     @PreAuthorize("hasAnyAuthority('USER_ROLE', 'ADMIN_ROLE')")
     public List<MediaFile> searchMetadata(@RequestParam(required = false) String q,
-                                          @RequestParam(required = false) Integer size) throws FileStoreServiceException {
+                                          @RequestParam(required = false) @Min(1) @Max(MAX_PAGE_SIZE) Integer size,
+                                          @RequestParam(required = false) String cursor,
+                                          @RequestParam(required = false) List<String> fields,
+                                          HttpServletResponse response) throws FileStoreServiceException {
         if (q == null || q.isBlank()) q = "*";
-        return fileService.searchMediaFile(q, size);
+        SearchPage<MediaFile> page = fileService.searchMediaFile(q, size, cursor, fields);
+        if (page.getCursor() != null) response.setHeader(NEXT_CURSOR, page.getCursor());
+        return page.getItems();
     }
 
     @GetMapping("{id}")
@@ -2,17 +2,26 @@ package com.jumkid.vault.controller;
 
 import com.jumkid.vault.controller.dto.MediaFile;
 import com.jumkid.vault.exception.FileStoreServiceException;
+import com.jumkid.vault.model.SearchPage;
 import com.jumkid.vault.service.MediaFileService;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
 
+import static com.jumkid.vault.util.Constants.MAX_PAGE_SIZE;
+import static com.jumkid.vault.util.Constants.NEXT_CURSOR;
+
 @Slf4j
 @RestController
+@Validated
 @RequestMapping("/trash")
 public class MediaTrashController {
 
@@ -26,8 +35,13 @@ public class MediaTrashController {
     @GetMapping
     @ResponseStatus(HttpStatus.OK)
     @PreAuthorize("hasAnyAuthority('USER_ROLE', 'ADMIN_ROLE')")
-    public List<MediaFile> getAllTrash() throws FileStoreServiceException {
-        return fileService.getTrash();
+    public List<MediaFile> getAllTrash(@RequestParam(required = false) @Min(1) @Max(MAX_PAGE_SIZE) Integer size,
+                                       @RequestParam(required = false) String cursor,
+                                       @RequestParam(required = false) List<String> fields,
+                                       HttpServletResponse response) throws FileStoreServiceException {
+        SearchPage<MediaFile> page = fileService.getTrash(size, cursor, fields);
+        if (page.getCursor() != null) response.setHeader(NEXT_CURSOR, page.getCursor());
+        return page.getItems();
     }
 
     @DeleteMapping
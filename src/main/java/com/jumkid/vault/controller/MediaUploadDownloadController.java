@@ -8,7 +8,9 @@ import com.jumkid.vault.exception.FileStoreServiceException;
 import com.jumkid.vault.model.MediaFileMetadata;
 import com.jumkid.vault.service.MediaFileService;
 import com.jumkid.vault.service.mapper.MediaFileMapper;
+import com.jumkid.vault.util.HttpCachePolicy;
 import com.jumkid.vault.util.ResponseMediaFileWriter;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.constraints.NotNull;
 import lombok.extern.slf4j.Slf4j;
@@ -22,9 +24,9 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
 
 @Slf4j
 @RestController
@@ -37,12 +39,15 @@ public class MediaUploadDownloadController {
 
     private final MediaFileMapper mediaFileMapper;
 
+    private final HttpCachePolicy httpCachePolicy;
+
     @Autowired
     public MediaUploadDownloadController(MediaFileService fileService, ResponseMediaFileWriter responseMFileWriter,
-                                         MediaFileMapper mediaFileMapper) {
+                                         MediaFileMapper mediaFileMapper, HttpCachePolicy httpCachePolicy) {
         this.fileService = fileService;
         this.responseMFileWriter = responseMFileWriter;
         this.mediaFileMapper = mediaFileMapper;
+        this.httpCachePolicy = httpCachePolicy;
     }
 
     @PostMapping("/upload")
@@ -53,27 +58,22 @@ public class MediaUploadDownloadController {
                             @RequestParam(required = false) String content,
                             @RequestParam(required = false) List<String> tags,
                             @RequestParam AccessScope accessScope) throws FileStoreServiceException {
-        MediaFile mediaFile = null;
-        try {
-            mediaFile = MediaFile.builder()
-                    .accessScope(accessScope)
-                    .title(title != null ? title : file.getName())
-                    .content(content)
-                    .filename(file.getOriginalFilename())
-                    .size((int)file.getSize())
-                    .mimeType(file.getContentType())
-                    .tags(tags)
-                    .build();
-
-            mediaFile.setFile(file.getBytes());
-            setUserInfo(mediaFile);
-
-            mediaFile = fileService.addMediaFile(mediaFile, MediaFileModule.FILE);
-            log.debug("media file {} uploaded", mediaFile.getFilename());
-            return mediaFile;
-        } catch (IOException ioe) {
-            throw new FileStoreServiceException("Failed to update file", mediaFile);
-        }
+        MediaFile mediaFile = MediaFile.builder()
+                .accessScope(accessScope)
+                .title(title != null ? title : file.getName())
+                .content(content)
+                .filename(file.getOriginalFilename())
+                .size((int)file.getSize())
+                .mimeType(file.getContentType())
+                .tags(tags)
+                .build();
+
+        mediaFile.setFileSource(file);
+        setUserInfo(mediaFile);
+
+        mediaFile = fileService.addMediaFile(mediaFile, MediaFileModule.FILE);
+        log.debug("media file {} uploaded", mediaFile.getFilename());
+        return mediaFile;
     }
 
     @PostMapping("/multipleUpload")
@@ -82,29 +82,24 @@ public class MediaUploadDownloadController {
     public List<MediaFile> multipleUpload(@NotNull @RequestParam("files") MultipartFile[] files,
                                           @RequestParam(required = false) List<String> tags,
                                           @RequestParam AccessScope accessScope) throws FileStoreServiceException {
-        MediaFile mediaFile = null;
         List<MediaFile> mediaFileList = new ArrayList<>();
-        try {
-            for (MultipartFile file : files) {
-                mediaFile = MediaFile.builder()
-                        .accessScope(accessScope)
-                        .title(file.getName())
-                        .filename(file.getOriginalFilename())
-                        .size((int)file.getSize())
-                        .mimeType(file.getContentType())
-                        .tags(tags)
-                        .build();
-
-                mediaFile.setFile(file.getBytes());
-                setUserInfo(mediaFile);
-
-                mediaFile = fileService.addMediaFile(mediaFile, MediaFileModule.FILE);
-                mediaFileList.add(mediaFile);
-                log.debug("media file {} uploaded", mediaFile.getFilename());
-            }
-        } catch (IOException ioe) {
-            throw new FileStoreServiceException("Failed to update file ", mediaFile);
+        for (MultipartFile file : files) {
+            MediaFile mediaFile = MediaFile.builder()
+                    .accessScope(accessScope)
+                    .title(file.getName())
+                    .filename(file.getOriginalFilename())
+                    .size((int)file.getSize())
+                    .mimeType(file.getContentType())
+                    .tags(tags)
+                    .build();
+
+            mediaFile.setFileSource(file);
+            setUserInfo(mediaFile);
+
+            mediaFileList.add(mediaFile);
         }
+        mediaFileList = fileService.addMediaFiles(mediaFileList, MediaFileModule.FILE);
+        log.debug("{} media files uploaded", mediaFileList.size());
         return mediaFileList;
     }
 
@@ -122,16 +117,20 @@ public class MediaUploadDownloadController {
     @ResponseStatus(HttpStatus.OK)
     @PreAuthorize("hasAnyAuthority('GUEST_ROLE', 'USER_ROLE', 'ADMIN_ROLE')" +
             " && (@securityService.isPublic(#mediaFileId) || @securityService.isOwner(authentication, #mediaFileId))")
-    public void download(@PathVariable("id") String mediaFileId, HttpServletResponse response) throws FileStoreServiceException {
+    public void download(@PathVariable("id") String mediaFileId,
+                         HttpServletRequest request, HttpServletResponse response) throws FileStoreServiceException {
         MediaFileMetadata mediaFileMetadata = null;
-        Optional<byte[]> opt = fileService.getFileSource(mediaFileId);
         try {
-            if(opt.isPresent()) {
-                mediaFileMetadata = fileService.getMediaFileMetadata(mediaFileId);
-                byte[] bytes = opt.get();
-                responseMFileWriter.writeForDownload(mediaFileMetadata, bytes, response);
-            } else {
-                throw new FileNotFoundException(mediaFileId);
+            mediaFileMetadata = fileService.getMediaFileMetadata(mediaFileId);
+            HttpCachePolicy.Validators validators = httpCachePolicy.forDownload(mediaFileMetadata);
+            if (httpCachePolicy.checkNotModified(validators, request, response)) {
+                return;
+            }
+
+            try (FileChannel fc = fileService.getFileChannel(mediaFileId)) {
+                if (fc == null) throw new FileNotFoundException(mediaFileId);
+                responseMFileWriter.writeForDownload(mediaFileMetadata, fc,
+                        fileService.getLocalFile(mediaFileId).orElse(null), validators, request, response);
             }
         } catch (IOException ioe) {
             throw new FileStoreServiceException("Failed to download file", mediaFileMapper.metadataToDto(mediaFileMetadata));
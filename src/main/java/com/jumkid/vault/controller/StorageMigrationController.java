@@ -0,0 +1,41 @@
+package com.jumkid.vault.controller;
+
+import com.jumkid.vault.controller.dto.StorageMigration;
+import com.jumkid.vault.enums.StorageMode;
+import com.jumkid.vault.service.migration.StorageMover;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+@Slf4j
+@RestController
+@RequestMapping("/storage/migration")
+public class StorageMigrationController {
+
+    private final StorageMover storageMover;
+
+    @Autowired
+    public StorageMigrationController(StorageMover storageMover) {
+        this.storageMover = storageMover;
+    }
+
+    @GetMapping
+    @ResponseStatus(HttpStatus.OK)
+    @PreAuthorize("hasAuthority('ADMIN_ROLE')")
+    public StorageMigration getStatus() { return storageMover.getStatus(); }
+
+    @PostMapping
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    @PreAuthorize("hasAuthority('ADMIN_ROLE')")
+    public StorageMigration start(@RequestParam String target) {
+        return storageMover.start(StorageMode.valueOf(target.toUpperCase()));
+    }
+
+    @DeleteMapping
+    @ResponseStatus(HttpStatus.OK)
+    @PreAuthorize("hasAuthority('ADMIN_ROLE')")
+    public StorageMigration stop() { return storageMover.stop(); }
+
+}
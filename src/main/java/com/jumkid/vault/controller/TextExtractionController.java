@@ -0,0 +1,38 @@
+package com.jumkid.vault.controller;
+
+import com.jumkid.vault.controller.dto.TextExtraction;
+import com.jumkid.vault.service.extract.ExtractionQueue;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+@Slf4j
+@RestController
+@RequestMapping("/extraction")
+public class TextExtractionController {
+
+    private final ExtractionQueue extractionQueue;
+
+    @Autowired
+    public TextExtractionController(ExtractionQueue extractionQueue) {
+        this.extractionQueue = extractionQueue;
+    }
+
+    @GetMapping
+    @ResponseStatus(HttpStatus.OK)
+    @PreAuthorize("hasAuthority('ADMIN_ROLE')")
+    public TextExtraction getStatus() { return extractionQueue.getStatus(); }
+
+    @PostMapping
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    @PreAuthorize("hasAuthority('ADMIN_ROLE')")
+    public TextExtraction start() { return extractionQueue.start(); }
+
+    @DeleteMapping
+    @ResponseStatus(HttpStatus.OK)
+    @PreAuthorize("hasAuthority('ADMIN_ROLE')")
+    public TextExtraction stop() { return extractionQueue.stop(); }
+
+}
@@ -5,12 +5,18 @@ import com.jumkid.vault.enums.ThumbnailNamespace;
 import com.jumkid.vault.exception.FileNotAvailableException;
 import com.jumkid.vault.exception.FileNotFoundException;
 import com.jumkid.vault.exception.FileStoreServiceException;
+import com.jumkid.vault.model.MediaFileMetadata;
+import com.jumkid.vault.repository.mapped.MappedFilePool;
+import com.jumkid.vault.repository.thumbnail.ThumbnailJobJournal;
 import com.jumkid.vault.service.MediaFileService;
+import com.jumkid.vault.util.HttpCachePolicy;
 import com.jumkid.vault.util.ResponseMediaFileWriter;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
+import java.nio.channels.FileChannel;
 import java.util.Optional;
 
 @Slf4j
@@ -21,25 +27,50 @@ public class ThumbnailAPIHelper {
 
     private final ResponseMediaFileWriter responseMFileWriter;
 
-    public ThumbnailAPIHelper(MediaFileService fileService, ResponseMediaFileWriter responseMFileWriter) {
+    private final HttpCachePolicy httpCachePolicy;
+
+    private final ThumbnailJobJournal thumbnailJobJournal;
+
+    public ThumbnailAPIHelper(MediaFileService fileService, ResponseMediaFileWriter responseMFileWriter,
+                              HttpCachePolicy httpCachePolicy, ThumbnailJobJournal thumbnailJobJournal) {
         this.fileService = fileService;
         this.responseMFileWriter = responseMFileWriter;
+        this.httpCachePolicy = httpCachePolicy;
+        this.thumbnailJobJournal = thumbnailJobJournal;
     }
 
-    public void response(String mediaFileId, ThumbnailNamespace thumbnailNamespace, HttpServletResponse response)
+    public void response(String mediaFileId, ThumbnailNamespace thumbnailNamespace,
+                         HttpServletRequest request, HttpServletResponse response)
             throws FileNotAvailableException, FileNotFoundException, FileStoreServiceException {
+        // the metadata is loaded already by the access check of this request
+        MediaFileMetadata metadata = fileService.getMediaFileMetadata(mediaFileId);
+        if (!Boolean.TRUE.equals(metadata.getActivated())) throw new FileNotAvailableException();
+
+        HttpCachePolicy.Validators validators = thumbnailJobJournal.isPending(mediaFileId) ?
+                httpCachePolicy.forPlaceholder() :
+                httpCachePolicy.forThumbnail(metadata, thumbnailNamespace.value());
+        if (httpCachePolicy.checkNotModified(validators, request, response)) return;
+
+        MediaFile thumbnailFile = MediaFile.builder()
+                .uuid(mediaFileId)
+                .mimeType("image/png")
+                .build();
+        Optional<MappedFilePool.Lease> mapped = fileService.getMappedThumbnail(mediaFileId, thumbnailNamespace);
+        if (mapped.isPresent()) {
+            try (MappedFilePool.Lease lease = mapped.get()) {
+                responseMFileWriter.write(thumbnailFile, lease.buffer(), response);
+            }
+            return;
+        }
+
         Optional<byte[]> optional = fileService.getThumbnail(mediaFileId, thumbnailNamespace);
         if (optional.isPresent()) {
-            MediaFile mediaFile = MediaFile.builder()
-                    .uuid(mediaFileId)
-                    .mimeType("image/png")
-                    .build();
-            responseMFileWriter.write(mediaFile, optional.get(), response);
+            responseMFileWriter.write(thumbnailFile, optional.get(), response);
         } else {
             MediaFile mediaFile = fileService.getMediaFile(mediaFileId);
-            optional = fileService.getFileSource(mediaFileId);
-            if (optional.isPresent()) {
-                responseMFileWriter.write(mediaFile, optional.get(), response);
+            FileChannel fc = fileService.getFileChannel(mediaFileId);
+            if (fc != null) {
+                responseMFileWriter.write(mediaFile, fc, response);
             } else if (mediaFile != null) {
                 responseMFileWriter.write(mediaFile, response);
             } else {
@@ -12,6 +12,7 @@ import lombok.NoArgsConstructor;
 
 import jakarta.validation.constraints.NotBlank;
 import lombok.experimental.SuperBuilder;
+import org.springframework.core.io.InputStreamSource;
 
 import java.util.List;
 
@@ -36,6 +37,8 @@ public class MediaFile extends GenericDTO {
 
     private Boolean activated;
 
+    private Boolean enriched;
+
     private MediaFileModule module;
 
     private AccessScope accessScope;
@@ -43,9 +46,15 @@ public class MediaFile extends GenericDTO {
     @JsonIgnore
     private byte[] file;
 
+    @JsonIgnore
+    private InputStreamSource fileSource;
+
     private List<String> tags;
 
     private List<MediaFile> children;
 
     private List<MediaFileProp> props;
+
+    // reason of failure when the file could not be stored in a batch upload
+    private String error;
 }
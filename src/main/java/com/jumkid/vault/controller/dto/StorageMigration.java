@@ -0,0 +1,26 @@
+package com.jumkid.vault.controller.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Builder @Data @NoArgsConstructor @AllArgsConstructor
+public class StorageMigration implements Serializable {
+
+    private String target;
+
+    private boolean running;
+
+    private long moved;
+    private long failed;
+
+    private LocalDateTime startedOn;
+    private LocalDateTime finishedOn;
+
+}
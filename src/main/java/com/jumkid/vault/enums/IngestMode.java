@@ -0,0 +1,13 @@
+package com.jumkid.vault.enums;
+
+public enum IngestMode {
+
+    INDEX_THEN_UPDATE("index_then_update"), SINGLE_WRITE("single_write");
+
+    private String value;
+
+    private IngestMode(String value) { this.value = value; }
+
+    public String value() { return this.value; }
+
+}
@@ -12,10 +12,15 @@ public enum MediaFileField {
     MODIFIED_ON("modifiedOn"),
     MODIFIED_BY("modifiedBy"),
     CONTENT("content"),
+    TEXT("text"),
+    EXTRACTED("extracted"),
     ACCESS_SCOPE("accessScope"),
     ACTIVATED("activated"),
+    ENRICHED("enriched"),
     BLOB("blob"),
+    BLOB_ID("blobId"),
     LOGICAL_PATH("logicalPath"),
+    STORAGE("storage"),
     PROPS("props"),
     TAGS("tags"),
     CHILDREN("children");
@@ -0,0 +1,31 @@
+package com.jumkid.vault.enums;
+
+import co.elastic.clients.elasticsearch._types.Refresh;
+
+/**
+ * When the changes of a metadata write become visible to search
+ */
+public enum RefreshPolicy {
+
+    NONE("none"), WAIT_FOR("wait_for"), TRUE("true");
+
+    private final String value;
+
+    RefreshPolicy(String value) { this.value = value; }
+
+    public String value() { return this.value; }
+
+    public Refresh toRefresh() {
+        return switch (this) {
+            case TRUE -> Refresh.True;
+            case WAIT_FOR -> Refresh.WaitFor;
+            default -> Refresh.False;
+        };
+    }
+
+    /**
+     * Delete by query only accepts a boolean refresh, so wait_for is handled as no refresh
+     */
+    public boolean isForced() { return this == TRUE; }
+
+}
@@ -1,9 +1,12 @@
 package com.jumkid.vault.enums;
 
+import com.fasterxml.jackson.annotation.JsonValue;
+
 public enum StorageMode {
 
-    LOCAL("local"), HADOOP("hadoop");
+    LOCAL("local"), HADOOP("hadoop"), OBJECT_STORE("object_store"), TIERED("tiered");
 
+    @JsonValue
     private String value;
 
     private StorageMode(String value) { this.value = value; }
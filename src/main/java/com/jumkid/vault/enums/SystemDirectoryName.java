@@ -3,7 +3,10 @@ package com.jumkid.vault.enums;
 public enum SystemDirectoryName {
     PUBLIC("public"),
     PRIVATE("private"),
-    TRASH("trash");
+    TRASH("trash"),
+    TEMP("tmp"),
+    THUMBNAIL_JOB("thumbnail-job"),
+    BLOB("blob");
 
     private String value;
 
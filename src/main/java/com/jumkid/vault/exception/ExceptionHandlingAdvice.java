@@ -2,6 +2,7 @@ package com.jumkid.vault.exception;
 
 import com.jumkid.share.controller.response.CustomErrorResponse;
 import com.jumkid.share.security.exception.UserProfileNotFoundException;
+import jakarta.validation.ConstraintViolationException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.core.convert.ConversionFailedException;
 import org.springframework.security.access.AccessDeniedException;
@@ -44,7 +45,8 @@ public class ExceptionHandlingAdvice {
         return new CustomErrorResponse(Calendar.getInstance().getTime(), ex.getMessage());
     }
 
-    @ExceptionHandler({InvalidFieldException.class, HttpRequestMethodNotSupportedException.class})
+    @ExceptionHandler({InvalidFieldException.class, InvalidCursorException.class,
+            HttpRequestMethodNotSupportedException.class, ConstraintViolationException.class})
     @ResponseStatus(HttpStatus.BAD_REQUEST)
     public CustomErrorResponse handleBadRequest(RuntimeException e) {
         return new CustomErrorResponse(Calendar.getInstance().getTime(), e.getMessage());
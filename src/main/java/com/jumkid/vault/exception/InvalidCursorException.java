@@ -0,0 +1,9 @@
+package com.jumkid.vault.exception;
+
+public class InvalidCursorException extends RuntimeException {
+
+    private static final String ERROR = "Search cursor is invalid or expired, please search again from the first page: ";
+
+    public InvalidCursorException(String value) { super(ERROR + value); }
+
+}
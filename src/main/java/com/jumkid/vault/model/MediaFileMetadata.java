@@ -12,6 +12,7 @@ package com.jumkid.vault.model;
  */
 
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
@@ -19,6 +20,7 @@ import com.fasterxml.jackson.datatype.jsr310.deser.LocalDateTimeDeserializer;
 import com.fasterxml.jackson.datatype.jsr310.ser.LocalDateTimeSerializer;
 import com.jumkid.share.security.AccessScope;
 import com.jumkid.vault.enums.MediaFileModule;
+import com.jumkid.vault.enums.StorageMode;
 import lombok.*;
 
 import java.time.LocalDateTime;
@@ -27,7 +29,7 @@ import java.util.List;
 
 import static com.jumkid.share.util.Constants.YYYYMMDDTHHMMSS3S;
 
-@Builder @Data @NoArgsConstructor @AllArgsConstructor @EqualsAndHashCode(of = {"id"}, callSuper = false)
+@Builder(toBuilder = true) @Data @NoArgsConstructor @AllArgsConstructor @EqualsAndHashCode(of = {"id"}, callSuper = false)
 @JsonInclude(JsonInclude.Include.NON_NULL)
 public class MediaFileMetadata {
 
@@ -45,10 +47,22 @@ public class MediaFileMetadata {
 
 	private String content;
 
+	// text extracted from the binary of documents, in chunks, it is left out of reads
+	private List<String> text;
+
+	private Boolean extracted;
+
 	private Boolean activated = true;
 
+	// false while the props parsed from the binary are pending
+	private Boolean enriched;
+
 	private String logicalPath;
 
+	private String blobId;
+
+	private StorageMode storage;
+
 	private AccessScope accessScope;
 
 	private List<MediaFilePropMetadata> props;
@@ -71,6 +85,13 @@ public class MediaFileMetadata {
 	@JsonDeserialize(using = LocalDateTimeDeserializer.class)
 	private LocalDateTime modifiedOn;
 
+	// version of the document when it was read by id, not part of the document
+	@JsonIgnore
+	private Long seqNo;
+
+	@JsonIgnore
+	private Long primaryTerm;
+
 	public void addProp(String name, String value) {
 		if (isPropNotExist(name)) {
 			props.add(MediaFilePropMetadata.builder()
@@ -0,0 +1,24 @@
+package com.jumkid.vault.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * One page of search results with the opaque cursor of the next page, the cursor is null on the last page
+ */
+@Getter
+@AllArgsConstructor
+public class SearchPage<T> {
+
+    private final List<T> items;
+
+    private final String cursor;
+
+    public <R> SearchPage<R> map(Function<List<T>, List<R>> mapper) {
+        return new SearchPage<>(mapper.apply(items), cursor);
+    }
+
+}
@@ -0,0 +1,296 @@
+package com.jumkid.vault.repository;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.jumkid.vault.enums.StorageMode;
+import com.jumkid.vault.exception.FileNotFoundException;
+import com.jumkid.vault.exception.FileStoreServiceException;
+import com.jumkid.vault.model.MediaFileMetadata;
+import com.jumkid.vault.model.SearchPage;
+import com.jumkid.vault.service.mapper.MediaFileMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Repository;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Read-through cache in front of the metadata storage. Metadata fetched by id is memorized for the current
+ * http request, so security checks and service calls of the same request share one Elasticsearch GET, and
+ * is kept in a shared cache bounded by size and time to live. Every write through this storage invalidates
+ * the written ids, while writes from other instances are only picked up once the shared entry expires.
+ * Cached metadata is mutable, so callers always get their own copy.
+ */
+@Slf4j
+@Primary
+@Repository("cachedMetadataStorage")
+public class CachedMetadataStorage implements FileMetadata<MediaFileMetadata> {
+
+    private static final String CACHE_NAME = "metadata";
+    private static final String REQUEST_ATTRIBUTE = CachedMetadataStorage.class.getName() + ".METADATA";
+
+    private final MetadataStorage metadataStorage;
+
+    private final MediaFileMapper mediaFileMapper;
+
+    private final boolean sharedCacheEnabled;
+
+    private final Cache<String, MediaFileMetadata> sharedCache;
+
+    @Autowired
+    public CachedMetadataStorage(MetadataStorage metadataStorage, MediaFileMapper mediaFileMapper,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${vault.metadata.cache.enabled}") boolean sharedCacheEnabled,
+                                 @Value("${vault.metadata.cache.ttl}") Duration ttl,
+                                 @Value("${vault.metadata.cache.max-size}") long maxSize) {
+        this.metadataStorage = metadataStorage;
+        this.mediaFileMapper = mediaFileMapper;
+        this.sharedCacheEnabled = sharedCacheEnabled;
+        this.sharedCache = Caffeine.newBuilder()
+                .expireAfterWrite(ttl)
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, sharedCache, CACHE_NAME);
+    }
+
+    @Override
+    public Optional<MediaFileMetadata> getMetadata(String mediaFileId) throws FileStoreServiceException {
+        Map<String, MediaFileMetadata> requestCache = getRequestCache();
+        MediaFileMetadata metadata = requestCache != null ? requestCache.get(mediaFileId) : null;
+
+        if (metadata == null) {
+            metadata = sharedCacheEnabled ? loadShared(mediaFileId)
+                    : metadataStorage.getMetadata(mediaFileId).orElse(null);
+            if (metadata == null) return Optional.empty();
+        }
+
+        if (requestCache != null) requestCache.put(mediaFileId, metadata);
+
+        return Optional.of(mediaFileMapper.copyMetadata(metadata));
+    }
+
+    @Override
+    public MediaFileMetadata saveMetadata(MediaFileMetadata mediaFileMetadata) throws FileStoreServiceException {
+        MediaFileMetadata saved = metadataStorage.saveMetadata(mediaFileMetadata);
+        invalidate(saved.getId());
+        return saved;
+    }
+
+    @Override
+    public Optional<MediaFileMetadata> createMetadata(MediaFileMetadata mediaFileMetadata) throws FileStoreServiceException {
+        try {
+            return metadataStorage.createMetadata(mediaFileMetadata);
+        } finally {
+            // a taken identity means the cached absence of it is stale as well
+            invalidate(mediaFileMetadata.getId());
+        }
+    }
+
+    @Override
+    public List<MediaFileMetadata> saveAll(List<MediaFileMetadata> metadataList) throws FileStoreServiceException {
+        List<MediaFileMetadata> savedList = metadataStorage.saveAll(metadataList);
+        if (savedList != null) savedList.forEach(metadata -> invalidate(metadata.getId()));
+        return savedList;
+    }
+
+    @Override
+    public void updateAll(Map<String, MediaFileMetadata> partialMetadataMap) throws FileStoreServiceException {
+        try {
+            metadataStorage.updateAll(partialMetadataMap);
+        } finally {
+            partialMetadataMap.keySet().forEach(this::invalidate);
+        }
+    }
+
+    @Override
+    public List<String> updateAllIfUnchanged(Map<String, MediaFileMetadata> partialMetadataMap)
+            throws FileStoreServiceException {
+        try {
+            return metadataStorage.updateAllIfUnchanged(partialMetadataMap);
+        } finally {
+            // the changed ones are read again from the repository
+            partialMetadataMap.keySet().forEach(this::invalidate);
+        }
+    }
+
+    @Override
+    public void updateStatusAll(List<String> mediaFileIds, boolean active) throws FileStoreServiceException {
+        try {
+            metadataStorage.updateStatusAll(mediaFileIds, active);
+        } finally {
+            mediaFileIds.forEach(this::invalidate);
+        }
+    }
+
+    @Override
+    public MediaFileMetadata updateMetadata(String mediaFileId, MediaFileMetadata partialMetadata) throws IOException {
+        try {
+            return metadataStorage.updateMetadata(mediaFileId, partialMetadata);
+        } finally {
+            invalidate(mediaFileId);
+        }
+    }
+
+    @Override
+    public void updateMetadataStatus(String mediaFileId, boolean active) {
+        metadataStorage.updateMetadataStatus(mediaFileId, active);
+        invalidate(mediaFileId);
+    }
+
+    @Override
+    public void updateLogicalPath(String mediaFileId, String logicalPath) {
+        metadataStorage.updateLogicalPath(mediaFileId, logicalPath);
+        invalidate(mediaFileId);
+    }
+
+    @Override
+    public boolean updateStorage(String mediaFileId, StorageMode storage, String logicalPath, String blobId,
+                                 Long ifSeqNo, Long ifPrimaryTerm) throws FileStoreServiceException {
+        try {
+            return metadataStorage.updateStorage(mediaFileId, storage, logicalPath, blobId, ifSeqNo, ifPrimaryTerm);
+        } finally {
+            invalidate(mediaFileId);
+        }
+    }
+
+    @Override
+    public List<MediaFileMetadata> findStoredElsewhere(StorageMode storage, boolean unrecordedIncluded,
+                                                       Collection<String> excludedIds, int size)
+            throws FileStoreServiceException {
+        return metadataStorage.findStoredElsewhere(storage, unrecordedIncluded, excludedIds, size);
+    }
+
+    @Override
+    public SearchPage<MediaFileMetadata> findNotEnriched(Integer size, String cursor) throws FileStoreServiceException {
+        return metadataStorage.findNotEnriched(size, cursor);
+    }
+
+    @Override
+    public List<MediaFileMetadata> findNotExtracted(Collection<String> mimeTypePrefixes, Collection<String> excludedIds,
+                                                    int size) throws FileStoreServiceException {
+        return metadataStorage.findNotExtracted(mimeTypePrefixes, excludedIds, size);
+    }
+
+    @Override
+    public boolean deleteMetadata(String mediaFileId) throws FileStoreServiceException {
+        try {
+            return metadataStorage.deleteMetadata(mediaFileId);
+        } finally {
+            invalidate(mediaFileId);
+        }
+    }
+
+    @Override
+    public Long deleteInactiveMetadata() throws FileStoreServiceException {
+        try {
+            return metadataStorage.deleteInactiveMetadata();
+        } finally {
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public void refreshMetadata() throws FileStoreServiceException {
+        metadataStorage.refreshMetadata();
+    }
+
+    @Override
+    public List<MediaFileMetadata> deleteChildrenByChildId(String mediaFileId, List<String> childIdList)
+            throws FileNotFoundException, FileStoreServiceException {
+        try {
+            return metadataStorage.deleteChildrenByChildId(mediaFileId, childIdList);
+        } finally {
+            invalidate(mediaFileId);
+        }
+    }
+
+    @Override
+    public Optional<byte[]> getBinary(String mediaFileId) throws FileStoreServiceException {
+        return metadataStorage.getBinary(mediaFileId);
+    }
+
+    @Override
+    public SearchPage<MediaFileMetadata> searchMetadata(String query, Integer size, String cursor, List<String> includes,
+                                                        List<String> currentUserRole, String currentUserId)
+            throws FileStoreServiceException {
+        return metadataStorage.searchMetadata(query, size, cursor, includes, currentUserRole, currentUserId);
+    }
+
+    @Override
+    public SearchPage<MediaFileMetadata> getInactiveMetadata(Integer size, String cursor, List<String> includes)
+            throws FileStoreServiceException {
+        return metadataStorage.getInactiveMetadata(size, cursor, includes);
+    }
+
+    @Override
+    public List<MediaFileMetadata> findChildrenInOtherGallery(String parentId, String childId, Integer size) {
+        return metadataStorage.findChildrenInOtherGallery(parentId, childId, size);
+    }
+
+    /**
+     * Load metadata through the shared cache. Invalidating an id waits for its ongoing load and drops the result,
+     * so metadata read before a concurrent write is not cached after the write invalidated it.
+     */
+    private MediaFileMetadata loadShared(String mediaFileId) throws FileStoreServiceException {
+        try {
+            return sharedCache.get(mediaFileId, id -> {
+                try {
+                    return metadataStorage.getMetadata(id).orElse(null);
+                } catch (FileStoreServiceException e) {
+                    throw new CompletionException(e);
+                }
+            });
+        } catch (CompletionException e) {
+            throw (FileStoreServiceException) e.getCause();
+        }
+    }
+
+    private void invalidate(String mediaFileId) {
+        if (mediaFileId == null) return;
+
+        sharedCache.invalidate(mediaFileId);
+        Map<String, MediaFileMetadata> requestCache = getRequestCache();
+        if (requestCache != null) requestCache.remove(mediaFileId);
+    }
+
+    private void invalidateAll() {
+        sharedCache.invalidateAll();
+        Map<String, MediaFileMetadata> requestCache = getRequestCache();
+        if (requestCache != null) requestCache.clear();
+    }
+
+    /**
+     * Get the metadata memorized for the current http request
+     *
+     * @return map of metadata by id, or null when not called within a request
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, MediaFileMetadata> getRequestCache() {
+        RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        if (requestAttributes == null) return null;
+
+        Map<String, MediaFileMetadata> requestCache = (Map<String, MediaFileMetadata>)
+                requestAttributes.getAttribute(REQUEST_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (requestCache == null) {
+            requestCache = new HashMap<>();
+            requestAttributes.setAttribute(REQUEST_ATTRIBUTE, requestCache, RequestAttributes.SCOPE_REQUEST);
+        }
+        return requestCache;
+    }
+
+}
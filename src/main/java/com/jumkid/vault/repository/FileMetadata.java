@@ -10,13 +10,17 @@ package com.jumkid.vault.repository;
  * (c)2019 Jumkid Innovation All rights reserved.
  */
 
+import com.jumkid.vault.enums.StorageMode;
 import com.jumkid.vault.exception.FileNotFoundException;
 import com.jumkid.vault.exception.FileStoreServiceException;
 import com.jumkid.vault.model.MediaFileMetadata;
+import com.jumkid.vault.model.SearchPage;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -33,6 +37,22 @@ public interface FileMetadata<T> {
      */
     T saveMetadata(T t) throws FileStoreServiceException;
 
+    /**
+     * Persist file metadata with its own identity
+     *
+     * @param t generic type of file with identity
+     * @return the persisted metadata, empty if the identity is already taken
+     */
+    Optional<T> createMetadata(T t) throws FileStoreServiceException;
+
+    /**
+     * Persist a list of file metadata with one bulk request
+     *
+     * @param list list of generic type of file
+     * @return the given list with indexed identities, the ones failed to be indexed are left without identity
+     */
+    List<T> saveAll(List<T> list) throws FileStoreServiceException;
+
     /**
      * Get type from repository by given identifier
      *
@@ -62,6 +82,29 @@ public interface FileMetadata<T> {
      */
     T updateMetadata(String id, T t) throws IOException;
 
+    /**
+     * update a batch of metadata with one bulk request
+     *
+     * @param partialMetadataMap partial metadata by identity
+     */
+    void updateAll(Map<String, T> partialMetadataMap) throws FileStoreServiceException;
+
+    /**
+     * update a batch of metadata with one bulk request, each one only if it is still the version it was read at
+     *
+     * @param partialMetadataMap partial metadata by identity, carrying the seqNo and primaryTerm of the version read
+     * @return identities of the metadata changed since they were read, they are not updated
+     */
+    List<String> updateAllIfUnchanged(Map<String, T> partialMetadataMap) throws FileStoreServiceException;
+
+    /**
+     * update active status of a batch of metadata with one bulk request
+     *
+     * @param mediaFileIds list of media file identities
+     * @param active active status
+     */
+    void updateStatusAll(List<String> mediaFileIds, boolean active) throws FileStoreServiceException;
+
     /**
      * update metadata active status
      *
@@ -77,29 +120,86 @@ public interface FileMetadata<T> {
      */
     void updateLogicalPath(String mediaFileId, String logicalPath);
 
+    /**
+     * Point metadata to the copy of its file on another storage, fields given as null are cleared
+     *
+     * @param mediaFileId identity of media file
+     * @param storage storage holding the file
+     * @param logicalPath file path on the storage
+     * @param blobId identity of the shared blob on the storage, if any
+     * @param ifSeqNo sequence number of the metadata when read, null to update whatever its version
+     * @param ifPrimaryTerm primary term of the metadata when read, null to update whatever its version
+     * @return false if the metadata changed since it was read, it is not updated then
+     */
+    boolean updateStorage(String mediaFileId, StorageMode storage, String logicalPath, String blobId,
+                          Long ifSeqNo, Long ifPrimaryTerm) throws FileStoreServiceException;
+
+    /**
+     * Find active media files with a binary stored anywhere else than on the given storage
+     *
+     * @param storage storage to exclude
+     * @param unrecordedIncluded include media files without a recorded storage
+     * @param excludedIds media files to skip
+     * @param size size of result set
+     * @return List of type
+     */
+    List<T> findStoredElsewhere(StorageMode storage, boolean unrecordedIncluded, Collection<String> excludedIds,
+                                int size) throws FileStoreServiceException;
+
+    /**
+     * Find media files waiting for the props parsed from their binary page by page
+     *
+     * @param size size of page
+     * @param cursor opaque cursor of page returned with the previous page, null for the first page
+     * @return page of type with the cursor of next page
+     */
+    SearchPage<T> findNotEnriched(Integer size, String cursor) throws FileStoreServiceException;
+
+    /**
+     * Find active media files of the given mime types without extracted text
+     *
+     * @param mimeTypePrefixes prefixes of mime types to include
+     * @param excludedIds media files to skip
+     * @param size size of result set
+     * @return List of type
+     */
+    List<T> findNotExtracted(Collection<String> mimeTypePrefixes, Collection<String> excludedIds, int size)
+            throws FileStoreServiceException;
+
     /**
      * Search media files with given query string
      *
      * @param query query keyword
-     * @param size size of result set
+     * @param size size of page
+     * @param cursor opaque cursor of page returned with the previous page, null for the first page
+     * @param includes fields to read from the repository, all of them when empty
      * @param currentUserRole current user roles
      * @param currentUserId current user id
-     * @return List of type
+     * @return page of type with the cursor of next page
      */
-    List<T> searchMetadata(String query, Integer size, List<String> currentUserRole, String currentUserId) throws FileStoreServiceException;
+    SearchPage<T> searchMetadata(String query, Integer size, String cursor, List<String> includes,
+                                 List<String> currentUserRole, String currentUserId) throws FileStoreServiceException;
 
     /**
-     * Get all trashed metadata from repository
+     * Get trashed metadata from repository page by page
      *
-     * @return List of type
+     * @param size size of page
+     * @param cursor opaque cursor of page returned with the previous page, null for the first page
+     * @param includes fields to read from the repository, all of them when empty
+     * @return page of type with the cursor of next page
      */
-    List<T> getInactiveMetadata() throws FileStoreServiceException;
+    SearchPage<T> getInactiveMetadata(Integer size, String cursor, List<String> includes) throws FileStoreServiceException;
 
     /**
      * Remove all inactive metadata
      */
     Long deleteInactiveMetadata() throws FileStoreServiceException;
 
+    /**
+     * Make all metadata written so far visible to search, whatever the refresh policy of the writes
+     */
+    void refreshMetadata() throws FileStoreServiceException;
+
 
     /**
      * Remove objects in children array by give a list of child id
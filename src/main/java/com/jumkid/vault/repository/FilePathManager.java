@@ -35,6 +35,18 @@ public class FilePathManager {
 		return DELIMITER + SystemDirectoryName.TRASH.value();
 	}
 
+	public String getTempPath() {
+		return DELIMITER + SystemDirectoryName.TEMP.value();
+	}
+
+	public String getThumbnailJobPath() {
+		return DELIMITER + SystemDirectoryName.THUMBNAIL_JOB.value();
+	}
+
+	public String getBlobPath() {
+		return DELIMITER + SystemDirectoryName.BLOB.value();
+	}
+
 	/**
 	 * Use media file metadata to generate full storage path
 	 *
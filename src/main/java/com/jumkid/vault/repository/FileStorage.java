@@ -10,12 +10,14 @@ package com.jumkid.vault.repository;
  * (c)2019 Jumkid Innovation All rights reserved.
  */
 import java.nio.channels.FileChannel;
+import java.nio.file.Path;
 import java.util.Optional;
 
 import com.jumkid.vault.enums.ThumbnailNamespace;
 import com.jumkid.vault.exception.FileNotFoundException;
 import com.jumkid.vault.exception.FileStoreServiceException;
 import com.jumkid.vault.model.MediaFileMetadata;
+import com.jumkid.vault.repository.mapped.MappedFilePool;
 
 
 public interface FileStorage<T> {
@@ -28,6 +30,15 @@ public interface FileStorage<T> {
 	 */
 	Optional<T> saveFile(byte[] bytes, T t) throws FileStoreServiceException;
 
+	/**
+	 * Persist file in repository from a spooled local file, without loading its content in memory
+	 *
+	 * @param source path of spooled file, it may be moved into the repository
+	 * @param t metadata
+	 * @throws FileStoreServiceException exception of media storage service
+	 */
+	Optional<T> saveFile(Path source, T t) throws FileStoreServiceException;
+
 	/**
 	 * Get file from repository
 	 *
@@ -62,6 +73,37 @@ public interface FileStorage<T> {
 	 */
 	Optional<byte[]> getThumbnail(T t, ThumbnailNamespace thumbnailNamespace) throws FileStoreServiceException;
 
+	/**
+	 * Get small file from the pool of memory mapped files, storages without one return empty
+	 *
+	 * @param t metadata
+	 * @throws FileStoreServiceException exception of media storage service
+	 */
+	default Optional<MappedFilePool.Lease> getMappedFile(T t) throws FileStoreServiceException {
+		return Optional.empty();
+	}
+
+	/**
+	 * Get the path of the file binary on the local file system, storages without one return empty
+	 *
+	 * @param t metadata
+	 */
+	default Optional<Path> getLocalFile(T t) {
+		return Optional.empty();
+	}
+
+	/**
+	 * Get file thumbnail from the pool of memory mapped files, storages without one return empty
+	 *
+	 * @param t metadata
+	 * @param thumbnailNamespace thumbnail size option
+	 * @throws FileStoreServiceException exception of media storage service
+	 */
+	default Optional<MappedFilePool.Lease> getMappedThumbnail(T t, ThumbnailNamespace thumbnailNamespace)
+			throws FileStoreServiceException {
+		return Optional.empty();
+	}
+
 	/**
 	 * Clean up file stored in trash
 	 */
@@ -0,0 +1,88 @@
+package com.jumkid.vault.repository;
+
+import com.jumkid.vault.enums.StorageMode;
+import com.jumkid.vault.model.MediaFileMetadata;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Route each media file to the storage holding its binary. The storage is recorded in the metadata of every
+ * media file, so files of different storages are served side by side while they are moved between storages.
+ * New files go to the default storage, and files stored before the storage was recorded are on the legacy
+ * one. Both are resolved once on start, routing is a lookup in an enum map.
+ */
+@Slf4j
+@Component
+public class FileStorageRouter {
+
+    private final EnumMap<StorageMode, FileStorage<MediaFileMetadata>> storageRegistry = new EnumMap<>(StorageMode.class);
+
+    @Getter
+    private final StorageMode defaultMode;
+
+    @Getter
+    private final StorageMode legacyMode;
+
+    private final FileStorage<MediaFileMetadata> defaultStorage;
+
+    private final FileStorage<MediaFileMetadata> legacyStorage;
+
+    @Autowired
+    public FileStorageRouter(FileStorage<MediaFileMetadata> hadoopFileStorage,
+                             FileStorage<MediaFileMetadata> localFileStorage,
+                             FileStorage<MediaFileMetadata> objectStoreFileStorage,
+                             FileStorage<MediaFileMetadata> tieredFileStorage,
+                             @Value("${vault.storage.mode}") String storageMode,
+                             @Value("${vault.storage.legacy-mode}") String legacyMode) {
+        storageRegistry.put(StorageMode.LOCAL, localFileStorage);
+        storageRegistry.put(StorageMode.HADOOP, hadoopFileStorage);
+        storageRegistry.put(StorageMode.OBJECT_STORE, objectStoreFileStorage);
+        storageRegistry.put(StorageMode.TIERED, tieredFileStorage);
+
+        this.defaultMode = StorageMode.valueOf(storageMode.toUpperCase());
+        this.legacyMode = StorageMode.valueOf(legacyMode.toUpperCase());
+        this.defaultStorage = storageRegistry.get(this.defaultMode);
+        this.legacyStorage = storageRegistry.get(this.legacyMode);
+        log.info("new media files are stored on {}, media files without recorded storage are on {}",
+                this.defaultMode.value(), this.legacyMode.value());
+    }
+
+    /**
+     * @return storage of new media files
+     */
+    public FileStorage<MediaFileMetadata> getDefaultStorage() {
+        return defaultStorage;
+    }
+
+    /**
+     * @param mediaFileMetadata metadata of media file
+     * @return storage holding the binary of the media file
+     */
+    public FileStorage<MediaFileMetadata> route(MediaFileMetadata mediaFileMetadata) {
+        StorageMode storage = mediaFileMetadata.getStorage();
+        return storage == null ? legacyStorage : storageRegistry.get(storage);
+    }
+
+    /**
+     * @param storageMode storage mode
+     * @return storage of the mode
+     */
+    public FileStorage<MediaFileMetadata> get(StorageMode storageMode) {
+        return storageRegistry.get(storageMode);
+    }
+
+    /**
+     * @return the storages media files may be on without any migration in progress
+     */
+    public Set<StorageMode> getActiveModes() {
+        return EnumSet.of(defaultMode, legacyMode);
+    }
+
+}
@@ -9,124 +9,338 @@ package com.jumkid.vault.repository;
  *
  * (c)2019 Jumkid Innovation All rights reserved.
  */
+import com.jumkid.vault.enums.MediaFileModule;
 import com.jumkid.vault.enums.ThumbnailNamespace;
+import com.jumkid.vault.exception.FileStoreServiceException;
 import com.jumkid.vault.model.MediaFileMetadata;
+import com.jumkid.vault.repository.hadoop.HadoopFileChannel;
+import com.jumkid.vault.repository.thumbnail.IconResolver;
+import com.jumkid.vault.repository.thumbnail.ThumbnailCache;
+import com.jumkid.vault.repository.thumbnail.ThumbnailFileManager;
+import com.jumkid.vault.repository.thumbnail.ThumbnailRenderer;
+import jakarta.annotation.PreDestroy;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
 import java.util.Optional;
 
+import static com.jumkid.vault.repository.thumbnail.ThumbnailFileManager.THUMBNAIL_FILE_EXTEND;
+
+/**
+ * File storage on HDFS with the layout of the local storage under the store path: the media file and its
+ * thumbnails live in the folder of its logical path. One file system client is kept for the life of the
+ * application, and reads are served with positional reads through {@link HadoopFileChannel}. Deleted files
+ * are moved to the trash folder of the store until the trash is emptied.
+ */
 @Slf4j
 @Repository
-@org.springframework.context.annotation.Configuration
 public class HadoopFileStorage implements FileStorage<MediaFileMetadata> {
 
     @Value("${vault.data.home}")
+    @Setter
     private String defaultStorePath;
 
     private final Configuration conf;
 
     private final FilePathManager filePathManager;
 
+    private final ThumbnailRenderer thumbnailRenderer;
+
+    private final ThumbnailFileManager thumbnailFileManager;
+
+    private final ThumbnailCache thumbnailCache;
+
+    private final IconResolver iconResolver;
+
+    private FileSystem fileSystem;
+
     @Autowired
-    public HadoopFileStorage(FilePathManager filePathManager,
+    public HadoopFileStorage(FilePathManager filePathManager, ThumbnailRenderer thumbnailRenderer,
+                             ThumbnailFileManager thumbnailFileManager, ThumbnailCache thumbnailCache,
+                             IconResolver iconResolver,
                              @Value("${hdfs.namenode.host}") String nameNodeHost,
                              @Value("${hdfs.namenode.port}") int nameNodePort) {
-        this.filePathManager = filePathManager;
+        this(hdfsConfiguration(nameNodeHost, nameNodePort), filePathManager, thumbnailRenderer,
+                thumbnailFileManager, thumbnailCache, iconResolver);
+    }
 
-        conf = new Configuration();
-        String hdfsUri = "hdfs://" + nameNodeHost + ":" + nameNodePort;
+    public HadoopFileStorage(Configuration conf, FilePathManager filePathManager, ThumbnailRenderer thumbnailRenderer,
+                             ThumbnailFileManager thumbnailFileManager, ThumbnailCache thumbnailCache,
+                             IconResolver iconResolver) {
+        this.conf = conf;
+        this.filePathManager = filePathManager;
+        this.thumbnailRenderer = thumbnailRenderer;
+        this.thumbnailFileManager = thumbnailFileManager;
+        this.thumbnailCache = thumbnailCache;
+        this.iconResolver = iconResolver;
+    }
 
-        conf.set("fs.defaultFS", hdfsUri);
+    private static Configuration hdfsConfiguration(String nameNodeHost, int nameNodePort) {
+        Configuration conf = new Configuration();
+        conf.set("fs.defaultFS", "hdfs://" + nameNodeHost + ":" + nameNodePort);
         conf.set("fs.hdfs.impl", org.apache.hadoop.hdfs.DistributedFileSystem.class.getName());
         conf.set("fs.file.impl", org.apache.hadoop.fs.LocalFileSystem.class.getName());
+        return conf;
+    }
 
-        //TODO - do a simple HDFS status check
+    /**
+     * The client is created on first use, so the storage bean costs nothing when HDFS is not the storage mode.
+     * It is a private instance rather than the cached one of FileSystem.get, closing it on shutdown does not
+     * close the client of anyone else in the JVM.
+     */
+    private synchronized FileSystem getFileSystem() throws IOException {
+        if (fileSystem == null) {
+            fileSystem = FileSystem.newInstance(conf);
+            log.info("connected to file system {}", fileSystem.getUri());
+        }
+        return fileSystem;
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (fileSystem == null) return;
+        try {
+            fileSystem.close();
+        } catch (IOException ioe) {
+            log.warn("failed to close file system {}", ioe.getMessage());
+        }
+        fileSystem = null;
     }
 
     @Override
-    public Optional<MediaFileMetadata> saveFile(byte[] bytes, MediaFileMetadata mediaFileMetadata) {
-        FSDataOutputStream outputStream = null;
-        try (FileSystem fs = FileSystem.get(conf)) {
-            //get file full path for the media file
-            String filePath = defaultStorePath + filePathManager.getFullPath(mediaFileMetadata);
-            String folderPath = filePath.substring(0, filePath.lastIndexOf(FilePathManager.DELIMITER));
-
-            Path newFolderPath= new Path(folderPath);
-            if(!fs.exists(newFolderPath)) {
-                // Create new Directory
-                fs.mkdirs(newFolderPath);
-                log.info("Path {} created.", folderPath);
+    public Optional<MediaFileMetadata> saveFile(byte[] bytes, MediaFileMetadata mediaFile) throws FileStoreServiceException {
+        if (bytes == null) return Optional.empty();
+
+        String logicalPath = filePathManager.getFullPath(mediaFile);
+        Path filePath = filePath(logicalPath, mediaFile.getId());
+        try (FSDataOutputStream out = getFileSystem().create(filePath, true)) {
+            out.write(bytes);
+        } catch (IOException ioe) {
+            log.error("failed to save media file {} into hdfs: {}", mediaFile.getId(), ioe.getMessage());
+            return Optional.empty();
+        }
+        mediaFile.setLogicalPath(logicalPath);
+
+        if (isImage(mediaFile)) {
+            java.nio.file.Path tmpFile = null;
+            try {
+                tmpFile = Files.createTempFile("vault-thumbnail", null);
+                Files.write(tmpFile, bytes);
+                saveThumbnails(tmpFile, logicalPath, mediaFile.getId());
+            } catch (IOException ioe) {
+                log.info("unable to generate thumbnails for file {} due to {}", mediaFile.getId(), ioe.getMessage());
+            } finally {
+                deleteQuietly(tmpFile);
             }
+        }
+        return Optional.of(mediaFile);
+    }
+
+    @Override
+    public Optional<MediaFileMetadata> saveFile(java.nio.file.Path source, MediaFileMetadata mediaFile) throws FileStoreServiceException {
+        if (source == null) return Optional.empty();
 
-            //---- write file
-            log.info("write file into hdfs start");
-            //Create a path
-            Path writePath = new Path(filePath);
-            //Init output stream
-            outputStream = fs.create(writePath);
-            //Cassical output stream usage
-            outputStream.write(bytes);
-            log.info("write file into hdfs ended");
+        String logicalPath = filePathManager.getFullPath(mediaFile);
+        try {
+            // stream the spooled local file into hdfs, create makes the missing parent folders
+            getFileSystem().copyFromLocalFile(false, true, new Path(source.toUri()),
+                    filePath(logicalPath, mediaFile.getId()));
+        } catch (IOException ioe) {
+            log.error("failed to save media file {} into hdfs: {}", mediaFile.getId(), ioe.getMessage());
+            return Optional.empty();
+        }
+        mediaFile.setLogicalPath(logicalPath);
 
-            mediaFileMetadata.setLogicalPath(folderPath);
+        if (isImage(mediaFile)) saveThumbnails(source, logicalPath, mediaFile.getId());
+        return Optional.of(mediaFile);
+    }
 
-        } catch (Exception e) {
-            log.error("Failed to save media file {}", e.getMessage());
+    /**
+     * Render thumbnails next to the local source and copy them beside the media file, they are rendered in line
+     * since the source is only local until the save returns.
+     */
+    private void saveThumbnails(java.nio.file.Path source, String logicalPath, String mediaFileId) {
+        List<ThumbnailNamespace> suffixes = List.of(ThumbnailNamespace.SMALL_SUFFIX,
+                ThumbnailNamespace.MEDIUM_SUFFIX, ThumbnailNamespace.LARGE_SUFFIX);
+        try {
+            thumbnailRenderer.render(source);
+            for (ThumbnailNamespace suffix : suffixes) {
+                java.nio.file.Path thumbnail = Paths.get(source + suffix.value() + "." + THUMBNAIL_FILE_EXTEND);
+                getFileSystem().copyFromLocalFile(false, true, new Path(thumbnail.toUri()),
+                        thumbnailPath(logicalPath, mediaFileId, suffix));
+            }
+        } catch (IOException ioe) {
+            log.info("unable to generate thumbnails for file {} due to {}", mediaFileId, ioe.getMessage());
         } finally {
-            try {
-                if(outputStream != null) {
-                    outputStream.close();
-                }
-            } catch (IOException ioe) {
-                log.error("Failed to save media file {}", ioe.getMessage());
+            for (ThumbnailNamespace suffix : suffixes) {
+                deleteQuietly(Paths.get(source + suffix.value() + "." + THUMBNAIL_FILE_EXTEND));
             }
         }
+    }
+
+    @Override
+    public Optional<byte[]> getFileBinary(MediaFileMetadata mediaFileMetadata) throws FileStoreServiceException {
+        MediaFileMetadata target = resolveGalleryFeatured(mediaFileMetadata);
+        if (target == null || target.getLogicalPath() == null) return Optional.empty();
 
-        return Optional.of(mediaFileMetadata);
+        return readFile(filePath(target.getLogicalPath(), target.getId()));
     }
 
     @Override
-    public Optional<byte[]> getFileBinary(MediaFileMetadata mediaFileMetadata) {
-        return Optional.empty();
+    public Optional<FileChannel> getFileRandomAccess(MediaFileMetadata mediaFileMetadata) throws FileStoreServiceException {
+        MediaFileMetadata target = resolveGalleryFeatured(mediaFileMetadata);
+        if (target == null || target.getLogicalPath() == null) return Optional.empty();
+
+        Path path = filePath(target.getLogicalPath(), target.getId());
+        try {
+            FileSystem fs = getFileSystem();
+            long size = fs.getFileStatus(path).getLen();
+            return Optional.of(new HadoopFileChannel(fs.open(path), path.toString(), size));
+        } catch (FileNotFoundException fnfe) {
+            log.info("file {} is not found.", path);
+            return Optional.empty();
+        } catch (IOException ioe) {
+            throw new FileStoreServiceException(ioe.getMessage());
+        }
     }
 
     @Override
-    public Optional<FileChannel> getFileRandomAccess(MediaFileMetadata mediaFileMetadata) {
-        return Optional.empty();
+    public void deleteFile(MediaFileMetadata mediaFile) throws FileStoreServiceException {
+        if (mediaFile.getLogicalPath() == null) return;
+        thumbnailCache.invalidate(mediaFile.getId());
+
+        // the media file and its thumbnails share the folder of the logical path
+        Path folder = new Path(defaultStorePath + mediaFile.getLogicalPath());
+        Path trashFolder = new Path(trashPath(), mediaFile.getId());
+        try {
+            FileSystem fs = getFileSystem();
+            if (!fs.exists(folder)) {
+                log.warn("the path {} of media file {} does not exist", folder, mediaFile.getId());
+                return;
+            }
+            fs.mkdirs(trashPath());
+            fs.delete(trashFolder, true);
+            if (!fs.rename(folder, trashFolder)) {
+                throw new IOException("failed to rename " + folder + " to " + trashFolder);
+            }
+        } catch (IOException ioe) {
+            log.error("failed to move media file {} to trash: {}", mediaFile.getId(), ioe.getMessage());
+            throw new FileStoreServiceException("Failed to move file to trash " + folder);
+        }
     }
 
     @Override
-    public void deleteFile(MediaFileMetadata mediaFileMetadata) {
-        try (FileSystem fs = FileSystem.get(conf)) {
+    public Optional<byte[]> getThumbnail(MediaFileMetadata mediaFileMetadata, ThumbnailNamespace thumbnailNamespace)
+            throws FileStoreServiceException {
+        // gallery thumbnails are cached under the featured file, so replacing or trashing it is seen right away
+        MediaFileMetadata target = resolveGalleryFeatured(mediaFileMetadata);
+        if (target == null) {
+            return iconResolver.getIcon(iconResolver.getIconFilePath(MediaFileModule.GALLERY.value()));
+        }
+        Optional<byte[]> cached = thumbnailCache.get(target.getId(), thumbnailNamespace);
+        if (cached.isPresent()) return cached;
+
+        if (!isImage(target) || target.getLogicalPath() == null) {
+            return iconResolver.getIcon(iconResolver.getIconFilePath(target.getMimeType()));
+        }
 
-            Path path = new Path(mediaFileMetadata.getLogicalPath());
-            if(!fs.exists(path)) {
-                log.error("the path of target file to be deleted does not exist");
+        Optional<byte[]> thumbnail = readFile(thumbnailPath(target.getLogicalPath(), target.getId(),
+                thumbnailFileManager.getThumbnailSuffix(thumbnailNamespace)));
+        if (thumbnail.isEmpty()) {
+            // fetch other thumbnail size if the target one does not exist
+            for (ThumbnailNamespace ns : ThumbnailNamespace.getMainSet()) {
+                if (thumbnailNamespace.equals(ns)) continue;
+                thumbnail = readFile(thumbnailPath(target.getLogicalPath(), target.getId(),
+                        thumbnailFileManager.getThumbnailSuffix(ns)));
+                if (thumbnail.isPresent()) break;
             }
+        }
 
-            fs.delete(path, true);
+        if (thumbnail.isPresent()) {
+            thumbnailCache.put(target.getId(), thumbnailNamespace, thumbnail.get());
+            return thumbnail;
+        }
+        return iconResolver.getIcon(iconResolver.getIconFilePath(target.getMimeType()));
+    }
 
+    @Override
+    public void emptyTrash() throws FileStoreServiceException {
+        try {
+            getFileSystem().delete(trashPath(), true);
         } catch (IOException ioe) {
-            log.error("Failed to delete media file {}", ioe.getMessage());
+            log.error("failed to empty the trash: {}", ioe.getMessage());
+            throw new FileStoreServiceException("Failed to empty the trash ");
         }
     }
 
-    @Override
-    public Optional<byte[]> getThumbnail(MediaFileMetadata mediaFileMetadata, ThumbnailNamespace thumbnailNamespace) {
-        return Optional.empty();
+    /**
+     * @return the featured file of a gallery, the file itself otherwise, or null for a gallery without one
+     */
+    private MediaFileMetadata resolveGalleryFeatured(MediaFileMetadata mediaFileMetadata) throws FileStoreServiceException {
+        if (!MediaFileModule.GALLERY.equals(mediaFileMetadata.getModule())) return mediaFileMetadata;
+        if (mediaFileMetadata.getProps() == null) return null;
+
+        return thumbnailFileManager.getThumbnailFileForGallery(mediaFileMetadata).orElse(null);
     }
 
-    @Override
-    public void emptyTrash() {
-        //void
+    private Optional<byte[]> readFile(Path path) throws FileStoreServiceException {
+        try {
+            FileSystem fs = getFileSystem();
+            FileStatus status = fs.getFileStatus(path);
+            if (status.getLen() > Integer.MAX_VALUE - 8) {
+                log.error("file {} of {} bytes is too large to read into memory", path, status.getLen());
+                return Optional.empty();
+            }
+            byte[] bytes = new byte[(int) status.getLen()];
+            try (FSDataInputStream in = fs.open(path)) {
+                in.readFully(0, bytes);
+            }
+            return Optional.of(bytes);
+        } catch (FileNotFoundException fnfe) {
+            return Optional.empty();
+        } catch (IOException ioe) {
+            throw new FileStoreServiceException(ioe.getMessage());
+        }
+    }
+
+    private Path filePath(String logicalPath, String name) {
+        return new Path(defaultStorePath + logicalPath + FilePathManager.DELIMITER + name);
+    }
+
+    private Path thumbnailPath(String logicalPath, String mediaFileId, ThumbnailNamespace suffix) {
+        return filePath(logicalPath, mediaFileId + suffix.value() + "." + THUMBNAIL_FILE_EXTEND);
     }
+
+    private Path trashPath() {
+        return new Path(defaultStorePath + filePathManager.getTrashPath());
+    }
+
+    private boolean isImage(MediaFileMetadata mediaFile) {
+        return mediaFile.getMimeType() != null && mediaFile.getMimeType().startsWith("image");
+    }
+
+    private void deleteQuietly(java.nio.file.Path path) {
+        if (path == null) return;
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ioe) {
+            log.warn("failed to delete temporary file {}: {}", path, ioe.getMessage());
+        }
+    }
+
 }
@@ -14,7 +14,6 @@ package com.jumkid.vault.repository;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
@@ -27,29 +26,47 @@ import com.jumkid.vault.enums.ThumbnailNamespace;
 import com.jumkid.vault.exception.FileNotFoundException;
 import com.jumkid.vault.exception.FileStoreServiceException;
 import com.jumkid.vault.model.MediaFileMetadata;
+import com.jumkid.vault.repository.blob.BlobStore;
+import com.jumkid.vault.repository.mapped.MappedFilePool;
 import com.jumkid.vault.repository.thumbnail.ThumbnailFileManager;
+import com.jumkid.vault.repository.thumbnail.ThumbnailGenerationQueue;
 import com.jumkid.vault.repository.trash.FileTrashManager;
 import com.jumkid.vault.util.FileUtils;
 import lombok.extern.slf4j.Slf4j;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
 @Slf4j
 @Repository("localFileStorage")
 public class LocalFileStorage implements FileStorage<MediaFileMetadata>{
 
+	@Value("${vault.storage.blob.enabled}")
+	private boolean blobEnabled;
+
 	private final ThumbnailFileManager thumbnailFileManager;
 
+	private final ThumbnailGenerationQueue thumbnailGenerationQueue;
+
 	private final FilePathManager filePathManager;
 
 	private final FileTrashManager fileTrashManager;
 
+	private final BlobStore blobStore;
+
+	private final MappedFilePool mappedFilePool;
+
 	@Autowired
-	public LocalFileStorage(ThumbnailFileManager thumbnailFileManager, FilePathManager filePathManager, FileTrashManager fileTrashManager) {
+	public LocalFileStorage(ThumbnailFileManager thumbnailFileManager, ThumbnailGenerationQueue thumbnailGenerationQueue,
+							FilePathManager filePathManager, FileTrashManager fileTrashManager, BlobStore blobStore,
+							MappedFilePool mappedFilePool) {
 		this.thumbnailFileManager = thumbnailFileManager;
+		this.thumbnailGenerationQueue = thumbnailGenerationQueue;
 		this.filePathManager = filePathManager;
 		this.fileTrashManager = fileTrashManager;
+		this.blobStore = blobStore;
+		this.mappedFilePool = mappedFilePool;
 	}
 
 	@Override
@@ -70,7 +87,14 @@ public class LocalFileStorage implements FileStorage<MediaFileMetadata>{
 
 	@Override
 	public Optional<FileChannel> getFileRandomAccess(MediaFileMetadata mediaFileMetadata) throws FileStoreServiceException {
-		return Optional.ofNullable(this.getRandomAccessFile(mediaFileMetadata));
+		FileChannel fc = getRandomAccessFile(mediaFileMetadata);
+		if (fc == null && MediaFileModule.GALLERY.equals(mediaFileMetadata.getModule())) {
+			Optional<MediaFileMetadata> galleryFeaturedFileMetadata = thumbnailFileManager.getThumbnailFileForGallery(mediaFileMetadata);
+			if (galleryFeaturedFileMetadata.isPresent()) {
+				fc = getRandomAccessFile(galleryFeaturedFileMetadata.get());
+			}
+		}
+		return Optional.ofNullable(fc);
 	}
 
 	@Override
@@ -79,6 +103,16 @@ public class LocalFileStorage implements FileStorage<MediaFileMetadata>{
 		
 		if(bytes == null) return Optional.empty();
 
+		if(blobEnabled) {
+			try {
+				getFileUuid(bytes, mediaFile);
+				return saveBlob(blobStore.store(bytes), mediaFile);
+			} catch (IOException ioe) {
+				log.error("failed to store file blob: {}", ioe.getMessage());
+				return Optional.empty();
+			}
+		}
+
 		String logicalPath = filePathManager.getFullPath(mediaFile);
 
 		SeekableByteChannel sbc = null;
@@ -97,9 +131,9 @@ public class LocalFileStorage implements FileStorage<MediaFileMetadata>{
 
 			sbc.write(ByteBuffer.wrap(bytes));
 
-			//generate thumbnail for image
+			//generate thumbnail for image in background
 			if(mediaFile.getMimeType().startsWith("image/")){
-				thumbnailFileManager.generateThumbnail(path);
+				thumbnailGenerationQueue.submit(mediaFile.getId(), path);
 			}
 
 			return Optional.of(mediaFile);
@@ -121,6 +155,86 @@ public class LocalFileStorage implements FileStorage<MediaFileMetadata>{
 		return Optional.empty();
 	}
 
+	@Override
+	public Optional<MediaFileMetadata> saveFile(Path source, MediaFileMetadata mediaFile)
+			throws FileStoreServiceException {
+
+		if(source == null || !Files.exists(source)) return Optional.empty();
+
+		if(mediaFile.getId() == null) {
+			throw new FileStoreServiceException("media file id is required to store the spooled file " + source);
+		}
+
+		if(blobEnabled) {
+			try {
+				return saveBlob(blobStore.store(source), mediaFile);
+			} catch (IOException ioe) {
+				log.error("failed to store spooled file {} as blob: {}", source, ioe.getMessage());
+				return Optional.empty();
+			}
+		}
+
+		String logicalPath = filePathManager.getFullPath(mediaFile);
+
+		try{
+			mediaFile.setLogicalPath(logicalPath);
+
+			Path dirPath = Paths.get(filePathManager.getDataHomePath(), logicalPath);
+			Path path = Paths.get(filePathManager.getDataHomePath(), logicalPath, mediaFile.getId());
+
+			if(!Files.exists(dirPath)) Files.createDirectories(dirPath);
+
+			//spooled file is under the same data home, so this is a rename rather than a copy
+			Files.move(source, path, StandardCopyOption.REPLACE_EXISTING);
+
+			//generate thumbnail for image in background
+			if(mediaFile.getMimeType().startsWith("image/")){
+				thumbnailGenerationQueue.submit(mediaFile.getId(), path);
+			}
+
+			return Optional.of(mediaFile);
+		} catch (IOException ioe) {
+			log.error("failed to move spooled file {}: {}", source, ioe.getMessage());
+		} catch(Exception e){
+			throw new FileStoreServiceException(e.getMessage());
+		}
+
+		return Optional.empty();
+	}
+
+	/**
+	 * Link the stored blob to the path of the media file, and drop the reference to the blob it used before
+	 */
+	private Optional<MediaFileMetadata> saveBlob(String blobId, MediaFileMetadata mediaFile) throws IOException {
+		// replaced content is linked to the path of the file, getFullPath would nest another directory under it
+		String logicalPath = mediaFile.getBlobId() != null && mediaFile.getLogicalPath() != null
+				? mediaFile.getLogicalPath() : filePathManager.getFullPath(mediaFile);
+		Path path = Paths.get(filePathManager.getDataHomePath(), logicalPath, mediaFile.getId());
+		// a new media file finding its path linked to the blob shares it with a file of the same content,
+		// which holds the reference of the path already
+		boolean linkedAlready = mediaFile.getBlobId() == null && Files.exists(path)
+				&& Files.isSameFile(path, blobStore.getBlobFilePath(blobId));
+		try {
+			blobStore.link(blobId, path);
+		} catch (IOException ioe) {
+			blobStore.release(blobId);
+			throw ioe;
+		}
+		if (linkedAlready) blobStore.release(blobId);
+
+		String previousBlobId = mediaFile.getBlobId();
+		mediaFile.setLogicalPath(logicalPath);
+		mediaFile.setBlobId(blobId);
+		if(previousBlobId != null) blobStore.release(previousBlobId);
+
+		//generate thumbnail for image in background
+		if(mediaFile.getMimeType().startsWith("image/")){
+			thumbnailGenerationQueue.submit(mediaFile.getId(), path);
+		}
+
+		return Optional.of(mediaFile);
+	}
+
 	private FileChannel getFileChannel(MediaFileMetadata mediaFile) throws FileStoreServiceException {
 		if (mediaFile == null || mediaFile.getLogicalPath() == null) return null;
 
@@ -141,6 +255,7 @@ public class LocalFileStorage implements FileStorage<MediaFileMetadata>{
 	}
 
 	private FileChannel getRandomAccessFile(MediaFileMetadata mediaFile) throws FileStoreServiceException {
+		if (mediaFile == null || mediaFile.getLogicalPath() == null) return null;
 
 		Path path = Paths.get(filePathManager.getDataHomePath(), mediaFile.getLogicalPath(), mediaFile.getId());
 
@@ -150,8 +265,8 @@ public class LocalFileStorage implements FileStorage<MediaFileMetadata>{
 		}
 
 		try {
-			RandomAccessFile aFile = new RandomAccessFile(path.toString(), "rw");
-			return aFile.getChannel();
+			// read only, a blob may be hard linked by other media files
+			return FileChannel.open(path, StandardOpenOption.READ);
 		} catch (Exception e) {
 			throw new FileStoreServiceException(e.getMessage());
 			//move to trash if 
@@ -169,12 +284,21 @@ public class LocalFileStorage implements FileStorage<MediaFileMetadata>{
 			throw new FileNotFoundException(mediaFileId);
 		}
 
+		mappedFilePool.invalidate(path.resolve(mediaFileId));
 		try {
 			fileTrashManager.moveToTrash(path, mediaFileId);
 		} catch (Exception e) {
 			log.error("failed to delete file {} {}", path.toString(), e.getMessage());
 			throw new FileStoreServiceException(mediaFileId);
 		}
+
+		if (mediaFile.getBlobId() != null) {
+			try {
+				blobStore.release(mediaFile.getBlobId());
+			} catch (IOException ioe) {
+				log.warn("failed to release blob {} of media file {}: {}", mediaFile.getBlobId(), mediaFileId, ioe.getMessage());
+			}
+		}
 	}
 
 	@Override
@@ -183,6 +307,30 @@ public class LocalFileStorage implements FileStorage<MediaFileMetadata>{
 		return thumbnailFileManager.getThumbnail(mediaFileMetadata, thumbnailNamespace);
 	}
 
+	@Override
+	public Optional<MappedFilePool.Lease> getMappedFile(MediaFileMetadata mediaFileMetadata) {
+		if (mediaFileMetadata.getLogicalPath() == null) return Optional.empty();
+
+		return mappedFilePool.acquire(Paths.get(filePathManager.getDataHomePath(),
+				mediaFileMetadata.getLogicalPath(), mediaFileMetadata.getId()));
+	}
+
+	@Override
+	public Optional<Path> getLocalFile(MediaFileMetadata mediaFileMetadata) {
+		if (mediaFileMetadata.getLogicalPath() == null) return Optional.empty();
+
+		Path path = Paths.get(filePathManager.getDataHomePath(), mediaFileMetadata.getLogicalPath(),
+				mediaFileMetadata.getId());
+		return Files.isRegularFile(path) ? Optional.of(path) : Optional.empty();
+	}
+
+	@Override
+	public Optional<MappedFilePool.Lease> getMappedThumbnail(MediaFileMetadata mediaFileMetadata,
+															  ThumbnailNamespace thumbnailNamespace)
+			throws FileStoreServiceException {
+		return thumbnailFileManager.getMappedThumbnail(mediaFileMetadata, thumbnailNamespace);
+	}
+
 	private String getFileUuid(byte[] bytes, MediaFileMetadata mediaFile) {
 	    if(mediaFile.getId()==null){
 			mediaFile.setId(UUID.nameUUIDFromBytes(bytes).toString());
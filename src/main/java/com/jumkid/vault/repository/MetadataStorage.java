@@ -16,21 +16,31 @@ import co.elastic.clients.elasticsearch.ElasticsearchClient;
 import co.elastic.clients.elasticsearch._types.*;
 import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
 import co.elastic.clients.elasticsearch._types.query_dsl.NestedQuery;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
 import co.elastic.clients.elasticsearch._types.query_dsl.TermQuery;
 import co.elastic.clients.elasticsearch.core.*;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
 import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.elasticsearch.core.search.SourceConfig;
 import co.elastic.clients.json.JsonData;
 import com.jumkid.vault.enums.MediaFileModule;
+import com.jumkid.vault.enums.RefreshPolicy;
+import com.jumkid.vault.enums.StorageMode;
 import com.jumkid.vault.exception.FileNotFoundException;
 import com.jumkid.vault.exception.FileStoreServiceException;
+import com.jumkid.vault.exception.InvalidCursorException;
 import com.jumkid.vault.model.MediaFileMetadata;
+import com.jumkid.vault.model.SearchPage;
 
 import static com.jumkid.share.util.Constants.ADMIN_ROLE;
 import static com.jumkid.vault.util.Constants.*;
 
 import com.jumkid.vault.service.mapper.MediaFileMapper;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
 import java.io.IOException;
@@ -42,7 +52,36 @@ import static com.jumkid.vault.enums.MediaFileField.*;
 @Repository("metadataStorage")
 public class MetadataStorage implements FileMetadata<MediaFileMetadata> {
 
-    private static final String ES_IDX_ENDPOINT = "mfile";
+    private static final int DEFAULT_PAGE_SIZE = 50;
+
+    private static final String SHARD_DOC = "_shard_doc";
+
+    private static final int RETRY_ON_CONFLICT = 3;
+
+    @Value("${vault.metadata.refresh.save}")
+    @Setter
+    private RefreshPolicy saveRefreshPolicy;
+
+    @Value("${vault.metadata.refresh.update}")
+    @Setter
+    private RefreshPolicy updateRefreshPolicy;
+
+    @Value("${vault.metadata.refresh.delete}")
+    @Setter
+    private RefreshPolicy deleteRefreshPolicy;
+
+    @Value("${vault.metadata.refresh.delete-children}")
+    @Setter
+    private RefreshPolicy deleteChildrenRefreshPolicy;
+
+    @Value("${vault.metadata.refresh.delete-inactive}")
+    @Setter
+    private RefreshPolicy deleteInactiveRefreshPolicy;
+
+    // how long the point in time of a paged search is kept open between two pages
+    @Value("${vault.metadata.search.keep-alive}")
+    @Setter
+    private String searchKeepAlive = "1m";
 
     private final ElasticsearchClient esClient;
 
@@ -55,12 +94,9 @@ public class MetadataStorage implements FileMetadata<MediaFileMetadata> {
     }
 
     @Override
-    public List<MediaFileMetadata> searchMetadata(String query, Integer size,
-                                                  List<String> currentUserRole, String currentUserId) throws FileStoreServiceException {
-        SearchRequest.Builder searchRequestBuilder = new SearchRequest.Builder()
-                    .index(ES_INDEX_MFILE)
-                    .size(size == null ? 50 : size);
-
+    public SearchPage<MediaFileMetadata> searchMetadata(String query, Integer size, String cursor, List<String> includes,
+                                                        List<String> currentUserRole, String currentUserId)
+            throws FileStoreServiceException {
         BoolQuery.Builder booleanQueryBuilder = new BoolQuery.Builder()
                 .must(m -> m.simpleQueryString(sq -> sq.query(query)))
                 .must(m -> m.term(t -> t.field(ACTIVATED.value()).value(Boolean.TRUE)));
@@ -69,34 +105,96 @@ public class MetadataStorage implements FileMetadata<MediaFileMetadata> {
             booleanQueryBuilder.must(m -> m.term(t -> t.field(CREATED_BY.value()).value(currentUserId)));
         }
 
-        searchRequestBuilder.query(booleanQueryBuilder.build()._toQuery());
+        return searchPage(booleanQueryBuilder.build()._toQuery(), true, size, cursor, includes);
+    }
+
+    @Override
+    public SearchPage<MediaFileMetadata> getInactiveMetadata(Integer size, String cursor, List<String> includes)
+            throws FileStoreServiceException {
+        Query query = new TermQuery.Builder()
+                .field(ACTIVATED.value()).value(false)
+                .build()._toQuery();
+
+        return searchPage(query, false, size, cursor, includes);
+    }
+
+    /**
+     * Read one page of a search from a point in time, which is opened on the first page and closed on the last
+     * one. Pages follow each other by the sort values of the last hit, so a page deep in the results costs the
+     * same as the first one.
+     *
+     * @param query query of search
+     * @param scored whether the hits are ranked by relevance before their creation time
+     * @param size size of page, within 1 and MAX_PAGE_SIZE
+     * @param cursor cursor of page returned with the previous page, null for the first page
+     * @param includes fields of the source to return, all but the text when empty
+     * @return page of metadata with the cursor of next page
+     */
+    private SearchPage<MediaFileMetadata> searchPage(Query query, boolean scored, Integer size, String cursor,
+                                                     List<String> includes) throws FileStoreServiceException {
+        // an empty page would open a point in time with no last hit to continue from
+        final int pageSize = size == null ? DEFAULT_PAGE_SIZE : Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        SearchCursor searchCursor = cursor == null ? null : SearchCursor.decode(cursor);
 
         try {
-            SearchResponse<MediaFileMetadata> response = esClient.search(searchRequestBuilder.build(), MediaFileMetadata.class);
+            String pitId = searchCursor != null ? searchCursor.pitId() : openPointInTime();
+
+            SearchRequest.Builder searchRequestBuilder = new SearchRequest.Builder()
+                    .pit(p -> p.id(pitId).keepAlive(t -> t.time(searchKeepAlive)))
+                    .source(sourceOf(includes))
+                    .query(query)
+                    .size(pageSize);
+            if (scored) searchRequestBuilder.sort(s -> s.score(sc -> sc.order(SortOrder.Desc)));
+            searchRequestBuilder
+                    .sort(s -> s.field(f -> f.field(CREATED_ON.value()).order(SortOrder.Desc)))
+                    // tiebreaker of point in time, unique per document unlike createdOn, and cheaper than _id
+                    .sort(s -> s.field(f -> f.field(SHARD_DOC).order(SortOrder.Asc)));
+            if (searchCursor != null) searchRequestBuilder.searchAfter(searchCursor.searchAfter());
 
-            return searchResponseToResult(response);
+            SearchResponse<MediaFileMetadata> response = esClient.search(searchRequestBuilder.build(), MediaFileMetadata.class);
+            List<Hit<MediaFileMetadata>> hits = response.hits().hits();
+            // the id of point in time may change from page to page
+            String nextPitId = response.pitId() != null ? response.pitId() : pitId;
+
+            if (hits.size() < pageSize) {
+                closePointInTime(nextPitId);
+                return new SearchPage<>(searchResponseToResult(response), null);
+            }
+            List<FieldValue> searchAfter = hits.get(hits.size() - 1).sort();
+            return new SearchPage<>(searchResponseToResult(response), new SearchCursor(nextPitId, searchAfter).encode());
+        } catch (ElasticsearchException ee) {
+            if (searchCursor != null && (ee.status() == 404 || ee.status() == 400)) {
+                log.info("search cursor is expired or invalid {}", ee.getMessage());
+                throw new InvalidCursorException(cursor);
+            }
+            log.error("failed to search metadata due to {} ", ee.getMessage());
+            throw new FileStoreServiceException("Not able to search media file in Elasticsearch, please contact system administrator.");
         } catch (IOException ioe) {
             log.error("failed to search metadata due to {} ", ioe.getMessage());
             throw new FileStoreServiceException("Not able to search media file in Elasticsearch, please contact system administrator.");
         }
     }
 
-    @Override
-    public List<MediaFileMetadata> getInactiveMetadata() throws FileStoreServiceException {
-        SearchRequest searchRequest = new SearchRequest.Builder()
-                .index(ES_IDX_ENDPOINT)
-                .query(q -> q.term(new TermQuery.Builder()
-                        .field(ACTIVATED.value()).value(false)
-                        .build()))
-                .build();
+    private static SourceConfig sourceOf(List<String> includes) {
+        if (includes == null || includes.isEmpty()) {
+            return SourceConfig.of(s -> s.filter(f -> f.excludes(TEXT.value())));
+        }
+        // the flag defaults to true when deserialized, so it is always read to not show trashed files as active
+        List<String> fields = new ArrayList<>(includes);
+        if (!fields.contains(ACTIVATED.value())) fields.add(ACTIVATED.value());
+        return SourceConfig.of(s -> s.filter(f -> f.includes(fields)));
+    }
+
+    private String openPointInTime() throws IOException {
+        return esClient.openPointInTime(o -> o.index(ES_INDEX_MFILE).keepAlive(t -> t.time(searchKeepAlive))).id();
+    }
 
+    private void closePointInTime(String pitId) {
         try {
-            SearchResponse<MediaFileMetadata> response = esClient.search(searchRequest, MediaFileMetadata.class);
-            return searchResponseToResult(response);
-        } catch (IOException e) {
-            e.printStackTrace();
-            log.error("failed to search metadata {} ", e.getMessage());
-            throw new FileStoreServiceException("Not able to search metadata, please contact system administrator.");
+            esClient.closePointInTime(c -> c.id(pitId));
+        } catch (IOException | ElasticsearchException e) {
+            // it is released anyway once its keep alive expires
+            log.warn("failed to close point in time of search {}", e.getMessage());
         }
     }
 
@@ -108,7 +206,7 @@ public class MetadataStorage implements FileMetadata<MediaFileMetadata> {
                         .field(ACTIVATED.value()).value(false)
                         .build()))
                 .conflicts(Conflicts.Proceed)
-                .refresh(true)
+                .refresh(deleteInactiveRefreshPolicy.isForced())
                 .build();
 
         try {
@@ -120,6 +218,16 @@ public class MetadataStorage implements FileMetadata<MediaFileMetadata> {
         }
     }
 
+    @Override
+    public void refreshMetadata() throws FileStoreServiceException {
+        try {
+            esClient.indices().refresh(r -> r.index(ES_INDEX_MFILE));
+        } catch (IOException ioe) {
+            log.error("failed to refresh metadata due to {} ", ioe.getMessage());
+            throw new FileStoreServiceException("Not able to refresh media files in Elasticsearch, please contact system administrator.");
+        }
+    }
+
     @Override
     public List<MediaFileMetadata> deleteChildrenByChildId(String mediaFileId, List<String> childIdList)
             throws FileStoreServiceException, FileNotFoundException {
@@ -127,7 +235,7 @@ public class MetadataStorage implements FileMetadata<MediaFileMetadata> {
             UpdateRequest<MediaFileMetadata, MediaFileMetadata> updateRequest = new UpdateRequest.Builder<MediaFileMetadata, MediaFileMetadata>()
                     .index(ES_INDEX_MFILE)
                     .id(mediaFileId)
-                    .refresh(Refresh.True)
+                    .refresh(deleteChildrenRefreshPolicy.toRefresh())
                     .script(new Script.Builder()
                             .inline(new InlineScript.Builder()
                                     .lang("painless")
@@ -152,6 +260,8 @@ public class MetadataStorage implements FileMetadata<MediaFileMetadata> {
     public List<MediaFileMetadata> findChildrenInOtherGallery (String parentId, String childId, Integer size) {
         SearchRequest.Builder searchRequestBuilder = new SearchRequest.Builder()
                 .index(ES_INDEX_MFILE)
+                // only whether there are other galleries matters, their children lists can be long
+                .source(s -> s.filter(f -> f.includes(TITLE.value(), MODULE.value())))
                 .size(size == null ? 5 : size);
 
         NestedQuery nestedQuery = new NestedQuery.Builder()
@@ -193,9 +303,12 @@ public class MetadataStorage implements FileMetadata<MediaFileMetadata> {
     @Override
     public Optional<MediaFileMetadata> getMetadata(String mediaFileId) throws FileStoreServiceException {
 
+        // realtime get reads the latest written version whether or not the index has been refreshed
         GetRequest request = new GetRequest.Builder()
                 .index(ES_INDEX_MFILE)
                 .id(mediaFileId)
+                .realtime(true)
+                .sourceExcludes(TEXT.value())
                 .build();
 
         try {
@@ -203,6 +316,8 @@ public class MetadataStorage implements FileMetadata<MediaFileMetadata> {
             if(response.source() == null) { return Optional.empty(); }
 
             response.source().setId(mediaFileId);
+            response.source().setSeqNo(response.seqNo());
+            response.source().setPrimaryTerm(response.primaryTerm());
 
             return Optional.of(response.source());
         } catch (IOException ioe) {
@@ -218,7 +333,7 @@ public class MetadataStorage implements FileMetadata<MediaFileMetadata> {
         IndexRequest<MediaFileMetadata> request = new IndexRequest.Builder<MediaFileMetadata>()
                 .index(ES_INDEX_MFILE)
                 .document(mediaFileMetadata)
-                .refresh(Refresh.True)
+                .refresh(saveRefreshPolicy.toRefresh())
                 .build();
 
         try {
@@ -233,6 +348,135 @@ public class MetadataStorage implements FileMetadata<MediaFileMetadata> {
         }
     }
 
+    @Override
+    public Optional<MediaFileMetadata> createMetadata(MediaFileMetadata mediaFileMetadata) throws FileStoreServiceException {
+        String mediaFileId = mediaFileMetadata.getId();
+        CreateRequest<MediaFileMetadata> request = new CreateRequest.Builder<MediaFileMetadata>()
+                .index(ES_INDEX_MFILE)
+                .id(mediaFileId)
+                .document(mediaFileMetadata)
+                .refresh(saveRefreshPolicy.toRefresh())
+                .build();
+
+        try {
+            esClient.create(request);
+            return Optional.of(mediaFileMetadata);
+        } catch (ElasticsearchException ee) {
+            if (ee.status() == 409) {
+                log.warn("metadata {} already exists", mediaFileId);
+                return Optional.empty();
+            }
+            log.error("failed to create metadata {} ", ee.getMessage());
+            throw new FileStoreServiceException("Not able to save media file into Elasticsearch, " +
+                    "please contact system administrator.", mediaFileMapper.metadataToDto(mediaFileMetadata));
+        } catch (IOException ioe) {
+            log.error("failed to create metadata {} ", ioe.getMessage());
+            throw new FileStoreServiceException("Not able to save media file into Elasticsearch, " +
+                    "please contact system administrator.", mediaFileMapper.metadataToDto(mediaFileMetadata));
+        }
+    }
+
+    @Override
+    public List<MediaFileMetadata> saveAll(List<MediaFileMetadata> metadataList) throws FileStoreServiceException {
+        if (metadataList == null || metadataList.isEmpty()) return metadataList;
+
+        List<BulkOperation> operations = new ArrayList<>(metadataList.size());
+        for (MediaFileMetadata mediaFileMetadata : metadataList) {
+            operations.add(BulkOperation.of(op -> op
+                    .index(idx -> idx.index(ES_INDEX_MFILE).document(mediaFileMetadata))));
+        }
+
+        try {
+            List<BulkResponseItem> items = bulk(operations, saveRefreshPolicy);
+            for (int i = 0; i < items.size(); i++) {
+                BulkResponseItem item = items.get(i);
+                MediaFileMetadata mediaFileMetadata = metadataList.get(i);
+                if (item.error() == null) {
+                    mediaFileMetadata.setId(item.id());
+                } else {
+                    log.error("failed to save metadata {} due to {}", mediaFileMetadata.getFilename(), item.error().reason());
+                    mediaFileMetadata.setId(null);
+                }
+            }
+            return metadataList;
+        } catch (IOException ioe) {
+            log.error("failed to save metadata in bulk {} ", ioe.getMessage());
+            throw new FileStoreServiceException("Not able to save media files into Elasticsearch, " +
+                    "please contact system administrator.");
+        }
+    }
+
+    @Override
+    public void updateAll(Map<String, MediaFileMetadata> partialMetadataMap) throws FileStoreServiceException {
+        updateAll(partialMetadataMap, false);
+    }
+
+    @Override
+    public List<String> updateAllIfUnchanged(Map<String, MediaFileMetadata> partialMetadataMap)
+            throws FileStoreServiceException {
+        return updateAll(partialMetadataMap, true);
+    }
+
+    private List<String> updateAll(Map<String, MediaFileMetadata> partialMetadataMap, boolean ifUnchanged)
+            throws FileStoreServiceException {
+        if (partialMetadataMap == null || partialMetadataMap.isEmpty()) return List.of();
+
+        List<BulkOperation> operations = new ArrayList<>(partialMetadataMap.size());
+        partialMetadataMap.forEach((mediaFileId, partialMetadata) -> operations.add(BulkOperation.of(op -> op
+                .update(u -> {
+                    u.index(ES_INDEX_MFILE).id(mediaFileId).action(a -> a.doc(partialMetadata));
+                    if (ifUnchanged) {
+                        return u.ifSeqNo(partialMetadata.getSeqNo()).ifPrimaryTerm(partialMetadata.getPrimaryTerm());
+                    }
+                    // background stages update other fields of the same media files
+                    return u.retryOnConflict(RETRY_ON_CONFLICT);
+                }))));
+
+        try {
+            List<String> changedIds = new ArrayList<>();
+            long failed = 0;
+            for (BulkResponseItem item : bulk(operations, updateRefreshPolicy)) {
+                if (item.error() == null) continue;
+                if (ifUnchanged && item.status() == 409) {
+                    changedIds.add(item.id());
+                } else {
+                    log.error("failed to update metadata {} due to {}", item.id(), item.error().reason());
+                    failed++;
+                }
+            }
+            if (failed > 0) {
+                throw new FileStoreServiceException(String.format("Not able to update %d of %d media files in Elasticsearch, " +
+                        "please contact system administrator.", failed, operations.size()));
+            }
+            log.info("Updated {} media files in bulk", operations.size() - changedIds.size());
+            return changedIds;
+        } catch (IOException ioe) {
+            log.error("failed to update metadata in bulk {} ", ioe.getMessage());
+            throw new FileStoreServiceException("Not able to update media files in Elasticsearch, " +
+                    "please contact system administrator.");
+        }
+    }
+
+    @Override
+    public void updateStatusAll(List<String> mediaFileIds, boolean active) throws FileStoreServiceException {
+        Map<String, MediaFileMetadata> partialMetadataMap = new LinkedHashMap<>();
+        for (String mediaFileId : mediaFileIds) {
+            partialMetadataMap.put(mediaFileId, MediaFileMetadata.builder().activated(active).build());
+        }
+        updateAll(partialMetadataMap);
+    }
+
+    private List<BulkResponseItem> bulk(List<BulkOperation> operations, RefreshPolicy refreshPolicy) throws IOException {
+        BulkRequest bulkRequest = new BulkRequest.Builder()
+                .operations(operations)
+                .refresh(refreshPolicy.toRefresh())
+                .build();
+
+        BulkResponse response = esClient.bulk(bulkRequest);
+        if (response.errors()) log.warn("bulk request of {} operations has errors", operations.size());
+        return response.items();
+    }
+
     @Override
     public void updateMetadataStatus(String mediaFileId, boolean active) {
         try {
@@ -251,12 +495,133 @@ public class MetadataStorage implements FileMetadata<MediaFileMetadata> {
         }
     }
 
+    @Override
+    public boolean updateStorage(String mediaFileId, StorageMode storage, String logicalPath, String blobId,
+                                 Long ifSeqNo, Long ifPrimaryTerm) throws FileStoreServiceException {
+        // a partial doc cannot clear fields, nulls are not serialized, so missing params remove their field
+        Map<String, JsonData> params = new HashMap<>();
+        if (storage != null) params.put(STORAGE.value(), JsonData.of(storage.value()));
+        if (logicalPath != null) params.put(LOGICAL_PATH.value(), JsonData.of(logicalPath));
+        if (blobId != null) params.put(BLOB_ID.value(), JsonData.of(blobId));
+
+        StringBuilder source = new StringBuilder();
+        for (String field : List.of(STORAGE.value(), LOGICAL_PATH.value(), BLOB_ID.value())) {
+            source.append(String.format("if (params.containsKey('%1$s')) { ctx._source.%1$s = params.%1$s } " +
+                    "else { ctx._source.remove('%1$s') } ", field));
+        }
+
+        UpdateRequest<MediaFileMetadata, MediaFileMetadata> updateRequest = new UpdateRequest.Builder<MediaFileMetadata, MediaFileMetadata>()
+                .index(ES_INDEX_MFILE)
+                .id(mediaFileId)
+                .ifSeqNo(ifSeqNo)
+                .ifPrimaryTerm(ifPrimaryTerm)
+                .refresh(updateRefreshPolicy.toRefresh())
+                .script(new Script.Builder()
+                        .inline(new InlineScript.Builder()
+                                .lang("painless")
+                                .source(source.toString())
+                                .params(params)
+                                .build())
+                        .build())
+                .build();
+
+        try {
+            esClient.update(updateRequest, MediaFileMetadata.class);
+            log.info("Moved media file {} to storage {}", mediaFileId, storage);
+            return true;
+        } catch (ElasticsearchException ee) {
+            if (ee.status() == 409) {
+                log.info("media file {} changed since it was read, its storage is not updated", mediaFileId);
+                return false;
+            }
+            log.error("failed to update storage of media file {} due to {}", mediaFileId, ee.getMessage());
+            throw new FileStoreServiceException("Not able to update media file in Elasticsearch, " +
+                    "please contact system administrator.");
+        } catch (IOException ioe) {
+            log.error("failed to update storage of media file {} due to {}", mediaFileId, ioe.getMessage());
+            throw new FileStoreServiceException("Not able to update media file in Elasticsearch, " +
+                    "please contact system administrator.");
+        }
+    }
+
+    @Override
+    public List<MediaFileMetadata> findStoredElsewhere(StorageMode storage, boolean unrecordedIncluded,
+                                                       Collection<String> excludedIds, int size)
+            throws FileStoreServiceException {
+        BoolQuery.Builder booleanQueryBuilder = new BoolQuery.Builder()
+                .filter(q -> q.term(t -> t.field(ACTIVATED.value()).value(Boolean.TRUE)))
+                // galleries and files without binary have no logical path
+                .filter(q -> q.exists(e -> e.field(LOGICAL_PATH.value())))
+                .mustNot(q -> q.term(t -> t.field(STORAGE.value()).value(storage.value())));
+        if (!unrecordedIncluded) {
+            booleanQueryBuilder.filter(q -> q.exists(e -> e.field(STORAGE.value())));
+        }
+        if (excludedIds != null && !excludedIds.isEmpty()) {
+            booleanQueryBuilder.mustNot(q -> q.ids(i -> i.values(new ArrayList<>(excludedIds))));
+        }
+
+        SearchRequest searchRequest = new SearchRequest.Builder()
+                .index(ES_INDEX_MFILE)
+                .size(size)
+                .query(booleanQueryBuilder.build()._toQuery())
+                .build();
+
+        try {
+            SearchResponse<MediaFileMetadata> response = esClient.search(searchRequest, MediaFileMetadata.class);
+            return searchResponseToResult(response);
+        } catch (IOException ioe) {
+            log.error("failed to search metadata of storage {} due to {} ", storage, ioe.getMessage());
+            throw new FileStoreServiceException("Not able to search metadata, please contact system administrator.");
+        }
+    }
+
+    @Override
+    public SearchPage<MediaFileMetadata> findNotEnriched(Integer size, String cursor) throws FileStoreServiceException {
+        Query query = new TermQuery.Builder()
+                .field(ENRICHED.value()).value(false)
+                .build()._toQuery();
+
+        // the identities are all it takes to queue them
+        return searchPage(query, false, size, cursor, List.of(ENRICHED.value()));
+    }
+
+    @Override
+    public List<MediaFileMetadata> findNotExtracted(Collection<String> mimeTypePrefixes, Collection<String> excludedIds,
+                                                    int size) throws FileStoreServiceException {
+        BoolQuery.Builder booleanQueryBuilder = new BoolQuery.Builder()
+                .filter(q -> q.term(t -> t.field(ACTIVATED.value()).value(Boolean.TRUE)))
+                .filter(q -> q.exists(e -> e.field(LOGICAL_PATH.value())))
+                .mustNot(q -> q.term(t -> t.field(EXTRACTED.value()).value(Boolean.TRUE)))
+                .minimumShouldMatch("1");
+        for (String prefix : mimeTypePrefixes) {
+            booleanQueryBuilder.should(q -> q.prefix(p -> p.field(MIME_TYPE.value()).value(prefix)));
+        }
+        if (excludedIds != null && !excludedIds.isEmpty()) {
+            booleanQueryBuilder.mustNot(q -> q.ids(i -> i.values(new ArrayList<>(excludedIds))));
+        }
+
+        SearchRequest searchRequest = new SearchRequest.Builder()
+                .index(ES_INDEX_MFILE)
+                .source(s -> s.filter(f -> f.excludes(TEXT.value())))
+                .size(size)
+                .query(booleanQueryBuilder.build()._toQuery())
+                .build();
+
+        try {
+            SearchResponse<MediaFileMetadata> response = esClient.search(searchRequest, MediaFileMetadata.class);
+            return searchResponseToResult(response);
+        } catch (IOException ioe) {
+            log.error("failed to search metadata pending text extraction due to {} ", ioe.getMessage());
+            throw new FileStoreServiceException("Not able to search metadata, please contact system administrator.");
+        }
+    }
+
     @Override
     public MediaFileMetadata updateMetadata(String mediaFileId, MediaFileMetadata partialMetadata) throws IOException{
         UpdateRequest<MediaFileMetadata, MediaFileMetadata> updateRequest =
                 new UpdateRequest.Builder<MediaFileMetadata, MediaFileMetadata>()
                         .index(ES_INDEX_MFILE)
-                        .refresh(Refresh.True)
+                        .refresh(updateRefreshPolicy.toRefresh())
                         .doc(partialMetadata)
                         .id(mediaFileId)
                         .build();
@@ -295,7 +660,7 @@ public class MetadataStorage implements FileMetadata<MediaFileMetadata> {
         DeleteRequest deleteRequest = new DeleteRequest.Builder()
                 .index(ES_INDEX_MFILE)
                 .id(mediaFileId)
-                .refresh(Refresh.True)
+                .refresh(deleteRefreshPolicy.toRefresh())
                 .build();
 
         try {
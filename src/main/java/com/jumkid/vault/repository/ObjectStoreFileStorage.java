@@ -0,0 +1,358 @@
+package com.jumkid.vault.repository;
+
+import com.jumkid.vault.enums.MediaFileModule;
+import com.jumkid.vault.enums.ThumbnailNamespace;
+import com.jumkid.vault.exception.FileStoreServiceException;
+import com.jumkid.vault.model.MediaFileMetadata;
+import com.jumkid.vault.repository.objectstore.ObjectStoreFileChannel;
+import com.jumkid.vault.repository.thumbnail.IconResolver;
+import com.jumkid.vault.repository.thumbnail.ThumbnailCache;
+import com.jumkid.vault.repository.thumbnail.ThumbnailFileManager;
+import com.jumkid.vault.repository.thumbnail.ThumbnailRenderer;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+import org.springframework.util.unit.DataSize;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static com.jumkid.vault.repository.thumbnail.ThumbnailFileManager.THUMBNAIL_FILE_EXTEND;
+
+/**
+ * File storage on an S3 compatible object store, shared by all content vault nodes. Object keys follow the
+ * layout of the local storage, the media file and its thumbnails live under its logical path. Files above
+ * the multipart threshold are uploaded in parts read straight from the spooled file, and reads are served
+ * with ranged GET requests through {@link ObjectStoreFileChannel}.
+ */
+@Slf4j
+@Repository
+public class ObjectStoreFileStorage implements FileStorage<MediaFileMetadata> {
+
+    private static final String KEY_DELIMITER = "/";
+    private static final String THUMBNAIL_CONTENT_TYPE = "image/png";
+    private static final int MAX_DELETE_KEYS = 1000;
+
+    private final S3Client s3Client;
+
+    private final FilePathManager filePathManager;
+
+    private final ThumbnailRenderer thumbnailRenderer;
+
+    private final ThumbnailFileManager thumbnailFileManager;
+
+    private final ThumbnailCache thumbnailCache;
+
+    private final IconResolver iconResolver;
+
+    @Value("${vault.storage.object-store.bucket}")
+    @Setter
+    private String bucket;
+
+    @Value("${vault.storage.object-store.multipart.threshold}")
+    @Setter
+    private DataSize multipartThreshold;
+
+    @Value("${vault.storage.object-store.multipart.part-size}")
+    @Setter
+    private DataSize partSize;
+
+    @Autowired
+    public ObjectStoreFileStorage(S3Client s3Client, FilePathManager filePathManager,
+                                  ThumbnailRenderer thumbnailRenderer, ThumbnailFileManager thumbnailFileManager,
+                                  ThumbnailCache thumbnailCache, IconResolver iconResolver) {
+        this.s3Client = s3Client;
+        this.filePathManager = filePathManager;
+        this.thumbnailRenderer = thumbnailRenderer;
+        this.thumbnailFileManager = thumbnailFileManager;
+        this.thumbnailCache = thumbnailCache;
+        this.iconResolver = iconResolver;
+    }
+
+    @Override
+    public Optional<MediaFileMetadata> saveFile(byte[] bytes, MediaFileMetadata mediaFile) throws FileStoreServiceException {
+        if (bytes == null) return Optional.empty();
+
+        Path tmpFile = null;
+        try {
+            tmpFile = Files.createTempFile("vault-upload", null);
+            Files.write(tmpFile, bytes);
+            return saveFile(tmpFile, mediaFile);
+        } catch (IOException ioe) {
+            log.error("failed to write file bytes: {}", ioe.getMessage());
+            return Optional.empty();
+        } finally {
+            deleteQuietly(tmpFile);
+        }
+    }
+
+    @Override
+    public Optional<MediaFileMetadata> saveFile(Path source, MediaFileMetadata mediaFile) throws FileStoreServiceException {
+        if (source == null) return Optional.empty();
+
+        String logicalPath = filePathManager.getFullPath(mediaFile);
+        String key = objectKey(logicalPath, mediaFile.getId());
+        try {
+            long size = Files.size(source);
+            if (size > multipartThreshold.toBytes()) {
+                uploadMultipart(source, size, key, mediaFile.getMimeType());
+            } else {
+                s3Client.putObject(PutObjectRequest.builder()
+                        .bucket(bucket).key(key).contentType(mediaFile.getMimeType())
+                        .build(), RequestBody.fromFile(source));
+            }
+            mediaFile.setLogicalPath(logicalPath);
+            log.debug("stored object {} of {} bytes", key, size);
+        } catch (IOException | SdkException e) {
+            log.error("failed to store object {}: {}", key, e.getMessage());
+            return Optional.empty();
+        }
+
+        if (mediaFile.getMimeType() != null && mediaFile.getMimeType().startsWith("image/")) {
+            saveThumbnails(source, logicalPath, mediaFile.getId());
+        }
+        return Optional.of(mediaFile);
+    }
+
+    private void uploadMultipart(Path source, long size, String key, String contentType) throws IOException {
+        String uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                .bucket(bucket).key(key).contentType(contentType)
+                .build()).uploadId();
+        try (FileChannel fc = FileChannel.open(source, StandardOpenOption.READ)) {
+            List<CompletedPart> parts = new ArrayList<>();
+            long partBytes = partSize.toBytes();
+            int partNumber = 1;
+            for (long offset = 0; offset < size; offset += partBytes, partNumber++) {
+                long length = Math.min(partBytes, size - offset);
+                final long partOffset = offset;
+                // each part is streamed from its region of the file, only one read buffer is held at a time
+                UploadPartResponse response = s3Client.uploadPart(UploadPartRequest.builder()
+                                .bucket(bucket).key(key).uploadId(uploadId)
+                                .partNumber(partNumber).contentLength(length)
+                                .build(),
+                        RequestBody.fromContentProvider(() -> new FileRegionInputStream(fc, partOffset, length),
+                                length, contentType));
+                parts.add(CompletedPart.builder().partNumber(partNumber).eTag(response.eTag()).build());
+            }
+
+            s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                    .bucket(bucket).key(key).uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(parts).build())
+                    .build());
+            log.debug("uploaded object {} in {} parts", key, parts.size());
+        } catch (IOException | SdkException e) {
+            s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(bucket).key(key).uploadId(uploadId)
+                    .build());
+            throw e;
+        }
+    }
+
+    /**
+     * Render thumbnails next to the local source, then upload them beside the media file object. They are
+     * rendered in line since the source is only local until the upload returns.
+     */
+    private void saveThumbnails(Path source, String logicalPath, String mediaFileId) {
+        List<ThumbnailNamespace> suffixes = List.of(ThumbnailNamespace.SMALL_SUFFIX,
+                ThumbnailNamespace.MEDIUM_SUFFIX, ThumbnailNamespace.LARGE_SUFFIX);
+        try {
+            thumbnailRenderer.render(source);
+            for (ThumbnailNamespace suffix : suffixes) {
+                Path thumbnail = Paths.get(source + suffix.value() + "." + THUMBNAIL_FILE_EXTEND);
+                s3Client.putObject(PutObjectRequest.builder()
+                        .bucket(bucket).key(thumbnailKey(logicalPath, mediaFileId, suffix))
+                        .contentType(THUMBNAIL_CONTENT_TYPE)
+                        .build(), RequestBody.fromFile(thumbnail));
+            }
+        } catch (IOException | SdkException e) {
+            log.info("unable to generate thumbnails for file {} due to {}", mediaFileId, e.getMessage());
+        } finally {
+            for (ThumbnailNamespace suffix : suffixes) {
+                deleteQuietly(Paths.get(source + suffix.value() + "." + THUMBNAIL_FILE_EXTEND));
+            }
+        }
+    }
+
+    @Override
+    public Optional<byte[]> getFileBinary(MediaFileMetadata mediaFileMetadata) throws FileStoreServiceException {
+        MediaFileMetadata target = resolveGalleryFeatured(mediaFileMetadata);
+        if (target == null || target.getLogicalPath() == null) return Optional.empty();
+
+        return getObjectBytes(objectKey(target.getLogicalPath(), target.getId()));
+    }
+
+    @Override
+    public Optional<FileChannel> getFileRandomAccess(MediaFileMetadata mediaFileMetadata) throws FileStoreServiceException {
+        MediaFileMetadata target = resolveGalleryFeatured(mediaFileMetadata);
+        if (target == null || target.getLogicalPath() == null) return Optional.empty();
+
+        String key = objectKey(target.getLogicalPath(), target.getId());
+        try {
+            long size = s3Client.headObject(HeadObjectRequest.builder().bucket(bucket).key(key).build())
+                    .contentLength();
+            return Optional.of(new ObjectStoreFileChannel(s3Client, bucket, key, size));
+        } catch (NoSuchKeyException e) {
+            log.info("object {} is not found.", key);
+            return Optional.empty();
+        } catch (SdkException e) {
+            throw new FileStoreServiceException(e.getMessage());
+        }
+    }
+
+    @Override
+    public void deleteFile(MediaFileMetadata mediaFile) throws FileStoreServiceException {
+        if (mediaFile.getLogicalPath() == null) return;
+        thumbnailCache.invalidate(mediaFile.getId());
+
+        // the media file and its thumbnails share the logical path
+        String prefix = objectKey(mediaFile.getLogicalPath(), "");
+        try {
+            ListObjectsV2Request listRequest = ListObjectsV2Request.builder().bucket(bucket).prefix(prefix).build();
+            List<ObjectIdentifier> keys = new ArrayList<>();
+            for (S3Object object : s3Client.listObjectsV2Paginator(listRequest).contents()) {
+                keys.add(ObjectIdentifier.builder().key(object.key()).build());
+                if (keys.size() == MAX_DELETE_KEYS) deleteObjects(keys);
+            }
+            if (!keys.isEmpty()) deleteObjects(keys);
+        } catch (SdkException e) {
+            log.error("failed to delete objects of media file {}: {}", mediaFile.getId(), e.getMessage());
+            throw new FileStoreServiceException(mediaFile.getId());
+        }
+    }
+
+    private void deleteObjects(List<ObjectIdentifier> keys) {
+        s3Client.deleteObjects(DeleteObjectsRequest.builder()
+                .bucket(bucket)
+                .delete(Delete.builder().objects(keys).quiet(true).build())
+                .build());
+        keys.clear();
+    }
+
+    @Override
+    public Optional<byte[]> getThumbnail(MediaFileMetadata mediaFileMetadata, ThumbnailNamespace thumbnailNamespace)
+            throws FileStoreServiceException {
+        // gallery thumbnails are cached under the featured file, so replacing or trashing it is seen right away
+        MediaFileMetadata target = resolveGalleryFeatured(mediaFileMetadata);
+        if (target == null) {
+            return iconResolver.getIcon(iconResolver.getIconFilePath(MediaFileModule.GALLERY.value()));
+        }
+        Optional<byte[]> cached = thumbnailCache.get(target.getId(), thumbnailNamespace);
+        if (cached.isPresent()) return cached;
+
+        if (target.getMimeType() == null || !target.getMimeType().startsWith("image") || target.getLogicalPath() == null) {
+            return iconResolver.getIcon(iconResolver.getIconFilePath(target.getMimeType()));
+        }
+
+        Optional<byte[]> thumbnail = getObjectBytes(thumbnailKey(target.getLogicalPath(), target.getId(),
+                thumbnailFileManager.getThumbnailSuffix(thumbnailNamespace)));
+        if (thumbnail.isEmpty()) {
+            // fetch other thumbnail size if the target one does not exist
+            for (ThumbnailNamespace ns : ThumbnailNamespace.getMainSet()) {
+                if (thumbnailNamespace.equals(ns)) continue;
+                thumbnail = getObjectBytes(thumbnailKey(target.getLogicalPath(), target.getId(),
+                        thumbnailFileManager.getThumbnailSuffix(ns)));
+                if (thumbnail.isPresent()) break;
+            }
+        }
+
+        if (thumbnail.isPresent()) {
+            thumbnailCache.put(target.getId(), thumbnailNamespace, thumbnail.get());
+            return thumbnail;
+        }
+        return iconResolver.getIcon(iconResolver.getIconFilePath(target.getMimeType()));
+    }
+
+    @Override
+    public void emptyTrash() {
+        // objects are deleted right away, there is no trash to empty
+    }
+
+    /**
+     * @return the featured file of a gallery, the file itself otherwise, or null for a gallery without one
+     */
+    private MediaFileMetadata resolveGalleryFeatured(MediaFileMetadata mediaFileMetadata) throws FileStoreServiceException {
+        if (!MediaFileModule.GALLERY.equals(mediaFileMetadata.getModule())) return mediaFileMetadata;
+        if (mediaFileMetadata.getProps() == null) return null;
+
+        return thumbnailFileManager.getThumbnailFileForGallery(mediaFileMetadata).orElse(null);
+    }
+
+    private Optional<byte[]> getObjectBytes(String key) throws FileStoreServiceException {
+        try {
+            return Optional.of(s3Client.getObjectAsBytes(GetObjectRequest.builder().bucket(bucket).key(key).build())
+                    .asByteArray());
+        } catch (NoSuchKeyException e) {
+            return Optional.empty();
+        } catch (SdkException e) {
+            throw new FileStoreServiceException(e.getMessage());
+        }
+    }
+
+    private String objectKey(String logicalPath, String name) {
+        String path = logicalPath.startsWith(KEY_DELIMITER) ? logicalPath.substring(1) : logicalPath;
+        return path + KEY_DELIMITER + name;
+    }
+
+    private String thumbnailKey(String logicalPath, String mediaFileId, ThumbnailNamespace suffix) {
+        return objectKey(logicalPath, mediaFileId + suffix.value() + "." + THUMBNAIL_FILE_EXTEND);
+    }
+
+    private void deleteQuietly(Path path) {
+        if (path == null) return;
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ioe) {
+            log.warn("failed to delete temporary file {}: {}", path, ioe.getMessage());
+        }
+    }
+
+    /**
+     * Stream over a region of a file with positional reads, so parts of one channel can be read independently
+     */
+    private static class FileRegionInputStream extends InputStream {
+
+        private final FileChannel fc;
+
+        private long position;
+
+        private final long end;
+
+        FileRegionInputStream(FileChannel fc, long offset, long length) {
+            this.fc = fc;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) return -1;
+            if (len == 0) return 0;
+
+            int read = fc.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+            if (read > 0) position += read;
+            return read;
+        }
+    }
+
+}
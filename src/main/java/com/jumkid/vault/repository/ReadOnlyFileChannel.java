@@ -0,0 +1,138 @@
+package com.jumkid.vault.repository;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Base of the read only file channels over remote storages, so that their files are streamed with the same
+ * range handling as local files. Subclasses only serve positional reads of a file of known size, the channel
+ * position, scatter reads and transfers are built on top of them.
+ */
+public abstract class ReadOnlyFileChannel extends FileChannel {
+
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+    protected final long size;
+
+    private long position;
+
+    protected ReadOnlyFileChannel(long size) {
+        this.size = size;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        int read = read(dst, position);
+        if (read > 0) position += read;
+        return read;
+    }
+
+    @Override
+    public synchronized long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int read = read(dsts[i]);
+            if (read < 0) return total == 0 ? -1 : total;
+            total += read;
+            if (dsts[i].hasRemaining()) break;
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        ensureOpen();
+        if (position >= size || count <= 0) return 0;
+
+        long end = Math.min(size, position + count);
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(TRANSFER_BUFFER_SIZE, end - position));
+        long transferred = 0;
+        while (position + transferred < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position - transferred));
+            int read = read(buffer, position + transferred);
+            if (read <= 0) break;
+            buffer.flip();
+            while (buffer.hasRemaining()) target.write(buffer);
+            transferred += read;
+        }
+        return transferred;
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized FileChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) throw new IllegalArgumentException("negative position");
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public int write(ByteBuffer src, long position) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public FileChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long transferFrom(ReadableByteChannel src, long position, long count) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public void force(boolean metaData) {
+        // read only, nothing to flush
+    }
+
+    @Override
+    public MappedByteBuffer map(MapMode mode, long position, long size) {
+        throw new UnsupportedOperationException("remote files cannot be memory mapped");
+    }
+
+    @Override
+    public FileLock lock(long position, long size, boolean shared) {
+        throw new UnsupportedOperationException("remote files cannot be locked");
+    }
+
+    @Override
+    public FileLock tryLock(long position, long size, boolean shared) {
+        throw new UnsupportedOperationException("remote files cannot be locked");
+    }
+
+    protected void ensureOpen() throws IOException {
+        if (!isOpen()) throw new ClosedChannelException();
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.jumkid.vault.repository;
+
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.jumkid.vault.exception.InvalidCursorException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Position of a paged search: the point in time the pages are read from and the sort values of the last
+ * hit of the previous page, carried by clients as an opaque url safe string
+ */
+record SearchCursor(String pitId, List<FieldValue> searchAfter) {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final String PIT = "pit";
+    private static final String AFTER = "after";
+
+    String encode() {
+        ObjectNode node = OBJECT_MAPPER.createObjectNode().put(PIT, pitId);
+        ArrayNode after = node.putArray(AFTER);
+        for (FieldValue value : searchAfter) {
+            if (value.isLong()) after.add(value.longValue());
+            else if (value.isDouble()) after.add(value.doubleValue());
+            else if (value.isBoolean()) after.add(value.booleanValue());
+            else if (value.isString()) after.add(value.stringValue());
+            else after.addNull();
+        }
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(node.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    static SearchCursor decode(String cursor) {
+        try {
+            JsonNode node = OBJECT_MAPPER.readTree(Base64.getUrlDecoder().decode(cursor));
+            if (node == null || !node.hasNonNull(PIT) || !node.path(AFTER).isArray()) {
+                throw new InvalidCursorException(cursor);
+            }
+            List<FieldValue> searchAfter = new ArrayList<>();
+            for (JsonNode value : node.get(AFTER)) {
+                if (value.isIntegralNumber()) searchAfter.add(FieldValue.of(value.longValue()));
+                else if (value.isNumber()) searchAfter.add(FieldValue.of(value.doubleValue()));
+                else if (value.isBoolean()) searchAfter.add(FieldValue.of(value.booleanValue()));
+                else if (value.isTextual()) searchAfter.add(FieldValue.of(value.textValue()));
+                else searchAfter.add(FieldValue.NULL);
+            }
+            return new SearchCursor(node.get(PIT).textValue(), searchAfter);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new InvalidCursorException(cursor);
+        }
+    }
+
+}
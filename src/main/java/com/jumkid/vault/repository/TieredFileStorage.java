@@ -0,0 +1,321 @@
+package com.jumkid.vault.repository;
+
+import com.jumkid.vault.enums.MediaFileModule;
+import com.jumkid.vault.enums.StorageMode;
+import com.jumkid.vault.enums.ThumbnailNamespace;
+import com.jumkid.vault.exception.FileNotFoundException;
+import com.jumkid.vault.exception.FileStoreServiceException;
+import com.jumkid.vault.model.MediaFileMetadata;
+import com.jumkid.vault.repository.mapped.MappedFilePool;
+import com.jumkid.vault.repository.tiered.HotTier;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Repository;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * Composite storage of a local {@link HotTier} in front of a cold storage, HDFS or the object store. Reads are
+ * served from the hot tier when it has the file, otherwise from the cold tier while the file is promoted to
+ * the hot tier in the background. Writes go through to the cold tier and keep a hot copy, or in the write back
+ * mode land in the hot tier only and are copied to the cold tier in the background. Files still waiting for the
+ * cold tier on shutdown are copied on next start. Thumbnails and the trash are left to the cold tier.
+ */
+@Slf4j
+@Repository
+public class TieredFileStorage implements FileStorage<MediaFileMetadata> {
+
+    public enum WriteMode { THROUGH, BACK }
+
+    private static final int QUEUE_CAPACITY = 256;
+
+    private final HotTier hotTier;
+
+    private final FileStorage<MediaFileMetadata> coldStorage;
+
+    private final FilePathManager filePathManager;
+
+    private final FileMetadata<MediaFileMetadata> metadataStorage;
+
+    private final WriteMode writeMode;
+
+    private final ThreadPoolExecutor executor;
+
+    private final Set<String> promoting = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    public TieredFileStorage(HotTier hotTier, HadoopFileStorage hadoopFileStorage,
+                             ObjectStoreFileStorage objectStoreFileStorage, FilePathManager filePathManager,
+                             FileMetadata<MediaFileMetadata> metadataStorage,
+                             @Value("${vault.storage.tiered.cold-mode}") String coldMode,
+                             @Value("${vault.storage.tiered.write-mode}") String writeMode,
+                             @Value("${vault.storage.tiered.workers}") int workers) {
+        this(hotTier, switch (StorageMode.valueOf(coldMode.toUpperCase())) {
+                    case HADOOP -> hadoopFileStorage;
+                    case OBJECT_STORE -> objectStoreFileStorage;
+                    default -> throw new IllegalArgumentException("cold tier must be hadoop or object_store, not " + coldMode);
+                }, filePathManager, metadataStorage, WriteMode.valueOf(writeMode.toUpperCase()), workers);
+    }
+
+    public TieredFileStorage(HotTier hotTier, FileStorage<MediaFileMetadata> coldStorage,
+                             FilePathManager filePathManager, FileMetadata<MediaFileMetadata> metadataStorage,
+                             WriteMode writeMode, int workers) {
+        this.hotTier = hotTier;
+        this.coldStorage = coldStorage;
+        this.filePathManager = filePathManager;
+        this.metadataStorage = metadataStorage;
+        this.writeMode = writeMode;
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY), new CustomizableThreadFactory("tier-"));
+    }
+
+    @Override
+    public Optional<MediaFileMetadata> saveFile(byte[] bytes, MediaFileMetadata mediaFile) throws FileStoreServiceException {
+        if (bytes == null) return Optional.empty();
+
+        Path tmpFile = null;
+        try {
+            tmpFile = Files.createTempFile("vault-upload", null);
+            Files.write(tmpFile, bytes);
+            return saveFile(tmpFile, mediaFile);
+        } catch (IOException ioe) {
+            log.error("failed to write file bytes: {}", ioe.getMessage());
+            return Optional.empty();
+        } finally {
+            deleteQuietly(tmpFile);
+        }
+    }
+
+    @Override
+    public Optional<MediaFileMetadata> saveFile(Path source, MediaFileMetadata mediaFile) throws FileStoreServiceException {
+        if (source == null) return Optional.empty();
+
+        long size;
+        try {
+            size = Files.size(source);
+        } catch (IOException ioe) {
+            log.error("failed to read spooled file {}: {}", source, ioe.getMessage());
+            return Optional.empty();
+        }
+
+        // files too large for the hot tier are always written through, they could not be kept there anyway
+        if (writeMode == WriteMode.BACK && hotTier.admits(size)) {
+            String logicalPath = filePathManager.getFullPath(mediaFile);
+            try {
+                hotTier.storePending(mediaFile.getId(), source);
+                mediaFile.setLogicalPath(logicalPath);
+                scheduleWriteBack(mediaFile.getId(), mediaFile.getMimeType(), logicalPath);
+                return Optional.of(mediaFile);
+            } catch (IOException ioe) {
+                log.warn("failed to keep {} in the hot tier, write it through: {}", mediaFile.getId(), ioe.getMessage());
+            }
+        }
+
+        Optional<MediaFileMetadata> saved = coldStorage.saveFile(source, mediaFile);
+        if (saved.isPresent()) {
+            try {
+                if (hotTier.admits(size)) {
+                    hotTier.store(mediaFile.getId(), source);
+                } else {
+                    hotTier.invalidate(mediaFile.getId());
+                }
+            } catch (IOException ioe) {
+                // the hot copy is optional, the next read promotes the file again
+                hotTier.invalidate(mediaFile.getId());
+                log.warn("failed to keep {} in the hot tier: {}", mediaFile.getId(), ioe.getMessage());
+            }
+        }
+        return saved;
+    }
+
+    @Override
+    public Optional<byte[]> getFileBinary(MediaFileMetadata mediaFileMetadata) throws FileStoreServiceException {
+        if (isGallery(mediaFileMetadata)) return coldStorage.getFileBinary(mediaFileMetadata);
+
+        Optional<Path> hot = hotTier.get(mediaFileMetadata.getId());
+        if (hot.isPresent()) {
+            try {
+                return Optional.of(Files.readAllBytes(hot.get()));
+            } catch (IOException ioe) {
+                log.debug("hot copy of {} is gone, read the cold tier. {}", mediaFileMetadata.getId(), ioe.getMessage());
+            }
+        }
+
+        Optional<byte[]> bytes = coldStorage.getFileBinary(mediaFileMetadata);
+        if (bytes.isPresent() && hotTier.admits(bytes.get().length)) {
+            byte[] content = bytes.get();
+            schedulePromotion(mediaFileMetadata.getId(), () -> Channels.newChannel(new ByteArrayInputStream(content)));
+        }
+        return bytes;
+    }
+
+    @Override
+    public Optional<FileChannel> getFileRandomAccess(MediaFileMetadata mediaFileMetadata) throws FileStoreServiceException {
+        if (isGallery(mediaFileMetadata)) return coldStorage.getFileRandomAccess(mediaFileMetadata);
+
+        Optional<Path> hot = hotTier.get(mediaFileMetadata.getId());
+        if (hot.isPresent()) {
+            try {
+                return Optional.of(FileChannel.open(hot.get(), StandardOpenOption.READ));
+            } catch (NoSuchFileException nsfe) {
+                log.debug("hot copy of {} was evicted, read the cold tier", mediaFileMetadata.getId());
+            } catch (IOException ioe) {
+                throw new FileStoreServiceException(ioe.getMessage());
+            }
+        }
+
+        Optional<FileChannel> channel = coldStorage.getFileRandomAccess(mediaFileMetadata);
+        if (channel.isPresent() && admits(channel.get())) {
+            // the promotion reads its own channel, this one is positioned by the caller
+            schedulePromotion(mediaFileMetadata.getId(),
+                    () -> coldStorage.getFileRandomAccess(mediaFileMetadata).orElse(null));
+        }
+        return channel;
+    }
+
+    @Override
+    public Optional<MappedFilePool.Lease> getMappedFile(MediaFileMetadata mediaFileMetadata) {
+        if (isGallery(mediaFileMetadata)) return Optional.empty();
+        return hotTier.getMapped(mediaFileMetadata.getId());
+    }
+
+    @Override
+    public void deleteFile(MediaFileMetadata mediaFile) throws FileNotFoundException, FileStoreServiceException {
+        hotTier.invalidate(mediaFile.getId());
+        coldStorage.deleteFile(mediaFile);
+    }
+
+    @Override
+    public Optional<byte[]> getThumbnail(MediaFileMetadata mediaFileMetadata, ThumbnailNamespace thumbnailNamespace)
+            throws FileStoreServiceException {
+        return coldStorage.getThumbnail(mediaFileMetadata, thumbnailNamespace);
+    }
+
+    @Override
+    public void emptyTrash() throws FileStoreServiceException {
+        coldStorage.emptyTrash();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeWriteBacks() {
+        for (String mediaFileId : hotTier.getPendingIds()) {
+            try {
+                Optional<MediaFileMetadata> metadata = metadataStorage.getMetadata(mediaFileId);
+                if (metadata.isPresent() && metadata.get().getLogicalPath() != null) {
+                    log.info("resume write back of {}", mediaFileId);
+                    scheduleWriteBack(mediaFileId, metadata.get().getMimeType(), metadata.get().getLogicalPath());
+                } else {
+                    // the upload failed before its metadata was stored, nothing refers to the file
+                    log.info("drop pending file {} without metadata", mediaFileId);
+                    hotTier.invalidate(mediaFileId);
+                }
+            } catch (FileStoreServiceException e) {
+                log.warn("failed to resume write back of {}: {}", mediaFileId, e.getMessage());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // pending write backs stay in the hot tier and are resumed on next start
+        executor.shutdownNow();
+    }
+
+    private void schedulePromotion(String mediaFileId, Callable<ReadableByteChannel> source) {
+        if (!promoting.add(mediaFileId)) return;
+        // taken before the cold tier is read, a save or delete of the file from now on cancels the promotion
+        long generation = hotTier.beginPromotion(mediaFileId);
+        try {
+            executor.execute(() -> {
+                try (ReadableByteChannel channel = source.call()) {
+                    if (channel != null) hotTier.promote(mediaFileId, generation, channel);
+                } catch (Exception e) {
+                    log.info("failed to promote {} to the hot tier: {}", mediaFileId, e.getMessage());
+                } finally {
+                    hotTier.endPromotion(mediaFileId, generation);
+                    promoting.remove(mediaFileId);
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            // the workers are busy, a later read promotes the file
+            hotTier.endPromotion(mediaFileId, generation);
+            promoting.remove(mediaFileId);
+        }
+    }
+
+    private void scheduleWriteBack(String mediaFileId, String mimeType, String logicalPath) {
+        try {
+            executor.execute(() -> writeBack(mediaFileId, mimeType, logicalPath));
+        } catch (RejectedExecutionException ree) {
+            writeBack(mediaFileId, mimeType, logicalPath);
+        }
+    }
+
+    /**
+     * Copy a pending file to the cold tier at the logical path promised to the caller of saveFile. The cold
+     * storage appends the id to a given logical path, so it is given the parent folder of the promised one.
+     */
+    private void writeBack(String mediaFileId, String mimeType, String logicalPath) {
+        Optional<Path> pending = hotTier.getPending(mediaFileId);
+        if (pending.isEmpty()) return;
+
+        MediaFileMetadata coldMetadata = MediaFileMetadata.builder()
+                .id(mediaFileId)
+                .mimeType(mimeType)
+                .logicalPath(logicalPath.substring(0, logicalPath.lastIndexOf(FilePathManager.DELIMITER)))
+                .build();
+        try {
+            Optional<MediaFileMetadata> saved = coldStorage.saveFile(pending.get(), coldMetadata);
+            if (saved.isEmpty()) {
+                log.error("failed to write back {}, it is retried on next start", mediaFileId);
+                return;
+            }
+            if (!hotTier.release(mediaFileId)) {
+                // deleted while it was copied
+                coldStorage.deleteFile(saved.get());
+            }
+            log.debug("wrote back {} to the cold tier", mediaFileId);
+        } catch (Exception e) {
+            log.error("failed to write back {}, it is retried on next start: {}", mediaFileId, e.getMessage());
+        }
+    }
+
+    private boolean admits(FileChannel channel) {
+        try {
+            return hotTier.admits(channel.size());
+        } catch (IOException ioe) {
+            return false;
+        }
+    }
+
+    private boolean isGallery(MediaFileMetadata mediaFileMetadata) {
+        // galleries resolve to their featured file in the cold tier, which the hot tier does not key by
+        return MediaFileModule.GALLERY.equals(mediaFileMetadata.getModule());
+    }
+
+    private void deleteQuietly(Path path) {
+        if (path == null) return;
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ioe) {
+            log.warn("failed to delete temporary file {}: {}", path, ioe.getMessage());
+        }
+    }
+
+}
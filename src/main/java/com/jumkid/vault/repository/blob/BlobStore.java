@@ -0,0 +1,208 @@
+package com.jumkid.vault.repository.blob;
+
+import com.jumkid.vault.repository.FilePathManager;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * Content addressed store of file binaries. A blob is named by the SHA-256 of its content and kept under
+ * two levels of hash prefix directories, e.g. blob/ab/cd/abcd..., with a sidecar file counting the media
+ * files referring to it. Identical uploads share one blob, which is only removed with its last reference.
+ * Reference counts are guarded by striped locks rather than monitors, so that virtual threads doing the file
+ * I/O under the lock do not pin their carrier threads.
+ */
+@Slf4j
+@Component
+public class BlobStore {
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+
+    private static final String REF_FILE_EXTEND = ".ref";
+
+    private static final Pattern BLOB_ID_PATTERN = Pattern.compile("[0-9a-f]{64}");
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final FilePathManager filePathManager;
+
+    private final Lock[] locks = new Lock[LOCK_STRIPES];
+
+    public BlobStore(FilePathManager filePathManager) {
+        this.filePathManager = filePathManager;
+        for (int i = 0; i < LOCK_STRIPES; i++) locks[i] = new ReentrantLock();
+    }
+
+    /**
+     * Store the file as a blob and add one reference to it. The source file is moved into the store,
+     * or removed if the same content is stored already.
+     *
+     * @param source file to store, it is consumed
+     * @return blob identity
+     * @throws IOException failed to read the source or write the blob
+     */
+    public String store(Path source) throws IOException {
+        String blobId = hash(source);
+        Lock lock = lockFor(blobId);
+        lock.lock();
+        try {
+            Path blobPath = getBlobFilePath(blobId);
+            if (Files.exists(blobPath)) {
+                Files.delete(source);
+                log.debug("content of {} is stored already as blob {}", source, blobId);
+            } else {
+                Files.createDirectories(blobPath.getParent());
+                Files.move(source, blobPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+            writeRefCount(blobId, readRefCount(blobId) + 1);
+        } finally {
+            lock.unlock();
+        }
+        return blobId;
+    }
+
+    /**
+     * Store the bytes as a blob and add one reference to it
+     *
+     * @param bytes file content
+     * @return blob identity
+     * @throws IOException failed to write the blob
+     */
+    public String store(byte[] bytes) throws IOException {
+        String blobId = HexFormat.of().formatHex(newDigest().digest(bytes));
+        Lock lock = lockFor(blobId);
+        lock.lock();
+        try {
+            Path blobPath = getBlobFilePath(blobId);
+            if (!Files.exists(blobPath)) {
+                Files.createDirectories(blobPath.getParent());
+                Path tmpPath = blobPath.resolveSibling(blobId + ".tmp");
+                Files.write(tmpPath, bytes);
+                Files.move(tmpPath, blobPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            writeRefCount(blobId, readRefCount(blobId) + 1);
+        } finally {
+            lock.unlock();
+        }
+        return blobId;
+    }
+
+    /**
+     * Expose the blob at the target path with a hard link, which costs no extra disk space.
+     * File systems without hard links get a copy instead.
+     *
+     * @param blobId blob identity
+     * @param target path of the media file
+     * @throws IOException failed to link or copy the blob
+     */
+    public void link(String blobId, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, getBlobFilePath(blobId));
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            log.warn("failed to link blob {} to {}, copy it instead. {}", blobId, target, e.getMessage());
+            Files.copy(getBlobFilePath(blobId), target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Remove one reference to the blob, the blob is deleted once no reference is left
+     *
+     * @param blobId blob identity
+     * @return number of references left
+     * @throws IOException failed to update the reference count or delete the blob
+     */
+    public int release(String blobId) throws IOException {
+        checkBlobId(blobId);
+        Lock lock = lockFor(blobId);
+        lock.lock();
+        try {
+            int refCount = Math.max(0, readRefCount(blobId) - 1);
+            if (refCount == 0) {
+                Files.deleteIfExists(getBlobFilePath(blobId));
+                Files.deleteIfExists(getRefFilePath(blobId));
+                log.debug("blob {} is deleted with its last reference", blobId);
+            } else {
+                writeRefCount(blobId, refCount);
+            }
+            return refCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getRefCount(String blobId) throws IOException {
+        checkBlobId(blobId);
+        Lock lock = lockFor(blobId);
+        lock.lock();
+        try {
+            return readRefCount(blobId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Path getBlobFilePath(String blobId) {
+        checkBlobId(blobId);
+        return Paths.get(filePathManager.getDataHomePath(), filePathManager.getBlobPath(),
+                blobId.substring(0, 2), blobId.substring(2, 4), blobId);
+    }
+
+    private Path getRefFilePath(String blobId) {
+        Path blobPath = getBlobFilePath(blobId);
+        return blobPath.resolveSibling(blobId + REF_FILE_EXTEND);
+    }
+
+    private int readRefCount(String blobId) throws IOException {
+        Path refPath = getRefFilePath(blobId);
+        if (!Files.exists(refPath)) return 0;
+        return Integer.parseInt(Files.readString(refPath, StandardCharsets.US_ASCII).trim());
+    }
+
+    private void writeRefCount(String blobId, int refCount) throws IOException {
+        Path refPath = getRefFilePath(blobId);
+        Path tmpPath = refPath.resolveSibling(blobId + REF_FILE_EXTEND + ".tmp");
+        Files.writeString(tmpPath, Integer.toString(refCount), StandardCharsets.US_ASCII);
+        Files.move(tmpPath, refPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Lock lockFor(String blobId) {
+        return locks[Integer.parseInt(blobId.substring(0, 2), 16) % LOCK_STRIPES];
+    }
+
+    private void checkBlobId(String blobId) {
+        if (blobId == null || !BLOB_ID_PATTERN.matcher(blobId).matches()) {
+            throw new IllegalArgumentException("invalid blob id " + blobId);
+        }
+    }
+
+    private String hash(Path source) throws IOException {
+        MessageDigest digest = newDigest();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(source), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new InternalError(HASH_ALGORITHM + " not supported", e);
+        }
+    }
+
+}
@@ -0,0 +1,55 @@
+package com.jumkid.vault.repository.hadoop;
+
+import com.jumkid.vault.repository.ReadOnlyFileChannel;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hadoop.fs.FSDataInputStream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Read only file channel over a file of HDFS. All reads are positional reads of the one open input stream,
+ * so a Range request reads its bytes from the datanodes holding them without seeking the stream around.
+ */
+@Slf4j
+public class HadoopFileChannel extends ReadOnlyFileChannel {
+
+    private final FSDataInputStream in;
+
+    private final String path;
+
+    public HadoopFileChannel(FSDataInputStream in, String path, long size) {
+        super(size);
+        this.in = in;
+        this.path = path;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst, long position) throws IOException {
+        ensureOpen();
+        if (position < 0) throw new IllegalArgumentException("negative position");
+        if (position >= size) return -1;
+        if (!dst.hasRemaining()) return 0;
+
+        int length = (int) Math.min(dst.remaining(), size - position);
+        if (dst.hasArray()) {
+            in.readFully(position, dst.array(), dst.arrayOffset() + dst.position(), length);
+            dst.position(dst.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            in.readFully(position, bytes, 0, length);
+            dst.put(bytes);
+        }
+        return length;
+    }
+
+    @Override
+    protected synchronized void implCloseChannel() {
+        try {
+            in.close();
+        } catch (IOException e) {
+            log.debug("failed to close hdfs stream of {}. {}", path, e.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,223 @@
+package com.jumkid.vault.repository.mapped;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of read only memory mappings of small, frequently served files such as thumbnails and icons.
+ * A hot file is served from the page cache without opening it or copying it to the heap on every request.
+ * <p>
+ * Mappings are evicted least recently used once their total size exceeds the limit, and a mapping is checked
+ * against the size and modification time of its file on every use, so replaced files are mapped again.
+ * Callers hold a {@link Lease} while reading the buffer, an evicted mapping is only unmapped after its last
+ * lease is closed.
+ */
+@Slf4j
+@Component
+public class MappedFilePool {
+
+    private static final String CACHE_NAME = "mapped-file";
+
+    private static final Unmapper UNMAPPER = Unmapper.lookup();
+
+    private final boolean enabled;
+
+    private final long maxFileSize;
+
+    private final Cache<Path, Mapping> mappings;
+
+    @Autowired
+    public MappedFilePool(MeterRegistry meterRegistry,
+                          @Value("${vault.storage.mapped.enabled}") boolean enabled,
+                          @Value("${vault.storage.mapped.max-file-size}") DataSize maxFileSize,
+                          @Value("${vault.storage.mapped.max-total-size}") DataSize maxTotalSize) {
+        this.enabled = enabled;
+        this.maxFileSize = maxFileSize.toBytes();
+        this.mappings = Caffeine.newBuilder()
+                .maximumWeight(maxTotalSize.toBytes())
+                .weigher((Path path, Mapping mapping) -> (int) mapping.size)
+                .removalListener((Path path, Mapping mapping, RemovalCause cause) -> {
+                    if (mapping != null) mapping.retire();
+                })
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, mappings, CACHE_NAME);
+    }
+
+    /**
+     * Lease the mapping of the given file, the file is mapped on first use
+     *
+     * @param path file path
+     * @return lease of the mapped file, or empty if the pool is disabled or the file does not qualify
+     */
+    public Optional<Lease> acquire(Path path) {
+        if (!enabled || path == null) return Optional.empty();
+
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            mappings.invalidate(path);
+            return Optional.empty();
+        } catch (IOException e) {
+            log.debug("failed to read attributes of {}. {}", path, e.getMessage());
+            return Optional.empty();
+        }
+        if (!attributes.isRegularFile() || attributes.size() == 0 || attributes.size() > maxFileSize) {
+            return Optional.empty();
+        }
+
+        while (true) {
+            Mapping mapping = mappings.get(path, p -> map(p, attributes));
+            if (mapping == null) return Optional.empty();
+
+            if (!mapping.matches(attributes)) {
+                // the file is replaced since it was mapped
+                mappings.asMap().remove(path, mapping);
+                continue;
+            }
+            // a mapping evicted between the lookup and here is not leased out, look it up again
+            if (mapping.acquire()) return Optional.of(new Lease(mapping));
+        }
+    }
+
+    public void invalidate(Path path) {
+        if (path != null) mappings.invalidate(path);
+    }
+
+    private Mapping map(Path path, BasicFileAttributes attributes) {
+        try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = fc.size();
+            if (size != attributes.size()) return null;
+
+            MappedByteBuffer buffer = fc.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new Mapping(buffer, size, attributes.lastModifiedTime().toMillis());
+        } catch (IOException e) {
+            log.debug("failed to map file {}. {}", path, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Read access to a mapped file. Close it once the buffer is written out, the buffer must not be used
+     * afterwards.
+     */
+    public static final class Lease implements AutoCloseable {
+
+        private final Mapping mapping;
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Lease(Mapping mapping) {
+            this.mapping = mapping;
+        }
+
+        /**
+         * @return read only view of the whole file, positioned at the start
+         */
+        public ByteBuffer buffer() {
+            return mapping.buffer.asReadOnlyBuffer();
+        }
+
+        public long size() {
+            return mapping.size;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) mapping.release();
+        }
+    }
+
+    private static final class Mapping {
+
+        private final MappedByteBuffer buffer;
+
+        private final long size;
+
+        private final long lastModified;
+
+        // one reference is held by the pool itself until the mapping is evicted
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        private Mapping(MappedByteBuffer buffer, long size, long lastModified) {
+            this.buffer = buffer;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        private boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size() && lastModified == attributes.lastModifiedTime().toMillis();
+        }
+
+        private boolean acquire() {
+            int count;
+            do {
+                count = references.get();
+                if (count == 0) return false;
+            } while (!references.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        private void release() {
+            if (references.decrementAndGet() == 0) UNMAPPER.unmap(buffer);
+        }
+
+        private void retire() {
+            release();
+        }
+    }
+
+    /**
+     * Releases mapped memory right away instead of waiting for the buffer to be garbage collected
+     */
+    private record Unmapper(Object unsafe, Method invokeCleaner) {
+
+        static Unmapper lookup() {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                return new Unmapper(field.get(null), unsafeClass.getMethod("invokeCleaner", ByteBuffer.class));
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                log.warn("explicit unmapping is not available, mapped files are released by garbage collection. {}",
+                        e.getMessage());
+                return new Unmapper(null, null);
+            }
+        }
+
+        void unmap(MappedByteBuffer buffer) {
+            if (invokeCleaner == null) return;
+            try {
+                invokeCleaner.invoke(unsafe, buffer);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                log.debug("failed to unmap buffer. {}", e.getMessage());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,138 @@
+package com.jumkid.vault.repository.objectstore;
+
+import com.jumkid.vault.repository.ReadOnlyFileChannel;
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Read only file channel over an object of an S3 compatible store, so that objects are streamed with the
+ * same range handling as local files. Reads are served by ranged GET requests: a sequential read keeps one
+ * response open, and a read at any other position opens a new range from there to the end of the object.
+ * Transfers know their length, so they request exactly the bytes they send.
+ */
+@Slf4j
+public class ObjectStoreFileChannel extends ReadOnlyFileChannel {
+
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+    private final S3Client s3Client;
+
+    private final String bucket;
+
+    private final String key;
+
+    private ResponseInputStream<GetObjectResponse> rangeStream;
+
+    private long rangeStreamPosition = -1;
+
+    private long rangeStreamEnd = -1;
+
+    public ObjectStoreFileChannel(S3Client s3Client, String bucket, String key, long size) {
+        super(size);
+        this.s3Client = s3Client;
+        this.bucket = bucket;
+        this.key = key;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst, long position) throws IOException {
+        ensureOpen();
+        if (position < 0) throw new IllegalArgumentException("negative position");
+        if (position >= size) return -1;
+        if (!dst.hasRemaining()) return 0;
+
+        return readRange(dst, position, size);
+    }
+
+    private int readRange(ByteBuffer dst, long position, long end) throws IOException {
+        InputStream in = openAt(position, end);
+        int length = (int) Math.min(dst.remaining(), rangeStreamEnd - position);
+        int read;
+        if (dst.hasArray()) {
+            read = in.read(dst.array(), dst.arrayOffset() + dst.position(), length);
+            if (read > 0) dst.position(dst.position() + read);
+        } else {
+            byte[] bytes = new byte[length];
+            read = in.read(bytes);
+            if (read > 0) dst.put(bytes, 0, read);
+        }
+
+        if (read < 0) {
+            closeRangeStream();
+            return -1;
+        }
+        rangeStreamPosition += read;
+        return read;
+    }
+
+    @Override
+    public synchronized long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        ensureOpen();
+        if (position >= size || count <= 0) return 0;
+
+        long end = Math.min(size, position + count);
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(TRANSFER_BUFFER_SIZE, end - position));
+        long transferred = 0;
+        while (position + transferred < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position - transferred));
+            int read = readRange(buffer, position + transferred, end);
+            if (read <= 0) break;
+            buffer.flip();
+            while (buffer.hasRemaining()) target.write(buffer);
+            transferred += read;
+        }
+        return transferred;
+    }
+
+    @Override
+    protected synchronized void implCloseChannel() {
+        closeRangeStream();
+    }
+
+    /**
+     * @param position first byte to read
+     * @param end position after the last byte needed, an open response ending elsewhere is not reused
+     */
+    private InputStream openAt(long position, long end) throws IOException {
+        if (rangeStream != null && rangeStreamPosition == position && rangeStreamEnd == end) return rangeStream;
+
+        closeRangeStream();
+        try {
+            rangeStream = s3Client.getObject(GetObjectRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .range(end >= size ? "bytes=" + position + "-" : "bytes=" + position + "-" + (end - 1))
+                    .build());
+            rangeStreamPosition = position;
+            rangeStreamEnd = Math.min(end, size);
+            return rangeStream;
+        } catch (SdkException e) {
+            throw new IOException("failed to read object " + key + " from position " + position, e);
+        }
+    }
+
+    private void closeRangeStream() {
+        if (rangeStream == null) return;
+        // abort rather than drain the rest of the range, it may be the whole object
+        rangeStream.abort();
+        try {
+            rangeStream.close();
+        } catch (IOException e) {
+            log.debug("failed to close object stream of {}. {}", key, e.getMessage());
+        }
+        rangeStream = null;
+        rangeStreamPosition = -1;
+        rangeStreamEnd = -1;
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.jumkid.vault.repository.spool;
+
+import com.jumkid.vault.repository.FilePathManager;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+
+@Slf4j
+@Component
+public class FileSpoolManager {
+
+    private static final String SPOOL_FILE_PREFIX = "upload-";
+
+    private static final String SPOOL_FILE_SUFFIX = ".spool";
+
+    private final FilePathManager filePathManager;
+
+    public FileSpoolManager(FilePathManager filePathManager) {
+        this.filePathManager = filePathManager;
+    }
+
+    /**
+     * Copy the upload stream into a temporary file under the data home, hashing the content on the way,
+     * so that only a fixed size buffer is held in memory whatever the size of the upload
+     *
+     * @param inputStream upload content stream, it is closed once spooled
+     * @return spooled file
+     * @throws IOException failed to read the upload or write the temporary file
+     */
+    public SpooledFile spool(InputStream inputStream) throws IOException {
+        Path spoolPath = Files.createTempFile(checkSpoolPath(), SPOOL_FILE_PREFIX, SPOOL_FILE_SUFFIX);
+        MessageDigest digest = newMd5Digest();
+
+        try (DigestInputStream in = new DigestInputStream(inputStream, digest)) {
+            long size = Files.copy(in, spoolPath, StandardCopyOption.REPLACE_EXISTING);
+            log.debug("spooled {} bytes to {}", size, spoolPath);
+
+            return new SpooledFile(spoolPath, size, toNameUuid(digest.digest()));
+        } catch (IOException ioe) {
+            Files.deleteIfExists(spoolPath);
+            throw ioe;
+        }
+    }
+
+    private Path checkSpoolPath() throws IOException {
+        Path spoolPath = Paths.get(filePathManager.getDataHomePath(), filePathManager.getTempPath());
+        if (!Files.exists(spoolPath)) {
+            Files.createDirectories(spoolPath);
+        }
+        return spoolPath;
+    }
+
+    private MessageDigest newMd5Digest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new InternalError("MD5 not supported", e);
+        }
+    }
+
+    /**
+     * Build the same type 3 uuid as UUID.nameUUIDFromBytes from an already computed md5 digest
+     */
+    private String toNameUuid(byte[] md5Bytes) {
+        md5Bytes[6] &= 0x0f;  /* clear version        */
+        md5Bytes[6] |= 0x30;  /* set to version 3     */
+        md5Bytes[8] &= 0x3f;  /* clear variant        */
+        md5Bytes[8] |= (byte) 0x80;  /* set to IETF variant  */
+
+        long msb = 0;
+        long lsb = 0;
+        for (int i = 0; i < 8; i++) {
+            msb = (msb << 8) | (md5Bytes[i] & 0xff);
+        }
+        for (int i = 8; i < 16; i++) {
+            lsb = (lsb << 8) | (md5Bytes[i] & 0xff);
+        }
+        return new UUID(msb, lsb).toString();
+    }
+
+}
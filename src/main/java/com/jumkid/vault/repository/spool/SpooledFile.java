@@ -0,0 +1,35 @@
+package com.jumkid.vault.repository.spool;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Upload content spooled to a temporary file, together with the size and content uuid
+ * computed while it was written. Closing it removes the temporary file if it was not moved into storage.
+ */
+@Slf4j
+@Getter
+@AllArgsConstructor
+public class SpooledFile implements AutoCloseable {
+
+    private final Path path;
+
+    private final long size;
+
+    private final String contentUuid;
+
+    @Override
+    public void close() {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ioe) {
+            log.error("failed to remove spooled file {} {}", path, ioe.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.jumkid.vault.repository.thumbnail;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Resolve the file type icon of a mime type from the icon mappings. The patterns are compiled once, resolved
+ * mime types are remembered, and the icon files are kept in memory once read.
+ */
+@Slf4j
+@Component
+public class IconResolver {
+
+    private static final String MISC_PATH = "misc";
+    private static final String DEFAULT_ICON = "icon_file.png";
+
+    // mime types come from clients, so the memo does not grow beyond this
+    private static final int MAX_RESOLVED_MIME_TYPES = 1024;
+
+    private record IconMapping(Pattern pattern, String iconFilePath) {}
+
+    private final List<IconMapping> iconMappings = new ArrayList<>();
+
+    private final String defaultIconFilePath;
+
+    private final Set<String> iconFilePaths = new HashSet<>();
+
+    private final Map<String, String> resolvedMimeTypes = new ConcurrentHashMap<>();
+
+    private final Map<String, byte[]> iconBytes = new ConcurrentHashMap<>();
+
+    @Autowired
+    public IconResolver(@Value("${vault.data.home}") String dataHomePath,
+                        @Value("#{${vault.thumbnail.icon-mappings}}") Map<String, String> iconMappings) {
+        Path miscPath = Paths.get(dataHomePath, MISC_PATH);
+        this.defaultIconFilePath = miscPath.resolve(DEFAULT_ICON).toString();
+        // mappings are matched in the configured order, the first match wins
+        iconMappings.forEach((regex, icon) -> this.iconMappings.add(
+                new IconMapping(Pattern.compile(regex, Pattern.CASE_INSENSITIVE), miscPath.resolve(icon).toString())));
+
+        iconFilePaths.add(defaultIconFilePath);
+        this.iconMappings.forEach(mapping -> iconFilePaths.add(mapping.iconFilePath()));
+        iconFilePaths.forEach(this::loadIcon);
+    }
+
+    /**
+     * @param mimeType mime type of media file, or a module name such as gallery
+     * @return path of the icon file
+     */
+    public String getIconFilePath(String mimeType) {
+        if (mimeType == null) return defaultIconFilePath;
+
+        String iconFilePath = resolvedMimeTypes.get(mimeType);
+        if (iconFilePath == null) {
+            iconFilePath = resolve(mimeType);
+            if (resolvedMimeTypes.size() < MAX_RESOLVED_MIME_TYPES) resolvedMimeTypes.put(mimeType, iconFilePath);
+        }
+        return iconFilePath;
+    }
+
+    public boolean isIconFilePath(String filePath) {
+        return iconFilePaths.contains(filePath);
+    }
+
+    /**
+     * @param iconFilePath path of the icon file
+     * @return icon bytes, empty if the icon file does not exist
+     */
+    public Optional<byte[]> getIcon(String iconFilePath) {
+        byte[] bytes = iconBytes.get(iconFilePath);
+        return bytes != null ? Optional.of(bytes) : Optional.ofNullable(loadIcon(iconFilePath));
+    }
+
+    private String resolve(String mimeType) {
+        for (IconMapping mapping : iconMappings) {
+            if (mapping.pattern().matcher(mimeType).find()) return mapping.iconFilePath();
+        }
+        return defaultIconFilePath;
+    }
+
+    private byte[] loadIcon(String iconFilePath) {
+        Path path = Paths.get(iconFilePath);
+        if (!Files.isRegularFile(path)) {
+            log.debug("icon file {} is not found", iconFilePath);
+            return null;
+        }
+        try {
+            byte[] bytes = Files.readAllBytes(path);
+            iconBytes.put(iconFilePath, bytes);
+            return bytes;
+        } catch (IOException ioe) {
+            log.warn("failed to read icon file {}. {}", iconFilePath, ioe.getMessage());
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,67 @@
+package com.jumkid.vault.repository.thumbnail;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.jumkid.vault.enums.ThumbnailNamespace;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.util.Optional;
+
+/**
+ * Least recently used cache of thumbnail bytes, bounded by the total size of cached thumbnails
+ */
+@Slf4j
+@Component
+public class ThumbnailCache {
+
+    private static final String CACHE_NAME = "thumbnail";
+    private static final String KEY_DELIMITER = ":";
+
+    private final Cache<String, byte[]> cache;
+
+    @Autowired
+    public ThumbnailCache(MeterRegistry meterRegistry,
+                          @Value("${vault.thumbnail.cache.max-size}") DataSize maxSize) {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxSize.toBytes())
+                .weigher((String key, byte[] bytes) -> bytes.length)
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+    }
+
+    public Optional<byte[]> get(String mediaFileId, ThumbnailNamespace thumbnailNamespace) {
+        return Optional.ofNullable(cache.getIfPresent(key(mediaFileId, thumbnailNamespace)));
+    }
+
+    public void put(String mediaFileId, ThumbnailNamespace thumbnailNamespace, byte[] bytes) {
+        if (mediaFileId != null && bytes != null) {
+            cache.put(key(mediaFileId, thumbnailNamespace), bytes);
+        }
+    }
+
+    /**
+     * Remove thumbnails of all sizes of the given media file
+     *
+     * @param mediaFileId identity of media file
+     */
+    public void invalidate(String mediaFileId) {
+        if (mediaFileId == null) return;
+        for (ThumbnailNamespace ns : ThumbnailNamespace.getMainSet()) {
+            cache.invalidate(key(mediaFileId, ns));
+        }
+        log.debug("invalidated cached thumbnails of {}", mediaFileId);
+    }
+
+    private String key(String mediaFileId, ThumbnailNamespace thumbnailNamespace) {
+        return mediaFileId + KEY_DELIMITER + thumbnailNamespace.value();
+    }
+
+}
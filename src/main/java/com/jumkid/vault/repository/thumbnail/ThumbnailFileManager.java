@@ -7,12 +7,10 @@ import com.jumkid.vault.model.MediaFileMetadata;
 import com.jumkid.vault.model.MediaFilePropMetadata;
 import com.jumkid.vault.repository.FileMetadata;
 import com.jumkid.vault.repository.FilePathManager;
+import com.jumkid.vault.repository.mapped.MappedFilePool;
 import com.jumkid.vault.util.FileUtils;
 import lombok.extern.slf4j.Slf4j;
-import net.coobird.thumbnailator.ThumbnailParameter;
-import net.coobird.thumbnailator.Thumbnails;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.io.File;
@@ -21,10 +19,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Map;
 import java.util.Optional;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import static com.jumkid.vault.util.Constants.PROP_FEATURED_ID;
 
@@ -32,51 +27,65 @@ import static com.jumkid.vault.util.Constants.PROP_FEATURED_ID;
 @Component
 public class ThumbnailFileManager {
 
-    @Value("${vault.thumbnail.small}")
-    private int thumbnailSmall;
+    public static final String THUMBNAIL_FILE_EXTEND = "png";
 
-    @Value("${vault.thumbnail.medium}")
-    private int thumbnailMedium;
+    private final FilePathManager filePathManager;
 
-    @Value("${vault.thumbnail.large}")
-    private int thumbnailLarge;
+    private final FileMetadata<MediaFileMetadata> metadataStorage;
 
-    @Value("#{${vault.thumbnail.icon-mappings}}")
-    private Map<String, String> iconMappings;
+    private final ThumbnailJobJournal thumbnailJobJournal;
 
-    public static final String THUMBNAIL_FILE_EXTEND = "png";
-    private static final String MISC_PATH = "misc";
-    private static final String PATH_DELIMITER = "/";
+    private final ThumbnailRenderer thumbnailRenderer;
 
-    private final FilePathManager filePathManager;
+    private final ThumbnailCache thumbnailCache;
 
-    private final FileMetadata<MediaFileMetadata> metadataStorage;
+    private final MappedFilePool mappedFilePool;
+
+    private final IconResolver iconResolver;
 
     @Autowired
-    public ThumbnailFileManager(FilePathManager filePathManager, FileMetadata<MediaFileMetadata> metadataStorage) {
+    public ThumbnailFileManager(FilePathManager filePathManager, FileMetadata<MediaFileMetadata> metadataStorage,
+                                ThumbnailJobJournal thumbnailJobJournal, ThumbnailRenderer thumbnailRenderer,
+                                ThumbnailCache thumbnailCache, MappedFilePool mappedFilePool,
+                                IconResolver iconResolver) {
         this.filePathManager = filePathManager;
         this.metadataStorage = metadataStorage;
+        this.thumbnailJobJournal = thumbnailJobJournal;
+        this.thumbnailRenderer = thumbnailRenderer;
+        this.thumbnailCache = thumbnailCache;
+        this.mappedFilePool = mappedFilePool;
+        this.iconResolver = iconResolver;
     }
 
     public Optional<byte[]> getThumbnail(MediaFileMetadata mediaFileMetadata, ThumbnailNamespace thumbnailNamespace)
             throws FileStoreServiceException {
-        String filePath;
-
-        if (mediaFileMetadata.getModule().equals(MediaFileModule.GALLERY)) {
-            filePath = getThumbnailFilePathForGallery(mediaFileMetadata, thumbnailNamespace);
-        } else if (mediaFileMetadata.getMimeType().startsWith("image")) {
-            filePath = getThumbnailFilePathForMediaFile(mediaFileMetadata, thumbnailNamespace);
-        } else {
-            filePath = getIconFilePath(mediaFileMetadata.getMimeType());
+        if (MediaFileModule.GALLERY.equals(mediaFileMetadata.getModule())) {
+            // gallery thumbnails are cached under the featured file, so replacing or trashing it is seen right away
+            Optional<MediaFileMetadata> featured = mediaFileMetadata.getProps() == null ? Optional.empty()
+                    : getThumbnailFileForGallery(mediaFileMetadata);
+            if (featured.isPresent()) return getThumbnail(featured.get(), thumbnailNamespace);
+            return iconResolver.getIcon(getIconFilePath(MediaFileModule.GALLERY.value()));
         }
 
+        Optional<byte[]> cached = thumbnailCache.get(mediaFileMetadata.getId(), thumbnailNamespace);
+        if (cached.isPresent()) return cached;
+
+        String filePath = getThumbnailOrIconFilePath(mediaFileMetadata, thumbnailNamespace);
+        // icons are resident already, they are not cached again per media file
+        if (iconResolver.isIconFilePath(filePath)) return iconResolver.getIcon(filePath);
+
         File file = new File(filePath);
         if (!file.exists()) {
             return Optional.empty();
         }
 
         try (FileInputStream fin = new FileInputStream(file)) {
-            return FileUtils.fileChannelToBytes(fin.getChannel());
+            Optional<byte[]> optional = FileUtils.fileChannelToBytes(fin.getChannel());
+            // icons served while thumbnails are pending must not hide the real thumbnails later
+            if (optional.isPresent() && !thumbnailJobJournal.isPending(mediaFileMetadata.getId())) {
+                thumbnailCache.put(mediaFileMetadata.getId(), thumbnailNamespace, optional.get());
+            }
+            return optional;
         } catch(Exception e) {
             log.error("Failed to get file on {}", filePath);
             return Optional.empty();
@@ -84,6 +93,33 @@ public class ThumbnailFileManager {
 
     }
 
+    /**
+     * Get file thumbnail, or the file type icon, from the pool of mapped files
+     *
+     * @param mediaFileMetadata metadata of media
+     * @param thumbnailNamespace thumbnail size option
+     * @return lease of the mapped thumbnail, empty if the file is not mapped
+     */
+    public Optional<MappedFilePool.Lease> getMappedThumbnail(MediaFileMetadata mediaFileMetadata,
+                                                             ThumbnailNamespace thumbnailNamespace)
+            throws FileStoreServiceException {
+        String filePath = getThumbnailOrIconFilePath(mediaFileMetadata, thumbnailNamespace);
+        if (iconResolver.isIconFilePath(filePath)) return Optional.empty();
+
+        return mappedFilePool.acquire(Paths.get(filePath));
+    }
+
+    private String getThumbnailOrIconFilePath(MediaFileMetadata mediaFileMetadata, ThumbnailNamespace thumbnailNamespace)
+            throws FileStoreServiceException {
+        if (mediaFileMetadata.getModule().equals(MediaFileModule.GALLERY)) {
+            return getThumbnailFilePathForGallery(mediaFileMetadata, thumbnailNamespace);
+        } else if (mediaFileMetadata.getMimeType().startsWith("image")) {
+            return getThumbnailFilePathForMediaFile(mediaFileMetadata, thumbnailNamespace);
+        } else {
+            return getIconFilePath(mediaFileMetadata.getMimeType());
+        }
+    }
+
     public Optional<MediaFileMetadata> getThumbnailFileForGallery(MediaFileMetadata galleryMetadata) throws FileStoreServiceException {
         Optional<MediaFilePropMetadata> optional = galleryMetadata.getProps().stream()
                 .filter(prop -> prop.getName().equals(PROP_FEATURED_ID))
@@ -91,7 +127,13 @@ public class ThumbnailFileManager {
 
         if (optional.isPresent()) {   //get featured image as thumbnail
             String featuredId = optional.get().getTextValue();
-            return metadataStorage.getMetadata(featuredId);
+            // a featured file trashed or removed from the gallery no longer stands for it
+            if (galleryMetadata.getChildren() != null && galleryMetadata.getChildren().stream()
+                    .noneMatch(child -> featuredId.equals(child.getId()))) {
+                return Optional.empty();
+            }
+            return metadataStorage.getMetadata(featuredId)
+                    .filter(featured -> Boolean.TRUE.equals(featured.getActivated()));
         } else {
             return Optional.empty();
         }
@@ -112,6 +154,11 @@ public class ThumbnailFileManager {
     }
 
     private String getThumbnailFilePathForMediaFile(MediaFileMetadata mediaFileMetadata, ThumbnailNamespace thumbnailNamespace) {
+        if (thumbnailJobJournal.isPending(mediaFileMetadata.getId())) {
+            // thumbnails are still being generated in background
+            return getIconFilePath(mediaFileMetadata.getMimeType());
+        }
+
         Path thumbnailFilePath = getThumbnailFilePath(mediaFileMetadata, thumbnailNamespace);
 
         if (!Files.exists(thumbnailFilePath)) {
@@ -137,20 +184,7 @@ public class ThumbnailFileManager {
     }
 
     private String getIconFilePath(String mimeType) {
-        String dataHomePath = filePathManager.getDataHomePath();
-
-        String filePath = String.join(PATH_DELIMITER, dataHomePath, MISC_PATH, "icon_file.png"); //default icon
-
-        for (Map.Entry<String, String> mapping : iconMappings.entrySet()) {
-            Pattern pattern = Pattern.compile(mapping.getKey(), Pattern.CASE_INSENSITIVE);
-            Matcher matcher = pattern.matcher(mimeType);
-            if (matcher.find()) {
-                filePath = String.join(PATH_DELIMITER, dataHomePath, MISC_PATH, mapping.getValue());
-                break;
-            }
-        }
-
-        return filePath;
+        return iconResolver.getIconFilePath(mimeType);
     }
 
     public ThumbnailNamespace getThumbnailSuffix(ThumbnailNamespace thumbnailNamespace) {
@@ -162,32 +196,8 @@ public class ThumbnailFileManager {
     }
 
     public void generateThumbnail(Path filePath) {
-        String path = filePath.toString();
-
         try {
-            Thumbnails.of(new File(path))
-                    .size(thumbnailSmall, thumbnailSmall)
-                    .keepAspectRatio(true)
-                    .outputQuality(0.6)
-                    .imageType(ThumbnailParameter.DEFAULT_IMAGE_TYPE)
-                    .outputFormat(THUMBNAIL_FILE_EXTEND)
-                    .toFile(new File(path + ThumbnailNamespace.SMALL_SUFFIX.value()));
-
-            Thumbnails.of(new File(path))
-                    .size(thumbnailMedium, thumbnailMedium)
-                    .keepAspectRatio(true)
-                    .outputQuality(0.8)
-                    .imageType(ThumbnailParameter.DEFAULT_IMAGE_TYPE)
-                    .outputFormat(THUMBNAIL_FILE_EXTEND)
-                    .toFile(new File(path + ThumbnailNamespace.MEDIUM_SUFFIX.value()));
-
-            Thumbnails.of(new File(path))
-                    .size(thumbnailLarge, thumbnailLarge)
-                    .keepAspectRatio(true)
-                    .outputQuality(0.8)
-                    .imageType(ThumbnailParameter.DEFAULT_IMAGE_TYPE)
-                    .outputFormat(THUMBNAIL_FILE_EXTEND)
-                    .toFile(new File(path + ThumbnailNamespace.LARGE_SUFFIX.value()));
+            thumbnailRenderer.render(filePath);
         } catch (IOException ioe) {
             ioe.printStackTrace();
             log.info("unable to generate thumbnails for file due to {}", ioe.getMessage());
@@ -196,12 +206,17 @@ public class ThumbnailFileManager {
     }
 
     public void deleteThumbnail(MediaFileMetadata mediaFile) {
+        thumbnailCache.invalidate(mediaFile.getId());
 
         if(mediaFile.getMimeType().startsWith("image")){
             Path pathS = getThumbnailPath(mediaFile, ThumbnailNamespace.SMALL_SUFFIX.value() + "." + THUMBNAIL_FILE_EXTEND);
             Path pathM = getThumbnailPath(mediaFile, ThumbnailNamespace.MEDIUM_SUFFIX.value() + "." + THUMBNAIL_FILE_EXTEND);
             Path pathL = getThumbnailPath(mediaFile, ThumbnailNamespace.LARGE_SUFFIX.value() + "." + THUMBNAIL_FILE_EXTEND);
 
+            mappedFilePool.invalidate(pathS);
+            mappedFilePool.invalidate(pathM);
+            mappedFilePool.invalidate(pathL);
+
             try {
                 Files.deleteIfExists(pathS);
                 Files.deleteIfExists(pathM);
@@ -0,0 +1,114 @@
+package com.jumkid.vault.repository.thumbnail;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generate thumbnails off the request thread on a bounded worker pool. When the queue is full the submitting
+ * thread renders the job itself, which throttles uploads instead of piling up jobs in memory.
+ * The workers stay on platform threads in the virtual thread mode, rendering is CPU bound and goes through
+ * ImageIO code synchronized on shared registries, which would pin virtual threads anyway.
+ */
+@Slf4j
+@Component
+public class ThumbnailGenerationQueue {
+
+    private final ThumbnailFileManager thumbnailFileManager;
+
+    private final ThumbnailJobJournal thumbnailJobJournal;
+
+    private final ThumbnailCache thumbnailCache;
+
+    private final ThreadPoolExecutor executor;
+
+    private final Timer jobLatencyTimer;
+
+    @Autowired
+    public ThumbnailGenerationQueue(ThumbnailFileManager thumbnailFileManager,
+                                    ThumbnailJobJournal thumbnailJobJournal,
+                                    ThumbnailCache thumbnailCache,
+                                    MeterRegistry meterRegistry,
+                                    @Value("${vault.thumbnail.workers}") int workers,
+                                    @Value("${vault.thumbnail.queue-capacity}") int queueCapacity) {
+        this.thumbnailFileManager = thumbnailFileManager;
+        this.thumbnailJobJournal = thumbnailJobJournal;
+        this.thumbnailCache = thumbnailCache;
+
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("thumbnail-"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+
+        Gauge.builder("vault.thumbnail.queue.depth", executor, e -> e.getQueue().size())
+                .description("Thumbnail jobs waiting for a worker")
+                .register(meterRegistry);
+        Gauge.builder("vault.thumbnail.pending", thumbnailJobJournal, ThumbnailJobJournal::size)
+                .description("Thumbnail jobs not finished yet, including the running ones")
+                .register(meterRegistry);
+        this.jobLatencyTimer = Timer.builder("vault.thumbnail.job.latency")
+                .description("Time from thumbnail job submission to completion")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Record the thumbnail job as pending and queue it for generation
+     *
+     * @param mediaFileId identity of media file
+     * @param filePath path of the source image
+     */
+    public void submit(String mediaFileId, Path filePath) {
+        thumbnailJobJournal.add(mediaFileId, filePath);
+        enqueue(mediaFileId, filePath);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumePendingJobs() {
+        thumbnailJobJournal.getPendingJobs().forEach((mediaFileId, filePath) -> {
+            if (Files.exists(filePath)) {
+                log.info("resume pending thumbnail job for {}", mediaFileId);
+                enqueue(mediaFileId, filePath);
+            } else {
+                thumbnailJobJournal.remove(mediaFileId);
+            }
+        });
+    }
+
+    private void enqueue(String mediaFileId, Path filePath) {
+        final long submittedAt = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                try {
+                    thumbnailFileManager.generateThumbnail(filePath);
+                } finally {
+                    thumbnailCache.invalidate(mediaFileId);
+                    thumbnailJobJournal.remove(mediaFileId);
+                    jobLatencyTimer.record(System.nanoTime() - submittedAt, TimeUnit.NANOSECONDS);
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            log.warn("thumbnail job for {} is kept pending until next start", mediaFileId);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // unfinished jobs stay in the journal and are resumed on next start
+        executor.shutdownNow();
+    }
+
+}
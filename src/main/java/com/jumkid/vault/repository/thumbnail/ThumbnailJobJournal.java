@@ -0,0 +1,123 @@
+package com.jumkid.vault.repository.thumbnail;
+
+import com.jumkid.vault.repository.FilePathManager;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent record of thumbnail jobs which are not finished yet. Each job is kept as a small marker file
+ * under the data home holding the source file path, so that pending jobs can be resumed after a restart.
+ * A media file stays pending until every job submitted for it is finished.
+ */
+@Slf4j
+@Component
+public class ThumbnailJobJournal {
+
+    private static final String JOB_FILE_EXTEND = ".job";
+
+    private final FilePathManager filePathManager;
+
+    // count of unfinished jobs per media file id
+    private final Map<String, Integer> pendingJobs = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ThumbnailJobJournal(FilePathManager filePathManager) {
+        this.filePathManager = filePathManager;
+    }
+
+    @PostConstruct
+    void load() {
+        getPendingJobs().keySet().forEach(mediaFileId -> pendingJobs.put(mediaFileId, 1));
+        if (!pendingJobs.isEmpty()) log.info("found {} pending thumbnail jobs", pendingJobs.size());
+    }
+
+    /**
+     * Record one more job of the media file, and persist its source file path
+     *
+     * @param mediaFileId identity of media file
+     * @param filePath path of the source image
+     */
+    public void add(String mediaFileId, Path filePath) {
+        // the marker file is written under the lock of its id, so that a finishing job does not delete it
+        pendingJobs.compute(mediaFileId, (id, count) -> {
+            try {
+                Path journalPath = checkJournalPath();
+                Files.writeString(journalPath.resolve(id + JOB_FILE_EXTEND), filePath.toString());
+            } catch (IOException ioe) {
+                log.error("failed to persist thumbnail job for {} {}", id, ioe.getMessage());
+            }
+            return count == null ? 1 : count + 1;
+        });
+    }
+
+    /**
+     * Record one job of the media file as finished, the marker file is removed with its last job
+     *
+     * @param mediaFileId identity of media file
+     */
+    public void remove(String mediaFileId) {
+        pendingJobs.compute(mediaFileId, (id, count) -> {
+            if (count != null && count > 1) return count - 1;
+            try {
+                Files.deleteIfExists(getJournalPath().resolve(id + JOB_FILE_EXTEND));
+            } catch (IOException ioe) {
+                log.error("failed to remove thumbnail job for {} {}", id, ioe.getMessage());
+            }
+            return null;
+        });
+    }
+
+    public boolean isPending(String mediaFileId) {
+        return mediaFileId != null && pendingJobs.containsKey(mediaFileId);
+    }
+
+    public int size() {
+        return pendingJobs.values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    /**
+     * Read all persisted jobs
+     *
+     * @return map of media file id and source file path
+     */
+    public Map<String, Path> getPendingJobs() {
+        Map<String, Path> jobs = new HashMap<>();
+        Path journalPath = getJournalPath();
+        if (!Files.exists(journalPath)) return jobs;
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(journalPath, "*" + JOB_FILE_EXTEND)) {
+            for (Path jobFile : stream) {
+                String fileName = jobFile.getFileName().toString();
+                String mediaFileId = fileName.substring(0, fileName.length() - JOB_FILE_EXTEND.length());
+                jobs.put(mediaFileId, Paths.get(Files.readString(jobFile).trim()));
+            }
+        } catch (IOException ioe) {
+            log.error("failed to read pending thumbnail jobs {}", ioe.getMessage());
+        }
+        return jobs;
+    }
+
+    private Path getJournalPath() {
+        return Paths.get(filePathManager.getDataHomePath(), filePathManager.getThumbnailJobPath());
+    }
+
+    private Path checkJournalPath() throws IOException {
+        Path journalPath = getJournalPath();
+        if (!Files.exists(journalPath)) {
+            Files.createDirectories(journalPath);
+        }
+        return journalPath;
+    }
+
+}
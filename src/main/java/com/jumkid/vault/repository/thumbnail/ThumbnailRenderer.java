@@ -0,0 +1,100 @@
+package com.jumkid.vault.repository.thumbnail;
+
+import com.jumkid.vault.enums.ThumbnailNamespace;
+import lombok.extern.slf4j.Slf4j;
+import net.coobird.thumbnailator.ThumbnailParameter;
+import net.coobird.thumbnailator.Thumbnails;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+import static com.jumkid.vault.repository.thumbnail.ThumbnailFileManager.THUMBNAIL_FILE_EXTEND;
+
+/**
+ * Render all thumbnail sizes of an image from a single decode of the original. The original is scaled to
+ * the large size first, then each smaller size is scaled from the previous one.
+ */
+@Slf4j
+@Component
+public class ThumbnailRenderer {
+
+    private static final float QUALITY_SMALL = 0.6f;
+    private static final float QUALITY_DEFAULT = 0.8f;
+
+    private final int thumbnailSmall;
+
+    private final int thumbnailMedium;
+
+    private final int thumbnailLarge;
+
+    @Autowired
+    public ThumbnailRenderer(@Value("${vault.thumbnail.small}") int thumbnailSmall,
+                             @Value("${vault.thumbnail.medium}") int thumbnailMedium,
+                             @Value("${vault.thumbnail.large}") int thumbnailLarge) {
+        this.thumbnailSmall = thumbnailSmall;
+        this.thumbnailMedium = thumbnailMedium;
+        this.thumbnailLarge = thumbnailLarge;
+    }
+
+    public void render(Path filePath) throws IOException {
+        String path = filePath.toString();
+
+        // the only decode of the original image, thumbnailator applies the exif orientation here
+        BufferedImage large = Thumbnails.of(filePath.toFile())
+                .size(thumbnailLarge, thumbnailLarge)
+                .keepAspectRatio(true)
+                .imageType(ThumbnailParameter.DEFAULT_IMAGE_TYPE)
+                .asBufferedImage();
+        write(large, path, ThumbnailNamespace.LARGE_SUFFIX, QUALITY_DEFAULT);
+
+        BufferedImage medium = scale(large, thumbnailMedium);
+        write(medium, path, ThumbnailNamespace.MEDIUM_SUFFIX, QUALITY_DEFAULT);
+
+        BufferedImage small = scale(medium, thumbnailSmall);
+        write(small, path, ThumbnailNamespace.SMALL_SUFFIX, QUALITY_SMALL);
+    }
+
+    private BufferedImage scale(BufferedImage image, int size) throws IOException {
+        return Thumbnails.of(image)
+                .size(size, size)
+                .keepAspectRatio(true)
+                .imageType(ThumbnailParameter.DEFAULT_IMAGE_TYPE)
+                .asBufferedImage();
+    }
+
+    private void write(BufferedImage image, String path, ThumbnailNamespace suffix, float quality) throws IOException {
+        File output = new File(path + suffix.value() + "." + THUMBNAIL_FILE_EXTEND);
+        Files.deleteIfExists(output.toPath());
+
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(THUMBNAIL_FILE_EXTEND);
+        if (!writers.hasNext()) {
+            throw new IOException("No image writer available for " + THUMBNAIL_FILE_EXTEND);
+        }
+
+        ImageWriter writer = writers.next();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(output)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (param.canWriteCompressed()) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(quality);
+            }
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+}
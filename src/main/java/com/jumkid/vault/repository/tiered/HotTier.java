@@ -0,0 +1,385 @@
+package com.jumkid.vault.repository.tiered;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.jumkid.vault.repository.mapped.MappedFilePool;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Local hot tier of the tiered storage: copies of media files kept in one folder on fast local disk, named by
+ * media file id, and evicted least recently used first once their total size goes over the limit. Files
+ * written back to the cold tier later are kept in the pending folder and do not count against the limit
+ * until they are released, so they cannot be evicted before the cold tier has them. The index is rebuilt
+ * from both folders on start.
+ */
+@Slf4j
+@Component
+public class HotTier {
+
+    private static final String PENDING_FOLDER = "pending";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private record Entry(Path path, long size, boolean pinned) { }
+
+    private final Path home;
+
+    private final Path pendingHome;
+
+    private final long maxFileSize;
+
+    private final Cache<String, Entry> index;
+
+    private final AtomicLong generations = new AtomicLong();
+
+    // generations of the promotions in flight, a store or an invalidation of the file cancels its promotion
+    private final Map<String, Long> promoting = new ConcurrentHashMap<>();
+
+    private final MappedFilePool mappedFilePool;
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    private final Counter promotions;
+
+    private final Counter evictions;
+
+    @Autowired
+    public HotTier(MeterRegistry meterRegistry, MappedFilePool mappedFilePool,
+                   @Value("${vault.storage.tiered.hot.path}") String path,
+                   @Value("${vault.storage.tiered.hot.max-size}") DataSize maxSize,
+                   @Value("${vault.storage.tiered.hot.max-file-size}") DataSize maxFileSize) {
+        this.mappedFilePool = mappedFilePool;
+        this.home = Paths.get(path);
+        this.pendingHome = home.resolve(PENDING_FOLDER);
+        this.maxFileSize = Math.min(maxFileSize.toBytes(), maxSize.toBytes());
+
+        this.index = Caffeine.newBuilder()
+                .maximumWeight(maxSize.toBytes())
+                // pending files weigh nothing, they are never evicted
+                .weigher((String id, Entry entry) -> entry.pinned() ? 0 : (int) Math.min(Integer.MAX_VALUE, entry.size()))
+                .evictionListener(this::onEviction)
+                .build();
+
+        this.hits = Counter.builder("vault.storage.tier.reads").tag("tier", "hot")
+                .description("Reads served by the tier")
+                .register(meterRegistry);
+        this.misses = Counter.builder("vault.storage.tier.reads").tag("tier", "cold")
+                .description("Reads served by the tier")
+                .register(meterRegistry);
+        Gauge.builder("vault.storage.tier.hit.ratio", this, t -> t.hitRatio(t.hits)).tag("tier", "hot")
+                .description("Share of the reads served by the tier")
+                .register(meterRegistry);
+        Gauge.builder("vault.storage.tier.hit.ratio", this, t -> t.hitRatio(t.misses)).tag("tier", "cold")
+                .description("Share of the reads served by the tier")
+                .register(meterRegistry);
+        this.promotions = Counter.builder("vault.storage.tier.promotions")
+                .description("Files copied from the cold tier into the hot tier")
+                .register(meterRegistry);
+        this.evictions = Counter.builder("vault.storage.tier.evictions")
+                .description("Files evicted from the hot tier")
+                .register(meterRegistry);
+        Gauge.builder("vault.storage.tier.hot.files", index, Cache::estimatedSize)
+                .description("Files in the hot tier, including the pending ones")
+                .register(meterRegistry);
+        Gauge.builder("vault.storage.tier.hot.size", index,
+                        c -> c.policy().eviction().map(e -> e.weightedSize().orElse(0L)).orElse(0L))
+                .description("Bytes of the evictable files in the hot tier")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+
+        load();
+    }
+
+    /**
+     * @return true if the file is small enough to be kept in the hot tier
+     */
+    public boolean admits(long size) {
+        return size <= maxFileSize;
+    }
+
+    /**
+     * Look up the local copy of a media file and count the read as a hit or a miss
+     *
+     * @param mediaFileId identity of media file
+     * @return path of the local copy if the hot tier has one
+     */
+    public Optional<Path> get(String mediaFileId) {
+        Optional<Path> path = peek(mediaFileId);
+        (path.isPresent() ? hits : misses).increment();
+        return path;
+    }
+
+    /**
+     * Look up the local copy of a media file without counting the read
+     */
+    public Optional<Path> peek(String mediaFileId) {
+        Entry entry = index.getIfPresent(mediaFileId);
+        if (entry == null) return Optional.empty();
+        if (!Files.exists(entry.path())) {
+            index.asMap().remove(mediaFileId, entry);
+            return Optional.empty();
+        }
+        return Optional.of(entry.path());
+    }
+
+    /**
+     * Get the local copy of a media file from the pool of memory mapped files, a hit is counted only when the
+     * mapping is served, the caller falls back to a read that counts it otherwise
+     */
+    public Optional<MappedFilePool.Lease> getMapped(String mediaFileId) {
+        Optional<MappedFilePool.Lease> lease = peek(mediaFileId).flatMap(mappedFilePool::acquire);
+        lease.ifPresent(l -> hits.increment());
+        return lease;
+    }
+
+    /**
+     * Start a promotion of a file, before the file is read from the cold tier
+     *
+     * @param mediaFileId identity of media file
+     * @return generation of the promotion to pass to {@link #promote(String, long, ReadableByteChannel)}
+     */
+    public long beginPromotion(String mediaFileId) {
+        long generation = generations.incrementAndGet();
+        promoting.put(mediaFileId, generation);
+        return generation;
+    }
+
+    /**
+     * Forget a promotion once it is done or failed
+     */
+    public void endPromotion(String mediaFileId, long generation) {
+        promoting.remove(mediaFileId, generation);
+    }
+
+    /**
+     * Copy a file read from the cold tier into the hot tier, unless the file was stored or invalidated since
+     * the promotion began, then the copy read before is stale
+     *
+     * @param mediaFileId identity of media file
+     * @param generation generation of the promotion
+     * @param source channel of the file, read from its current position to the end
+     * @return false if the promotion was cancelled
+     */
+    public boolean promote(String mediaFileId, long generation, ReadableByteChannel source) throws IOException {
+        if (!isPromoting(mediaFileId, generation)) return false;
+
+        Path tmp = tempPath(mediaFileId);
+        long size = 0;
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+            while (source.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) size += out.write(buffer);
+                buffer.clear();
+                if (size > maxFileSize) throw new IOException("file is larger than " + maxFileSize + " bytes");
+            }
+        } catch (IOException ioe) {
+            Files.deleteIfExists(tmp);
+            throw ioe;
+        }
+        if (!putPromoted(mediaFileId, generation, tmp, size)) {
+            Files.deleteIfExists(tmp);
+            log.debug("skip stale promotion of {}", mediaFileId);
+            return false;
+        }
+        promotions.increment();
+        return true;
+    }
+
+    /**
+     * Keep a copy of a file just written to the cold tier
+     *
+     * @param mediaFileId identity of media file
+     * @param source local file, it is left in place
+     */
+    public void store(String mediaFileId, Path source) throws IOException {
+        store(mediaFileId, linkOrCopy(mediaFileId, source), home.resolve(mediaFileId), Files.size(source), false);
+    }
+
+    /**
+     * Keep a file that is not in the cold tier yet, it stays pending until {@link #release(String)}
+     *
+     * @param mediaFileId identity of media file
+     * @param source local file, it is left in place
+     * @return path of the pending file
+     */
+    public Path storePending(String mediaFileId, Path source) throws IOException {
+        Path target = pendingHome.resolve(mediaFileId);
+        store(mediaFileId, linkOrCopy(mediaFileId, source), target, Files.size(source), true);
+        return target;
+    }
+
+    /**
+     * @return path of the file if it is still pending
+     */
+    public Optional<Path> getPending(String mediaFileId) {
+        Entry entry = index.getIfPresent(mediaFileId);
+        return entry != null && entry.pinned() ? Optional.of(entry.path()) : Optional.empty();
+    }
+
+    /**
+     * @return identities of the files waiting for the cold tier
+     */
+    public List<String> getPendingIds() {
+        return index.asMap().entrySet().stream()
+                .filter(e -> e.getValue().pinned())
+                .map(java.util.Map.Entry::getKey)
+                .toList();
+    }
+
+    /**
+     * Turn a pending file into an evictable one once the cold tier has it
+     *
+     * @return false if the file was removed from the hot tier in the meantime
+     */
+    public synchronized boolean release(String mediaFileId) throws IOException {
+        Entry entry = index.getIfPresent(mediaFileId);
+        if (entry == null) return false;
+        if (!entry.pinned()) return true;
+
+        Path target = home.resolve(mediaFileId);
+        Files.move(entry.path(), target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        index.put(mediaFileId, new Entry(target, entry.size(), false));
+        return true;
+    }
+
+    /**
+     * Remove the local copy of a media file, pending or not
+     */
+    public synchronized void invalidate(String mediaFileId) {
+        promoting.remove(mediaFileId);
+        Entry entry = index.asMap().remove(mediaFileId);
+        if (entry != null) delete(entry.path());
+    }
+
+    private synchronized boolean putPromoted(String mediaFileId, long generation, Path tmp, long size)
+            throws IOException {
+        if (!promoting.remove(mediaFileId, generation)) return false;
+        put(mediaFileId, tmp, home.resolve(mediaFileId), size, false);
+        return true;
+    }
+
+    private boolean isPromoting(String mediaFileId, long generation) {
+        Long current = promoting.get(mediaFileId);
+        return current != null && current == generation;
+    }
+
+    private synchronized void store(String mediaFileId, Path tmp, Path target, long size, boolean pinned)
+            throws IOException {
+        // a promotion in flight read the file before this store
+        promoting.remove(mediaFileId);
+        put(mediaFileId, tmp, target, size, pinned);
+    }
+
+    private synchronized void put(String mediaFileId, Path tmp, Path target, long size, boolean pinned)
+            throws IOException {
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        Entry previous = index.asMap().put(mediaFileId, new Entry(target, size, pinned));
+        if (previous != null && !previous.path().equals(target)) delete(previous.path());
+        mappedFilePool.invalidate(target);
+    }
+
+    /**
+     * Hard link the source into the hot tier when both are on the same file system, copy it otherwise
+     */
+    private Path linkOrCopy(String mediaFileId, Path source) throws IOException {
+        Path tmp = tempPath(mediaFileId);
+        try {
+            Files.createLink(tmp, source);
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(source, tmp);
+        }
+        return tmp;
+    }
+
+    private Path tempPath(String mediaFileId) {
+        return home.resolve(mediaFileId + "." + UUID.randomUUID() + TEMP_SUFFIX);
+    }
+
+    private void onEviction(String mediaFileId, Entry entry, RemovalCause cause) {
+        if (entry == null) return;
+        delete(entry.path());
+        evictions.increment();
+        log.debug("evicted {} of {} bytes from the hot tier", mediaFileId, entry.size());
+    }
+
+    private void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+            mappedFilePool.invalidate(path);
+        } catch (IOException ioe) {
+            log.warn("failed to delete hot tier file {}: {}", path, ioe.getMessage());
+        }
+    }
+
+    private double hitRatio(Counter counter) {
+        double total = hits.count() + misses.count();
+        return total == 0 ? 0 : counter.count() / total;
+    }
+
+    /**
+     * Rebuild the index from the files left by the last run, the least recently modified ones first so they
+     * are the first to go. Names with a dot are temporary files of unfinished copies.
+     */
+    private void load() {
+        try {
+            Files.createDirectories(pendingHome);
+            loadFolder(pendingHome, true);
+            loadFolder(home, false);
+            log.info("hot tier {} loaded with {} files", home, index.estimatedSize());
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("failed to load hot tier " + home, ioe);
+        }
+    }
+
+    private void loadFolder(Path folder, boolean pinned) throws IOException {
+        try (Stream<Path> files = Files.list(folder)) {
+            List<Path> regularFiles = files.filter(Files::isRegularFile)
+                    .sorted(Comparator.comparing(HotTier::lastModified))
+                    .toList();
+            for (Path file : regularFiles) {
+                String name = file.getFileName().toString();
+                if (name.contains(".")) {
+                    delete(file);
+                } else {
+                    index.put(name, new Entry(file, Files.size(file), pinned));
+                }
+            }
+        }
+    }
+
+    private static FileTime lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException ioe) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+}
@@ -5,7 +5,7 @@ import com.jumkid.vault.exception.FileNotAvailableException;
 import com.jumkid.vault.exception.FileNotFoundException;
 import com.jumkid.vault.exception.FileStoreServiceException;
 import com.jumkid.vault.model.MediaFileMetadata;
-import com.jumkid.vault.repository.MetadataStorage;
+import com.jumkid.vault.repository.FileMetadata;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.authentication.AnonymousAuthenticationToken;
@@ -23,10 +23,10 @@ import java.util.Optional;
 @Service("securityService")
 public class MediaFileSecurityServiceImpl implements MediaFileSecurityService{
 
-    private final MetadataStorage metadataStorage;
+    private final FileMetadata<MediaFileMetadata> metadataStorage;
 
     @Autowired
-    public MediaFileSecurityServiceImpl(MetadataStorage metadataStorage) {
+    public MediaFileSecurityServiceImpl(FileMetadata<MediaFileMetadata> metadataStorage) {
         this.metadataStorage = metadataStorage;
     }
 
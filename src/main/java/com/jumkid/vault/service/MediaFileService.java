@@ -18,8 +18,11 @@ import com.jumkid.vault.exception.FileNotAvailableException;
 import com.jumkid.vault.exception.FileNotFoundException;
 import com.jumkid.vault.exception.FileStoreServiceException;
 import com.jumkid.vault.model.MediaFileMetadata;
+import com.jumkid.vault.model.SearchPage;
+import com.jumkid.vault.repository.mapped.MappedFilePool;
 
 import java.nio.channels.FileChannel;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Optional;
 
@@ -33,6 +36,14 @@ public interface MediaFileService {
      */
     MediaFile addMediaFile(MediaFile mediaFile, MediaFileModule mediaFileModule) throws FileStoreServiceException;
 
+    /**
+     * Add a batch of new media files and binaries, metadata are indexed with bulk requests
+     *
+     * @param mediaFiles list of media file info
+     * @return list of MediaFile which are stored successfully
+     */
+    List<MediaFile> addMediaFiles(List<MediaFile> mediaFiles, MediaFileModule mediaFileModule) throws FileStoreServiceException;
+
     /**
      * Add new media gallery and binaries
      *
@@ -119,6 +130,31 @@ public interface MediaFileService {
      */
     FileChannel getFileChannel(String mediaFileId) throws FileStoreServiceException;
 
+    /**
+     * Retrieve small media file source by id from the pool of memory mapped files
+     *
+     * @param mediaFileId media file identity
+     * @return lease of the mapped file, close it after use
+     */
+    Optional<MappedFilePool.Lease> getMappedFile(String mediaFileId) throws FileStoreServiceException;
+
+    /**
+     * Retrieve the path of media file source on the local file system
+     *
+     * @param mediaFileId media file identity
+     * @return path of the file, empty if the file is not stored on the local file system
+     */
+    Optional<Path> getLocalFile(String mediaFileId) throws FileStoreServiceException;
+
+    /**
+     * Get thumbnail of media file by id from the pool of memory mapped files
+     *
+     * @param mediaFileId media file identity
+     * @return lease of the mapped thumbnail, close it after use
+     */
+    Optional<MappedFilePool.Lease> getMappedThumbnail(String mediaFileId, ThumbnailNamespace thumbnailNamespace)
+            throws FileStoreServiceException;
+
     /**
      *
      * @param mediaFileId media file identity
@@ -135,18 +171,26 @@ public interface MediaFileService {
     List<MediaFile> trashMediaGalleryItems(String galleryId, String[] itemsId) throws FileNotFoundException, FileStoreServiceException;
 
     /**
-     * Get all media files
+     * Search media files page by page
      *
-     * @return List of mediaFile
+     * @param query query keyword
+     * @param size size of page
+     * @param cursor opaque cursor of page returned with the previous page, null for the first page
+     * @param fields fields of mediaFile to return besides the uuid, or summary, all of them when empty
+     * @return page of mediaFile with the cursor of next page
      */
-    List<MediaFile> searchMediaFile(String query, Integer size) throws FileStoreServiceException;
+    SearchPage<MediaFile> searchMediaFile(String query, Integer size, String cursor, List<String> fields)
+            throws FileStoreServiceException;
 
     /**
-     * Get all trashed media files
+     * Get trashed media files page by page
      *
-     * @return List of mediaFile
+     * @param size size of page
+     * @param cursor opaque cursor of page returned with the previous page, null for the first page
+     * @param fields fields of mediaFile to return besides the uuid, or summary, all of them when empty
+     * @return page of mediaFile with the cursor of next page
      */
-    List<MediaFile> getTrash() throws FileStoreServiceException;
+    SearchPage<MediaFile> getTrash(Integer size, String cursor, List<String> fields) throws FileStoreServiceException;
 
     /**
      * Empty the entire trash and clean up file stored in trash
@@ -11,43 +11,75 @@ package com.jumkid.vault.service;
  * (c)2019 Jumkid Innovation All rights reserved.
  */
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import com.jumkid.vault.controller.dto.MediaFile;
+import com.jumkid.vault.enums.IngestMode;
 import com.jumkid.vault.enums.MediaFileModule;
 import com.jumkid.vault.enums.StorageMode;
 import com.jumkid.vault.enums.ThumbnailNamespace;
 import com.jumkid.vault.exception.*;
 import com.jumkid.vault.model.MediaFileMetadata;
+import com.jumkid.vault.model.SearchPage;
 import com.jumkid.vault.repository.FileMetadata;
 import com.jumkid.vault.repository.FileStorage;
+import com.jumkid.vault.repository.FileStorageRouter;
+import com.jumkid.vault.repository.mapped.MappedFilePool;
+import com.jumkid.vault.repository.spool.FileSpoolManager;
+import com.jumkid.vault.repository.spool.SpooledFile;
+import com.jumkid.vault.repository.thumbnail.ThumbnailCache;
+import com.jumkid.vault.service.enrich.EnrichmentQueue;
 import com.jumkid.vault.service.enrich.MetadataEnricher;
+import com.jumkid.vault.service.extract.ExtractionQueue;
 import com.jumkid.vault.service.handler.DTOHandler;
+import com.jumkid.vault.service.ingest.ParallelIngestExecutor;
 import com.jumkid.vault.service.mapper.MediaFileMapper;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamSource;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import static com.jumkid.vault.enums.MediaFileField.*;
 import static com.jumkid.vault.util.Constants.PROP_FEATURED_ID;
 
 @Slf4j
 @Service("fileService")
 public class MediaFileServiceImpl implements MediaFileService {
 
-    @Value("${vault.storage.mode}")
+    // fields of a listing page, selected with fields=summary
+    private static final String SUMMARY = "summary";
+    private static final List<String> SUMMARY_FIELDS = List.of(TITLE.value(), MIME_TYPE.value(), SIZE.value(),
+            CREATED_ON.value());
+
+    // fields of the dto which can be selected in search results, the uuid is always returned
+    private static final Set<String> SELECTABLE_FIELDS = Set.of(TITLE.value(), FILENAME.value(), MIME_TYPE.value(),
+            SIZE.value(), MODULE.value(), CONTENT.value(), ACCESS_SCOPE.value(), ACTIVATED.value(), ENRICHED.value(),
+            PROPS.value(), TAGS.value(), CHILDREN.value(), CREATED_ON.value(), CREATED_BY.value(),
+            MODIFIED_ON.value(), MODIFIED_BY.value());
+    private static final String UUID_FIELD = "uuid";
+
+    @Value("${vault.ingest.mode}")
     @Setter
-    private String storageMode;
+    private String ingestMode;
 
 	private final FileMetadata<MediaFileMetadata> metadataStorage;
 
-	private final EnumMap<StorageMode, FileStorage<MediaFileMetadata>> storageRegistry = new EnumMap<>(StorageMode.class);
+	private final FileStorageRouter fileStorageRouter;
 
 	private final MediaFileMapper mediaFileMapper;
 
@@ -55,26 +87,52 @@ public class MediaFileServiceImpl implements MediaFileService {
 
     private final MetadataEnricher metadataEnricher;
 
+    private final EnrichmentQueue enrichmentQueue;
+
+    private final ExtractionQueue extractionQueue;
+
+    private final FileSpoolManager fileSpoolManager;
+
+    private final ThumbnailCache thumbnailCache;
+
+    private final ParallelIngestExecutor parallelIngestExecutor;
+
     private final DTOHandler dtoHandler;
 
 	@Autowired
 	public MediaFileServiceImpl(FileMetadata<MediaFileMetadata> metadataStorage,
-                                FileStorage<MediaFileMetadata> hadoopFileStorage,
-                                FileStorage<MediaFileMetadata> localFileStorage,
+                                FileStorageRouter fileStorageRouter,
                                 MediaFileMapper mediaFileMapper,
                                 MediaFileSecurityService securityService,
-                                MetadataEnricher metadataEnricher, DTOHandler dtoHandler) {
+                                MetadataEnricher metadataEnricher, EnrichmentQueue enrichmentQueue,
+                                ExtractionQueue extractionQueue, FileSpoolManager fileSpoolManager,
+                                ThumbnailCache thumbnailCache, ParallelIngestExecutor parallelIngestExecutor,
+                                DTOHandler dtoHandler) {
         this.mediaFileMapper = mediaFileMapper;
         this.securityService = securityService;
         this.metadataEnricher = metadataEnricher;
+        this.enrichmentQueue = enrichmentQueue;
+        this.extractionQueue = extractionQueue;
+        this.fileSpoolManager = fileSpoolManager;
+        this.thumbnailCache = thumbnailCache;
+        this.parallelIngestExecutor = parallelIngestExecutor;
         this.dtoHandler = dtoHandler;
-        storageRegistry.put(StorageMode.LOCAL, localFileStorage);
-        storageRegistry.put(StorageMode.HADOOP, hadoopFileStorage);
+        this.fileStorageRouter = fileStorageRouter;
 	    this.metadataStorage = metadataStorage;
 	}
 
+	/**
+	 * @return storage of new media files, they are recorded with its mode before they are stored
+	 */
 	private FileStorage<MediaFileMetadata> getFileStorage() {
-	    return StorageMode.valueOf(storageMode.toUpperCase()).equals(StorageMode.LOCAL) ? storageRegistry.get(StorageMode.LOCAL) : storageRegistry.get(StorageMode.HADOOP);
+	    return fileStorageRouter.getDefaultStorage();
+    }
+
+	/**
+	 * @return storage holding the binary of an existing media file
+	 */
+	private FileStorage<MediaFileMetadata> getFileStorage(MediaFileMetadata metadata) {
+	    return fileStorageRouter.route(metadata);
     }
 
     @Override
@@ -113,7 +171,7 @@ public class MediaFileServiceImpl implements MediaFileService {
         Optional<MediaFileMetadata> optional = metadataStorage.getMetadata(mediaFileId);
 
         if (optional.isPresent()) {
-            return getFileStorage().getFileBinary(optional.get());
+            return getFileStorage(optional.get()).getFileBinary(optional.get());
         } else {
             return Optional.empty();
         }
@@ -123,9 +181,10 @@ public class MediaFileServiceImpl implements MediaFileService {
     public Optional<byte[]> getThumbnail(String mediaFileId, ThumbnailNamespace thumbnailNamespace)
             throws FileStoreServiceException {
         log.debug("Retrieve thumbnail of file by given id {}", mediaFileId);
+        // cached thumbnails are only served after the file is known to be active
         Optional<MediaFileMetadata> optional = metadataStorage.getMetadata(mediaFileId);
         if (optional.isPresent() && Boolean.TRUE.equals(optional.get().getActivated())) {
-            return getFileStorage().getThumbnail(optional.get(), thumbnailNamespace);
+            return getFileStorage(optional.get()).getThumbnail(optional.get(), thumbnailNamespace);
         } else {
             return Optional.empty();
         }
@@ -137,12 +196,43 @@ public class MediaFileServiceImpl implements MediaFileService {
         Optional<MediaFileMetadata> optional = metadataStorage.getMetadata(mediaFileId);
 
         if (optional.isPresent()) {
-            return getFileStorage().getFileRandomAccess(optional.get()).orElse(null);
+            return getFileStorage(optional.get()).getFileRandomAccess(optional.get()).orElse(null);
         } else {
             return null;
         }
     }
 
+    @Override
+    public Optional<MappedFilePool.Lease> getMappedFile(String mediaFileId) throws FileStoreServiceException {
+        Optional<MediaFileMetadata> optional = metadataStorage.getMetadata(mediaFileId);
+        if (optional.isPresent() && !MediaFileModule.GALLERY.equals(optional.get().getModule())) {
+            return getFileStorage(optional.get()).getMappedFile(optional.get());
+        } else {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public Optional<Path> getLocalFile(String mediaFileId) throws FileStoreServiceException {
+        Optional<MediaFileMetadata> optional = metadataStorage.getMetadata(mediaFileId);
+        if (optional.isPresent() && !MediaFileModule.GALLERY.equals(optional.get().getModule())) {
+            return getFileStorage(optional.get()).getLocalFile(optional.get());
+        } else {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public Optional<MappedFilePool.Lease> getMappedThumbnail(String mediaFileId, ThumbnailNamespace thumbnailNamespace)
+            throws FileStoreServiceException {
+        Optional<MediaFileMetadata> optional = metadataStorage.getMetadata(mediaFileId);
+        if (optional.isPresent() && Boolean.TRUE.equals(optional.get().getActivated())) {
+            return getFileStorage(optional.get()).getMappedThumbnail(optional.get(), thumbnailNamespace);
+        } else {
+            return Optional.empty();
+        }
+    }
+
     @Override
     @Transactional
     public MediaFile addMediaFile(MediaFile mediaFile, MediaFileModule mediaFileModule) throws FileStoreServiceException {
@@ -150,11 +240,21 @@ public class MediaFileServiceImpl implements MediaFileService {
 
         MediaFileMetadata metadata = mediaFileMapper.dtoToMetadata(mediaFile);
         metadata.setModule(mediaFileModule);
+        metadata.setStorage(fileStorageRouter.getDefaultMode());
         byte[] file = mediaFile.getFile();
-	    if (file == null || file.length == 0) {
+        if (mediaFile.getFileSource() != null) {
+            metadata = saveMediaFileSource(metadata, mediaFile.getFileSource());
+        } else if (file == null || file.length == 0) {
             metadata = metadataStorage.saveMetadata(metadata);
+        } else if (isSingleWrite()) {
+            enrich(metadata, file);
+            assignContentId(metadata, UUID.nameUUIDFromBytes(file).toString());
+            //save file binary to file system first, then index the metadata with its logical path once
+            Optional<MediaFileMetadata> optional = getFileStorage().saveFile(file, metadata);
+            if (optional.isEmpty()) throw new FileStoreServiceException("Failed to store media file " + metadata.getFilename());
+            metadata = createContentMetadata(optional.get());
         } else {
-            metadataEnricher.enrichProps(metadata, file);
+            enrich(metadata, file);
             //save metadata to get indexed doc with id
             metadata = metadataStorage.saveMetadata(metadata);
             //save file binary to file system
@@ -162,15 +262,283 @@ public class MediaFileServiceImpl implements MediaFileService {
             if (optional.isPresent()) {
                 MediaFileMetadata savedMetadata = optional.get();
                 //update the logical path to metadata
-                metadataStorage.updateLogicalPath(savedMetadata.getId(), savedMetadata.getLogicalPath());
+                updateStoredLocation(savedMetadata);
             } else {
                 log.error("failed to add file {}", metadata);
             }
 
         }
+        submitBackgroundStages(metadata);
         return mediaFileMapper.metadataToDto(metadata);
     }
 
+    /**
+     * Parse the props of the upload now, or mark them pending for the enrichment queue
+     */
+    private void enrich(MediaFileMetadata metadata, byte[] file) {
+        if (enrichmentQueue.isEnabled()) {
+            metadata.setEnriched(false);
+        } else {
+            metadataEnricher.enrichProps(metadata, file);
+            metadata.setEnriched(true);
+        }
+    }
+
+    private void enrich(MediaFileMetadata metadata, Path file) {
+        if (enrichmentQueue.isEnabled()) {
+            metadata.setEnriched(false);
+        } else {
+            metadataEnricher.enrichProps(metadata, file);
+            metadata.setEnriched(true);
+        }
+    }
+
+    /**
+     * Queue the pending props and the text of a media file once it is indexed with its stored location
+     */
+    private void submitBackgroundStages(MediaFileMetadata metadata) {
+        if (Boolean.FALSE.equals(metadata.getEnriched())) enrichmentQueue.submit(metadata.getId());
+        extractionQueue.submit(metadata);
+    }
+
+    /**
+     * Spool the file source to local disk once, then enrich and store it from the spooled file
+     * so the content is never materialized in memory
+     */
+    private MediaFileMetadata saveMediaFileSource(MediaFileMetadata metadata, InputStreamSource fileSource)
+            throws FileStoreServiceException {
+        try (SpooledFile spooledFile = fileSpoolManager.spool(fileSource.getInputStream())) {
+            enrich(metadata, spooledFile.getPath());
+            if (isSingleWrite()) {
+                assignContentId(metadata, spooledFile.getContentUuid());
+                //move spooled file to file system first, then index the metadata with its logical path once
+                Optional<MediaFileMetadata> optional = getFileStorage().saveFile(spooledFile.getPath(), metadata);
+                if (optional.isEmpty()) throw new FileStoreServiceException("Failed to store media file " + metadata.getFilename());
+                return createContentMetadata(optional.get());
+            }
+            //save metadata to get indexed doc with id
+            metadata = metadataStorage.saveMetadata(metadata);
+            //a binary stored under an id that is not indexed could never be found again
+            if (metadata.getId() == null) {
+                throw new FileStoreServiceException("Failed to index media file " + metadata.getFilename());
+            }
+            //move spooled file to file system
+            Optional<MediaFileMetadata> optional = getFileStorage().saveFile(spooledFile.getPath(), metadata);
+            if (optional.isPresent()) {
+                MediaFileMetadata savedMetadata = optional.get();
+                //update the logical path to metadata
+                updateStoredLocation(savedMetadata);
+            } else {
+                log.error("failed to add file {}", metadata);
+            }
+            return metadata;
+        } catch (IOException ioe) {
+            log.error("failed to spool file {} due to {}", metadata.getFilename(), ioe.getMessage());
+            throw new FileStoreServiceException("Failed to store media file " + metadata.getFilename());
+        }
+    }
+
+    private void updateStoredLocation(MediaFileMetadata savedMetadata) throws FileStoreServiceException {
+        if (savedMetadata.getBlobId() == null) {
+            metadataStorage.updateLogicalPath(savedMetadata.getId(), savedMetadata.getLogicalPath());
+        } else {
+            metadataStorage.updateAll(Map.of(savedMetadata.getId(), MediaFileMetadata.builder()
+                    .logicalPath(savedMetadata.getLogicalPath())
+                    .blobId(savedMetadata.getBlobId())
+                    .build()));
+        }
+    }
+
+    private boolean isSingleWrite() {
+        return IngestMode.SINGLE_WRITE.value().equalsIgnoreCase(ingestMode);
+    }
+
+    /**
+     * Use the content uuid as the identity of new media file, unless the same content is stored already
+     */
+    private void assignContentId(MediaFileMetadata metadata, String contentUuid) throws FileStoreServiceException {
+        boolean exists = metadataStorage.getMetadata(contentUuid).isPresent();
+        metadata.setId(exists ? UUID.randomUUID().toString() : contentUuid);
+    }
+
+    /**
+     * Index the metadata of a file stored under its content uuid. If a concurrent upload of the same content
+     * takes the uuid after it is checked, the file is stored again under a random uuid instead.
+     */
+    private MediaFileMetadata createContentMetadata(MediaFileMetadata stored) throws FileStoreServiceException {
+        Optional<MediaFileMetadata> created = metadataStorage.createMetadata(stored);
+        if (created.isPresent()) return created.get();
+
+        log.info("content uuid {} is taken by a concurrent upload, store the file under a random uuid", stored.getId());
+        FileStorage<MediaFileMetadata> fileStorage = getFileStorage(stored);
+        FileChannel fc = fileStorage.getFileRandomAccess(stored)
+                .orElseThrow(() -> new FileStoreServiceException("Failed to store media file " + stored.getFilename()));
+        try (SpooledFile spooledFile = fileSpoolManager.spool(Channels.newInputStream(fc))) {
+            releaseContentFile(fileStorage, stored);
+            stored.setId(UUID.randomUUID().toString());
+            stored.setLogicalPath(null);
+            stored.setBlobId(null);
+
+            Optional<MediaFileMetadata> optional = fileStorage.saveFile(spooledFile.getPath(), stored);
+            if (optional.isEmpty()) throw new FileStoreServiceException("Failed to store media file " + stored.getFilename());
+            return metadataStorage.createMetadata(optional.get())
+                    .orElseThrow(() -> new FileStoreServiceException("Media file " + stored.getId() + " already exists"));
+        } catch (IOException ioe) {
+            log.error("failed to store file {} again due to {}", stored.getFilename(), ioe.getMessage());
+            throw new FileStoreServiceException("Failed to store media file " + stored.getFilename());
+        }
+    }
+
+    /**
+     * Release the file stored under a content uuid taken by another media file. The same content stored on
+     * the same day shares its path with that media file, so it is kept then.
+     */
+    private void releaseContentFile(FileStorage<MediaFileMetadata> fileStorage, MediaFileMetadata stored)
+            throws FileStoreServiceException {
+        Optional<MediaFileMetadata> existing = metadataStorage.getMetadata(stored.getId());
+        if (existing.isPresent() && Objects.equals(existing.get().getLogicalPath(), stored.getLogicalPath())) return;
+
+        try {
+            fileStorage.deleteFile(stored);
+        } catch (FileNotFoundException | FileStoreServiceException e) {
+            log.warn("failed to release file {} of taken content uuid: {}", stored.getLogicalPath(), e.getMessage());
+        }
+    }
+
+    @Override
+    @Transactional
+    public List<MediaFile> addMediaFiles(List<MediaFile> mediaFiles, MediaFileModule mediaFileModule)
+            throws FileStoreServiceException {
+        int size = mediaFiles.size();
+        List<MediaFileMetadata> metadataList = new ArrayList<>(size);
+        for (MediaFile mediaFile : mediaFiles) {
+            dtoHandler.normalize(null, mediaFile, null);
+
+            MediaFileMetadata metadata = mediaFileMapper.dtoToMetadata(mediaFile);
+            metadata.setModule(mediaFileModule);
+            metadata.setStorage(fileStorageRouter.getDefaultMode());
+            metadataList.add(metadata);
+        }
+
+        String[] errors = new String[size];
+        List<SpooledFile> spooledFiles = new ArrayList<>(Collections.nCopies(size, null));
+        try {
+            //spool and enrich each file on the ingest workers
+            List<Callable<SpooledFile>> spoolTasks = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                final int index = i;
+                spoolTasks.add(() -> spoolAndEnrich(mediaFiles.get(index), metadataList.get(index)));
+            }
+            List<MediaFileMetadata> indexList = new ArrayList<>(size);
+            List<Future<SpooledFile>> spoolResults = parallelIngestExecutor.invokeAll(spoolTasks);
+            for (int i = 0; i < size; i++) {
+                try {
+                    spooledFiles.set(i, getResult(spoolResults.get(i)));
+                    indexList.add(metadataList.get(i));
+                } catch (ExecutionException ee) {
+                    errors[i] = failureMessage(metadataList.get(i), ee);
+                }
+            }
+
+            //save all metadata in one bulk request to get indexed docs with id
+            metadataStorage.saveAll(indexList);
+
+            //move spooled files to file system on the ingest workers
+            List<Integer> storeIndexes = new ArrayList<>(size);
+            List<Callable<MediaFileMetadata>> storeTasks = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                MediaFileMetadata metadata = metadataList.get(i);
+                SpooledFile spooledFile = spooledFiles.get(i);
+                if (errors[i] != null) continue;
+                if (metadata.getId() == null) {
+                    errors[i] = "Failed to index media file " + metadata.getFilename();
+                } else if (spooledFile != null) {
+                    storeIndexes.add(i);
+                    storeTasks.add(() -> getFileStorage().saveFile(spooledFile.getPath(), metadata)
+                            .orElseThrow(() -> new FileStoreServiceException("Failed to store media file " + metadata.getFilename())));
+                }
+            }
+            Map<String, MediaFileMetadata> partialMetadataMap = new LinkedHashMap<>();
+            List<Future<MediaFileMetadata>> storeResults = parallelIngestExecutor.invokeAll(storeTasks);
+            for (int i = 0; i < storeIndexes.size(); i++) {
+                int index = storeIndexes.get(i);
+                MediaFileMetadata metadata = metadataList.get(index);
+                try {
+                    MediaFileMetadata savedMetadata = getResult(storeResults.get(i));
+                    partialMetadataMap.put(savedMetadata.getId(), MediaFileMetadata.builder()
+                            .logicalPath(savedMetadata.getLogicalPath())
+                            .blobId(savedMetadata.getBlobId())
+                            .build());
+                } catch (ExecutionException ee) {
+                    errors[index] = failureMessage(metadata, ee);
+                    //the binary is missing, hide the indexed metadata
+                    partialMetadataMap.put(metadata.getId(), MediaFileMetadata.builder().activated(false).build());
+                }
+            }
+            //update the logical paths to metadata in one bulk request
+            metadataStorage.updateAll(partialMetadataMap);
+
+            List<MediaFile> results = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                MediaFileMetadata metadata = metadataList.get(i);
+                if (errors[i] == null) submitBackgroundStages(metadata);
+                results.add(errors[i] == null ? mediaFileMapper.metadataToDto(metadata) :
+                        MediaFile.builder()
+                                .filename(metadata.getFilename())
+                                .title(metadata.getTitle())
+                                .error(errors[i])
+                                .build());
+            }
+            return results;
+        } finally {
+            for (SpooledFile spooledFile : spooledFiles) {
+                if (spooledFile != null) spooledFile.close();
+            }
+        }
+    }
+
+    private SpooledFile spoolAndEnrich(MediaFile mediaFile, MediaFileMetadata metadata) throws IOException {
+        SpooledFile spooledFile = spoolContent(mediaFile);
+        if (spooledFile == null) return null;
+        try {
+            enrich(metadata, spooledFile.getPath());
+            return spooledFile;
+        } catch (RuntimeException e) {
+            spooledFile.close();
+            throw e;
+        }
+    }
+
+    private static <T> T getResult(Future<T> future) throws ExecutionException {
+        try {
+            return future.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new ExecutionException(ie);
+        } catch (CancellationException ce) {
+            throw new ExecutionException(ce);
+        }
+    }
+
+    private static String failureMessage(MediaFileMetadata metadata, ExecutionException ee) {
+        Throwable cause = ee.getCause() != null ? ee.getCause() : ee;
+        log.error("failed to add file {} due to {}", metadata.getFilename(), cause.getMessage());
+        return cause instanceof FileStoreServiceException ? cause.getMessage() :
+                "Failed to store media file " + metadata.getFilename();
+    }
+
+    private SpooledFile spoolContent(MediaFile mediaFile) throws IOException {
+        InputStream inputStream;
+        if (mediaFile.getFileSource() != null) {
+            inputStream = mediaFile.getFileSource().getInputStream();
+        } else if (mediaFile.getFile() != null && mediaFile.getFile().length > 0) {
+            inputStream = new ByteArrayInputStream(mediaFile.getFile());
+        } else {
+            return null;
+        }
+        return fileSpoolManager.spool(inputStream);
+    }
+
     @Override
     @Transactional
     public MediaFile addMediaGallery(MediaFile mediaGallery) throws FileStoreServiceException {
@@ -181,8 +549,8 @@ public class MediaFileServiceImpl implements MediaFileService {
 
         if(galleryMetadata.getChildren() != null && !galleryMetadata.getChildren().isEmpty()) {
             List<MediaFileMetadata> childMetadataList = new ArrayList<>();
-            for (MediaFile child : mediaGallery.getChildren()) {
-                child = this.addMediaFile(child, MediaFileModule.FILE);
+            for (MediaFile child : this.addMediaFiles(mediaGallery.getChildren(), MediaFileModule.FILE)) {
+                if (child.getError() != null) continue;
                 log.debug("save one file {} in new gallery", child.getUuid());
                 childMetadataList.add(MediaFileMetadata.builder()
                         .id(child.getUuid())
@@ -191,6 +559,7 @@ public class MediaFileServiceImpl implements MediaFileService {
                         .build());
             }
             galleryMetadata.setChildren(childMetadataList);
+            if (childMetadataList.isEmpty()) throw new FileStoreServiceException("Failed to store gallery files");
             MediaFileMetadata featuredMetadata = childMetadataList.get(0);
             galleryMetadata.addProp(PROP_FEATURED_ID, featuredMetadata.getId());
             // as gallery is not a single file, use featured file mime type as its own
@@ -208,6 +577,7 @@ public class MediaFileServiceImpl implements MediaFileService {
         Optional<MediaFileMetadata> optional = metadataStorage.getMetadata(mediaFileId);
 
         if (optional.isPresent()) {
+            thumbnailCache.invalidate(mediaFileId);
             MediaFileMetadata updateMetadata = optional.get();
             dtoHandler.normalize(mediaFileId, partialMediaFile, updateMetadata);
 
@@ -217,13 +587,18 @@ public class MediaFileServiceImpl implements MediaFileService {
                 if (bytes == null || bytes.length == 0) {
                     metadataStorage.updateMetadata(mediaFileId, updateMetadata);
                 } else {
-                    Optional<MediaFileMetadata> updated = getFileStorage().saveFile(bytes, updateMetadata);
+                    Optional<MediaFileMetadata> updated = getFileStorage(updateMetadata).saveFile(bytes, updateMetadata);
                     if (updated.isPresent()) {
 
                         updateMetadata = updated.get();
                         log.debug("saved file binary {}", updateMetadata);
-                        updateMetadata = metadataStorage.updateMetadata(mediaFileId, updateMetadata);
+                        //the text of the old binary is replaced once the new one is extracted
+                        updateMetadata.setExtracted(false);
+                        //the update response carries no source, the merged metadata is what got indexed
+                        metadataStorage.updateMetadata(mediaFileId, updateMetadata);
                         log.debug("saved file metadata {}", updateMetadata);
+                        //queued once extracted=false is indexed, so the flag is not written over the extracted text
+                        extractionQueue.submit(updateMetadata);
 
                     } else {
                         log.error("failed to update file {}", mediaFileId);
@@ -334,6 +709,7 @@ public class MediaFileServiceImpl implements MediaFileService {
         }
 
         MediaFileMetadata metadata = optional.get();
+        thumbnailCache.invalidate(mediaFileId);
         if (metadata.getModule().equals(MediaFileModule.GALLERY)) {
             return trashGallery(metadata);
         }
@@ -341,7 +717,7 @@ public class MediaFileServiceImpl implements MediaFileService {
         metadataStorage.updateMetadataStatus(mediaFileId, false);
 
         try {
-            getFileStorage().deleteFile(metadata);
+            getFileStorage(metadata).deleteFile(metadata);
             return 1;
         } catch (FileNotFoundException ex) {
             metadataStorage.updateLogicalPath(mediaFileId, null);
@@ -362,6 +738,8 @@ public class MediaFileServiceImpl implements MediaFileService {
         Optional<MediaFileMetadata> optional = metadataStorage.getMetadata(galleryId);
         if (optional.isEmpty()) { throw new FileNotFoundException(galleryId); }
 
+        // galleries saved or cloned just before must be found by the search for shared children
+        metadataStorage.refreshMetadata();
         List<String> removeList = new ArrayList<>();
         for (String itemId : itemsId) {
             trashChild(galleryId, itemId);
@@ -377,9 +755,21 @@ public class MediaFileServiceImpl implements MediaFileService {
 
         try {
             if (galleryMetadata.getChildren() != null) {
-                for (MediaFileMetadata mediaFileMetadata : galleryMetadata.getChildren()) {
-                    this.trashChild(galleryId, mediaFileMetadata.getId());
+                // galleries saved or cloned just before must be found by the search for shared children
+                metadataStorage.refreshMetadata();
+                List<MediaFileMetadata> trashList = new ArrayList<>();
+                for (MediaFileMetadata child : galleryMetadata.getChildren()) {
+                    if (!metadataStorage.findChildrenInOtherGallery(galleryId, child.getId(), 1).isEmpty()) continue;
+
+                    Optional<MediaFileMetadata> optional = metadataStorage.getMetadata(child.getId());
+                    if (optional.isEmpty() || optional.get().getActivated() != Boolean.TRUE) continue;
+                    if (optional.get().getModule() == MediaFileModule.GALLERY) {
+                        trashGallery(optional.get());
+                    } else {
+                        trashList.add(optional.get());
+                    }
                 }
+                trashFiles(trashList);
 
                 return galleryMetadata.getChildren().size();
             }
@@ -390,6 +780,31 @@ public class MediaFileServiceImpl implements MediaFileService {
         return 0;
     }
 
+    /**
+     * Deactivate a batch of files with one bulk request and then remove their binaries, the files not removed
+     * yet are activated again if one of them fails
+     */
+    private void trashFiles(List<MediaFileMetadata> metadataList) throws FileStoreServiceException {
+        if (metadataList.isEmpty()) return;
+
+        List<String> pendingIds = new ArrayList<>(metadataList.stream().map(MediaFileMetadata::getId).toList());
+        metadataStorage.updateStatusAll(pendingIds, false);
+        for (MediaFileMetadata metadata : metadataList) {
+            thumbnailCache.invalidate(metadata.getId());
+            try {
+                getFileStorage(metadata).deleteFile(metadata);
+            } catch (FileNotFoundException ex) {
+                metadataStorage.updateLogicalPath(metadata.getId(), null);
+            } catch (Exception e) {
+                log.error("failed to trash media file {} due to {}", metadata.getId(), e.getMessage());
+                //roll back metadata status of the files still holding their binary
+                metadataStorage.updateStatusAll(pendingIds, true);
+                throw new FileStoreServiceException("failed to trash gallery, please contact system admin");
+            }
+            pendingIds.remove(metadata.getId());
+        }
+    }
+
     private boolean trashChild(String parentId, String childId) throws FileStoreServiceException {
         List<MediaFileMetadata> galleryList = metadataStorage.findChildrenInOtherGallery(parentId, childId, 1);
         if (galleryList.isEmpty()) {
@@ -401,23 +816,40 @@ public class MediaFileServiceImpl implements MediaFileService {
     }
 
     @Override
-    public List<MediaFile> searchMediaFile(String query, Integer size) throws FileStoreServiceException {
-        List<MediaFileMetadata> mediaFileMetadataList = metadataStorage.searchMetadata(query, size,
+    public SearchPage<MediaFile> searchMediaFile(String query, Integer size, String cursor, List<String> fields)
+            throws FileStoreServiceException {
+        SearchPage<MediaFileMetadata> page = metadataStorage.searchMetadata(query, size, cursor, toIncludes(fields),
                 securityService.getCurrentUserRoles(), securityService.getCurrentUserId());
-        if (mediaFileMetadataList == null) {
-            return Collections.emptyList();
-        } else {
-            return mediaFileMapper.metadataListToDTOList(mediaFileMetadataList);
-        }
+        return pageToDto(page);
     }
 
     @Override
-    public List<MediaFile> getTrash() throws FileStoreServiceException {
-        List<MediaFileMetadata> mediaFileMetadataList = metadataStorage.getInactiveMetadata();
-        if (mediaFileMetadataList == null) {
-            return Collections.emptyList();
+    public SearchPage<MediaFile> getTrash(Integer size, String cursor, List<String> fields)
+            throws FileStoreServiceException {
+        return pageToDto(metadataStorage.getInactiveMetadata(size, cursor, toIncludes(fields)));
+    }
+
+    private List<String> toIncludes(List<String> fields) {
+        if (fields == null || fields.isEmpty()) return Collections.emptyList();
+
+        Set<String> includes = new LinkedHashSet<>();
+        for (String field : fields) {
+            String name = field.trim();
+            if (name.isEmpty() || UUID_FIELD.equals(name)) continue;
+            if (SUMMARY.equals(name)) includes.addAll(SUMMARY_FIELDS);
+            else if (SELECTABLE_FIELDS.contains(name)) includes.add(name);
+            else throw new InvalidFieldException(name);
+        }
+        // the uuid alone still needs one field of the source to map the hits
+        if (includes.isEmpty()) includes.add(TITLE.value());
+        return new ArrayList<>(includes);
+    }
+
+    private SearchPage<MediaFile> pageToDto(SearchPage<MediaFileMetadata> page) {
+        if (page == null) {
+            return new SearchPage<>(Collections.emptyList(), null);
         } else {
-            return mediaFileMapper.metadataListToDTOList(mediaFileMetadataList);
+            return page.map(mediaFileMapper::metadataListToDTOList);
         }
     }
 
@@ -426,7 +858,9 @@ public class MediaFileServiceImpl implements MediaFileService {
         long count = metadataStorage.deleteInactiveMetadata();
         if (count > 0) {
             log.debug("Deleted {} inactive metadata", count);
-            getFileStorage().emptyTrash();
+            for (StorageMode storageMode : fileStorageRouter.getActiveModes()) {
+                fileStorageRouter.get(storageMode).emptyTrash();
+            }
         }
         return count;
     }
@@ -0,0 +1,176 @@
+package com.jumkid.vault.service.enrich;
+
+import com.jumkid.vault.exception.FileStoreServiceException;
+import com.jumkid.vault.exception.InvalidCursorException;
+import com.jumkid.vault.model.MediaFileMetadata;
+import com.jumkid.vault.model.SearchPage;
+import com.jumkid.vault.repository.FileMetadata;
+import com.jumkid.vault.repository.FileStorageRouter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Enrich uploads off the request thread. The upload is indexed with enriched false and answered once its
+ * binary is stored, then the workers read the binary back from its storage, parse it and write the props of
+ * a whole batch back with one bulk update, setting enriched true. The update only applies to the version the
+ * props were read from, a media file updated meanwhile is queued again to parse on top of the update. The flag
+ * in the index is the journal, media files still pending on start are queued again.
+ */
+@Slf4j
+@Component
+public class EnrichmentQueue {
+
+    private static final int RESUME_PAGE_SIZE = 1000;
+
+    private final FileMetadata<MediaFileMetadata> metadataStorage;
+
+    private final FileStorageRouter fileStorageRouter;
+
+    private final MetadataEnricher metadataEnricher;
+
+    @Getter
+    private final boolean enabled;
+
+    private final int batchSize;
+
+    private final BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+
+    private final Set<String> queuedIds = ConcurrentHashMap.newKeySet();
+
+    private final ExecutorService executor;
+
+    private final Counter enrichedCounter;
+
+    @Autowired
+    public EnrichmentQueue(FileMetadata<MediaFileMetadata> metadataStorage,
+                           FileStorageRouter fileStorageRouter,
+                           MetadataEnricher metadataEnricher,
+                           MeterRegistry meterRegistry,
+                           @Value("${vault.enrich.deferred.enabled}") boolean enabled,
+                           @Value("${vault.enrich.deferred.workers}") int workers,
+                           @Value("${vault.enrich.deferred.batch-size}") int batchSize) {
+        this.metadataStorage = metadataStorage;
+        this.fileStorageRouter = fileStorageRouter;
+        this.metadataEnricher = metadataEnricher;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+
+        this.executor = Executors.newFixedThreadPool(workers, new CustomizableThreadFactory("enrich-queue-"));
+        if (enabled) {
+            for (int i = 0; i < workers; i++) executor.execute(this::work);
+        }
+
+        Gauge.builder("vault.enrich.pending", queue, Queue::size)
+                .description("Media files waiting for enrichment")
+                .register(meterRegistry);
+        this.enrichedCounter = Counter.builder("vault.enrich.deferred")
+                .description("Media files enriched in background")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Queue a media file for enrichment, it must be indexed with its stored location already
+     *
+     * @param mediaFileId identity of media file
+     */
+    public void submit(String mediaFileId) {
+        if (mediaFileId != null && queuedIds.add(mediaFileId)) queue.add(mediaFileId);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumePendingEnrichment() {
+        if (!enabled) return;
+        int resumed = 0;
+        try {
+            String cursor = null;
+            do {
+                SearchPage<MediaFileMetadata> page = metadataStorage.findNotEnriched(RESUME_PAGE_SIZE, cursor);
+                page.getItems().forEach(metadata -> submit(metadata.getId()));
+                resumed += page.getItems().size();
+                cursor = page.getCursor();
+            } while (cursor != null);
+        } catch (FileStoreServiceException | InvalidCursorException e) {
+            log.error("failed to resume pending enrichment {}", e.getMessage());
+        }
+        if (resumed > 0) log.info("resume enrichment of {} media files", resumed);
+    }
+
+    private void work() {
+        List<String> batch = new ArrayList<>(batchSize);
+        while (!Thread.currentThread().isInterrupted()) {
+            List<String> changedIds = List.of();
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, batchSize - 1);
+                changedIds = enrich(batch);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                log.error("failed to enrich media files {} due to {}", batch, e.getMessage());
+            } finally {
+                batch.forEach(queuedIds::remove);
+                batch.clear();
+            }
+            changedIds.forEach(this::submit);
+        }
+    }
+
+    /**
+     * @return identities of the media files updated while they were parsed, their props are not written
+     */
+    List<String> enrich(List<String> mediaFileIds) {
+        Map<String, MediaFileMetadata> partialMetadataMap = new LinkedHashMap<>();
+        for (String mediaFileId : mediaFileIds) {
+            try {
+                Optional<MediaFileMetadata> optional = metadataStorage.getMetadata(mediaFileId);
+                if (optional.isEmpty()) continue;
+
+                MediaFileMetadata metadata = optional.get();
+                // a binary missing from its storage is not going to be enriched later either
+                Optional<FileChannel> channel = fileStorageRouter.route(metadata).getFileRandomAccess(metadata);
+                channel.ifPresent(fc -> metadataEnricher.enrichProps(metadata, fc));
+                // the props are written as a whole, over the version they were read from only
+                partialMetadataMap.put(mediaFileId, MediaFileMetadata.builder()
+                        .props(metadata.getProps())
+                        .enriched(true)
+                        .seqNo(metadata.getSeqNo())
+                        .primaryTerm(metadata.getPrimaryTerm())
+                        .build());
+            } catch (FileStoreServiceException fse) {
+                log.error("failed to enrich media file {} due to {}", mediaFileId, fse.getMessage());
+            }
+        }
+
+        try {
+            List<String> changedIds = metadataStorage.updateAllIfUnchanged(partialMetadataMap);
+            if (!changedIds.isEmpty()) log.debug("media files {} changed while enriched, parse them again", changedIds);
+            enrichedCounter.increment(partialMetadataMap.size() - (double) changedIds.size());
+            return changedIds;
+        } catch (FileStoreServiceException fse) {
+            // they stay pending and are queued again on next start
+            log.error("failed to update props of {} enriched media files {}", partialMetadataMap.size(),
+                    fse.getMessage());
+            return List.of();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+}
@@ -2,64 +2,199 @@ package com.jumkid.vault.service.enrich;
 
 import com.jumkid.vault.model.MediaFileMetadata;
 import com.jumkid.vault.util.DateTimeUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.math.NumberUtils;
-import org.apache.tika.Tika;
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.detect.Detector;
 import org.apache.tika.io.TikaInputStream;
 import org.apache.tika.metadata.HttpHeaders;
 import org.apache.tika.metadata.Metadata;
-import org.apache.tika.parser.AutoDetectParser;
 import org.apache.tika.parser.ParseContext;
 import org.apache.tika.parser.Parser;
 import org.apache.tika.sax.BodyContentHandler;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Component;
-
+import org.springframework.util.unit.DataSize;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.format.DateTimeParseException;
-
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+/**
+ * Enrich the metadata of uploads with the properties parsed by Tika. The type is detected once, then the
+ * parser of that type runs on a bounded pool of its own, with a timeout and a largest file size by mime type,
+ * so a slow or huge file costs at most its timeout on the request thread. In the metadata mode the body
+ * is dropped by a no-op content handler instead of being buffered as text.
+ */
 @Slf4j
 @Component
 public class MetadataEnricher {
 
+    public enum Mode { METADATA, FULL }
+
     private static final String WHITESPACE = "";
 
-    private final Tika tika;
+    private static final String DEFAULT_LIMIT = "default";
+
+    private record ParseLimit(String prefix, Duration timeout, long maxSize) { }
+
+    private final Detector detector;
+
+    // composite parser choosing by the content type set in the metadata, it does not detect again
     final Parser parser;
 
+    private final Mode mode;
+
+    private final ThreadPoolExecutor executor;
+
+    private final MeterRegistry meterRegistry;
+
+    private final ParseLimit defaultLimit;
+
+    // longest prefix first
+    private final List<ParseLimit> limits;
+
     @Autowired
-    public MetadataEnricher() {
-        this.tika = new Tika();
-        this.parser = new AutoDetectParser();
+    public MetadataEnricher(MeterRegistry meterRegistry,
+                            @Value("${vault.enrich.mode}") String mode,
+                            @Value("${vault.enrich.workers}") int workers,
+                            @Value("${vault.enrich.queue-capacity}") int queueCapacity,
+                            @Value("#{${vault.enrich.timeouts}}") Map<String, String> timeouts,
+                            @Value("#{${vault.enrich.max-sizes}}") Map<String, String> maxSizes) {
+        TikaConfig tikaConfig = TikaConfig.getDefaultConfig();
+        this.detector = tikaConfig.getDetector();
+        this.parser = tikaConfig.getParser();
+        this.mode = Mode.valueOf(mode.toUpperCase());
+        this.meterRegistry = meterRegistry;
+
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("enrich-"),
+                new ThreadPoolExecutor.AbortPolicy());
+
+        this.defaultLimit = limitOf(DEFAULT_LIMIT, timeouts, maxSizes);
+        this.limits = Stream.concat(timeouts.keySet().stream(), maxSizes.keySet().stream())
+                .distinct()
+                .filter(prefix -> !DEFAULT_LIMIT.equals(prefix))
+                .map(prefix -> limitOf(prefix, timeouts, maxSizes))
+                .sorted(Comparator.comparingInt((ParseLimit limit) -> limit.prefix().length()).reversed())
+                .toList();
     }
 
     public void enrichProps(MediaFileMetadata mediaFileMetadata, byte[] bytes) {
+        try (TikaInputStream tikaStream = TikaInputStream.get(bytes)) {
+            enrichProps(mediaFileMetadata, tikaStream, bytes.length);
+        } catch (IOException ioe) {
+            log.error("Metadata parsing exception {}", ioe.getMessage());
+        }
+    }
+
+    /**
+     * Parse metadata straight from the file, Tika streams it so the content is never held in memory
+     *
+     * @param mediaFileMetadata metadata to enrich
+     * @param path path of local file
+     */
+    public void enrichProps(MediaFileMetadata mediaFileMetadata, Path path) {
+        try (TikaInputStream tikaStream = TikaInputStream.get(path)) {
+            enrichProps(mediaFileMetadata, tikaStream, tikaStream.getLength());
+        } catch (IOException ioe) {
+            log.error("Metadata parsing exception {}", ioe.getMessage());
+        }
+    }
+
+    /**
+     * Parse metadata from a file read back from the storage, Tika spools it to a temporary file only for the
+     * parsers which need random access
+     *
+     * @param mediaFileMetadata metadata to enrich
+     * @param channel channel of stored file, it is closed once parsed
+     */
+    public void enrichProps(MediaFileMetadata mediaFileMetadata, FileChannel channel) {
+        try (channel; TikaInputStream tikaStream = TikaInputStream.get(Channels.newInputStream(channel))) {
+            enrichProps(mediaFileMetadata, tikaStream, channel.size());
+        } catch (IOException ioe) {
+            log.error("Metadata parsing exception {}", ioe.getMessage());
+        }
+    }
 
-        final BodyContentHandler handler = new BodyContentHandler();
+    private void enrichProps(MediaFileMetadata mediaFileMetadata, TikaInputStream tikaStream, long size)
+            throws IOException {
+        final long startTime = System.nanoTime();
         final Metadata metadata = new Metadata();
-        final ParseContext context = new ParseContext();
 
-        try (TikaInputStream tikaStream = TikaInputStream.get(bytes)) {
-            String mimeType = tika.detect(tikaStream);
-            metadata.set(HttpHeaders.CONTENT_TYPE, mimeType);
+        String mimeType = detector.detect(tikaStream, metadata).getBaseType().toString();
+        metadata.set(HttpHeaders.CONTENT_TYPE, mimeType);
+
+        ParseLimit limit = getLimit(mimeType);
+        if (size > limit.maxSize()) {
+            log.debug("skip parsing {} bytes of {}, over the limit of {}", size, mimeType, limit.maxSize());
+            record(mimeType, "skipped", startTime);
+            return;
+        }
+
+        Future<?> future;
+        try {
+            future = executor.submit(() -> {
+                parser.parse(tikaStream, newContentHandler(), metadata, new ParseContext());
+                return null;
+            });
+        } catch (RejectedExecutionException ree) {
+            log.warn("metadata parsers are busy, {} is stored without parsed properties", mimeType);
+            record(mimeType, "rejected", startTime);
+            return;
+        }
 
-            parser.parse(tikaStream, handler, metadata, context);
+        try {
+            future.get(limit.timeout().toMillis(), TimeUnit.MILLISECONDS);
+            addProps(mediaFileMetadata, metadata);
+            record(mimeType, "success", startTime);
+        } catch (TimeoutException te) {
+            // closing the stream on return stops the parsers blocked on it, the others are interrupted
+            future.cancel(true);
+            log.warn("parsing {} timed out after {}", mimeType, limit.timeout());
+            record(mimeType, "timeout", startTime);
+        } catch (ExecutionException ee) {
+            log.error("Metadata parsing exception {}", ee.getCause().getMessage());
+            record(mimeType, "error", startTime);
+        } catch (InterruptedException ie) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+        }
+    }
 
-            for (String metaName : metadata.names()) {
+    private ContentHandler newContentHandler() {
+        return mode == Mode.FULL ? new BodyContentHandler() : new DefaultHandler();
+    }
 
-                String metaValue = metadata.get(metaName);
-                if (metaValue == null || metaValue.isBlank()) continue;
+    private void addProps(MediaFileMetadata mediaFileMetadata, Metadata metadata) {
+        for (String metaName : metadata.names()) {
 
-                if (metaName.toLowerCase().contains("date") || metaName.toLowerCase().contains("modified")) {
-                    addDatetimeProp(mediaFileMetadata, metaValue, metaName);
-                } else {
-                    if (NumberUtils.isParsable(metaValue)) mediaFileMetadata.addProp(metaName, NumberUtils.createNumber(metaValue));
-                    else mediaFileMetadata.addProp(metaName, metaValue);
-                }
+            String metaValue = metadata.get(metaName);
+            if (metaValue == null || metaValue.isBlank()) continue;
 
+            if (metaName.toLowerCase().contains("date") || metaName.toLowerCase().contains("modified")) {
+                addDatetimeProp(mediaFileMetadata, metaValue, metaName);
+            } else {
+                if (NumberUtils.isParsable(metaValue)) mediaFileMetadata.addProp(metaName, NumberUtils.createNumber(metaValue));
+                else mediaFileMetadata.addProp(metaName, metaValue);
             }
 
-        } catch (Exception e) {
-            log.error("Metadata parsing exception {}", e.getMessage());
         }
     }
 
@@ -73,4 +208,31 @@ public class MetadataEnricher {
         }
     }
 
+    private ParseLimit getLimit(String mimeType) {
+        for (ParseLimit limit : limits) {
+            if (mimeType.startsWith(limit.prefix())) return limit;
+        }
+        return defaultLimit;
+    }
+
+    private void record(String mimeType, String outcome, long startTime) {
+        Timer.builder("vault.enrich.parse.time")
+                .description("Time to detect and parse the metadata of an upload")
+                .tag("mimeType", mimeType)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+    }
+
+    private static ParseLimit limitOf(String prefix, Map<String, String> timeouts, Map<String, String> maxSizes) {
+        String timeout = timeouts.getOrDefault(prefix, timeouts.get(DEFAULT_LIMIT));
+        String maxSize = maxSizes.getOrDefault(prefix, maxSizes.get(DEFAULT_LIMIT));
+        return new ParseLimit(prefix, DurationStyle.detectAndParse(timeout), DataSize.parse(maxSize).toBytes());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
 }
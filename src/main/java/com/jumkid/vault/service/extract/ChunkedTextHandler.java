@@ -0,0 +1,80 @@
+package com.jumkid.vault.service.extract;
+
+import lombok.Getter;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collect the text of a document in chunks of about the same size, cut on whitespace where there is some,
+ * and stop the parser once the text reaches its limit
+ */
+class ChunkedTextHandler extends DefaultHandler {
+
+    static final class LimitReachedException extends SAXException {
+        LimitReachedException() { super("text limit reached"); }
+    }
+
+    private final int chunkChars;
+
+    private final int maxChars;
+
+    private final StringBuilder buffer;
+
+    private final List<String> chunks = new ArrayList<>();
+
+    private int totalChars;
+
+    @Getter
+    private boolean limitReached;
+
+    ChunkedTextHandler(int chunkChars, int maxChars) {
+        this.chunkChars = chunkChars;
+        this.maxChars = maxChars;
+        this.buffer = new StringBuilder(chunkChars);
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        int accepted = Math.min(length, maxChars - totalChars);
+        buffer.append(ch, start, accepted);
+        totalChars += accepted;
+        while (buffer.length() >= chunkChars) cutChunk();
+
+        if (accepted < length) {
+            limitReached = true;
+            throw new LimitReachedException();
+        }
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+        characters(ch, start, length);
+    }
+
+    /**
+     * @return the chunks of text, the last one included
+     */
+    List<String> getChunks() {
+        String rest = buffer.toString().strip();
+        if (!rest.isEmpty()) chunks.add(rest);
+        buffer.setLength(0);
+        return chunks;
+    }
+
+    private void cutChunk() {
+        int cut = chunkChars;
+        for (int i = chunkChars - 1; i > chunkChars / 2; i--) {
+            if (Character.isWhitespace(buffer.charAt(i))) {
+                cut = i + 1;
+                break;
+            }
+        }
+        String chunk = buffer.substring(0, cut).strip();
+        if (!chunk.isEmpty()) chunks.add(chunk);
+        buffer.delete(0, cut);
+    }
+
+}
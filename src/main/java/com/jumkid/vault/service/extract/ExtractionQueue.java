@@ -0,0 +1,262 @@
+package com.jumkid.vault.service.extract;
+
+import com.jumkid.vault.controller.dto.TextExtraction;
+import com.jumkid.vault.exception.FileNotFoundException;
+import com.jumkid.vault.exception.FileStoreServiceException;
+import com.jumkid.vault.model.MediaFileMetadata;
+import com.jumkid.vault.repository.FileMetadata;
+import com.jumkid.vault.repository.FileStorageRouter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Extract the text of documents off the request path and index it with bulk updates. New and updated
+ * documents are queued by the service, the existing corpus is covered by a run over every document without
+ * extracted text, which can be started again at any time, e.g. after the limits are changed. Both share the
+ * pool of extract workers.
+ */
+@Slf4j
+@Component
+public class ExtractionQueue {
+
+    private final FileMetadata<MediaFileMetadata> metadataStorage;
+
+    private final FileStorageRouter fileStorageRouter;
+
+    private final TextExtractor textExtractor;
+
+    @Getter
+    private final boolean enabled;
+
+    private final int batchSize;
+
+    private final BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+
+    private final Set<String> queuedIds = ConcurrentHashMap.newKeySet();
+
+    private final ExecutorService extractExecutor;
+
+    // one thread draining the queue, one for a run over the corpus
+    private final ExecutorService stageExecutor;
+
+    private final Timer extractTimer;
+
+    private final Counter failedCounter;
+
+    private volatile Run current;
+
+    private static final class Run {
+        private final LocalDateTime startedOn = LocalDateTime.now();
+        private final AtomicLong extracted = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private volatile boolean stopped;
+        private volatile LocalDateTime finishedOn;
+    }
+
+    @Autowired
+    public ExtractionQueue(FileMetadata<MediaFileMetadata> metadataStorage,
+                           FileStorageRouter fileStorageRouter,
+                           TextExtractor textExtractor,
+                           MeterRegistry meterRegistry,
+                           @Value("${vault.extract.enabled}") boolean enabled,
+                           @Value("${vault.extract.workers}") int workers,
+                           @Value("${vault.extract.batch-size}") int batchSize) {
+        this.metadataStorage = metadataStorage;
+        this.fileStorageRouter = fileStorageRouter;
+        this.textExtractor = textExtractor;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+
+        this.extractExecutor = Executors.newFixedThreadPool(workers, new CustomizableThreadFactory("extract-"));
+        this.stageExecutor = Executors.newFixedThreadPool(2, new CustomizableThreadFactory("extract-stage-"));
+        if (enabled) stageExecutor.execute(this::work);
+
+        Gauge.builder("vault.extract.pending", queue, Queue::size)
+                .description("Documents waiting for text extraction")
+                .register(meterRegistry);
+        this.extractTimer = Timer.builder("vault.extract.time")
+                .description("Time to read back and extract the text of a document")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("vault.extract.failed")
+                .description("Documents failed to extract")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Queue a media file for text extraction if it is a document, it must be indexed with its stored location
+     *
+     * @param mediaFileMetadata metadata of media file
+     */
+    public void submit(MediaFileMetadata mediaFileMetadata) {
+        if (!enabled || !textExtractor.isExtractable(mediaFileMetadata)) return;
+        String mediaFileId = mediaFileMetadata.getId();
+        if (mediaFileId != null && queuedIds.add(mediaFileId)) queue.add(mediaFileId);
+    }
+
+    /**
+     * Start extracting the text of all documents without any, unless a run is in progress already
+     *
+     * @return status of the run in progress
+     */
+    public synchronized TextExtraction start() {
+        if (current != null && current.finishedOn == null) return getStatus();
+        Run run = new Run();
+        current = run;
+        stageExecutor.execute(() -> extractCorpus(run));
+        log.info("text extraction over the corpus started");
+        return getStatus();
+    }
+
+    /**
+     * Stop the run in progress after the batch being extracted
+     *
+     * @return status of the last run
+     */
+    public synchronized TextExtraction stop() {
+        if (current != null) current.stopped = true;
+        return getStatus();
+    }
+
+    /**
+     * @return status of the last run over the corpus, empty when there was none since start
+     */
+    public TextExtraction getStatus() {
+        Run run = current;
+        if (run == null) return TextExtraction.builder().build();
+        return TextExtraction.builder()
+                .running(run.finishedOn == null)
+                .extracted(run.extracted.get())
+                .failed(run.failed.get())
+                .startedOn(run.startedOn)
+                .finishedOn(run.finishedOn)
+                .build();
+    }
+
+    private void work() {
+        List<String> batch = new ArrayList<>(batchSize);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, batchSize - 1);
+
+                List<MediaFileMetadata> documents = new ArrayList<>(batch.size());
+                for (String mediaFileId : batch) {
+                    metadataStorage.getMetadata(mediaFileId).ifPresent(documents::add);
+                }
+                extractAll(documents);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            } catch (FileStoreServiceException | RuntimeException e) {
+                log.error("failed to extract text of {} due to {}", batch, e.getMessage());
+            } finally {
+                batch.forEach(queuedIds::remove);
+                batch.clear();
+            }
+        }
+    }
+
+    private void extractCorpus(Run run) {
+        // documents failed or skipped are left out for the rest of the run
+        Set<String> skippedIds = new HashSet<>();
+        // the documents of the last batch may still be found until the index is refreshed
+        Set<String> excludedIds = new HashSet<>();
+        try {
+            while (!run.stopped && !Thread.currentThread().isInterrupted()) {
+                List<MediaFileMetadata> batch = metadataStorage.findNotExtracted(textExtractor.getMimeTypes(),
+                        excludedIds, batchSize);
+                if (batch.isEmpty()) break;
+
+                excludedIds = new HashSet<>(skippedIds);
+                List<MediaFileMetadata> documents = new ArrayList<>(batch.size());
+                for (MediaFileMetadata mediaFileMetadata : batch) {
+                    excludedIds.add(mediaFileMetadata.getId());
+                    if (textExtractor.isExtractable(mediaFileMetadata)) documents.add(mediaFileMetadata);
+                    else skippedIds.add(mediaFileMetadata.getId());
+                }
+
+                List<String> failedIds = extractAll(documents);
+                skippedIds.addAll(failedIds);
+                excludedIds.addAll(failedIds);
+                run.extracted.addAndGet(documents.size() - failedIds.size());
+                run.failed.addAndGet(failedIds.size());
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (FileStoreServiceException fse) {
+            log.error("text extraction over the corpus aborted: {}", fse.getMessage());
+        } finally {
+            run.finishedOn = LocalDateTime.now();
+            log.info("text extraction over the corpus finished with {} documents extracted and {} failed",
+                    run.extracted.get(), run.failed.get());
+        }
+    }
+
+    /**
+     * Extract the documents on the extract workers and index their text with one bulk update
+     *
+     * @return identities of the documents failed to extract
+     */
+    List<String> extractAll(List<MediaFileMetadata> documents) throws InterruptedException {
+        if (documents.isEmpty()) return Collections.emptyList();
+
+        List<Callable<List<String>>> tasks = new ArrayList<>(documents.size());
+        for (MediaFileMetadata mediaFileMetadata : documents) {
+            tasks.add(() -> extractTimer.recordCallable(() -> extract(mediaFileMetadata)));
+        }
+        List<Future<List<String>>> results = extractExecutor.invokeAll(tasks);
+
+        List<String> failedIds = new ArrayList<>();
+        Map<String, MediaFileMetadata> partialMetadataMap = new LinkedHashMap<>();
+        for (int i = 0; i < documents.size(); i++) {
+            String mediaFileId = documents.get(i).getId();
+            try {
+                partialMetadataMap.put(mediaFileId, MediaFileMetadata.builder()
+                        .text(results.get(i).get())
+                        .extracted(true)
+                        .build());
+            } catch (ExecutionException ee) {
+                log.error("failed to extract text of {} due to {}", mediaFileId, ee.getCause().getMessage());
+                failedIds.add(mediaFileId);
+            }
+        }
+
+        try {
+            metadataStorage.updateAll(partialMetadataMap);
+        } catch (FileStoreServiceException fse) {
+            log.error("failed to index text of {} documents {}", partialMetadataMap.size(), fse.getMessage());
+            failedIds.addAll(partialMetadataMap.keySet());
+        }
+        failedCounter.increment(failedIds.size());
+        return failedIds;
+    }
+
+    private List<String> extract(MediaFileMetadata mediaFileMetadata) throws Exception {
+        FileChannel fc = fileStorageRouter.route(mediaFileMetadata).getFileRandomAccess(mediaFileMetadata)
+                .orElseThrow(() -> new FileNotFoundException(mediaFileMetadata.getId()));
+        return textExtractor.extract(Channels.newInputStream(fc));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (current != null) current.stopped = true;
+        stageExecutor.shutdownNow();
+        extractExecutor.shutdownNow();
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.jumkid.vault.service.extract;
+
+import com.jumkid.vault.model.MediaFileMetadata;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.sax.BodyContentHandler;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Extract the body text of documents with Tika. The text is streamed into chunks and the parser is stopped
+ * once the text reaches its limit, so neither a long document nor its whole text is held in memory.
+ */
+@Slf4j
+@Component
+public class TextExtractor {
+
+    private final Parser parser;
+
+    private final List<String> mimeTypes;
+
+    private final int chunkChars;
+
+    private final int maxChars;
+
+    private final long maxFileSize;
+
+    @Autowired
+    public TextExtractor(@Value("${vault.extract.mime-types}") List<String> mimeTypes,
+                         @Value("${vault.extract.chunk-chars}") int chunkChars,
+                         @Value("${vault.extract.max-chars}") int maxChars,
+                         @Value("${vault.extract.max-file-size}") DataSize maxFileSize) {
+        this.parser = new AutoDetectParser();
+        this.mimeTypes = mimeTypes.stream().map(String::trim).toList();
+        this.chunkChars = chunkChars;
+        this.maxChars = maxChars;
+        this.maxFileSize = maxFileSize.toBytes();
+    }
+
+    /**
+     * @return mime type prefixes of the documents to extract
+     */
+    public List<String> getMimeTypes() {
+        return mimeTypes;
+    }
+
+    /**
+     * @return true if the media file is a document small enough to extract, binaries of other types are skipped
+     */
+    public boolean isExtractable(MediaFileMetadata mediaFileMetadata) {
+        String mimeType = mediaFileMetadata.getMimeType();
+        if (mimeType == null || mediaFileMetadata.getLogicalPath() == null) return false;
+        if (mediaFileMetadata.getSize() != null && mediaFileMetadata.getSize() > maxFileSize) return false;
+        return mimeTypes.stream().anyMatch(mimeType::startsWith);
+    }
+
+    /**
+     * Extract the text of a document
+     *
+     * @param inputStream content of the document, it is closed once parsed
+     * @return chunks of text, empty if the document has no text
+     */
+    public List<String> extract(InputStream inputStream) throws IOException {
+        ChunkedTextHandler handler = new ChunkedTextHandler(chunkChars, maxChars);
+        try (TikaInputStream tikaStream = TikaInputStream.get(inputStream)) {
+            parser.parse(tikaStream, new BodyContentHandler(handler), new Metadata(), new ParseContext());
+        } catch (SAXException | TikaException e) {
+            // the parsers may wrap the exception stopping them
+            if (!handler.isLimitReached()) throw new IOException(e.getMessage(), e);
+        }
+        return handler.getChunks();
+    }
+
+}
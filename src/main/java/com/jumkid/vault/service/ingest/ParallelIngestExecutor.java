@@ -0,0 +1,118 @@
+package com.jumkid.vault.service.ingest;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fan the per file work of a multi-file upload out over a shared bounded pool. Each batch holds at most
+ * the configured number of workers at a time, so one large upload cannot starve the others. With virtual
+ * threads enabled every task gets its own virtual thread, and the worker count is kept by a semaphore instead.
+ */
+@Slf4j
+@Component
+public class ParallelIngestExecutor {
+
+    private final boolean enabled;
+
+    private final int maxConcurrencyPerRequest;
+
+    private final ExecutorService executor;
+
+    private final Semaphore workerPermits;
+
+    private final AtomicInteger activeCount = new AtomicInteger();
+
+    @Autowired
+    public ParallelIngestExecutor(MeterRegistry meterRegistry,
+                                  @Value("${vault.ingest.parallel.enabled}") boolean enabled,
+                                  @Value("${vault.ingest.parallel.workers}") int workers,
+                                  @Value("${vault.ingest.parallel.max-per-request}") int maxConcurrencyPerRequest,
+                                  @Value("${spring.threads.virtual.enabled}") boolean virtualThreadsEnabled) {
+        this.enabled = enabled;
+        this.maxConcurrencyPerRequest = Math.max(1, Math.min(maxConcurrencyPerRequest, workers));
+        this.workerPermits = new Semaphore(workers);
+
+        this.executor = virtualThreadsEnabled ?
+                Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("ingest-", 0).factory()) :
+                new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                        new LinkedBlockingQueue<>(), new CustomizableThreadFactory("ingest-"));
+
+        Gauge.builder("vault.ingest.active", activeCount, AtomicInteger::get)
+                .description("Files being ingested by the parallel ingest workers")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Run all tasks of one batch and return their futures in the order of the given tasks. The futures of
+     * failed tasks complete exceptionally without affecting the rest of the batch.
+     *
+     * @param tasks per file tasks of the batch
+     * @return list of futures in task order
+     */
+    public <T> List<Future<T>> invokeAll(List<Callable<T>> tasks) {
+        List<Future<T>> futures = new ArrayList<>(tasks.size());
+        if (!enabled || tasks.size() < 2) {
+            for (Callable<T> task : tasks) {
+                FutureTask<T> futureTask = new FutureTask<>(task);
+                futureTask.run();
+                futures.add(futureTask);
+            }
+            return futures;
+        }
+
+        Semaphore permits = new Semaphore(maxConcurrencyPerRequest);
+        try {
+            for (Callable<T> task : tasks) {
+                permits.acquire();
+                futures.add(executor.submit(() -> {
+                    workerPermits.acquire();
+                    activeCount.incrementAndGet();
+                    try {
+                        return task.call();
+                    } finally {
+                        activeCount.decrementAndGet();
+                        workerPermits.release();
+                        permits.release();
+                    }
+                }));
+            }
+            for (Future<T> future : futures) {
+                await(future);
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            futures.forEach(future -> future.cancel(true));
+            while (futures.size() < tasks.size()) {
+                FutureTask<T> futureTask = new FutureTask<>(tasks.get(futures.size()));
+                futureTask.cancel(false);
+                futures.add(futureTask);
+            }
+        }
+        return futures;
+    }
+
+    private static void await(Future<?> future) throws InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException | CancellationException e) {
+            //failure is reported through the future of the task
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+}
@@ -3,6 +3,7 @@ package com.jumkid.vault.service.mapper;
 import com.jumkid.vault.controller.dto.MediaFile;
 import com.jumkid.vault.model.MediaFileMetadata;
 import org.mapstruct.*;
+import org.mapstruct.control.DeepClone;
 
 import java.util.List;
 
@@ -11,9 +12,20 @@ public interface MediaFileMapper {
 
     @Mapping(source = "id", target = "uuid")
     @Mapping(source="metadata.children", target = "children")
+    @Mapping(target = "error", ignore = true)
+    @Mapping(target = "file", ignore = true)
+    @Mapping(target = "fileSource", ignore = true)
     public MediaFile metadataToDto(MediaFileMetadata metadata);
 
     @Mapping(source = "uuid", target = "id")
+    @Mapping(target = "enriched", ignore = true)
+    @Mapping(target = "text", ignore = true)
+    @Mapping(target = "extracted", ignore = true)
+    @Mapping(target = "seqNo", ignore = true)
+    @Mapping(target = "primaryTerm", ignore = true)
+    @Mapping(target = "logicalPath", ignore = true)
+    @Mapping(target = "blobId", ignore = true)
+    @Mapping(target = "storage", ignore = true)
     @BeanMapping(nullValuePropertyMappingStrategy = NullValuePropertyMappingStrategy.IGNORE)
     public MediaFileMetadata dtoToMetadata(MediaFile dto);
 
@@ -21,7 +33,19 @@ public interface MediaFileMapper {
 
     @Mapping(target="props", source="partialDto.props")
     @Mapping(target="children", source="partialDto.children")
+    @Mapping(target="enriched", ignore = true)
+    @Mapping(target="text", ignore = true)
+    @Mapping(target="extracted", ignore = true)
+    @Mapping(target="seqNo", ignore = true)
+    @Mapping(target="primaryTerm", ignore = true)
+    @Mapping(target="id", ignore = true)
+    @Mapping(target="logicalPath", ignore = true)
+    @Mapping(target="blobId", ignore = true)
+    @Mapping(target="storage", ignore = true)
     @BeanMapping(nullValuePropertyMappingStrategy = NullValuePropertyMappingStrategy.IGNORE)
     void updateMetadataFromDto(MediaFile partialDto, @MappingTarget MediaFileMetadata updateMetadata);
 
+    @BeanMapping(mappingControl = DeepClone.class)
+    MediaFileMetadata copyMetadata(MediaFileMetadata metadata);
+
 }
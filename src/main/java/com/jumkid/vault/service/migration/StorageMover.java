@@ -0,0 +1,254 @@
+package com.jumkid.vault.service.migration;
+
+import com.jumkid.vault.controller.dto.StorageMigration;
+import com.jumkid.vault.enums.StorageMode;
+import com.jumkid.vault.exception.FileNotFoundException;
+import com.jumkid.vault.exception.FileStoreServiceException;
+import com.jumkid.vault.model.MediaFileMetadata;
+import com.jumkid.vault.repository.FileMetadata;
+import com.jumkid.vault.repository.FileStorage;
+import com.jumkid.vault.repository.FileStorageRouter;
+import com.jumkid.vault.repository.spool.FileSpoolManager;
+import com.jumkid.vault.repository.spool.SpooledFile;
+import com.jumkid.vault.repository.thumbnail.ThumbnailCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Move the binaries of media files to another storage in the background. Each file is copied to the target
+ * storage first, then its recorded storage is flipped in the metadata, and only then the old copy goes to the
+ * trash of its storage. Reads keep being served from whichever storage the metadata points to, so the files
+ * stay available during the whole run. The flip only applies if the metadata is unchanged since the copy
+ * started, a file updated meanwhile is copied again. One run at a time; files failing to move are skipped for
+ * the rest of the run and are picked up again by the next one.
+ */
+@Slf4j
+@Component
+public class StorageMover {
+
+    // a file updated again and again while it is copied is left for the next run
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final FileMetadata<MediaFileMetadata> metadataStorage;
+
+    private final FileStorageRouter fileStorageRouter;
+
+    private final FileSpoolManager fileSpoolManager;
+
+    private final ThumbnailCache thumbnailCache;
+
+    private final int batchSize;
+
+    private final ExecutorService executor;
+
+    private final Counter movedCounter;
+
+    private final Counter failedCounter;
+
+    private volatile Run current;
+
+    private static final class Run {
+        private final StorageMode target;
+        private final LocalDateTime startedOn = LocalDateTime.now();
+        private final AtomicLong moved = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private volatile boolean stopped;
+        private volatile LocalDateTime finishedOn;
+
+        private Run(StorageMode target) { this.target = target; }
+    }
+
+    @Autowired
+    public StorageMover(FileMetadata<MediaFileMetadata> metadataStorage,
+                        FileStorageRouter fileStorageRouter,
+                        FileSpoolManager fileSpoolManager,
+                        ThumbnailCache thumbnailCache,
+                        MeterRegistry meterRegistry,
+                        @Value("${vault.storage.migration.batch-size}") int batchSize) {
+        this.metadataStorage = metadataStorage;
+        this.fileStorageRouter = fileStorageRouter;
+        this.fileSpoolManager = fileSpoolManager;
+        this.thumbnailCache = thumbnailCache;
+        this.batchSize = batchSize;
+        this.executor = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("storage-mover-"));
+
+        this.movedCounter = Counter.builder("vault.storage.migration.moved")
+                .description("Media files moved to another storage")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("vault.storage.migration.failed")
+                .description("Media files failed to move to another storage")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Start moving all media files to the target storage, unless a run is in progress already
+     *
+     * @param target storage to move the media files to
+     * @return status of the run in progress
+     */
+    public synchronized StorageMigration start(StorageMode target) {
+        if (current != null && current.finishedOn == null) {
+            log.info("storage migration to {} is in progress already", current.target.value());
+            return getStatus();
+        }
+        Run run = new Run(target);
+        current = run;
+        executor.execute(() -> moveAll(run));
+        log.info("storage migration to {} started", target.value());
+        return getStatus();
+    }
+
+    /**
+     * Stop the run in progress after the file being moved
+     *
+     * @return status of the last run
+     */
+    public synchronized StorageMigration stop() {
+        if (current != null) current.stopped = true;
+        return getStatus();
+    }
+
+    /**
+     * @return status of the last run, empty when nothing was moved since start
+     */
+    public StorageMigration getStatus() {
+        Run run = current;
+        if (run == null) return StorageMigration.builder().build();
+        return StorageMigration.builder()
+                .target(run.target.value())
+                .running(run.finishedOn == null)
+                .moved(run.moved.get())
+                .failed(run.failed.get())
+                .startedOn(run.startedOn)
+                .finishedOn(run.finishedOn)
+                .build();
+    }
+
+    private void moveAll(Run run) {
+        // files without recorded storage are on the legacy storage, they need moving unless that is the target
+        boolean unrecordedIncluded = fileStorageRouter.getLegacyMode() != run.target;
+        Set<String> failedIds = new HashSet<>();
+        // the files of the last batch may still be found until the index is refreshed
+        Set<String> excludedIds = new HashSet<>();
+        try {
+            while (!run.stopped && !Thread.currentThread().isInterrupted()) {
+                List<MediaFileMetadata> batch = metadataStorage.findStoredElsewhere(run.target, unrecordedIncluded,
+                        excludedIds, batchSize);
+                if (batch.isEmpty()) break;
+
+                excludedIds = new HashSet<>(failedIds);
+                for (MediaFileMetadata mediaFileMetadata : batch) {
+                    if (run.stopped) break;
+                    String mediaFileId = mediaFileMetadata.getId();
+                    excludedIds.add(mediaFileId);
+                    if (move(mediaFileId, run.target)) {
+                        run.moved.incrementAndGet();
+                    } else {
+                        failedIds.add(mediaFileId);
+                        run.failed.incrementAndGet();
+                    }
+                }
+            }
+        } catch (FileStoreServiceException fse) {
+            log.error("storage migration to {} aborted: {}", run.target.value(), fse.getMessage());
+        } finally {
+            run.finishedOn = LocalDateTime.now();
+            log.info("storage migration to {} finished with {} files moved and {} failed",
+                    run.target.value(), run.moved.get(), run.failed.get());
+        }
+    }
+
+    /**
+     * Copy the binary of one media file to the target storage and point its metadata there
+     *
+     * @return false if the media file failed to move
+     */
+    private boolean move(String mediaFileId, StorageMode target) {
+        try {
+            for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+                if (copyAndFlip(mediaFileId, target)) return true;
+                log.info("media file {} changed while moved to {}, attempt {} of {}",
+                        mediaFileId, target.value(), attempt, MAX_ATTEMPTS);
+            }
+            throw new FileStoreServiceException("Media file " + mediaFileId + " kept changing while moved");
+        } catch (IOException | FileNotFoundException | FileStoreServiceException e) {
+            log.error("failed to move media file {} to {}: {}", mediaFileId, target.value(), e.getMessage());
+            failedCounter.increment();
+            return false;
+        }
+    }
+
+    /**
+     * @return false if the media file changed since it was read, the copy is dropped then
+     */
+    private boolean copyAndFlip(String mediaFileId, StorageMode target)
+            throws IOException, FileNotFoundException, FileStoreServiceException {
+        // the search may lag behind, the metadata is read again to get its current storage and version
+        MediaFileMetadata mediaFileMetadata = metadataStorage.getMetadata(mediaFileId).orElse(null);
+        if (mediaFileMetadata == null || mediaFileMetadata.getLogicalPath() == null
+                || target == (mediaFileMetadata.getStorage() == null
+                    ? fileStorageRouter.getLegacyMode() : mediaFileMetadata.getStorage())) {
+            return true;
+        }
+
+        FileStorage<MediaFileMetadata> source = fileStorageRouter.route(mediaFileMetadata);
+        FileStorage<MediaFileMetadata> destination = fileStorageRouter.get(target);
+        MediaFileMetadata moved;
+        try (FileChannel fc = source.getFileRandomAccess(mediaFileMetadata)
+                    .orElseThrow(() -> new FileNotFoundException(mediaFileId));
+             SpooledFile spooledFile = fileSpoolManager.spool(Channels.newInputStream(fc))) {
+            MediaFileMetadata copy = mediaFileMetadata.toBuilder()
+                    .logicalPath(null).blobId(null).storage(target)
+                    .build();
+            moved = destination.saveFile(spooledFile.getPath(), copy)
+                    .orElseThrow(() -> new FileStoreServiceException("Failed to save file " + mediaFileId
+                            + " to " + target.value()));
+        }
+
+        if (!metadataStorage.updateStorage(mediaFileId, target, moved.getLogicalPath(), moved.getBlobId(),
+                mediaFileMetadata.getSeqNo(), mediaFileMetadata.getPrimaryTerm())) {
+            // the binary may have been replaced after the copy started, the copy is stale
+            deleteQuietly(destination, moved);
+            return false;
+        }
+        thumbnailCache.invalidate(mediaFileId);
+        movedCounter.increment();
+
+        deleteQuietly(source, mediaFileMetadata);
+        return true;
+    }
+
+    private void deleteQuietly(FileStorage<MediaFileMetadata> fileStorage, MediaFileMetadata mediaFileMetadata) {
+        try {
+            fileStorage.deleteFile(mediaFileMetadata);
+        } catch (Exception e) {
+            log.warn("copy of media file {} on {} is left: {}", mediaFileMetadata.getId(),
+                    mediaFileMetadata.getStorage(), e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // an interrupted run leaves every file on one storage or the other, the next run carries on
+        if (current != null) current.stopped = true;
+        executor.shutdownNow();
+    }
+
+}
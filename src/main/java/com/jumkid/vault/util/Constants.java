@@ -6,6 +6,10 @@ public class Constants {
 
     public static final String CONTENT_DISPOSITION = "Content-Disposition";
     public static final String CONTENT_RANGE = "Content-Range";
+    // cursor of the next page of a search, absent on the last page
+    public static final String NEXT_CURSOR = "X-Next-Cursor";
+    // largest page of a search
+    public static final int MAX_PAGE_SIZE = 1000;
 
     public static final int DEFAULT_1K = 1024;
 
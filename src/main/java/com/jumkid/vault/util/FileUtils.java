@@ -17,11 +17,25 @@ public class FileUtils {
 
     private static final String ERROR_MSG = "Failed to read file channel to byte array. {}";
 
+    // the largest array most JVMs can allocate
+    private static final long MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8L;
+
     private FileUtils() {}
 
+    /**
+     * Read the whole channel to a byte array. Only meant for small files, large ones should be streamed
+     * from the channel instead.
+     *
+     * @param fc file channel, it is closed afterwards
+     * @return bytes of the file, or empty if it cannot be read or is too large for an array
+     */
     public static Optional<byte[]> fileChannelToBytes(FileChannel fc) {
         if (fc != null) {
             try {
+                if (fc.size() > MAX_ARRAY_SIZE) {
+                    log.error("file of {} bytes is too large to read into memory", fc.size());
+                    return Optional.empty();
+                }
                 ByteBuffer buffer = ByteBuffer.allocate((int) fc.size());
                 fc.read(buffer);
                 buffer.flip();
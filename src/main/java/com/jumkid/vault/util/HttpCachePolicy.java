@@ -0,0 +1,117 @@
+package com.jumkid.vault.util;
+
+import com.jumkid.share.security.AccessScope;
+import com.jumkid.vault.model.MediaFileMetadata;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.HexFormat;
+
+/**
+ * HTTP validators and cache policies of media file responses. ETags are strong: the content hash of the blob
+ * when the file has one, otherwise a hash of the identity, logical path and modification time of the metadata.
+ * Responses made of metadata too, like the text content or the file name of a download, add a hash of those
+ * fields, as they change without the blob.
+ */
+@Component
+public class HttpCachePolicy {
+
+    private static final int ETAG_LENGTH = 32;
+
+    private static final int METADATA_TAG_LENGTH = 12;
+
+    @Value("${vault.http.cache.thumbnail-max-age}")
+    private Duration thumbnailMaxAge;
+
+    @Value("${vault.http.cache.content-max-age}")
+    private Duration contentMaxAge;
+
+    @Value("${vault.http.cache.download-max-age}")
+    private Duration downloadMaxAge;
+
+    public record Validators(String eTag, long lastModified, String cacheControl) {}
+
+    public Validators forContent(MediaFileMetadata metadata, String variant) {
+        return validators(metadata, variant, contentMaxAge, true);
+    }
+
+    public Validators forDownload(MediaFileMetadata metadata) {
+        return validators(metadata, "download", downloadMaxAge, true);
+    }
+
+    public Validators forThumbnail(MediaFileMetadata metadata, String variant) {
+        return validators(metadata, variant, thumbnailMaxAge, false);
+    }
+
+    /**
+     * Placeholder responses, e.g. the icon served while a thumbnail is being generated, must not be cached
+     */
+    public Validators forPlaceholder() {
+        return new Validators(null, -1, CacheControl.noStore().getHeaderValue());
+    }
+
+    /**
+     * Set the validators and cache policy on the response, and answer 304 Not Modified if the client copy
+     * is still current. Call it before reading any file bytes.
+     *
+     * @return true if the response is complete as not modified
+     */
+    public boolean checkNotModified(Validators validators, HttpServletRequest request, HttpServletResponse response) {
+        response.setHeader(HttpHeaders.CACHE_CONTROL, validators.cacheControl());
+        if (validators.eTag() == null) return false;
+
+        return new ServletWebRequest(request, response).checkNotModified(validators.eTag(), validators.lastModified());
+    }
+
+    private Validators validators(MediaFileMetadata metadata, String variant, Duration maxAge,
+                                  boolean metadataIncluded) {
+        String eTag = '"' + (metadata.getBlobId() != null ?
+                metadata.getBlobId().substring(0, ETAG_LENGTH) :
+                hash(metadata.getId(), String.valueOf(metadata.getLogicalPath()),
+                        String.valueOf(metadata.getModifiedOn()), String.valueOf(metadata.getCreatedOn()),
+                        String.valueOf(metadata.getSize())))
+                + (metadataIncluded ? "." + hash(String.valueOf(metadata.getTitle()),
+                        String.valueOf(metadata.getContent()), String.valueOf(metadata.getFilename()),
+                        String.valueOf(metadata.getMimeType()), String.valueOf(metadata.getModifiedOn()))
+                        .substring(0, METADATA_TAG_LENGTH) : "")
+                + (variant != null ? "-" + variant : "") + '"';
+
+        long lastModified = -1;
+        if (metadata.getModifiedOn() != null) {
+            lastModified = Timestamp.valueOf(metadata.getModifiedOn()).getTime();
+        } else if (metadata.getCreatedOn() != null) {
+            lastModified = Timestamp.valueOf(metadata.getCreatedOn()).getTime();
+        }
+
+        return new Validators(eTag, lastModified, cacheControl(metadata, maxAge));
+    }
+
+    private String cacheControl(MediaFileMetadata metadata, Duration maxAge) {
+        CacheControl cacheControl = maxAge.isZero() ? CacheControl.noCache() : CacheControl.maxAge(maxAge);
+        // shared caches may only keep public files
+        cacheControl = AccessScope.PUBLIC.equals(metadata.getAccessScope()) ?
+                cacheControl.cachePublic() : cacheControl.cachePrivate();
+        return cacheControl.getHeaderValue();
+    }
+
+    private String hash(String... values) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(String.join("|", values).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest).substring(0, ETAG_LENGTH);
+        } catch (NoSuchAlgorithmException e) {
+            throw new InternalError("SHA-256 not supported", e);
+        }
+    }
+
+}
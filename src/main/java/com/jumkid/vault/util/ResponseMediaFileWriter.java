@@ -20,9 +20,11 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
-import java.sql.Timestamp;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -34,18 +36,31 @@ import jakarta.servlet.ServletOutputStream;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Component;
 
 @Slf4j
 @Component
 public class ResponseMediaFileWriter {
 
-    private static final long DEFAULT_EXPIRE_TIME = 604800000L; // ..ms = 1 week.
-
     private static final String MULTIPART_BOUNDARY = "MULTIPART_BYTERANGES";
 
     private static final int DEFAULT_BUFFER_SIZE = Constants.DEFAULT_1K;
 
+    private static final int COPY_BUFFER_SIZE = 64 * Constants.DEFAULT_1K;
+
+    private static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+
+    // request attributes of tomcat to send a file range with the sendfile system call
+    private static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    @Value("${vault.stream.zero-copy}")
+    private boolean zeroCopy;
+
     public String readSmallTextFile(FileChannel fc) throws IOException{
         byte[] buffer = new byte[(int)fc.size()];
         ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
@@ -88,7 +103,7 @@ public class ResponseMediaFileWriter {
     public HttpServletResponse write(MediaFile mediaFile, FileChannel fc,
                                      HttpServletResponse response){
         try{
-            setResponseParams(mediaFile, (int)fc.size(), response);
+            setResponseParams(mediaFile, fc.size(), response);
             _write(fc, response);
         } catch (IOException ioe) {
             logReadMediaFailure(ioe.getMessage());
@@ -121,6 +136,23 @@ public class ResponseMediaFileWriter {
         }
     }
 
+    /**
+     * Write mediaFile to response from a memory mapped buffer, the file is neither opened nor copied
+     * to the heap as a whole
+     *
+     * @param mediaFile media file to write
+     * @param buffer buffer of the whole file
+     * @param response http servlet response
+     */
+    public void write(MediaFile mediaFile, ByteBuffer buffer, HttpServletResponse response) {
+        try {
+            setResponseParams(mediaFile, buffer.remaining(), response);
+            write(buffer, response.getOutputStream());
+        } catch (IOException ioe) {
+            logReadMediaFailure(ioe.getMessage());
+        }
+    }
+
     /**
      * Write mediaFile title and content to response
      *
@@ -143,7 +175,7 @@ public class ResponseMediaFileWriter {
         return response;
     }
 
-    private void setResponseParams(MediaFile mediaFile, int fileSize, HttpServletResponse response) {
+    private void setResponseParams(MediaFile mediaFile, long fileSize, HttpServletResponse response) {
         response.setContentType(mediaFile.getMimeType());
 
         if (mediaFile.getMimeType().startsWith("text")) {
@@ -151,64 +183,137 @@ public class ResponseMediaFileWriter {
         } else {
             String fileName = (mediaFile.getFilename()==null ? mediaFile.getUuid() : mediaFile.getFilename());
             response.setHeader(Constants.CONTENT_DISPOSITION, "inline;filename=\"" + fileName + "\"");
-            response.setContentLength(fileSize);
+            response.setContentLengthLong(fileSize);
         }
     }
 
     /**
-     * Write mediaFile to response with file channel (nio)
+     * Write mediaFile to response as attachment with file channel (nio). The file is copied range by range
+     * with a fixed size buffer, so memory use does not grow with the file size.
      *
-     * @param mediaFileMetadata
-     * @param fc
-     * @param response
-     * @return
+     * @param mediaFileMetadata metadata of the file to download
+     * @param fc file channel resource
+     * @param localFile path of the file on the local file system, null if there is none
+     * @param validators http validators of the file
+     * @param request http servlet request, may carry Range and If-Range headers
+     * @param response http servlet response
+     * @return http servlet response
      * @throws IOException
      */
-    public HttpServletResponse writeForDownload(MediaFileMetadata mediaFileMetadata, FileChannel fc,
-                                                HttpServletResponse response) throws IOException{
+    public HttpServletResponse writeForDownload(MediaFileMetadata mediaFileMetadata, FileChannel fc, Path localFile,
+                                                HttpCachePolicy.Validators validators,
+                                                HttpServletRequest request, HttpServletResponse response) throws IOException{
 
         String fileName = (mediaFileMetadata.getFilename()==null ? mediaFileMetadata.getId() : mediaFileMetadata.getFilename());
+        String contentType = mediaFileMetadata.getMimeType() != null ? mediaFileMetadata.getMimeType() : DEFAULT_CONTENT_TYPE;
 
-        response.setHeader(Constants.CONTENT_DISPOSITION, "attachment;filename=\"" +fileName+ "\"");
-        response.setContentType(mediaFileMetadata.getMimeType());
+        return writeRanges(fc, localFile, fileName, contentType, "attachment", false, validators, request, response);
+    }
 
-        _write(fc, response);
-        return response;
+    public HttpServletResponse stream(MediaFile mediaFile, FileChannel fc, Path localFile,
+                                      HttpCachePolicy.Validators validators,
+                                      HttpServletRequest request, HttpServletResponse response) throws IOException{
+
+        String fileName = mediaFile.getFilename() != null ? mediaFile.getFilename() : mediaFile.getUuid();
+        Negotiation negotiation = negotiate(mediaFile.getMimeType(), request);
 
+        return writeRanges(fc, localFile, fileName, negotiation.contentType(), negotiation.disposition(),
+                negotiation.acceptsGzip(), validators, request, response);
     }
 
     /**
-     * Write source file bytes to response
+     * Stream the whole file from a memory mapped buffer, with the same headers as a full response of
+     * {@link #stream(MediaFile, FileChannel, Path, HttpCachePolicy.Validators, HttpServletRequest, HttpServletResponse)}
      *
-     * @param mediaFileMetadata
-     * @param bytes
-     * @param response
-     * @throws IOException
+     * @param mediaFile media file to write
+     * @param buffer buffer of the whole file
+     * @param validators http validators of the file
+     * @param request http servlet request
+     * @param response http servlet response
      */
-    public void writeForDownload(MediaFileMetadata mediaFileMetadata, byte[] bytes,
-                                 HttpServletResponse response) throws IOException{
-        String fileName = (mediaFileMetadata.getFilename()==null ? mediaFileMetadata.getId() : mediaFileMetadata.getFilename());
+    public void stream(MediaFile mediaFile, ByteBuffer buffer, HttpCachePolicy.Validators validators,
+                       HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String fileName = mediaFile.getFilename() != null ? mediaFile.getFilename() : mediaFile.getUuid();
+        Negotiation negotiation = negotiate(mediaFile.getMimeType(), request);
+
+        initResponse(fileName, negotiation.disposition(), validators, response);
+        response.setContentType(negotiation.contentType());
+
+        OutputStream output = response.getOutputStream();
+        if (negotiation.acceptsGzip()) {
+            response.setHeader("Content-Encoding", "gzip");
+            GZIPOutputStream gzip = new GZIPOutputStream(output, DEFAULT_BUFFER_SIZE);
+            write(buffer, gzip);
+            gzip.finish();
+        } else {
+            response.setContentLengthLong(buffer.remaining());
+            write(buffer, output);
+        }
+    }
+
+    /**
+     * Content type, disposition and encoding of a streamed file as accepted by the client
+     */
+    private record Negotiation(String contentType, String disposition, boolean acceptsGzip) {}
+
+    private static Negotiation negotiate(String mimeType, HttpServletRequest request) {
+        // Get content type by file name and set default GZIP support and content disposition.
+        String contentType = mimeType;
+        boolean acceptsGzip = false;
+        String disposition = "inline";
+
+        // If content type is unknown, then set the default value.
+        // For all content types, see: http://www.w3schools.com/media/media_mimeref.asp
+        // To add new content types, add new mime-mapping entry in web.xml.
+        if (contentType == null) {
+            contentType = DEFAULT_CONTENT_TYPE;
+        }
+
+        // If content type is text, then determine whether GZIP content encoding is supported by
+        // the browser and expand content type with the one and right character encoding.
+        if (contentType.startsWith("text")) {
+            String acceptEncoding = request.getHeader("Accept-Encoding");
+            acceptsGzip = acceptEncoding != null && accepts(acceptEncoding, "gzip");
+            contentType += ";charset=UTF-8";
+        }
 
-        response.setHeader(Constants.CONTENT_DISPOSITION, "attachment;filename=\"" +fileName+ "\"");
-        response.setContentType(mediaFileMetadata.getMimeType());
+        // Else, expect for images, determine content disposition. If content type is supported by
+        // the browser, then set to inline, else attachment which will pop a 'save as' dialogue.
+        else if (!contentType.startsWith("image")) {
+            String accept = request.getHeader("Accept");
+            disposition = accept != null && accepts(accept, contentType) ? "inline" : "attachment";
+        }
 
-        response.getOutputStream().write(bytes);
-        response.getOutputStream().flush();
-        response.getOutputStream().close();
+        return new Negotiation(contentType, disposition, acceptsGzip);
     }
 
-    public HttpServletResponse stream(MediaFile mediaFile, FileChannel fc,
-                                      HttpServletRequest request, HttpServletResponse response) throws IOException{
+    private void initResponse(String fileName, String disposition, HttpCachePolicy.Validators validators,
+                              HttpServletResponse response) {
+        response.reset();
+        response.setBufferSize(DEFAULT_BUFFER_SIZE);
+        response.setHeader(Constants.CONTENT_DISPOSITION, disposition + ";filename=\"" + fileName + "\"");
+        response.setHeader("Accept-Ranges", "bytes");
+        if (validators.eTag() != null) response.setHeader(HttpHeaders.ETAG, validators.eTag());
+        if (validators.lastModified() >= 0) response.setDateHeader(HttpHeaders.LAST_MODIFIED, validators.lastModified());
+        response.setHeader(HttpHeaders.CACHE_CONTROL, validators.cacheControl());
+    }
+
+    /**
+     * Write the file channel to response honouring Range and If-Range request headers. The length is taken
+     * from the channel, so files larger than 2GB are served as well. Full and single part responses of a file
+     * on the local file system are left to the sendfile support of the servlet container if there is one.
+     */
+    private HttpServletResponse writeRanges(FileChannel fc, Path localFile, String fileName, String contentType, String disposition,
+                                            boolean acceptsGzip, HttpCachePolicy.Validators validators,
+                                            HttpServletRequest request, HttpServletResponse response) throws IOException{
 
         // Prepare some variables. The ETag is an unique identifier of the file.
-        String fileName = mediaFile.getFilename();
-        long length = mediaFile.getSize();
-        long lastModified = Timestamp.valueOf(mediaFile.getCreatedOn()).getTime();
-        String eTag = fileName + "_" + length + "_" + lastModified;
-        long expires = System.currentTimeMillis() + DEFAULT_EXPIRE_TIME;
+        long length = fc.size();
+        long lastModified = validators.lastModified();
+        String eTag = validators.eTag();
 
         // Prepare some variables. The full Range represents the complete file.
-        Range full = new Range(0, fc.size() - 1, fc.size());
+        Range full = new Range(0, length - 1, length);
         List<Range> ranges = new ArrayList<>();
 
         // Validate and process Range and If-Range headers.
@@ -217,7 +322,7 @@ public class ResponseMediaFileWriter {
 
             // Range header should match format "bytes=n-n,n-n,n-n...". If not, then return 416.
             if (!range.matches("^bytes=\\d*-\\d*(,\\d*-\\d*)*$")) {
-                response.setHeader(Constants.CONTENT_RANGE, "bytes */" + fc.size()); // Required in 416.
+                response.setHeader(Constants.CONTENT_RANGE, "bytes */" + length); // Required in 416.
                 response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
                 return response;
             }
@@ -245,7 +350,7 @@ public class ResponseMediaFileWriter {
                     long end = subLong(part, part.indexOf("-") + 1, part.length());
 
                     if (start == -1) {
-                        start = length - end;
+                        start = Math.max(0, length - end);
                         end = length - 1;
                     } else if (end == -1 || end > length - 1) {
                         end = length - 1;
@@ -268,41 +373,8 @@ public class ResponseMediaFileWriter {
 
         // Prepare and initialize response --------------------------------------------------------
 
-        // Get content type by file name and set default GZIP support and content disposition.
-        String contentType = mediaFile.getMimeType();
-        boolean acceptsGzip = false;
-        String disposition = "inline";
-
-        // If content type is unknown, then set the default value.
-        // For all content types, see: http://www.w3schools.com/media/media_mimeref.asp
-        // To add new content types, add new mime-mapping entry in web.xml.
-        if (contentType == null) {
-            contentType = "application/octet-stream";
-        }
-
-        // If content type is text, then determine whether GZIP content encoding is supported by
-        // the browser and expand content type with the one and right character encoding.
-        if (contentType.startsWith("text")) {
-            String acceptEncoding = request.getHeader("Accept-Encoding");
-            acceptsGzip = acceptEncoding != null && accepts(acceptEncoding, "gzip");
-            contentType += ";charset=UTF-8";
-        }
-
-        // Else, expect for images, determine content disposition. If content type is supported by
-        // the browser, then set to inline, else attachment which will pop a 'save as' dialogue.
-        else if (!contentType.startsWith("image")) {
-            String accept = request.getHeader("Accept");
-            disposition = accept != null && accepts(accept, contentType) ? "inline" : "attachment";
-        }
-
         // Initialize response.
-        response.reset();
-        response.setBufferSize(DEFAULT_BUFFER_SIZE);
-        response.setHeader(Constants.CONTENT_DISPOSITION, disposition + ";filename=\"" + fileName + "\"");
-        response.setHeader("Accept-Ranges", "bytes");
-        response.setHeader("ETag", eTag);
-        response.setDateHeader("Last-Modified", lastModified);
-        response.setDateHeader("Expires", expires);
+        initResponse(fileName, disposition, validators, response);
 
 
         // Send requested file (part(s)) to client ------------------------------------------------
@@ -319,32 +391,32 @@ public class ResponseMediaFileWriter {
                 // Return full file.
                 Range r = full;
                 response.setContentType(contentType);
-                response.setHeader("Content-Range", "bytes " + r.start + "-" + r.end + "/" + r.total);
 
                 if (acceptsGzip) {
                     // The browser accepts GZIP, so GZIP the content.
                     response.setHeader("Content-Encoding", "gzip");
-                    output = new GZIPOutputStream(output, DEFAULT_BUFFER_SIZE);
+                    GZIPOutputStream gzip = new GZIPOutputStream(output, DEFAULT_BUFFER_SIZE);
+                    copy(fc, gzip, r.start, r.length);
+                    gzip.finish();
                 } else {
                     // Content length is not directly predictable in case of GZIP.
                     // So only add it if there is no means of GZIP, else browser will hang.
-                    response.setHeader("Content-Length", String.valueOf(r.length));
+                    response.setContentLengthLong(r.length);
+                    // Copy full range.
+                    if (!sendfile(localFile, r, request)) copy(fc, output, r.start, r.length);
                 }
 
-                // Copy full range.
-                copy(fc, output, r.start, r.length);
-
             } else if (ranges.size() == 1) {
 
                 // Return single part of file.
                 Range r = ranges.get(0);
                 response.setContentType(contentType);
                 response.setHeader("Content-Range", "bytes " + r.start + "-" + r.end + "/" + r.total);
-                response.setHeader("Content-Length", String.valueOf(r.length));
+                response.setContentLengthLong(r.length);
                 response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT); // 206.
 
                 // Copy single part range.
-                copy(fc, output, r.start, r.length);
+                if (!sendfile(localFile, r, request)) copy(fc, output, r.start, r.length);
 
             } else {
 
@@ -407,18 +479,8 @@ public class ResponseMediaFileWriter {
      */
     private HttpServletResponse _write(FileChannel fc,
                                        HttpServletResponse response) throws IOException{
-
-        byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
-        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
         try (fc) {
-            while (true) {
-                final int len = fc.read(byteBuffer);
-                if (len <= 0) {
-                    break;
-                }
-                response.getOutputStream().write(buffer, 0, len);
-                byteBuffer.clear();
-            }
+            copy(fc, response.getOutputStream(), fc.position(), fc.size() - fc.position());
         } catch (Exception e) {
             logReadMediaFailure(e.getMessage());
         }
@@ -427,6 +489,14 @@ public class ResponseMediaFileWriter {
     }
 
 
+    private void write(ByteBuffer buffer, OutputStream output) throws IOException {
+        // the output channel is not closed here as it shares the servlet output stream
+        WritableByteChannel target = Channels.newChannel(output);
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+    }
+
     /**
      * Returns true if the given accept header accepts the given value.
      * @param acceptHeader The accept header.
@@ -451,37 +521,73 @@ public class ResponseMediaFileWriter {
      * @throws IOException
      */
     private void copy(FileChannel fc, OutputStream output, long start, long length) throws IOException {
-        byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
-        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
-        int read;
-
-        if (fc.size() == length) {
+        if (zeroCopy) {
+            transfer(fc, output, start, length);
+            return;
+        }
 
-            while (true) {
-                final int len = fc.read(byteBuffer);
-                if (len <= 0) {
-                    break;
-                }
-                output.write(buffer, 0, len);
-                byteBuffer.clear();
+        // positional reads leave the channel position alone, and one buffer serves ranges of any size
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+        long position = start;
+        long end = start + length;
+
+        while (position < end) {
+            byteBuffer.clear();
+            byteBuffer.limit((int) Math.min(buffer.length, end - position));
+            int read = fc.read(byteBuffer, position);
+            if (read <= 0) {
+                break;
             }
+            output.write(buffer, 0, read);
+            position += read;
+        }
+    }
 
-        } else {
-            // Write partial range.
-            fc.position(start);
-            long toRead = length;
-
-            while ((read = fc.read(byteBuffer)) > 0) {
-                toRead -= read;
-                if (toRead > 0) {
-                    output.write(buffer, 0, read);
-                } else {
-                    output.write(buffer, 0, (int) toRead + read);
-                    break;
-                }
-                byteBuffer.clear();
+    /**
+     * Transfer the given byte range of the file channel to the output with FileChannel.transferTo,
+     * which lets the channel move file pages to the output without the heap buffer copy loop
+     *
+     * @param fc
+     * @param output
+     * @param start
+     * @param length
+     * @throws IOException
+     */
+    private void transfer(FileChannel fc, OutputStream output, long start, long length) throws IOException {
+        // the output channel is not closed here as it shares the servlet output stream
+        WritableByteChannel target = Channels.newChannel(output);
+        long position = start;
+        long remaining = length;
+
+        while (remaining > 0) {
+            long transferred = fc.transferTo(position, remaining, target);
+            if (transferred <= 0) {
+                break;
             }
+            position += transferred;
+            remaining -= transferred;
+        }
+    }
+
+    /**
+     * Hand the given byte range of the local file over to tomcat, which sends it with the sendfile system call
+     * once the request returns, so the file pages are not copied through the jvm
+     *
+     * @param localFile path of the file, null if there is none
+     * @param r byte range to send
+     * @param request http servlet request
+     * @return true if the container sends the range, false if it has to be copied to the output
+     */
+    private boolean sendfile(Path localFile, Range r, HttpServletRequest request) {
+        if (!zeroCopy || localFile == null || !Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR))) {
+            return false;
         }
+        request.setAttribute(SENDFILE_FILENAME_ATTR, localFile.toAbsolutePath().toString());
+        request.setAttribute(SENDFILE_START_ATTR, r.start);
+        // the end of the sendfile range is exclusive
+        request.setAttribute(SENDFILE_END_ATTR, r.end + 1);
+        return true;
     }
 
     /**
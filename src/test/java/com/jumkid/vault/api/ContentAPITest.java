@@ -31,6 +31,7 @@ import java.util.Optional;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 import static com.jumkid.vault.TestObjectsBuilder.DUMMY_ID;
@@ -177,4 +178,33 @@ class ContentAPITest {
                 .then()
                     .statusCode(HttpStatus.OK.value());
     }
+
+    @Test
+    void shouldReturnNotModified_WhenThumbnailETagMatches() throws Exception {
+        MediaFileMetadata mediaFileMetadata = TestObjectsBuilder.buildMetadata(null);
+        when(localFileStorage.getThumbnail(eq(mediaFileMetadata), any(ThumbnailNamespace.class)))
+                .thenReturn(Optional.of(mediaFileMetadata.getContent().getBytes()));
+        when(metadataStorage.getMetadata(DUMMY_ID)).thenReturn(Optional.of(mediaFileMetadata));
+
+        String eTag = RestAssured
+                .given()
+                    .baseUri("http://localhost").port(port)
+                    .headers("Authorization", "Bearer " + testUserToken)
+                .when()
+                    .get("/content/thumbnail/" + DUMMY_ID)
+                .then()
+                    .statusCode(HttpStatus.OK.value())
+                    .header("ETag", notNullValue())
+                .extract().header("ETag");
+
+        RestAssured
+                .given()
+                    .baseUri("http://localhost").port(port)
+                    .headers("Authorization", "Bearer " + testUserToken)
+                    .header("If-None-Match", eTag)
+                .when()
+                    .get("/content/thumbnail/" + DUMMY_ID)
+                .then()
+                    .statusCode(HttpStatus.NOT_MODIFIED.value());
+    }
 }
@@ -25,11 +25,17 @@ import org.springframework.http.HttpStatus;
 import org.springframework.kafka.test.context.EmbeddedKafka;
 import org.springframework.test.context.TestPropertySource;
 
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
 import java.util.Optional;
 
+import static com.jumkid.vault.TestObjectsBuilder.DUMMY_ID;
 import static org.hamcrest.Matchers.equalTo;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.Mockito.when;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
@@ -73,7 +79,8 @@ class FileUploadAPITest {
     @Test
     void whenGivenFile_shouldUploadFile() throws Exception {
         when(metadataStorage.saveMetadata(any(MediaFileMetadata.class))).thenReturn(mediaFileMetadata);
-        when(localFileStorage.saveFile(any(), any(MediaFileMetadata.class))).thenReturn(Optional.of(mediaFileMetadata));
+        when(metadataStorage.createMetadata(any(MediaFileMetadata.class))).thenReturn(Optional.of(mediaFileMetadata));
+        when(localFileStorage.saveFile(any(Path.class), any(MediaFileMetadata.class))).thenReturn(Optional.of(mediaFileMetadata));
         when(metadataStorage.updateMetadata(any(), any(MediaFileMetadata.class))).thenReturn(mediaFileMetadata);
 
         RestAssured
@@ -94,9 +101,12 @@ class FileUploadAPITest {
 
     @Test
     void whenGivenFile_shouldUploadMultipleFile() throws Exception {
-        when(metadataStorage.saveMetadata(any(MediaFileMetadata.class))).thenReturn(mediaFileMetadata);
-        when(localFileStorage.saveFile(any(), any(MediaFileMetadata.class))).thenReturn(Optional.of(mediaFileMetadata));
-        when(metadataStorage.updateMetadata(any(), any(MediaFileMetadata.class))).thenReturn(mediaFileMetadata);
+        when(metadataStorage.saveAll(anyList())).thenAnswer(invocation -> {
+            List<MediaFileMetadata> metadataList = invocation.getArgument(0);
+            metadataList.forEach(metadata -> metadata.setId(mediaFileMetadata.getId()));
+            return metadataList;
+        });
+        when(localFileStorage.saveFile(any(Path.class), any(MediaFileMetadata.class))).thenReturn(Optional.of(mediaFileMetadata));
 
         RestAssured
                 .given()
@@ -112,4 +122,24 @@ class FileUploadAPITest {
                     .body("[0].filename", equalTo(mediaFileMetadata.getFilename()));
     }
 
+
+    @Test
+    void whenGivenRange_shouldDownloadPartialContent() throws Exception {
+        long fileSize = resource.contentLength();
+        when(metadataStorage.getMetadata(DUMMY_ID)).thenReturn(Optional.of(mediaFileMetadata));
+        when(localFileStorage.getFileRandomAccess(mediaFileMetadata))
+                .thenAnswer(invocation -> Optional.of(FileChannel.open(resource.getFile().toPath(), StandardOpenOption.READ)));
+
+        RestAssured
+                .given()
+                    .baseUri("http://localhost").port(port)
+                    .headers("Authorization", "Bearer " + testUserToken)
+                    .header("Range", "bytes=0-9")
+                .when()
+                    .get("/file/download/" + DUMMY_ID)
+                .then()
+                    .statusCode(HttpStatus.PARTIAL_CONTENT.value())
+                    .header("Content-Length", equalTo("10"))
+                    .header("Content-Range", equalTo("bytes 0-9/" + fileSize));
+    }
 }
@@ -7,6 +7,7 @@ import com.jumkid.vault.controller.dto.MediaFile;
 import com.jumkid.vault.enums.MediaFileModule;
 import com.jumkid.vault.exception.FileStoreServiceException;
 import com.jumkid.vault.model.MediaFileMetadata;
+import com.jumkid.vault.model.SearchPage;
 import com.jumkid.vault.repository.LocalFileStorage;
 import com.jumkid.vault.repository.MetadataStorage;
 import io.restassured.RestAssured;
@@ -26,12 +27,13 @@ import org.springframework.http.HttpStatus;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.context.TestPropertySource;
 
+import java.util.List;
 import java.util.Optional;
 
 import static org.hamcrest.Matchers.*;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
-import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.*;
 import static com.jumkid.vault.TestObjectsBuilder.DUMMY_ID;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
@@ -91,8 +93,8 @@ class MetadataAPITest {
 
     @Test
     void whenSearch_shouldGetListOfMetadata() throws FileStoreServiceException {
-        when(metadataStorage.searchMetadata(anyString(), anyInt(), anyList(), anyString()))
-                .thenReturn(TestObjectsBuilder.buildListOfMetadata());
+        when(metadataStorage.searchMetadata(anyString(), anyInt(), any(), anyList(), anyList(), anyString()))
+                .thenReturn(new SearchPage<>(TestObjectsBuilder.buildListOfMetadata(), null));
 
         RestAssured
                 .given()
@@ -108,6 +110,24 @@ class MetadataAPITest {
                     .body("[0].uuid", equalTo(DUMMY_ID));
     }
 
+    @Test
+    void whenSearchWithSizeOutOfRange_shouldGetBadRequest() throws FileStoreServiceException {
+        for (String path : List.of("/metadata?q=test&size=0", "/metadata?size=-1", "/metadata?size=1001",
+                "/trash?size=0")) {
+            RestAssured
+                    .given()
+                        .baseUri("http://localhost").port(port)
+                        .headers("Authorization", "Bearer " + testUserToken)
+                        .contentType(ContentType.JSON)
+                    .when()
+                        .get(path)
+                    .then()
+                        .statusCode(HttpStatus.BAD_REQUEST.value());
+        }
+        verify(metadataStorage, never()).searchMetadata(any(), any(), any(), any(), any(), any());
+        verify(metadataStorage, never()).getInactiveMetadata(any(), any(), any());
+    }
+
     @Test
     void whenGivenMetadata_shouldSaveContentWithPros() throws Exception {
         MediaFile mediaFile = TestObjectsBuilder.buildMediaFile(null);
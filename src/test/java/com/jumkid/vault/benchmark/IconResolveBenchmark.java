@@ -0,0 +1,119 @@
+package com.jumkid.vault.benchmark;
+
+import com.jumkid.vault.repository.thumbnail.IconResolver;
+import com.jumkid.vault.util.FileUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compare the icon resolver with the previous icon lookup of the thumbnail file manager, which compiled every
+ * mapping pattern, built the icon path and read the icon file on each thumbnail request of a non image file.
+ * Run it with
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.jumkid.vault.benchmark.IconResolveBenchmark
+ * </pre>
+ * CPU time is the average time per request, memory is reported by the gc profiler as allocation per request
+ * (gc.alloc.rate.norm)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class IconResolveBenchmark {
+
+    private static final String MISC_PATH = "misc";
+    private static final String PATH_DELIMITER = "/";
+    private static final int ICON_SIZE = 4 * 1024;
+
+    // the mappings of application.properties, mime types of the last ones match late or not at all
+    private static final Map<String, String> ICON_MAPPINGS = new LinkedHashMap<>();
+    static {
+        ICON_MAPPINGS.put("^video", "icon_video.png");
+        ICON_MAPPINGS.put("^audio", "icon_audio.png");
+        ICON_MAPPINGS.put("^application/pdf", "icon_pdf.png");
+        ICON_MAPPINGS.put("powerpoint", "icon_ppt.png");
+        ICON_MAPPINGS.put("excel", "icon_xls.png");
+        ICON_MAPPINGS.put("word", "icon_doc.png");
+        ICON_MAPPINGS.put("gallery", "icon_gallery.png");
+        ICON_MAPPINGS.put("avatar", "icon_avatar.png");
+    }
+
+    @Param({"video/mp4", "application/msword", "application/zip"})
+    private String mimeType;
+
+    private Path dataHome;
+
+    private IconResolver iconResolver;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dataHome = Files.createTempDirectory("icon-benchmark");
+        Path miscPath = Files.createDirectories(dataHome.resolve(MISC_PATH));
+        Files.write(miscPath.resolve("icon_file.png"), new byte[ICON_SIZE]);
+        for (String icon : ICON_MAPPINGS.values()) {
+            Files.write(miscPath.resolve(icon), new byte[ICON_SIZE]);
+        }
+
+        iconResolver = new IconResolver(dataHome.toString(), ICON_MAPPINGS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        FileUtils.deleteDirectoryStream(dataHome);
+    }
+
+    @Benchmark
+    public Optional<byte[]> compilePerRequest() {
+        String dataHomePath = dataHome.toString();
+        String filePath = String.join(PATH_DELIMITER, dataHomePath, MISC_PATH, "icon_file.png");
+
+        for (Map.Entry<String, String> mapping : ICON_MAPPINGS.entrySet()) {
+            Pattern pattern = Pattern.compile(mapping.getKey(), Pattern.CASE_INSENSITIVE);
+            Matcher matcher = pattern.matcher(mimeType);
+            if (matcher.find()) {
+                filePath = String.join(PATH_DELIMITER, dataHomePath, MISC_PATH, mapping.getValue());
+                break;
+            }
+        }
+
+        File file = new File(filePath);
+        if (!file.exists()) return Optional.empty();
+        try (FileInputStream fin = new FileInputStream(file)) {
+            return FileUtils.fileChannelToBytes(fin.getChannel());
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    @Benchmark
+    public Optional<byte[]> iconResolver() {
+        return iconResolver.getIcon(iconResolver.getIconFilePath(mimeType));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(IconResolveBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+
+}
@@ -0,0 +1,115 @@
+package com.jumkid.vault.benchmark;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.jumkid.share.security.AccessScope;
+import com.jumkid.vault.enums.MediaFileModule;
+import com.jumkid.vault.enums.RefreshPolicy;
+import com.jumkid.vault.exception.FileStoreServiceException;
+import com.jumkid.vault.model.MediaFileMetadata;
+import com.jumkid.vault.repository.MetadataStorage;
+import com.jumkid.vault.service.mapper.MediaFileMapper;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.mapstruct.factory.Mappers;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.testcontainers.elasticsearch.ElasticsearchContainer;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.jumkid.vault.util.Constants.ES_INDEX_MFILE;
+
+/**
+ * Metadata ingest throughput of each refresh policy, against an Elasticsearch test container. Run it with
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.jumkid.vault.benchmark.MetadataIngestBenchmark
+ * </pre>
+ * Docker is required, unless -Dbenchmark.es.url points to a running Elasticsearch instead. Several threads
+ * write at the same time, as concurrent uploads do.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Threads(8)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 10)
+public class MetadataIngestBenchmark {
+
+    @Param({"none", "wait_for", "true"})
+    private String refreshPolicy;
+
+    private static final String ES_URL = "benchmark.es.url";
+
+    private ElasticsearchContainer esContainer;
+
+    private RestClient restClient;
+
+    private MetadataStorage metadataStorage;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        String esUrl = System.getProperty(ES_URL);
+        if (esUrl == null) {
+            esContainer = new ElasticsearchContainer("docker.elastic.co/elasticsearch/elasticsearch:8.10.4")
+                    .withEnv("xpack.security.enabled", "false");
+            esContainer.start();
+            esUrl = esContainer.getHttpHostAddress();
+        }
+
+        restClient = RestClient.builder(HttpHost.create(esUrl)).build();
+        ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+        ElasticsearchClient esClient = new ElasticsearchClient(
+                new RestClientTransport(restClient, new JacksonJsonpMapper(objectMapper)));
+        // every trial starts from an empty index
+        if (esClient.indices().exists(e -> e.index(ES_INDEX_MFILE)).value()) {
+            esClient.indices().delete(d -> d.index(ES_INDEX_MFILE));
+        }
+        esClient.indices().create(c -> c.index(ES_INDEX_MFILE));
+
+        RefreshPolicy policy = RefreshPolicy.valueOf(refreshPolicy.toUpperCase());
+        metadataStorage = new MetadataStorage(esClient, Mappers.getMapper(MediaFileMapper.class));
+        metadataStorage.setSaveRefreshPolicy(policy);
+        metadataStorage.setUpdateRefreshPolicy(policy);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        restClient.close();
+        if (esContainer != null) esContainer.stop();
+    }
+
+    @Benchmark
+    public MediaFileMetadata saveMetadata() throws FileStoreServiceException {
+        return metadataStorage.saveMetadata(MediaFileMetadata.builder()
+                .title("benchmark photo")
+                .filename("photo.jpg")
+                .mimeType("image/jpeg")
+                .size(4_000_000)
+                .module(MediaFileModule.FILE)
+                .accessScope(AccessScope.PRIVATE)
+                .activated(true)
+                .tags(List.of("benchmark"))
+                .createdBy("benchmark")
+                .createdOn(LocalDateTime.now())
+                .build());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(MetadataIngestBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+
+}
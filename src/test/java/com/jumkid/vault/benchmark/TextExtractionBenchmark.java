@@ -0,0 +1,113 @@
+package com.jumkid.vault.benchmark;
+
+import com.jumkid.vault.service.extract.TextExtractor;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Text extraction throughput over a sample corpus of generated documents, 20 pages of prose each, with the
+ * limits of application.properties. Run it with
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.jumkid.vault.benchmark.TextExtractionBenchmark
+ * </pre>
+ * Scores are documents per second of one extract worker, the workers scale about linearly as parsing is CPU bound.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class TextExtractionBenchmark {
+
+    private static final int PAGES = 20;
+    private static final int LINES_PER_PAGE = 40;
+    private static final String LINE = "The vault keeps every media file with its metadata and the text of documents.";
+
+    @Param({"pdf", "docx", "html"})
+    private String documentType;
+
+    private TextExtractor textExtractor;
+
+    private byte[] document;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        textExtractor = new TextExtractor(List.of("application/pdf", "application/vnd.openxmlformats-officedocument",
+                "text/html"), 32000, 1000000, DataSize.ofMegabytes(256));
+        document = switch (documentType) {
+            case "pdf" -> pdf();
+            case "docx" -> docx();
+            default -> html();
+        };
+    }
+
+    @Benchmark
+    public List<String> extract() throws IOException {
+        return textExtractor.extract(new ByteArrayInputStream(document));
+    }
+
+    private static byte[] pdf() throws IOException {
+        try (PDDocument pdf = new PDDocument(); ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            for (int p = 0; p < PAGES; p++) {
+                PDPage page = new PDPage();
+                pdf.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(pdf, page)) {
+                    content.beginText();
+                    content.setFont(PDType1Font.HELVETICA, 10);
+                    content.setLeading(14);
+                    content.newLineAtOffset(40, 750);
+                    for (int l = 0; l < LINES_PER_PAGE; l++) {
+                        content.showText(LINE);
+                        content.newLine();
+                    }
+                    content.endText();
+                }
+            }
+            pdf.save(out);
+            return out.toByteArray();
+        }
+    }
+
+    private static byte[] docx() throws IOException {
+        try (XWPFDocument docx = new XWPFDocument(); ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            for (int l = 0; l < PAGES * LINES_PER_PAGE; l++) {
+                docx.createParagraph().createRun().setText(LINE);
+            }
+            docx.write(out);
+            return out.toByteArray();
+        }
+    }
+
+    private static byte[] html() {
+        StringBuilder html = new StringBuilder("<html><head><title>sample</title></head><body>");
+        for (int l = 0; l < PAGES * LINES_PER_PAGE; l++) {
+            html.append("<p>").append(LINE).append("</p>");
+        }
+        return html.append("</body></html>").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(TextExtractionBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+
+}
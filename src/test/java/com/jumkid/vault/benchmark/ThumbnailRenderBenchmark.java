@@ -0,0 +1,140 @@
+package com.jumkid.vault.benchmark;
+
+import com.jumkid.vault.enums.ThumbnailNamespace;
+import com.jumkid.vault.repository.thumbnail.ThumbnailRenderer;
+import net.coobird.thumbnailator.ThumbnailParameter;
+import net.coobird.thumbnailator.Thumbnails;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static com.jumkid.vault.repository.thumbnail.ThumbnailFileManager.THUMBNAIL_FILE_EXTEND;
+
+/**
+ * Compare the single decode thumbnail renderer with the previous approach which decoded the original
+ * image once per thumbnail size. Run it with
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.jumkid.vault.benchmark.ThumbnailRenderBenchmark
+ * </pre>
+ * CPU time is the average time per operation, memory is reported by the gc profiler as allocation per operation
+ * (gc.alloc.rate.norm) and by the peak heap profiler as peak.heap
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class ThumbnailRenderBenchmark {
+
+    private static final int THUMBNAIL_SMALL = 108;
+    private static final int THUMBNAIL_MEDIUM = 380;
+    private static final int THUMBNAIL_LARGE = 640;
+
+    @Param({"12", "24", "48"})
+    private int megapixels;
+
+    private Path workDir;
+
+    private Path sourcePath;
+
+    private ThumbnailRenderer thumbnailRenderer;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        workDir = Files.createTempDirectory("thumbnail-benchmark");
+        sourcePath = workDir.resolve("source-" + megapixels + "mp.jpg");
+        writeSyntheticPhoto(sourcePath, megapixels);
+
+        thumbnailRenderer = new ThumbnailRenderer(THUMBNAIL_SMALL, THUMBNAIL_MEDIUM, THUMBNAIL_LARGE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(workDir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public void decodePerSize() throws IOException {
+        String path = sourcePath.toString();
+
+        Thumbnails.of(new File(path))
+                .size(THUMBNAIL_SMALL, THUMBNAIL_SMALL)
+                .keepAspectRatio(true)
+                .outputQuality(0.6)
+                .imageType(ThumbnailParameter.DEFAULT_IMAGE_TYPE)
+                .outputFormat(THUMBNAIL_FILE_EXTEND)
+                .toFile(new File(path + ThumbnailNamespace.SMALL_SUFFIX.value()));
+
+        Thumbnails.of(new File(path))
+                .size(THUMBNAIL_MEDIUM, THUMBNAIL_MEDIUM)
+                .keepAspectRatio(true)
+                .outputQuality(0.8)
+                .imageType(ThumbnailParameter.DEFAULT_IMAGE_TYPE)
+                .outputFormat(THUMBNAIL_FILE_EXTEND)
+                .toFile(new File(path + ThumbnailNamespace.MEDIUM_SUFFIX.value()));
+
+        Thumbnails.of(new File(path))
+                .size(THUMBNAIL_LARGE, THUMBNAIL_LARGE)
+                .keepAspectRatio(true)
+                .outputQuality(0.8)
+                .imageType(ThumbnailParameter.DEFAULT_IMAGE_TYPE)
+                .outputFormat(THUMBNAIL_FILE_EXTEND)
+                .toFile(new File(path + ThumbnailNamespace.LARGE_SUFFIX.value()));
+    }
+
+    @Benchmark
+    public void singleDecode() throws IOException {
+        thumbnailRenderer.render(sourcePath);
+    }
+
+    /**
+     * Write a 4:3 jpeg with gradients and noise, so the encoded size and decode cost are close to a real photo
+     */
+    private static void writeSyntheticPhoto(Path path, int megapixels) throws IOException {
+        int height = (int) Math.sqrt(megapixels * 1_000_000 * 3 / 4.0);
+        int width = height * 4 / 3;
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, Color.ORANGE, width, height, Color.BLUE));
+        g.fillRect(0, 0, width, height);
+        g.dispose();
+
+        Random random = new Random(megapixels);
+        for (int y = 0; y < height; y += 2) {
+            for (int x = 0; x < width; x += 2) {
+                image.setRGB(x, y, image.getRGB(x, y) ^ random.nextInt(0x1f1f1f));
+            }
+        }
+
+        ImageIO.write(image, "jpg", path.toFile());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ThumbnailRenderBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .addProfiler(PeakHeapProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+
+}
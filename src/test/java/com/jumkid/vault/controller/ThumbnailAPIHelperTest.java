@@ -0,0 +1,87 @@
+package com.jumkid.vault.controller;
+
+import com.jumkid.vault.TestObjectsBuilder;
+import com.jumkid.vault.enums.ThumbnailNamespace;
+import com.jumkid.vault.model.MediaFileMetadata;
+import com.jumkid.vault.repository.FilePathManager;
+import com.jumkid.vault.repository.thumbnail.ThumbnailJobJournal;
+import com.jumkid.vault.service.MediaFileService;
+import com.jumkid.vault.util.HttpCachePolicy;
+import com.jumkid.vault.util.ResponseMediaFileWriter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ThumbnailAPIHelperTest {
+
+    private static final String MEDIA_FILE_ID = "file-1";
+
+    @TempDir
+    Path dataHome;
+
+    private MediaFileService fileService;
+
+    private ThumbnailJobJournal thumbnailJobJournal;
+
+    private ThumbnailAPIHelper thumbnailAPIHelper;
+
+    @BeforeEach
+    void setup() throws Exception {
+        FilePathManager filePathManager = new FilePathManager();
+        ReflectionTestUtils.setField(filePathManager, "dataHomePath", dataHome.toString());
+        thumbnailJobJournal = new ThumbnailJobJournal(filePathManager);
+
+        HttpCachePolicy httpCachePolicy = new HttpCachePolicy();
+        ReflectionTestUtils.setField(httpCachePolicy, "thumbnailMaxAge", Duration.ofDays(7));
+
+        fileService = mock(MediaFileService.class);
+        MediaFileMetadata metadata = TestObjectsBuilder.buildMetadata(MEDIA_FILE_ID);
+        when(fileService.getMediaFileMetadata(MEDIA_FILE_ID)).thenReturn(metadata);
+        when(fileService.getMappedThumbnail(MEDIA_FILE_ID, ThumbnailNamespace.SMALL)).thenReturn(Optional.empty());
+        when(fileService.getThumbnail(MEDIA_FILE_ID, ThumbnailNamespace.SMALL))
+                .thenReturn(Optional.of("thumbnail".getBytes(StandardCharsets.UTF_8)));
+
+        thumbnailAPIHelper = new ThumbnailAPIHelper(fileService, new ResponseMediaFileWriter(), httpCachePolicy,
+                thumbnailJobJournal);
+    }
+
+    @Test
+    void shouldNotLetPendingIconBeStored() throws Exception {
+        //given
+        thumbnailJobJournal.add(MEDIA_FILE_ID, dataHome.resolve("source"));
+        when(fileService.getThumbnail(MEDIA_FILE_ID, ThumbnailNamespace.SMALL))
+                .thenReturn(Optional.of("icon".getBytes(StandardCharsets.UTF_8)));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        //when
+        thumbnailAPIHelper.response(MEDIA_FILE_ID, ThumbnailNamespace.SMALL, new MockHttpServletRequest("GET", "/"), response);
+        //then
+        assertEquals("no-store", response.getHeader("Cache-Control"));
+        assertNull(response.getHeader("ETag"));
+        assertEquals("icon", response.getContentAsString());
+    }
+
+    @Test
+    void shouldLetThumbnailBeCached_OnceGenerated() throws Exception {
+        //given
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        //when
+        thumbnailAPIHelper.response(MEDIA_FILE_ID, ThumbnailNamespace.SMALL, new MockHttpServletRequest("GET", "/"), response);
+        //then
+        assertTrue(response.getHeader("Cache-Control").contains("max-age=604800"));
+        assertNotNull(response.getHeader("ETag"));
+        assertEquals("thumbnail", response.getContentAsString());
+    }
+
+}
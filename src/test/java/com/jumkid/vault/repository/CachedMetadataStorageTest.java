@@ -0,0 +1,159 @@
+package com.jumkid.vault.repository;
+
+import com.jumkid.vault.TestObjectsBuilder;
+import com.jumkid.vault.enums.StorageMode;
+import com.jumkid.vault.model.MediaFileMetadata;
+import com.jumkid.vault.service.mapper.MediaFileMapper;
+import com.jumkid.vault.service.mapper.MediaFileMapperImpl;
+import com.jumkid.vault.service.mapper.MediaFilePropMapperImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class CachedMetadataStorageTest {
+
+    private static final String MEDIA_FILE_ID = "media-1";
+
+    private final MetadataStorage metadataStorage = mock(MetadataStorage.class);
+
+    @AfterEach
+    void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    void shouldGetMetadataOncePerRequest() throws Exception {
+        CachedMetadataStorage cachedStorage = cachedStorage(false);
+        when(metadataStorage.getMetadata(MEDIA_FILE_ID)).thenReturn(Optional.of(TestObjectsBuilder.buildMetadata(MEDIA_FILE_ID)));
+
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        MediaFileMetadata first = cachedStorage.getMetadata(MEDIA_FILE_ID).orElseThrow();
+        MediaFileMetadata second = cachedStorage.getMetadata(MEDIA_FILE_ID).orElseThrow();
+        verify(metadataStorage, times(1)).getMetadata(MEDIA_FILE_ID);
+        // cached metadata is mutable, every caller gets its own copy
+        assertNotSame(first, second);
+
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        cachedStorage.getMetadata(MEDIA_FILE_ID);
+        verify(metadataStorage, times(2)).getMetadata(MEDIA_FILE_ID);
+    }
+
+    @Test
+    void shouldGetMetadataOnce_WhenSharedCacheEnabled() throws Exception {
+        CachedMetadataStorage cachedStorage = cachedStorage(true);
+        when(metadataStorage.getMetadata(MEDIA_FILE_ID)).thenReturn(Optional.of(TestObjectsBuilder.buildMetadata(MEDIA_FILE_ID)));
+
+        cachedStorage.getMetadata(MEDIA_FILE_ID);
+        cachedStorage.getMetadata(MEDIA_FILE_ID);
+
+        verify(metadataStorage, times(1)).getMetadata(MEDIA_FILE_ID);
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("writes")
+    void shouldInvalidateCachedMetadata_WhenWritten(String name, Write write) throws Exception {
+        CachedMetadataStorage cachedStorage = cachedStorage(true);
+        when(metadataStorage.getMetadata(MEDIA_FILE_ID)).thenReturn(Optional.of(TestObjectsBuilder.buildMetadata(MEDIA_FILE_ID)));
+        when(metadataStorage.saveMetadata(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(metadataStorage.saveAll(any())).thenAnswer(invocation -> invocation.getArgument(0));
+
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        cachedStorage.getMetadata(MEDIA_FILE_ID);
+        write.apply(cachedStorage);
+        cachedStorage.getMetadata(MEDIA_FILE_ID);
+
+        verify(metadataStorage, times(2)).getMetadata(MEDIA_FILE_ID);
+    }
+
+    static Stream<Arguments> writes() {
+        return Stream.of(
+                Arguments.of("saveMetadata", (Write) storage -> storage.saveMetadata(TestObjectsBuilder.buildMetadata(MEDIA_FILE_ID))),
+                Arguments.of("createMetadata", (Write) storage -> storage.createMetadata(TestObjectsBuilder.buildMetadata(MEDIA_FILE_ID))),
+                Arguments.of("saveAll", (Write) storage -> storage.saveAll(List.of(TestObjectsBuilder.buildMetadata(MEDIA_FILE_ID)))),
+                Arguments.of("updateAll", (Write) storage -> storage.updateAll(Map.of(MEDIA_FILE_ID, new MediaFileMetadata()))),
+                Arguments.of("updateAllIfUnchanged", (Write) storage -> storage.updateAllIfUnchanged(Map.of(MEDIA_FILE_ID,
+                        new MediaFileMetadata()))),
+                Arguments.of("updateStatusAll", (Write) storage -> storage.updateStatusAll(List.of(MEDIA_FILE_ID), false)),
+                Arguments.of("updateMetadata", (Write) storage -> storage.updateMetadata(MEDIA_FILE_ID, new MediaFileMetadata())),
+                Arguments.of("updateMetadataStatus", (Write) storage -> storage.updateMetadataStatus(MEDIA_FILE_ID, false)),
+                Arguments.of("updateLogicalPath", (Write) storage -> storage.updateLogicalPath(MEDIA_FILE_ID, null)),
+                Arguments.of("updateStorage", (Write) storage -> storage.updateStorage(MEDIA_FILE_ID, StorageMode.OBJECT_STORE,
+                        "/text", null, 1L, 1L)),
+                Arguments.of("deleteMetadata", (Write) storage -> storage.deleteMetadata(MEDIA_FILE_ID)),
+                Arguments.of("deleteInactiveMetadata", (Write) CachedMetadataStorage::deleteInactiveMetadata),
+                Arguments.of("deleteChildrenByChildId", (Write) storage -> storage.deleteChildrenByChildId(MEDIA_FILE_ID,
+                        List.of("1")))
+        );
+    }
+
+    @Test
+    void shouldNotCacheMetadataReadBeforeConcurrentWrite() throws Exception {
+        CachedMetadataStorage cachedStorage = cachedStorage(true);
+        MediaFileMetadata before = TestObjectsBuilder.buildMetadata(MEDIA_FILE_ID);
+        MediaFileMetadata after = TestObjectsBuilder.buildMetadata(MEDIA_FILE_ID);
+        after.setTitle("updated title");
+
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch written = new CountDownLatch(1);
+        when(metadataStorage.getMetadata(MEDIA_FILE_ID))
+                .thenAnswer(invocation -> {
+                    loading.countDown();
+                    // the metadata is read, then written by another thread before the read returns
+                    assertTrue(written.await(5, TimeUnit.SECONDS));
+                    return Optional.of(before);
+                })
+                .thenReturn(Optional.of(after));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Optional<MediaFileMetadata>> read = executor.submit(() -> cachedStorage.getMetadata(MEDIA_FILE_ID));
+            assertTrue(loading.await(5, TimeUnit.SECONDS));
+            Future<MediaFileMetadata> write = executor.submit(() -> {
+                written.countDown();
+                return cachedStorage.updateMetadata(MEDIA_FILE_ID, after);
+            });
+
+            assertEquals(before.getTitle(), read.get(5, TimeUnit.SECONDS).orElseThrow().getTitle());
+            write.get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(after.getTitle(), cachedStorage.getMetadata(MEDIA_FILE_ID).orElseThrow().getTitle());
+    }
+
+    private CachedMetadataStorage cachedStorage(boolean sharedCacheEnabled) {
+        MediaFileMapper mediaFileMapper = new MediaFileMapperImpl();
+        ReflectionTestUtils.setField(mediaFileMapper, "mediaFilePropMapper", new MediaFilePropMapperImpl());
+        return new CachedMetadataStorage(metadataStorage, mediaFileMapper, new SimpleMeterRegistry(),
+                sharedCacheEnabled, Duration.ofMinutes(1), 100);
+    }
+
+    @FunctionalInterface
+    interface Write {
+        void apply(CachedMetadataStorage storage) throws Exception;
+    }
+
+}
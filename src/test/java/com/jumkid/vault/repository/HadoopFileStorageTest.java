@@ -0,0 +1,148 @@
+package com.jumkid.vault.repository;
+
+import com.jumkid.vault.TestObjectsBuilder;
+import com.jumkid.vault.enums.ThumbnailNamespace;
+import com.jumkid.vault.model.MediaFileMetadata;
+import com.jumkid.vault.repository.thumbnail.IconResolver;
+import com.jumkid.vault.repository.thumbnail.ThumbnailCache;
+import com.jumkid.vault.repository.thumbnail.ThumbnailFileManager;
+import com.jumkid.vault.repository.thumbnail.ThumbnailRenderer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Run the hdfs storage against the local file system of hadoop, which serves the same FileSystem api
+ * including the positional reads of its input streams
+ */
+class HadoopFileStorageTest {
+
+    @TempDir
+    Path storeDir;
+
+    @TempDir
+    Path spoolDir;
+
+    private HadoopFileStorage hadoopFileStorage;
+
+    @BeforeEach
+    void setup() {
+        Configuration conf = new Configuration();
+        conf.set("fs.defaultFS", "file:///");
+
+        ThumbnailFileManager thumbnailFileManager = mock(ThumbnailFileManager.class);
+        when(thumbnailFileManager.getThumbnailSuffix(ThumbnailNamespace.SMALL)).thenReturn(ThumbnailNamespace.SMALL_SUFFIX);
+        when(thumbnailFileManager.getThumbnailSuffix(ThumbnailNamespace.MEDIUM)).thenReturn(ThumbnailNamespace.MEDIUM_SUFFIX);
+        when(thumbnailFileManager.getThumbnailSuffix(ThumbnailNamespace.LARGE)).thenReturn(ThumbnailNamespace.LARGE_SUFFIX);
+
+        FilePathManager filePathManager = new FilePathManager();
+        hadoopFileStorage = new HadoopFileStorage(conf, filePathManager,
+                new ThumbnailRenderer(108, 380, 640), thumbnailFileManager,
+                new ThumbnailCache(new SimpleMeterRegistry(), DataSize.ofMegabytes(1)),
+                new IconResolver(System.getProperty("java.io.tmpdir"), Map.of()));
+        hadoopFileStorage.setDefaultStorePath(storeDir.toString());
+    }
+
+    @AfterEach
+    void tearDown() {
+        hadoopFileStorage.close();
+    }
+
+    @Test
+    void shouldStoreAndReadBack() throws Exception {
+        byte[] content = randomBytes(256 * 1024);
+        MediaFileMetadata metadata = TestObjectsBuilder.buildMetadata(null);
+        metadata.setLogicalPath(null);
+
+        MediaFileMetadata saved = hadoopFileStorage.saveFile(write(content), metadata).orElseThrow();
+
+        assertNotNull(saved.getLogicalPath());
+        assertArrayEquals(content, hadoopFileStorage.getFileBinary(saved).orElseThrow());
+    }
+
+    @Test
+    void shouldServeRanges_WithPositionalReads() throws Exception {
+        byte[] content = randomBytes(3 * 1024 * 1024);
+        MediaFileMetadata metadata = TestObjectsBuilder.buildMetadata(null);
+        metadata.setLogicalPath(null);
+        MediaFileMetadata saved = hadoopFileStorage.saveFile(write(content), metadata).orElseThrow();
+
+        try (FileChannel fc = hadoopFileStorage.getFileRandomAccess(saved).orElseThrow()) {
+            assertEquals(content.length, fc.size());
+
+            // a range from the middle, then one reaching past the end of the file
+            long start = 2L * 1024 * 1024 - 10;
+            ByteBuffer buffer = ByteBuffer.allocate(20);
+            assertEquals(20, fc.read(buffer, start));
+            for (int i = 0; i < 20; i++) {
+                assertEquals(content[(int) start + i], buffer.get(i));
+            }
+
+            buffer.clear();
+            assertEquals(5, fc.read(buffer, content.length - 5));
+            assertEquals(-1, fc.read(buffer, content.length));
+        }
+    }
+
+    @Test
+    void shouldStoreThumbnails_WhenImage() throws Exception {
+        BufferedImage image = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+        Path source = Files.createTempFile(spoolDir, "spool", null);
+        ImageIO.write(image, "png", source.toFile());
+        MediaFileMetadata metadata = TestObjectsBuilder.buildMetadata(null);
+        metadata.setLogicalPath(null);
+        metadata.setMimeType("image/png");
+
+        MediaFileMetadata saved = hadoopFileStorage.saveFile(source, metadata).orElseThrow();
+
+        byte[] thumbnail = hadoopFileStorage.getThumbnail(saved, ThumbnailNamespace.MEDIUM).orElseThrow();
+        BufferedImage rendered = ImageIO.read(new ByteArrayInputStream(thumbnail));
+        assertEquals(380, rendered.getWidth());
+    }
+
+    @Test
+    void shouldMoveToTrash_AndEmptyIt() throws Exception {
+        MediaFileMetadata metadata = TestObjectsBuilder.buildMetadata(null);
+        metadata.setLogicalPath(null);
+        MediaFileMetadata saved = hadoopFileStorage.saveFile(write(randomBytes(1024)), metadata).orElseThrow();
+
+        hadoopFileStorage.deleteFile(saved);
+
+        assertTrue(hadoopFileStorage.getFileRandomAccess(saved).isEmpty());
+        Path trashFolder = storeDir.resolve("trash").resolve(saved.getId());
+        assertTrue(Files.exists(trashFolder.resolve(saved.getId())));
+
+        hadoopFileStorage.emptyTrash();
+
+        assertFalse(Files.exists(trashFolder));
+    }
+
+    private Path write(byte[] content) throws Exception {
+        return Files.write(Files.createTempFile(spoolDir, "spool", null), content);
+    }
+
+    private byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+}
@@ -0,0 +1,99 @@
+package com.jumkid.vault.repository;
+
+import com.jumkid.vault.TestObjectsBuilder;
+import com.jumkid.vault.model.MediaFileMetadata;
+import com.jumkid.vault.repository.blob.BlobStore;
+import com.jumkid.vault.repository.mapped.MappedFilePool;
+import com.jumkid.vault.repository.thumbnail.ThumbnailFileManager;
+import com.jumkid.vault.repository.thumbnail.ThumbnailGenerationQueue;
+import com.jumkid.vault.repository.trash.FileTrashManager;
+import com.jumkid.vault.util.FileZipUtils;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Run the local storage with content addressed blobs
+ */
+class LocalFileStorageTest {
+
+    private static final byte[] CONTENT = "shared content".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path dataHome;
+
+    private BlobStore blobStore;
+
+    private LocalFileStorage localFileStorage;
+
+    @BeforeEach
+    void setup() {
+        FilePathManager filePathManager = new FilePathManager();
+        ReflectionTestUtils.setField(filePathManager, "dataHomePath", dataHome.toString());
+        blobStore = new BlobStore(filePathManager);
+
+        localFileStorage = new LocalFileStorage(mock(ThumbnailFileManager.class), mock(ThumbnailGenerationQueue.class),
+                filePathManager, new FileTrashManager(filePathManager, new FileZipUtils()), blobStore,
+                new MappedFilePool(new SimpleMeterRegistry(), false, DataSize.ofMegabytes(1), DataSize.ofMegabytes(1)));
+        ReflectionTestUtils.setField(localFileStorage, "blobEnabled", true);
+    }
+
+    @Test
+    void shouldShareBlob_AndDeleteItWithLastFile() throws Exception {
+        MediaFileMetadata first = localFileStorage.saveFile(CONTENT, TestObjectsBuilder.buildMetadata("media-1")).orElseThrow();
+        MediaFileMetadata second = localFileStorage.saveFile(CONTENT, TestObjectsBuilder.buildMetadata("media-2")).orElseThrow();
+        String blobId = first.getBlobId();
+
+        assertEquals(blobId, second.getBlobId());
+        assertEquals(2, blobStore.getRefCount(blobId));
+        assertTrue(Files.isSameFile(filePath(first), filePath(second)));
+
+        localFileStorage.deleteFile(first);
+        assertEquals(1, blobStore.getRefCount(blobId));
+        assertArrayEquals(CONTENT, Files.readAllBytes(filePath(second)));
+
+        localFileStorage.deleteFile(second);
+        assertFalse(Files.exists(blobStore.getBlobFilePath(blobId)));
+    }
+
+    @Test
+    void shouldReleasePreviousBlob_WhenContentReplaced() throws Exception {
+        MediaFileMetadata metadata = localFileStorage.saveFile(CONTENT, TestObjectsBuilder.buildMetadata("media-1")).orElseThrow();
+        String previousBlobId = metadata.getBlobId();
+        byte[] replacement = "replaced content".getBytes(StandardCharsets.UTF_8);
+
+        metadata = localFileStorage.saveFile(replacement, metadata).orElseThrow();
+
+        assertNotEquals(previousBlobId, metadata.getBlobId());
+        assertFalse(Files.exists(blobStore.getBlobFilePath(previousBlobId)));
+        assertEquals(1, blobStore.getRefCount(metadata.getBlobId()));
+        assertArrayEquals(replacement, Files.readAllBytes(filePath(metadata)));
+    }
+
+    @Test
+    void shouldKeepOneReference_WhenSameContentSavedOnLinkedPath() throws Exception {
+        MediaFileMetadata first = localFileStorage.saveFile(CONTENT, TestObjectsBuilder.buildMetadata("media-1")).orElseThrow();
+
+        // a concurrent upload of the same content under the same id lands on the same path
+        localFileStorage.saveFile(CONTENT, TestObjectsBuilder.buildMetadata("media-1")).orElseThrow();
+
+        assertEquals(1, blobStore.getRefCount(first.getBlobId()));
+        assertArrayEquals(CONTENT, Files.readAllBytes(filePath(first)));
+    }
+
+    private Path filePath(MediaFileMetadata metadata) {
+        return Paths.get(dataHome.toString(), metadata.getLogicalPath(), metadata.getId());
+    }
+
+}
@@ -0,0 +1,130 @@
+package com.jumkid.vault.repository;
+
+import com.jumkid.vault.TestObjectsBuilder;
+import com.jumkid.vault.model.MediaFileMetadata;
+import com.jumkid.vault.repository.thumbnail.IconResolver;
+import com.jumkid.vault.repository.thumbnail.ThumbnailCache;
+import com.jumkid.vault.repository.thumbnail.ThumbnailFileManager;
+import com.jumkid.vault.repository.thumbnail.ThumbnailRenderer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+import org.testcontainers.containers.MinIOContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CreateBucketRequest;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+@Testcontainers
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class ObjectStoreFileStorageTest {
+
+    private static final String BUCKET = "content-vault-test";
+
+    @Container
+    static final MinIOContainer minioContainer = new MinIOContainer("minio/minio:RELEASE.2023-09-04T19-57-37Z");
+
+    @TempDir
+    Path tempDir;
+
+    private S3Client s3Client;
+
+    private ObjectStoreFileStorage objectStoreFileStorage;
+
+    @BeforeAll
+    void setup() {
+        s3Client = S3Client.builder()
+                .endpointOverride(URI.create(minioContainer.getS3URL()))
+                .region(Region.US_EAST_1)
+                .credentialsProvider(StaticCredentialsProvider.create(
+                        AwsBasicCredentials.create(minioContainer.getUserName(), minioContainer.getPassword())))
+                .forcePathStyle(true)
+                .build();
+        s3Client.createBucket(CreateBucketRequest.builder().bucket(BUCKET).build());
+
+        objectStoreFileStorage = new ObjectStoreFileStorage(s3Client, new FilePathManager(),
+                new ThumbnailRenderer(108, 380, 640), mock(ThumbnailFileManager.class),
+                new ThumbnailCache(new SimpleMeterRegistry(), DataSize.ofMegabytes(1)),
+                new IconResolver(System.getProperty("java.io.tmpdir"), Map.of()));
+        objectStoreFileStorage.setBucket(BUCKET);
+        objectStoreFileStorage.setMultipartThreshold(DataSize.ofMegabytes(6));
+        objectStoreFileStorage.setPartSize(DataSize.ofMegabytes(5));
+    }
+
+    @AfterAll
+    void tearDown() {
+        s3Client.close();
+    }
+
+    @Test
+    void shouldStoreAndReadBack_WhenBelowMultipartThreshold() throws Exception {
+        byte[] content = randomBytes(64 * 1024);
+        MediaFileMetadata metadata = TestObjectsBuilder.buildMetadata(null);
+        metadata.setLogicalPath(null);
+
+        Optional<MediaFileMetadata> saved = objectStoreFileStorage.saveFile(write(content), metadata);
+
+        assertTrue(saved.isPresent());
+        assertNotNull(saved.get().getLogicalPath());
+        assertArrayEquals(content, objectStoreFileStorage.getFileBinary(saved.get()).orElseThrow());
+    }
+
+    @Test
+    void shouldUploadInParts_AndServeRanges_WhenAboveMultipartThreshold() throws Exception {
+        byte[] content = randomBytes(12 * 1024 * 1024);
+        MediaFileMetadata metadata = TestObjectsBuilder.buildMetadata(null);
+        metadata.setLogicalPath(null);
+
+        MediaFileMetadata saved = objectStoreFileStorage.saveFile(write(content), metadata).orElseThrow();
+
+        try (FileChannel fc = objectStoreFileStorage.getFileRandomAccess(saved).orElseThrow()) {
+            assertEquals(content.length, fc.size());
+
+            // a range crossing the boundary of the first two parts
+            long start = 5L * 1024 * 1024 - 10;
+            ByteBuffer buffer = ByteBuffer.allocate(20);
+            while (buffer.hasRemaining() && fc.read(buffer, start + buffer.position()) > 0) { }
+            for (int i = 0; i < 20; i++) {
+                assertEquals(content[(int) start + i], buffer.get(i));
+            }
+        }
+    }
+
+    @Test
+    void shouldDeleteObjects() throws Exception {
+        MediaFileMetadata metadata = TestObjectsBuilder.buildMetadata(null);
+        metadata.setLogicalPath(null);
+        MediaFileMetadata saved = objectStoreFileStorage.saveFile(write(randomBytes(1024)), metadata).orElseThrow();
+
+        objectStoreFileStorage.deleteFile(saved);
+
+        assertTrue(objectStoreFileStorage.getFileRandomAccess(saved).isEmpty());
+    }
+
+    private Path write(byte[] content) throws Exception {
+        return Files.write(Files.createTempFile(tempDir, "spool", null), content);
+    }
+
+    private byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+}
@@ -0,0 +1,34 @@
+package com.jumkid.vault.repository;
+
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import com.jumkid.vault.exception.InvalidCursorException;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SearchCursorTest {
+
+    @Test
+    void shouldDecodeSortValues_WhenEncoded() {
+        SearchCursor cursor = new SearchCursor("pit-1", List.of(FieldValue.of(1.5d), FieldValue.of(1704067200000L),
+                FieldValue.of(42L)));
+
+        String encoded = cursor.encode();
+        SearchCursor decoded = SearchCursor.decode(encoded);
+
+        assertTrue(encoded.matches("[A-Za-z0-9_-]+"));
+        assertEquals("pit-1", decoded.pitId());
+        assertEquals(1.5d, decoded.searchAfter().get(0).doubleValue());
+        assertEquals(1704067200000L, decoded.searchAfter().get(1).longValue());
+        assertEquals(42L, decoded.searchAfter().get(2).longValue());
+    }
+
+    @Test
+    void shouldThrowInvalidCursor_WhenCursorIsTampered() {
+        assertThrows(InvalidCursorException.class, () -> SearchCursor.decode("not a cursor"));
+        assertThrows(InvalidCursorException.class, () -> SearchCursor.decode("e30"));
+    }
+
+}
@@ -0,0 +1,199 @@
+package com.jumkid.vault.repository;
+
+import com.jumkid.vault.TestObjectsBuilder;
+import com.jumkid.vault.model.MediaFileMetadata;
+import com.jumkid.vault.repository.mapped.MappedFilePool;
+import com.jumkid.vault.repository.thumbnail.IconResolver;
+import com.jumkid.vault.repository.thumbnail.ThumbnailCache;
+import com.jumkid.vault.repository.thumbnail.ThumbnailFileManager;
+import com.jumkid.vault.repository.thumbnail.ThumbnailRenderer;
+import com.jumkid.vault.repository.tiered.HotTier;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Run the tiered storage with the hdfs storage on the local file system of hadoop as its cold tier
+ */
+class TieredFileStorageTest {
+
+    private static final int FILE_SIZE = 64 * 1024;
+
+    @TempDir
+    Path coldDir;
+
+    @TempDir
+    Path hotDir;
+
+    @TempDir
+    Path spoolDir;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private HadoopFileStorage coldStorage;
+
+    private HotTier hotTier;
+
+    private TieredFileStorage tieredFileStorage;
+
+    @BeforeEach
+    void setup() {
+        Configuration conf = new Configuration();
+        conf.set("fs.defaultFS", "file:///");
+        coldStorage = new HadoopFileStorage(conf, new FilePathManager(),
+                new ThumbnailRenderer(108, 380, 640), mock(ThumbnailFileManager.class),
+                new ThumbnailCache(new SimpleMeterRegistry(), DataSize.ofMegabytes(1)),
+                new IconResolver(System.getProperty("java.io.tmpdir"), Map.of()));
+        coldStorage.setDefaultStorePath(coldDir.toString());
+
+        meterRegistry = new SimpleMeterRegistry();
+        // room for two files of the test
+        hotTier = new HotTier(meterRegistry,
+                new MappedFilePool(meterRegistry, true, DataSize.ofMegabytes(1), DataSize.ofMegabytes(8)),
+                hotDir.toString(), DataSize.ofBytes(2L * FILE_SIZE + 1), DataSize.ofBytes(FILE_SIZE));
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (tieredFileStorage != null) tieredFileStorage.shutdown();
+        coldStorage.close();
+    }
+
+    @Test
+    void shouldKeepHotCopy_WhenWriteThrough() throws Exception {
+        tieredFileStorage = tieredStorage(TieredFileStorage.WriteMode.THROUGH);
+        byte[] content = randomBytes(FILE_SIZE);
+
+        MediaFileMetadata saved = tieredFileStorage.saveFile(write(content), newMetadata("file-1")).orElseThrow();
+
+        assertArrayEquals(content, coldStorage.getFileBinary(saved).orElseThrow());
+        assertArrayEquals(content, tieredFileStorage.getFileBinary(saved).orElseThrow());
+        assertEquals(1.0, meterRegistry.get("vault.storage.tier.hit.ratio").tag("tier", "hot").gauge().value());
+    }
+
+    @Test
+    void shouldPromoteOnRead_AndEvictLeastRecentlyUsed() throws Exception {
+        tieredFileStorage = tieredStorage(TieredFileStorage.WriteMode.THROUGH);
+        MediaFileMetadata[] files = new MediaFileMetadata[3];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = coldStorage.saveFile(write(randomBytes(FILE_SIZE)), newMetadata("file-" + i)).orElseThrow();
+        }
+
+        for (int i = 0; i < files.length; i++) {
+            try (FileChannel fc = tieredFileStorage.getFileRandomAccess(files[i]).orElseThrow()) {
+                assertEquals(FILE_SIZE, fc.size());
+            }
+            final double promoted = i + 1;
+            await(() -> meterRegistry.get("vault.storage.tier.promotions").counter().count() == promoted);
+        }
+
+        assertEquals(3.0, meterRegistry.get("vault.storage.tier.promotions").counter().count());
+        await(() -> meterRegistry.get("vault.storage.tier.evictions").counter().count() >= 1.0);
+        assertEquals(2, Arrays.stream(files).filter(f -> hotTier.peek(f.getId()).isPresent()).count());
+    }
+
+    @Test
+    void shouldCopyToColdTierInBackground_WhenWriteBack() throws Exception {
+        tieredFileStorage = tieredStorage(TieredFileStorage.WriteMode.BACK);
+        byte[] content = randomBytes(FILE_SIZE);
+
+        MediaFileMetadata saved = tieredFileStorage.saveFile(write(content), newMetadata("file-1")).orElseThrow();
+
+        assertNotNull(saved.getLogicalPath());
+        assertArrayEquals(content, tieredFileStorage.getFileBinary(saved).orElseThrow());
+        await(() -> hotTier.getPending(saved.getId()).isEmpty());
+        assertArrayEquals(content, coldStorage.getFileBinary(saved).orElseThrow());
+        assertTrue(hotTier.peek(saved.getId()).isPresent());
+    }
+
+    @Test
+    void shouldRemoveBothCopies_WhenDeleted() throws Exception {
+        tieredFileStorage = tieredStorage(TieredFileStorage.WriteMode.THROUGH);
+        MediaFileMetadata saved = tieredFileStorage.saveFile(write(randomBytes(FILE_SIZE)), newMetadata("file-1"))
+                .orElseThrow();
+
+        tieredFileStorage.deleteFile(saved);
+
+        assertTrue(hotTier.peek(saved.getId()).isEmpty());
+        assertTrue(tieredFileStorage.getFileRandomAccess(saved).isEmpty());
+    }
+
+    @Test
+    void shouldSkipStalePromotion_WhenSavedDuringPromotion() throws Exception {
+        tieredFileStorage = tieredStorage(TieredFileStorage.WriteMode.THROUGH);
+        byte[] stale = randomBytes(FILE_SIZE);
+        byte[] fresh = randomBytes(FILE_SIZE - 1);
+        // the promotion read the cold copy before the save replaced it
+        long generation = hotTier.beginPromotion("file-1");
+
+        MediaFileMetadata saved = tieredFileStorage.saveFile(write(fresh), newMetadata("file-1")).orElseThrow();
+
+        assertFalse(hotTier.promote("file-1", generation, Channels.newChannel(new ByteArrayInputStream(stale))));
+        assertArrayEquals(fresh, Files.readAllBytes(hotTier.peek(saved.getId()).orElseThrow()));
+        assertEquals(0.0, meterRegistry.get("vault.storage.tier.promotions").counter().count());
+        try (var files = Files.list(hotDir)) {
+            assertEquals(1, files.filter(Files::isRegularFile).count());
+        }
+    }
+
+    @Test
+    void shouldSkipStalePromotion_WhenDeletedDuringPromotion() throws Exception {
+        tieredFileStorage = tieredStorage(TieredFileStorage.WriteMode.THROUGH);
+        MediaFileMetadata saved = coldStorage.saveFile(write(randomBytes(FILE_SIZE)), newMetadata("file-1"))
+                .orElseThrow();
+        long generation = hotTier.beginPromotion(saved.getId());
+
+        tieredFileStorage.deleteFile(saved);
+
+        assertFalse(hotTier.promote(saved.getId(), generation,
+                Channels.newChannel(new ByteArrayInputStream(randomBytes(FILE_SIZE)))));
+        assertTrue(hotTier.peek(saved.getId()).isEmpty());
+    }
+
+    @SuppressWarnings("unchecked")
+    private TieredFileStorage tieredStorage(TieredFileStorage.WriteMode writeMode) {
+        return new TieredFileStorage(hotTier, coldStorage, new FilePathManager(), mock(FileMetadata.class),
+                writeMode, 2);
+    }
+
+    private MediaFileMetadata newMetadata(String id) {
+        MediaFileMetadata metadata = TestObjectsBuilder.buildMetadata(id);
+        metadata.setLogicalPath(null);
+        return metadata;
+    }
+
+    private void await(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 100 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    private Path write(byte[] content) throws Exception {
+        return Files.write(Files.createTempFile(spoolDir, "spool", null), content);
+    }
+
+    private byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+}
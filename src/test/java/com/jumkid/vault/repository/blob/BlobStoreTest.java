@@ -0,0 +1,93 @@
+package com.jumkid.vault.repository.blob;
+
+import com.jumkid.vault.repository.FilePathManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class BlobStoreTest {
+
+    private static final byte[] CONTENT = "blob content".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path dataHome;
+
+    private BlobStore blobStore;
+
+    @BeforeEach
+    void setup() {
+        FilePathManager filePathManager = new FilePathManager();
+        ReflectionTestUtils.setField(filePathManager, "dataHomePath", dataHome.toString());
+        blobStore = new BlobStore(filePathManager);
+    }
+
+    @Test
+    void shouldStoreIdenticalContentOnce() throws Exception {
+        String blobId = blobStore.store(CONTENT);
+        assertEquals(blobId, blobStore.store(CONTENT));
+
+        Path source = Files.write(dataHome.resolve("upload.spool"), CONTENT);
+        assertEquals(blobId, blobStore.store(source));
+        assertFalse(Files.exists(source));
+
+        assertEquals(3, blobStore.getRefCount(blobId));
+        assertArrayEquals(CONTENT, Files.readAllBytes(blobStore.getBlobFilePath(blobId)));
+        try (var blobs = Files.list(blobStore.getBlobFilePath(blobId).getParent())) {
+            assertEquals(1, blobs.filter(path -> path.getFileName().toString().equals(blobId)).count());
+        }
+    }
+
+    @Test
+    void shouldDeleteBlob_WhenLastReferenceReleased() throws Exception {
+        String blobId = blobStore.store(CONTENT);
+        blobStore.store(CONTENT);
+
+        assertEquals(1, blobStore.release(blobId));
+        assertTrue(Files.exists(blobStore.getBlobFilePath(blobId)));
+
+        assertEquals(0, blobStore.release(blobId));
+        assertFalse(Files.exists(blobStore.getBlobFilePath(blobId)));
+        assertEquals(0, blobStore.getRefCount(blobId));
+    }
+
+    @Test
+    void shouldHardLinkBlob() throws Exception {
+        String blobId = blobStore.store(CONTENT);
+        Path target = dataHome.resolve("text/20260101/media-1/media-1");
+
+        blobStore.link(blobId, target);
+
+        assertTrue(Files.isSameFile(target, blobStore.getBlobFilePath(blobId)));
+    }
+
+    @Test
+    void shouldCopyBlob_WhenHardLinkUnsupported() throws Exception {
+        // hard links can not cross file systems, so a target on another one gets a copy
+        Path otherFileSystem = Paths.get("/dev/shm");
+        assumeTrue(Files.isWritable(otherFileSystem)
+                && !Files.getFileStore(otherFileSystem).equals(Files.getFileStore(dataHome)));
+        String blobId = blobStore.store(CONTENT);
+        Path targetDir = Files.createTempDirectory(otherFileSystem, "blob-test");
+        Path target = targetDir.resolve("media-1");
+
+        try {
+            blobStore.link(blobId, target);
+
+            assertFalse(Files.isSameFile(target, blobStore.getBlobFilePath(blobId)));
+            assertArrayEquals(CONTENT, Files.readAllBytes(target));
+        } finally {
+            Files.deleteIfExists(target);
+            Files.deleteIfExists(targetDir);
+        }
+    }
+
+}
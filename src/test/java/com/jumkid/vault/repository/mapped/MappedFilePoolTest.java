@@ -0,0 +1,126 @@
+package com.jumkid.vault.repository.mapped;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Random;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedFilePoolTest {
+
+    private static final int FILE_SIZE = 16 * 1024;
+
+    @TempDir
+    Path dataHome;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private MappedFilePool mappedFilePool;
+
+    @BeforeEach
+    void setup() {
+        meterRegistry = new SimpleMeterRegistry();
+        // room for two files of the test
+        mappedFilePool = new MappedFilePool(meterRegistry, true, DataSize.ofBytes(FILE_SIZE),
+                DataSize.ofBytes(2L * FILE_SIZE + 1));
+    }
+
+    @Test
+    void shouldKeepLeasedBufferReadable_AfterMappingInvalidated() throws Exception {
+        //given
+        byte[] content = randomBytes(FILE_SIZE, 1);
+        Path file = Files.write(dataHome.resolve("file-1"), content);
+        MappedFilePool.Lease first = mappedFilePool.acquire(file).orElseThrow();
+        MappedFilePool.Lease second = mappedFilePool.acquire(file).orElseThrow();
+        //when the pool drops its reference, and a lease is closed twice
+        mappedFilePool.invalidate(file);
+        first.close();
+        first.close();
+        //then the mapping stays until the last lease is closed
+        assertArrayEquals(content, bytes(second.buffer()));
+        second.close();
+
+        try (MappedFilePool.Lease third = mappedFilePool.acquire(file).orElseThrow()) {
+            assertArrayEquals(content, bytes(third.buffer()));
+        }
+    }
+
+    @Test
+    void shouldEvictLeastRecentlyUsed_WhenTotalSizeExceeded() throws Exception {
+        //given
+        Path[] files = new Path[3];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = Files.write(dataHome.resolve("file-" + i), randomBytes(FILE_SIZE, i));
+        }
+        MappedFilePool.Lease leased = mappedFilePool.acquire(files[0]).orElseThrow();
+        //when
+        for (int i = 1; i < files.length; i++) {
+            mappedFilePool.acquire(files[i]).orElseThrow().close();
+        }
+        //then
+        await(() -> meterRegistry.get("cache.evictions").functionCounter().count() >= 1.0);
+        assertTrue(meterRegistry.get("cache.size").gauge().value() <= 2.0);
+        // an evicted mapping still leased out is readable until the lease is closed
+        assertArrayEquals(randomBytes(FILE_SIZE, 0), bytes(leased.buffer()));
+        leased.close();
+    }
+
+    @Test
+    void shouldMapAgain_WhenFileReplaced() throws Exception {
+        //given
+        Path file = Files.write(dataHome.resolve("file-1"), randomBytes(FILE_SIZE, 1));
+        try (MappedFilePool.Lease lease = mappedFilePool.acquire(file).orElseThrow()) {
+            assertArrayEquals(randomBytes(FILE_SIZE, 1), bytes(lease.buffer()));
+        }
+        //when the file is replaced with a copy of another size and time
+        Path replacement = Files.write(dataHome.resolve("replacement"), randomBytes(FILE_SIZE - 1, 2));
+        Files.setLastModifiedTime(replacement, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 1000));
+        Files.move(replacement, file, StandardCopyOption.REPLACE_EXISTING);
+        //then
+        try (MappedFilePool.Lease lease = mappedFilePool.acquire(file).orElseThrow()) {
+            assertEquals(FILE_SIZE - 1, lease.size());
+            assertArrayEquals(randomBytes(FILE_SIZE - 1, 2), bytes(lease.buffer()));
+        }
+    }
+
+    @Test
+    void shouldNotMap_WhenFileTooLargeOrMissing() throws Exception {
+        Path large = Files.write(dataHome.resolve("large"), randomBytes(FILE_SIZE + 1, 1));
+        Path missing = dataHome.resolve("missing");
+
+        assertTrue(mappedFilePool.acquire(large).isEmpty());
+        assertTrue(mappedFilePool.acquire(missing).isEmpty());
+        assertTrue(new MappedFilePool(meterRegistry, false, DataSize.ofBytes(FILE_SIZE), DataSize.ofBytes(FILE_SIZE))
+                .acquire(Files.write(dataHome.resolve("small"), new byte[]{1})).isEmpty());
+    }
+
+    private byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private byte[] randomBytes(int size, long seed) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private void await(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 100 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+}
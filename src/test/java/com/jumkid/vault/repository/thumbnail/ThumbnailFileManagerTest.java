@@ -0,0 +1,147 @@
+package com.jumkid.vault.repository.thumbnail;
+
+import com.jumkid.vault.TestObjectsBuilder;
+import com.jumkid.vault.enums.ThumbnailNamespace;
+import com.jumkid.vault.model.MediaFileMetadata;
+import com.jumkid.vault.repository.FileMetadata;
+import com.jumkid.vault.repository.FilePathManager;
+import com.jumkid.vault.repository.mapped.MappedFilePool;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static com.jumkid.vault.util.Constants.PROP_FEATURED_ID;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ThumbnailFileManagerTest {
+
+    private static final String FEATURED_ID = "1";
+
+    @TempDir
+    Path dataHome;
+
+    private FileMetadata<MediaFileMetadata> metadataStorage;
+
+    private ThumbnailCache thumbnailCache;
+
+    private ThumbnailFileManager thumbnailFileManager;
+
+    private MediaFileMetadata featured;
+
+    private MediaFileMetadata gallery;
+
+    private byte[] galleryIcon;
+
+    private ThumbnailJobJournal thumbnailJobJournal;
+
+    private IconResolver iconResolver;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setup() throws Exception {
+        FilePathManager filePathManager = new FilePathManager();
+        ReflectionTestUtils.setField(filePathManager, "dataHomePath", dataHome.toString());
+        metadataStorage = mock(FileMetadata.class);
+        thumbnailCache = new ThumbnailCache(new SimpleMeterRegistry(), DataSize.ofMegabytes(1));
+        iconResolver = new IconResolver(dataHome.toString(), Map.of());
+        thumbnailJobJournal = new ThumbnailJobJournal(filePathManager);
+
+        thumbnailFileManager = new ThumbnailFileManager(filePathManager, metadataStorage,
+                thumbnailJobJournal, mock(ThumbnailRenderer.class), thumbnailCache,
+                new MappedFilePool(new SimpleMeterRegistry(), false, DataSize.ofMegabytes(1), DataSize.ofMegabytes(1)),
+                iconResolver);
+
+        galleryIcon = "gallery-icon".getBytes(StandardCharsets.UTF_8);
+        Path iconPath = Paths.get(iconResolver.getIconFilePath("gallery"));
+        Files.createDirectories(iconPath.getParent());
+        Files.write(iconPath, galleryIcon);
+
+        featured = TestObjectsBuilder.buildMetadata(FEATURED_ID);
+        featured.setMimeType("image/png");
+        when(metadataStorage.getMetadata(FEATURED_ID)).thenReturn(Optional.of(featured));
+
+        gallery = TestObjectsBuilder.buildGalleryMetadata("gallery-1");
+        gallery.addProp(PROP_FEATURED_ID, FEATURED_ID);
+    }
+
+    @Test
+    void shouldServeNewFeaturedThumbnail_WhenFeaturedFileReplaced() throws Exception {
+        //given
+        writeThumbnail("v1");
+        assertEquals("v1", galleryThumbnail());
+        //when
+        writeThumbnail("v2");
+        thumbnailCache.invalidate(FEATURED_ID);
+        //then
+        assertEquals("v2", galleryThumbnail());
+    }
+
+    @Test
+    void shouldServeGalleryIcon_WhenFeaturedFileTrashed() throws Exception {
+        //given
+        writeThumbnail("v1");
+        assertEquals("v1", galleryThumbnail());
+        //when
+        featured.setActivated(false);
+        //then
+        assertArrayEquals(galleryIcon, thumbnailFileManager.getThumbnail(gallery, ThumbnailNamespace.SMALL).orElseThrow());
+    }
+
+    @Test
+    void shouldServeGalleryIcon_WhenFeaturedFileRemovedFromGallery() throws Exception {
+        //given
+        writeThumbnail("v1");
+        assertEquals("v1", galleryThumbnail());
+        //when
+        gallery.setChildren(List.of(TestObjectsBuilder.buildMetadata("2")));
+        //then
+        assertArrayEquals(galleryIcon, thumbnailFileManager.getThumbnail(gallery, ThumbnailNamespace.SMALL).orElseThrow());
+    }
+
+    @Test
+    void shouldServeUncachedIcon_WhileThumbnailPending() throws Exception {
+        //given
+        byte[] imageIcon = "image-icon".getBytes(StandardCharsets.UTF_8);
+        Path iconPath = Paths.get(iconResolver.getIconFilePath(featured.getMimeType()));
+        Files.createDirectories(iconPath.getParent());
+        Files.write(iconPath, imageIcon);
+        thumbnailJobJournal.add(FEATURED_ID, dataHome.resolve("source"));
+        writeThumbnail("v1");
+        //when
+        Optional<byte[]> pending = thumbnailFileManager.getThumbnail(featured, ThumbnailNamespace.SMALL);
+        //then
+        assertArrayEquals(imageIcon, pending.orElseThrow());
+        assertTrue(thumbnailCache.get(FEATURED_ID, ThumbnailNamespace.SMALL).isEmpty());
+        assertTrue(thumbnailFileManager.getMappedThumbnail(featured, ThumbnailNamespace.SMALL).isEmpty());
+
+        thumbnailJobJournal.remove(FEATURED_ID);
+        assertEquals("v1", new String(thumbnailFileManager.getThumbnail(featured, ThumbnailNamespace.SMALL).orElseThrow(),
+                StandardCharsets.UTF_8));
+    }
+
+    private String galleryThumbnail() throws Exception {
+        return new String(thumbnailFileManager.getThumbnail(gallery, ThumbnailNamespace.SMALL).orElseThrow(),
+                StandardCharsets.UTF_8);
+    }
+
+    private void writeThumbnail(String content) throws Exception {
+        Path thumbnailPath = Paths.get(dataHome.toString(), featured.getLogicalPath(), FEATURED_ID
+                + ThumbnailNamespace.SMALL_SUFFIX.value() + "." + ThumbnailFileManager.THUMBNAIL_FILE_EXTEND);
+        Files.createDirectories(thumbnailPath.getParent());
+        Files.writeString(thumbnailPath, content);
+    }
+
+}
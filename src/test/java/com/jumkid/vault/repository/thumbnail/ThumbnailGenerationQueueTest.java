@@ -0,0 +1,171 @@
+package com.jumkid.vault.repository.thumbnail;
+
+import com.jumkid.vault.repository.FilePathManager;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ThumbnailGenerationQueueTest {
+
+    @TempDir
+    Path dataHome;
+
+    private FilePathManager filePathManager;
+
+    private ThumbnailFileManager thumbnailFileManager;
+
+    private ThumbnailGenerationQueue thumbnailGenerationQueue;
+
+    @BeforeEach
+    void setup() {
+        filePathManager = new FilePathManager();
+        ReflectionTestUtils.setField(filePathManager, "dataHomePath", dataHome.toString());
+        thumbnailFileManager = mock(ThumbnailFileManager.class);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (thumbnailGenerationQueue != null) thumbnailGenerationQueue.shutdown();
+    }
+
+    @Test
+    void shouldResumePendingJobs_AfterRestart() throws Exception {
+        //given jobs journaled before a restart, one of them lost its source image since
+        Path image = Files.write(dataHome.resolve("image-1"), new byte[]{1, 2, 3});
+        ThumbnailJobJournal journalBeforeRestart = new ThumbnailJobJournal(filePathManager);
+        journalBeforeRestart.add("file-1", image);
+        journalBeforeRestart.add("file-2", dataHome.resolve("image-2"));
+        //when
+        ThumbnailJobJournal thumbnailJobJournal = new ThumbnailJobJournal(filePathManager);
+        thumbnailJobJournal.load();
+        assertTrue(thumbnailJobJournal.isPending("file-1"));
+        assertTrue(thumbnailJobJournal.isPending("file-2"));
+        thumbnailGenerationQueue = thumbnailGenerationQueue(thumbnailJobJournal, 1, 10);
+        thumbnailGenerationQueue.resumePendingJobs();
+        //then
+        verify(thumbnailFileManager, timeout(5000)).generateThumbnail(image);
+        verify(thumbnailFileManager, never()).generateThumbnail(dataHome.resolve("image-2"));
+        await(() -> thumbnailJobJournal.size() == 0);
+        assertTrue(new ThumbnailJobJournal(filePathManager).getPendingJobs().isEmpty());
+    }
+
+    @Test
+    void shouldKeepJobPending_UntilThumbnailGenerated() throws Exception {
+        //given
+        Path image = Files.write(dataHome.resolve("image-1"), new byte[]{1, 2, 3});
+        ThumbnailJobJournal thumbnailJobJournal = new ThumbnailJobJournal(filePathManager);
+        CountDownLatch rendering = new CountDownLatch(1);
+        CountDownLatch rendered = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            rendering.countDown();
+            assertTrue(rendered.await(5, TimeUnit.SECONDS));
+            return null;
+        }).when(thumbnailFileManager).generateThumbnail(image);
+        thumbnailGenerationQueue = thumbnailGenerationQueue(thumbnailJobJournal, 1, 10);
+        //when
+        thumbnailGenerationQueue.submit("file-1", image);
+        //then
+        assertTrue(rendering.await(5, TimeUnit.SECONDS));
+        assertTrue(thumbnailJobJournal.isPending("file-1"));
+        assertEquals(Map.of("file-1", image), thumbnailJobJournal.getPendingJobs());
+        rendered.countDown();
+        await(() -> !thumbnailJobJournal.isPending("file-1"));
+        assertTrue(thumbnailJobJournal.getPendingJobs().isEmpty());
+    }
+
+    @Test
+    void shouldKeepJobPending_WhenSubmittedAgainWhileRunning() throws Exception {
+        //given the first job of a media file rendering
+        Path image = Files.write(dataHome.resolve("image-1"), new byte[]{1, 2, 3});
+        ThumbnailJobJournal thumbnailJobJournal = new ThumbnailJobJournal(filePathManager);
+        CountDownLatch firstRendering = new CountDownLatch(1);
+        CountDownLatch firstReleased = new CountDownLatch(1);
+        CountDownLatch secondRendering = new CountDownLatch(1);
+        CountDownLatch secondReleased = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            firstRendering.countDown();
+            assertTrue(firstReleased.await(5, TimeUnit.SECONDS));
+            return null;
+        }).doAnswer(invocation -> {
+            secondRendering.countDown();
+            assertTrue(secondReleased.await(5, TimeUnit.SECONDS));
+            return null;
+        }).when(thumbnailFileManager).generateThumbnail(image);
+        thumbnailGenerationQueue = thumbnailGenerationQueue(thumbnailJobJournal, 1, 10);
+        thumbnailGenerationQueue.submit("file-1", image);
+        assertTrue(firstRendering.await(5, TimeUnit.SECONDS));
+        //when it is submitted again, and the first job finishes
+        thumbnailGenerationQueue.submit("file-1", image);
+        firstReleased.countDown();
+        //then it stays pending until the second job finishes
+        assertTrue(secondRendering.await(5, TimeUnit.SECONDS));
+        assertTrue(thumbnailJobJournal.isPending("file-1"));
+        assertEquals(Map.of("file-1", image), thumbnailJobJournal.getPendingJobs());
+        secondReleased.countDown();
+        await(() -> !thumbnailJobJournal.isPending("file-1"));
+        assertTrue(thumbnailJobJournal.getPendingJobs().isEmpty());
+        assertEquals(0, thumbnailJobJournal.size());
+    }
+
+    @Test
+    void shouldRenderOnCallerThread_WhenQueueFull() throws Exception {
+        //given one worker busy and its queue of one job full
+        ThumbnailJobJournal thumbnailJobJournal = new ThumbnailJobJournal(filePathManager);
+        CountDownLatch rendering = new CountDownLatch(1);
+        CountDownLatch released = new CountDownLatch(1);
+        List<String> renderThreads = new CopyOnWriteArrayList<>();
+        doAnswer(invocation -> {
+            renderThreads.add(Thread.currentThread().getName());
+            if (invocation.<Path>getArgument(0).endsWith("image-1")) {
+                rendering.countDown();
+                assertTrue(released.await(5, TimeUnit.SECONDS));
+            }
+            return null;
+        }).when(thumbnailFileManager).generateThumbnail(any(Path.class));
+        thumbnailGenerationQueue = thumbnailGenerationQueue(thumbnailJobJournal, 1, 1);
+        thumbnailGenerationQueue.submit("file-1", dataHome.resolve("image-1"));
+        assertTrue(rendering.await(5, TimeUnit.SECONDS));
+        thumbnailGenerationQueue.submit("file-2", dataHome.resolve("image-2"));
+        //when
+        thumbnailGenerationQueue.submit("file-3", dataHome.resolve("image-3"));
+        //then the submitting thread rendered the job itself before returning
+        assertEquals(List.of(Thread.currentThread().getName()), renderThreads.subList(1, renderThreads.size()));
+        assertFalse(thumbnailJobJournal.isPending("file-3"));
+        assertTrue(thumbnailJobJournal.isPending("file-2"));
+        released.countDown();
+        await(() -> thumbnailJobJournal.size() == 0);
+        assertEquals(3, renderThreads.size());
+    }
+
+    private ThumbnailGenerationQueue thumbnailGenerationQueue(ThumbnailJobJournal thumbnailJobJournal, int workers,
+                                                              int queueCapacity) {
+        return new ThumbnailGenerationQueue(thumbnailFileManager, thumbnailJobJournal,
+                new ThumbnailCache(new SimpleMeterRegistry(), DataSize.ofMegabytes(1)), new SimpleMeterRegistry(),
+                workers, queueCapacity);
+    }
+
+    private void await(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 100 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+}
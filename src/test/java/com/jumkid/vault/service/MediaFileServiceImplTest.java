@@ -5,21 +5,33 @@ import com.jumkid.share.user.UserProfileManager;
 import com.jumkid.vault.TestObjectsBuilder;
 import com.jumkid.vault.controller.dto.MediaFile;
 import com.jumkid.vault.enums.MediaFileModule;
+import com.jumkid.vault.enums.ThumbnailNamespace;
 import com.jumkid.vault.exception.FileNotAvailableException;
 import com.jumkid.vault.exception.FileNotFoundException;
 import com.jumkid.vault.exception.FileStoreServiceException;
 import com.jumkid.vault.exception.GalleryNotFoundException;
+import com.jumkid.vault.exception.InvalidFieldException;
 import com.jumkid.vault.model.MediaFileMetadata;
+import com.jumkid.vault.model.SearchPage;
 import com.jumkid.vault.repository.MetadataStorage;
+import com.jumkid.vault.repository.FileStorageRouter;
 import com.jumkid.vault.repository.HadoopFileStorage;
 import com.jumkid.vault.repository.LocalFileStorage;
+import com.jumkid.vault.repository.ObjectStoreFileStorage;
+import com.jumkid.vault.repository.TieredFileStorage;
+import com.jumkid.vault.repository.spool.FileSpoolManager;
+import com.jumkid.vault.repository.thumbnail.ThumbnailCache;
+import com.jumkid.vault.service.enrich.EnrichmentQueue;
 import com.jumkid.vault.service.enrich.MetadataEnricher;
+import com.jumkid.vault.service.extract.ExtractionQueue;
 import com.jumkid.vault.service.handler.DTOHandler;
+import com.jumkid.vault.service.ingest.ParallelIngestExecutor;
 import com.jumkid.vault.service.mapper.MediaFileMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
+import org.mockito.InOrder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
@@ -27,12 +39,26 @@ import org.springframework.boot.autoconfigure.jdbc.DataSourceTransactionManagerA
 import org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.core.io.ByteArrayResource;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static com.jumkid.vault.TestObjectsBuilder.DUMMY_ID;
 
@@ -51,14 +77,30 @@ class MediaFileServiceImplTest {
     @MockBean
     private LocalFileStorage localFileStorage;
     @MockBean
+    private ObjectStoreFileStorage objectStoreFileStorage;
+    @MockBean
+    private TieredFileStorage tieredFileStorage;
+    @MockBean
     private UserProfileManager userProfileManager;
     @Autowired
     private MetadataEnricher metadataEnricher;
+    @Autowired
+    private EnrichmentQueue enrichmentQueue;
+    @Autowired
+    private ExtractionQueue extractionQueue;
+    @Autowired
+    private FileSpoolManager fileSpoolManager;
+    @Autowired
+    private ThumbnailCache thumbnailCache;
+    @Autowired
+    private ParallelIngestExecutor parallelIngestExecutor;
     @MockBean
     private DTOHandler dtoHandler;
     @MockBean
     private MediaFileSecurityService securityService;
 
+    private FileStorageRouter fileStorageRouter;
+
     private MediaFileServiceImpl mediaFileService;
 
     @Autowired
@@ -72,9 +114,10 @@ class MediaFileServiceImplTest {
         mediaFile = TestObjectsBuilder.buildMediaFile(null);
         mediaFileMetadata = TestObjectsBuilder.buildMetadata(null);
 
-        mediaFileService = new MediaFileServiceImpl(metadataStorage, hadoopFileStorage, localFileStorage,
-                mediaFileMapper, securityService, metadataEnricher, dtoHandler);
-        mediaFileService.setStorageMode("local");
+        fileStorageRouter = new FileStorageRouter(hadoopFileStorage, localFileStorage, objectStoreFileStorage,
+                tieredFileStorage, "local", "local");
+        mediaFileService = new MediaFileServiceImpl(metadataStorage, fileStorageRouter, mediaFileMapper,
+                securityService, metadataEnricher, enrichmentQueue, extractionQueue, fileSpoolManager, thumbnailCache, parallelIngestExecutor, dtoHandler);
 
         UserProfile testUser = UserProfile.builder().username("test").id("test").build();
         when(userProfileManager.fetchUserProfile()).thenReturn(testUser);
@@ -137,21 +180,157 @@ class MediaFileServiceImplTest {
         assertEquals(mediaFile, savedMediaFile);
     }
 
+    @Test
+    void shouldAddMediaFileWithFileSource() throws FileStoreServiceException {
+        //given
+        final MediaFile streamMediaFile = TestObjectsBuilder.buildMediaFile(null);
+        streamMediaFile.setFile(null);
+        streamMediaFile.setFileSource(new ByteArrayResource(new byte[TestObjectsBuilder.DEFAULT_SIZE]));
+        final Path[] spooledPath = new Path[1];
+
+        when(metadataStorage.saveMetadata(any(MediaFileMetadata.class))).thenReturn(mediaFileMetadata);
+        when(localFileStorage.saveFile(any(Path.class), any(MediaFileMetadata.class))).thenAnswer(invocation -> {
+            spooledPath[0] = invocation.getArgument(0);
+            assertTrue(Files.exists(spooledPath[0]));
+            assertEquals(TestObjectsBuilder.DEFAULT_SIZE, Files.size(spooledPath[0]));
+            return Optional.of(mediaFileMetadata);
+        });
+        //when
+        MediaFile savedMediaFile = mediaFileService.addMediaFile(streamMediaFile, MediaFileModule.FILE);
+        //then
+        assertEquals(streamMediaFile, savedMediaFile);
+        assertNotNull(spooledPath[0]);
+        assertFalse(Files.exists(spooledPath[0]));
+    }
+
+    @Test
+    void shouldThrowException_WhenFileSourceMetadataNotIndexed() throws FileStoreServiceException {
+        //given
+        final MediaFile streamMediaFile = TestObjectsBuilder.buildMediaFile(null);
+        streamMediaFile.setFile(null);
+        streamMediaFile.setFileSource(new ByteArrayResource(new byte[TestObjectsBuilder.DEFAULT_SIZE]));
+        final MediaFileMetadata notIndexed = TestObjectsBuilder.buildMetadata(null);
+        notIndexed.setId(null);
+
+        when(metadataStorage.saveMetadata(any(MediaFileMetadata.class))).thenReturn(notIndexed);
+        //when
+        assertThrows(FileStoreServiceException.class,
+                () -> mediaFileService.addMediaFile(streamMediaFile, MediaFileModule.FILE));
+        //then
+        verify(localFileStorage, never()).saveFile(any(Path.class), argThat(metadata -> metadata.getId() == null));
+    }
+
+    @Test
+    void shouldAddMediaFileWithSingleWrite() throws FileStoreServiceException {
+        //given
+        final MediaFile singleWriteMediaFile = TestObjectsBuilder.buildMediaFile(null);
+        final String contentUuid = UUID.nameUUIDFromBytes(singleWriteMediaFile.getFile()).toString();
+        final MediaFileServiceImpl singleWriteService = new MediaFileServiceImpl(metadataStorage, fileStorageRouter,
+                mediaFileMapper, securityService, metadataEnricher, enrichmentQueue, extractionQueue, fileSpoolManager, thumbnailCache,
+                parallelIngestExecutor, dtoHandler);
+        singleWriteService.setIngestMode("single_write");
+
+        when(metadataStorage.getMetadata(contentUuid)).thenReturn(Optional.empty());
+        when(localFileStorage.saveFile(eq(singleWriteMediaFile.getFile()), argThat(metadata -> contentUuid.equals(metadata.getId()))))
+                .thenAnswer(invocation -> Optional.of(invocation.getArgument(1)));
+        when(metadataStorage.createMetadata(any(MediaFileMetadata.class)))
+                .thenAnswer(invocation -> Optional.of(invocation.getArgument(0)));
+        //when
+        MediaFile savedMediaFile = singleWriteService.addMediaFile(singleWriteMediaFile, MediaFileModule.FILE);
+        //then
+        assertEquals(contentUuid, savedMediaFile.getUuid());
+        verify(metadataStorage).createMetadata(argThat(metadata -> contentUuid.equals(metadata.getId())));
+        verify(metadataStorage, never()).updateLogicalPath(eq(contentUuid), any());
+    }
+
+    @Test
+    void shouldStoreUnderRandomId_WhenContentIdTakenConcurrently() throws Exception {
+        //given
+        final MediaFile singleWriteMediaFile = TestObjectsBuilder.buildMediaFile(null);
+        final String contentUuid = UUID.nameUUIDFromBytes(singleWriteMediaFile.getFile()).toString();
+        final MediaFileServiceImpl singleWriteService = new MediaFileServiceImpl(metadataStorage, fileStorageRouter,
+                mediaFileMapper, securityService, metadataEnricher, enrichmentQueue, extractionQueue, fileSpoolManager, thumbnailCache,
+                parallelIngestExecutor, dtoHandler);
+        singleWriteService.setIngestMode("single_write");
+        final Path storedFile = Files.createTempFile("stored-", ".html");
+        Files.write(storedFile, singleWriteMediaFile.getFile());
+        // the uuid is free when checked, and taken by an upload of the same content on another day before create
+        final MediaFileMetadata existing = TestObjectsBuilder.buildMetadata(contentUuid);
+        existing.setLogicalPath("/text/19700101/" + contentUuid);
+        when(metadataStorage.getMetadata(contentUuid)).thenReturn(Optional.empty(), Optional.of(existing));
+        when(localFileStorage.saveFile(any(byte[].class), any(MediaFileMetadata.class))).thenAnswer(invocation -> {
+            MediaFileMetadata metadata = invocation.getArgument(1);
+            metadata.setLogicalPath("/text/20260101/" + metadata.getId());
+            return Optional.of(metadata);
+        });
+        when(localFileStorage.getFileRandomAccess(argThat(metadata -> contentUuid.equals(metadata.getId()))))
+                .thenAnswer(invocation -> Optional.of(FileChannel.open(storedFile)));
+        when(localFileStorage.saveFile(any(Path.class), any(MediaFileMetadata.class)))
+                .thenAnswer(invocation -> Optional.of(invocation.getArgument(1)));
+        when(metadataStorage.createMetadata(any(MediaFileMetadata.class)))
+                .thenAnswer(invocation -> contentUuid.equals(invocation.<MediaFileMetadata>getArgument(0).getId())
+                        ? Optional.empty() : Optional.of(invocation.getArgument(0)));
+        final List<String> deletedPaths = new ArrayList<>();
+        doAnswer(invocation -> deletedPaths.add(invocation.<MediaFileMetadata>getArgument(0).getLogicalPath()))
+                .when(localFileStorage).deleteFile(any(MediaFileMetadata.class));
+        //when
+        MediaFile savedMediaFile = singleWriteService.addMediaFile(singleWriteMediaFile, MediaFileModule.FILE);
+        //then
+        assertNotEquals(contentUuid, savedMediaFile.getUuid());
+        assertEquals(List.of("/text/20260101/" + contentUuid), deletedPaths);
+        verify(metadataStorage, times(2)).createMetadata(any(MediaFileMetadata.class));
+        Files.deleteIfExists(storedFile);
+    }
+
+    @Test
+    void shouldAddMediaFilesInOrder_WithPerFileFailure() throws FileStoreServiceException {
+        //given
+        final List<MediaFile> mediaFiles = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            MediaFile batchMediaFile = TestObjectsBuilder.buildMediaFile(null);
+            batchMediaFile.setFilename("batch-" + i + ".html");
+            batchMediaFile.setFile(("batch content " + i).getBytes());
+            mediaFiles.add(batchMediaFile);
+        }
+
+        when(metadataStorage.saveAll(anyList())).thenAnswer(invocation -> {
+            List<MediaFileMetadata> metadataList = invocation.getArgument(0);
+            metadataList.forEach(metadata -> metadata.setId(UUID.randomUUID().toString()));
+            return metadataList;
+        });
+        when(localFileStorage.saveFile(any(Path.class), any(MediaFileMetadata.class)))
+                .thenAnswer(invocation -> {
+                    MediaFileMetadata metadata = invocation.getArgument(1);
+                    return "batch-1.html".equals(metadata.getFilename()) ? Optional.empty() : Optional.of(metadata);
+                });
+        //when
+        List<MediaFile> savedMediaFiles = mediaFileService.addMediaFiles(mediaFiles, MediaFileModule.FILE);
+        //then
+        assertEquals(3, savedMediaFiles.size());
+        assertEquals("batch-0.html", savedMediaFiles.get(0).getFilename());
+        assertNull(savedMediaFiles.get(0).getError());
+        assertEquals("batch-1.html", savedMediaFiles.get(1).getFilename());
+        assertNotNull(savedMediaFiles.get(1).getError());
+        assertEquals("batch-2.html", savedMediaFiles.get(2).getFilename());
+        assertNull(savedMediaFiles.get(2).getError());
+    }
+
     @Test
     void shouldAddMediaGalleryWithBytes() throws FileStoreServiceException {
         //given
         final MediaFile mediaGallery = TestObjectsBuilder.buildMediaGallery(null);
         final MediaFileMetadata mediaFileMetadata = TestObjectsBuilder.buildGalleryMetadata(null);
-        MediaFileMetadata child1 = mediaFileMetadata.getChildren().get(0);
-        MediaFileMetadata child2 = mediaFileMetadata.getChildren().get(1);
 
         when(metadataStorage.saveMetadata(mediaFileMetadata)).thenReturn(mediaFileMetadata);
-        when(metadataStorage.saveMetadata(child1)).thenReturn(child1);
-        when(metadataStorage.saveMetadata(child2)).thenReturn(child2);
+        when(metadataStorage.saveAll(anyList())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(localFileStorage.saveFile(any(Path.class), any(MediaFileMetadata.class)))
+                .thenAnswer(invocation -> Optional.of(invocation.getArgument(1)));
         //when
         MediaFile savedMediaFile = mediaFileService.addMediaGallery(mediaGallery);
         //then
         assertEquals(mediaGallery, savedMediaFile);
+        verify(metadataStorage, never()).saveMetadata(argThat(metadata -> metadata.getModule() == MediaFileModule.FILE));
+        verify(metadataStorage).updateAll(anyMap());
     }
 
     @Test
@@ -168,6 +347,31 @@ class MediaFileServiceImplTest {
         assertEquals(mediaFile, savedMediaFile);
     }
 
+    @Test
+    void shouldQueueExtraction_AfterUpdateMediaFileWithBytes() throws Exception {
+        //given
+        final String mediaFileId = mediaFile.getUuid();
+        final MediaFileMetadata mediaFileMetadata = TestObjectsBuilder.buildMetadata(mediaFileId);
+        final ExtractionQueue mockExtractionQueue = mock(ExtractionQueue.class);
+        final MediaFileServiceImpl updateService = new MediaFileServiceImpl(metadataStorage, fileStorageRouter,
+                mediaFileMapper, securityService, metadataEnricher, enrichmentQueue, mockExtractionQueue, fileSpoolManager,
+                thumbnailCache, parallelIngestExecutor, dtoHandler);
+
+        when(metadataStorage.getMetadata(mediaFileId)).thenReturn(Optional.of(mediaFileMetadata));
+        when(localFileStorage.saveFile(any(byte[].class), any(MediaFileMetadata.class)))
+                .thenAnswer(invocation -> Optional.of(invocation.getArgument(1)));
+        //the update request fetches no source, the indexed metadata is not returned
+        when(metadataStorage.updateMetadata(eq(mediaFileId), any(MediaFileMetadata.class))).thenReturn(null);
+        //when
+        MediaFile updated = updateService.updateMediaFile(mediaFileId, mediaFile, mediaFile.getFile());
+        //then
+        InOrder inOrder = inOrder(metadataStorage, mockExtractionQueue);
+        inOrder.verify(metadataStorage).updateMetadata(eq(mediaFileId), argThat(metadata -> Boolean.FALSE.equals(metadata.getExtracted())));
+        inOrder.verify(mockExtractionQueue).submit(argThat(metadata -> mediaFileId.equals(metadata.getId())
+                && Boolean.FALSE.equals(metadata.getExtracted())));
+        assertEquals(mediaFileId, updated.getUuid());
+    }
+
     @Test
     void shouldThrowException_WhenUpdateMediaFileWithInvalidId() throws FileStoreServiceException {
         //given
@@ -239,6 +443,21 @@ class MediaFileServiceImplTest {
         assertNotNull(updateMediaFile);
     }
 
+    @Test
+    void shouldNotGetCachedThumbnail_WhenFileTrashed() throws FileStoreServiceException {
+        //given
+        final String cachedId = "cached-thumbnail-id";
+        final MediaFileMetadata metadata = TestObjectsBuilder.buildMetadata(cachedId);
+        metadata.setActivated(false);
+        thumbnailCache.put(cachedId, ThumbnailNamespace.SMALL, new byte[TestObjectsBuilder.DEFAULT_SIZE]);
+        when(metadataStorage.getMetadata(cachedId)).thenReturn(Optional.of(metadata));
+        //when
+        Optional<byte[]> result = mediaFileService.getThumbnail(cachedId, ThumbnailNamespace.SMALL);
+        //then
+        assertTrue(result.isEmpty());
+        verify(localFileStorage, never()).getThumbnail(any(), any());
+    }
+
     @Test
     void shouldGetNewGallery_WhenCloneMediaGallery() throws FileStoreServiceException {
         //given
@@ -254,4 +473,41 @@ class MediaFileServiceImplTest {
         assertEquals(gallery.getChildren().size(), newGallery.getChildren().size());
     }
 
+    @Test
+    void shouldActivateChildrenNotTrashed_WhenTrashGalleryFails() throws Exception {
+        //given
+        MediaFileMetadata gallery = TestObjectsBuilder.buildGalleryMetadata("gallery-1");
+        when(metadataStorage.getMetadata("gallery-1")).thenReturn(Optional.of(gallery));
+        when(metadataStorage.getMetadata("1")).thenReturn(Optional.of(TestObjectsBuilder.buildMetadata("1")));
+        when(metadataStorage.getMetadata("2")).thenReturn(Optional.of(TestObjectsBuilder.buildMetadata("2")));
+        when(metadataStorage.findChildrenInOtherGallery(any(), any(), any())).thenReturn(List.of());
+        doThrow(new IllegalStateException("disk failure"))
+                .when(localFileStorage).deleteFile(argThat(metadata -> "2".equals(metadata.getId())));
+        //when
+        assertThrows(FileStoreServiceException.class, () -> mediaFileService.trashMediaFile("gallery-1"));
+        //then
+        verify(localFileStorage).deleteFile(argThat(metadata -> "1".equals(metadata.getId())));
+        verify(metadataStorage).updateStatusAll(List.of("2"), true);
+        verify(metadataStorage).updateMetadataStatus("gallery-1", true);
+    }
+
+    @Test
+    void shouldReadSummaryFieldsOnly_WhenSearchWithSummaryFields() throws FileStoreServiceException {
+        //given
+        when(metadataStorage.searchMetadata(anyString(), any(), any(), anyList(), any(), any()))
+                .thenReturn(new SearchPage<>(TestObjectsBuilder.buildListOfMetadata(), null));
+        //when
+        SearchPage<MediaFile> page = mediaFileService.searchMediaFile("*", 10, null, List.of("uuid", "summary", "tags"));
+        //then
+        assertEquals(DUMMY_ID, page.getItems().get(0).getUuid());
+        verify(metadataStorage).searchMetadata(eq("*"), eq(10), isNull(),
+                eq(List.of("title", "mimeType", "size", "createdOn", "tags")), any(), any());
+    }
+
+    @Test
+    void shouldThrowInvalidField_WhenSearchWithUnknownField() {
+        assertThrows(InvalidFieldException.class,
+                () -> mediaFileService.searchMediaFile("*", 10, null, List.of("title", "logicalPath")));
+    }
+
 }
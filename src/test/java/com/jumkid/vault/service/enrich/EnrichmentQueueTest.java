@@ -0,0 +1,147 @@
+package com.jumkid.vault.service.enrich;
+
+import com.jumkid.vault.TestObjectsBuilder;
+import com.jumkid.vault.model.MediaFileMetadata;
+import com.jumkid.vault.model.SearchPage;
+import com.jumkid.vault.repository.FileMetadata;
+import com.jumkid.vault.repository.FileStorage;
+import com.jumkid.vault.repository.FileStorageRouter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+class EnrichmentQueueTest {
+
+    @TempDir
+    Path tempDir;
+
+    private FileMetadata<MediaFileMetadata> metadataStorage;
+
+    private FileStorage<MediaFileMetadata> localFileStorage;
+
+    private MetadataEnricher metadataEnricher;
+
+    private EnrichmentQueue enrichmentQueue;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setup() {
+        metadataStorage = mock(FileMetadata.class);
+        localFileStorage = mock(FileStorage.class);
+        metadataEnricher = mock(MetadataEnricher.class);
+        doAnswer(invocation -> {
+            MediaFileMetadata metadata = invocation.getArgument(0);
+            metadata.addProp("tiff:ImageWidth", 64);
+            return null;
+        }).when(metadataEnricher).enrichProps(any(MediaFileMetadata.class), any(FileChannel.class));
+
+        FileStorageRouter fileStorageRouter = new FileStorageRouter(mock(FileStorage.class), localFileStorage,
+                mock(FileStorage.class), mock(FileStorage.class), "local", "local");
+        enrichmentQueue = new EnrichmentQueue(metadataStorage, fileStorageRouter, metadataEnricher,
+                new SimpleMeterRegistry(), true, 1, 10);
+    }
+
+    @AfterEach
+    void tearDown() {
+        enrichmentQueue.shutdown();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldWriteBackPropsAndFlag_WhenSubmitted() throws Exception {
+        MediaFileMetadata metadata = TestObjectsBuilder.buildMetadata("file-1");
+        metadata.setEnriched(false);
+        Path content = Files.write(tempDir.resolve("file-1"), new byte[]{1, 2, 3});
+        when(metadataStorage.getMetadata("file-1")).thenReturn(Optional.of(metadata));
+        when(localFileStorage.getFileRandomAccess(metadata)).thenAnswer(invocation -> Optional.of(FileChannel.open(content)));
+
+        enrichmentQueue.submit("file-1");
+
+        ArgumentCaptor<Map<String, MediaFileMetadata>> captor = ArgumentCaptor.forClass(Map.class);
+        verify(metadataStorage, timeout(5000)).updateAllIfUnchanged(captor.capture());
+        MediaFileMetadata partial = captor.getValue().get("file-1");
+        assertEquals(Boolean.TRUE, partial.getEnriched());
+        assertTrue(partial.getProps().stream().anyMatch(prop -> "tiff:ImageWidth".equals(prop.getName())));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldParseAgain_WhenUpdatedWhileEnriched() throws Exception {
+        MediaFileMetadata read = TestObjectsBuilder.buildMetadata("file-1");
+        read.setEnriched(false);
+        read.setSeqNo(1L);
+        read.setPrimaryTerm(1L);
+        MediaFileMetadata updated = TestObjectsBuilder.buildMetadata("file-1");
+        updated.setEnriched(false);
+        updated.setSeqNo(2L);
+        updated.setPrimaryTerm(1L);
+        updated.addProp("owner", "user");
+        Path content = Files.write(tempDir.resolve("file-1"), new byte[]{1, 2, 3});
+        when(metadataStorage.getMetadata("file-1")).thenReturn(Optional.of(read), Optional.of(updated));
+        when(localFileStorage.getFileRandomAccess(any(MediaFileMetadata.class)))
+                .thenAnswer(invocation -> Optional.of(FileChannel.open(content)));
+        // the props of the user land between the read and the write back of the first parse
+        List<Map<String, MediaFileMetadata>> writes = new ArrayList<>();
+        when(metadataStorage.updateAllIfUnchanged(any())).thenAnswer(invocation -> {
+            writes.add(Map.copyOf(invocation.getArgument(0)));
+            return writes.size() == 1 ? List.of("file-1") : List.of();
+        });
+
+        enrichmentQueue.submit("file-1");
+
+        verify(metadataStorage, timeout(5000).times(2)).updateAllIfUnchanged(any());
+        assertEquals(1L, writes.get(0).get("file-1").getSeqNo());
+        MediaFileMetadata partial = writes.get(1).get("file-1");
+        assertEquals(2L, partial.getSeqNo());
+        assertTrue(partial.getProps().stream().anyMatch(prop -> "owner".equals(prop.getName())));
+        assertTrue(partial.getProps().stream().anyMatch(prop -> "tiff:ImageWidth".equals(prop.getName())));
+    }
+
+    @Test
+    void shouldResumeEveryPage_WhenStarted() throws Exception {
+        when(metadataStorage.findNotEnriched(anyInt(), isNull())).thenReturn(new SearchPage<>(
+                List.of(TestObjectsBuilder.buildMetadata("file-1")), "cursor-1"));
+        when(metadataStorage.findNotEnriched(anyInt(), eq("cursor-1"))).thenReturn(new SearchPage<>(
+                List.of(TestObjectsBuilder.buildMetadata("file-2")), null));
+
+        enrichmentQueue.resumePendingEnrichment();
+
+        verify(metadataStorage, timeout(5000)).getMetadata("file-1");
+        verify(metadataStorage, timeout(5000)).getMetadata("file-2");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldMarkEnriched_WhenBinaryMissing() throws Exception {
+        MediaFileMetadata metadata = TestObjectsBuilder.buildMetadata("file-1");
+        metadata.setEnriched(false);
+        when(metadataStorage.getMetadata("file-1")).thenReturn(Optional.of(metadata));
+        when(localFileStorage.getFileRandomAccess(metadata)).thenReturn(Optional.empty());
+
+        enrichmentQueue.enrich(List.of("file-1"));
+
+        ArgumentCaptor<Map<String, MediaFileMetadata>> captor = ArgumentCaptor.forClass(Map.class);
+        verify(metadataStorage).updateAllIfUnchanged(captor.capture());
+        assertEquals(Boolean.TRUE, captor.getValue().get("file-1").getEnriched());
+        verify(metadataEnricher, never()).enrichProps(any(MediaFileMetadata.class), any(FileChannel.class));
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.jumkid.vault.service.enrich;
+
+import com.jumkid.vault.model.MediaFileMetadata;
+import com.jumkid.vault.model.MediaFilePropMetadata;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetadataEnricherTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private MetadataEnricher metadataEnricher;
+
+    @AfterEach
+    void tearDown() {
+        metadataEnricher.shutdown();
+    }
+
+    @Test
+    void shouldParseProperties_WhenMetadataMode() throws Exception {
+        metadataEnricher = enricher(Map.of("default", "1MB"));
+        MediaFileMetadata metadata = MediaFileMetadata.builder().build();
+
+        metadataEnricher.enrichProps(metadata, writeImage());
+
+        assertNotNull(metadata.getProps());
+        assertTrue(metadata.getProps().stream().map(MediaFilePropMetadata::getName)
+                .anyMatch("tiff:ImageWidth"::equals));
+        assertEquals(1, meterRegistry.get("vault.enrich.parse.time")
+                .tags("mimeType", "image/png", "outcome", "success").timer().count());
+    }
+
+    @Test
+    void shouldSkipParsing_WhenOverMaxSizeOfMimeType() throws Exception {
+        metadataEnricher = enricher(Map.of("default", "1MB", "image", "1KB"));
+        MediaFileMetadata metadata = MediaFileMetadata.builder().build();
+
+        metadataEnricher.enrichProps(metadata, writeImage());
+
+        assertNull(metadata.getProps());
+        assertEquals(1, meterRegistry.get("vault.enrich.parse.time")
+                .tags("mimeType", "image/png", "outcome", "skipped").timer().count());
+    }
+
+    private MetadataEnricher enricher(Map<String, String> maxSizes) {
+        return new MetadataEnricher(meterRegistry, "metadata", 1, 1, Map.of("default", "10s"), maxSizes);
+    }
+
+    private Path writeImage() throws Exception {
+        // noise does not compress, keeps the png over a few kilobytes
+        BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < 64; x++) {
+            for (int y = 0; y < 64; y++) image.setRGB(x, y, (x * 31 + y * 17) * 7919);
+        }
+        Path path = tempDir.resolve("image.png");
+        ImageIO.write(image, "png", path.toFile());
+        return path;
+    }
+
+}
@@ -0,0 +1,80 @@
+package com.jumkid.vault.service.extract;
+
+import com.jumkid.vault.model.MediaFileMetadata;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TextExtractorTest {
+
+    private final TextExtractor textExtractor = new TextExtractor(
+            List.of("application/pdf", "text/html", "text/plain"), 100, 1000, DataSize.ofMegabytes(1));
+
+    @Test
+    void shouldExtractText_WhenPdf() throws Exception {
+        List<String> chunks = textExtractor.extract(new ByteArrayInputStream(pdf("quarterly report of the vault")));
+
+        assertEquals(1, chunks.size());
+        assertTrue(chunks.get(0).contains("quarterly report of the vault"));
+    }
+
+    @Test
+    void shouldExtractBodyOnly_WhenHtml() throws Exception {
+        String html = "<html><head><title>ignored title</title></head><body><p>hello vault</p></body></html>";
+
+        List<String> chunks = textExtractor.extract(new ByteArrayInputStream(html.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(List.of("hello vault"), chunks);
+    }
+
+    @Test
+    void shouldCutChunksOnWhitespace_AndStopAtLimit() throws Exception {
+        String text = "lorem ipsum dolor sit amet ".repeat(200);
+
+        List<String> chunks = textExtractor.extract(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+
+        assertTrue(chunks.size() >= 10);
+        assertTrue(chunks.stream().allMatch(chunk -> chunk.length() <= 100));
+        assertTrue(chunks.stream().allMatch(chunk -> chunk.startsWith("lorem") || chunk.startsWith("ipsum")
+                || chunk.startsWith("dolor") || chunk.startsWith("sit") || chunk.startsWith("amet")));
+        assertTrue(chunks.stream().mapToInt(String::length).sum() <= 1000);
+    }
+
+    @Test
+    void shouldSkipBinaries_ByMimeType() {
+        assertTrue(textExtractor.isExtractable(document("application/pdf", 1024)));
+        assertFalse(textExtractor.isExtractable(document("video/mp4", 1024)));
+        assertFalse(textExtractor.isExtractable(document("application/pdf", 2 * 1024 * 1024)));
+    }
+
+    private MediaFileMetadata document(String mimeType, int size) {
+        return MediaFileMetadata.builder().id("doc-1").mimeType(mimeType).size(size).logicalPath("/doc").build();
+    }
+
+    static byte[] pdf(String text) throws Exception {
+        try (PDDocument document = new PDDocument(); ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            PDPage page = new PDPage();
+            document.addPage(page);
+            try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                content.beginText();
+                content.setFont(PDType1Font.HELVETICA, 12);
+                content.newLineAtOffset(50, 700);
+                content.showText(text);
+                content.endText();
+            }
+            document.save(out);
+            return out.toByteArray();
+        }
+    }
+
+}
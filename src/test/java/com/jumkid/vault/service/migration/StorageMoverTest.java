@@ -0,0 +1,159 @@
+package com.jumkid.vault.service.migration;
+
+import com.jumkid.vault.TestObjectsBuilder;
+import com.jumkid.vault.controller.dto.StorageMigration;
+import com.jumkid.vault.enums.StorageMode;
+import com.jumkid.vault.model.MediaFileMetadata;
+import com.jumkid.vault.repository.FileMetadata;
+import com.jumkid.vault.repository.FileStorage;
+import com.jumkid.vault.repository.FileStorageRouter;
+import com.jumkid.vault.repository.spool.FileSpoolManager;
+import com.jumkid.vault.repository.spool.SpooledFile;
+import com.jumkid.vault.repository.thumbnail.ThumbnailCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InOrder;
+
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class StorageMoverTest {
+
+    @TempDir
+    Path tempDir;
+
+    private FileMetadata<MediaFileMetadata> metadataStorage;
+
+    private FileStorage<MediaFileMetadata> localFileStorage;
+
+    private FileStorage<MediaFileMetadata> objectStoreFileStorage;
+
+    private StorageMover storageMover;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setup() throws Exception {
+        metadataStorage = mock(FileMetadata.class);
+        localFileStorage = mock(FileStorage.class);
+        objectStoreFileStorage = mock(FileStorage.class);
+        FileStorageRouter fileStorageRouter = new FileStorageRouter(mock(FileStorage.class), localFileStorage,
+                objectStoreFileStorage, mock(FileStorage.class), "local", "local");
+
+        FileSpoolManager fileSpoolManager = mock(FileSpoolManager.class);
+        when(fileSpoolManager.spool(any(InputStream.class))).thenAnswer(invocation -> {
+            Path spooled = Files.createTempFile(tempDir, "spool", null);
+            try (InputStream in = invocation.getArgument(0)) {
+                Files.write(spooled, in.readAllBytes());
+            }
+            return new SpooledFile(spooled, Files.size(spooled), null);
+        });
+
+        storageMover = new StorageMover(metadataStorage, fileStorageRouter, fileSpoolManager,
+                mock(ThumbnailCache.class), new SimpleMeterRegistry(), 10);
+    }
+
+    @AfterEach
+    void tearDown() {
+        storageMover.shutdown();
+    }
+
+    @Test
+    void shouldCopyFlipThenDelete_WhenMovingToAnotherStorage() throws Exception {
+        MediaFileMetadata metadata = TestObjectsBuilder.buildMetadata("file-1");
+        Path content = Files.write(tempDir.resolve("file-1"), new byte[]{1, 2, 3});
+        when(metadataStorage.findStoredElsewhere(eq(StorageMode.OBJECT_STORE), eq(true), anyCollection(), eq(10)))
+                .thenReturn(List.of(metadata)).thenReturn(List.of());
+        metadata.setSeqNo(7L);
+        metadata.setPrimaryTerm(1L);
+        when(metadataStorage.getMetadata("file-1")).thenReturn(Optional.of(metadata));
+        when(localFileStorage.getFileRandomAccess(metadata)).thenAnswer(invocation -> Optional.of(FileChannel.open(content)));
+        when(objectStoreFileStorage.saveFile(any(Path.class), any(MediaFileMetadata.class))).thenAnswer(invocation -> {
+            MediaFileMetadata copy = invocation.getArgument(1);
+            assertEquals(StorageMode.OBJECT_STORE, copy.getStorage());
+            copy.setLogicalPath("/file/20240101");
+            copy.setBlobId("blob-1");
+            return Optional.of(copy);
+        });
+        when(metadataStorage.updateStorage(any(), any(), any(), any(), any(), any())).thenReturn(true);
+
+        StorageMigration status = run(StorageMode.OBJECT_STORE);
+
+        assertEquals(1, status.getMoved());
+        assertEquals(0, status.getFailed());
+        InOrder inOrder = inOrder(objectStoreFileStorage, metadataStorage, localFileStorage);
+        inOrder.verify(objectStoreFileStorage).saveFile(any(Path.class), any(MediaFileMetadata.class));
+        inOrder.verify(metadataStorage).updateStorage("file-1", StorageMode.OBJECT_STORE, "/file/20240101", "blob-1",
+                7L, 1L);
+        inOrder.verify(localFileStorage).deleteFile(metadata);
+    }
+
+    @Test
+    void shouldDropCopyAndMoveAgain_WhenChangedWhileCopied() throws Exception {
+        MediaFileMetadata stale = TestObjectsBuilder.buildMetadata("file-1");
+        stale.setSeqNo(7L);
+        stale.setPrimaryTerm(1L);
+        MediaFileMetadata updated = TestObjectsBuilder.buildMetadata("file-1");
+        updated.setSeqNo(8L);
+        updated.setPrimaryTerm(1L);
+        Path content = Files.write(tempDir.resolve("file-1"), new byte[]{1, 2, 3});
+        when(metadataStorage.findStoredElsewhere(eq(StorageMode.OBJECT_STORE), eq(true), anyCollection(), eq(10)))
+                .thenReturn(List.of(stale)).thenReturn(List.of());
+        when(metadataStorage.getMetadata("file-1")).thenReturn(Optional.of(stale)).thenReturn(Optional.of(updated));
+        when(localFileStorage.getFileRandomAccess(any())).thenAnswer(invocation -> Optional.of(FileChannel.open(content)));
+        when(objectStoreFileStorage.saveFile(any(Path.class), any(MediaFileMetadata.class))).thenAnswer(invocation -> {
+            MediaFileMetadata copy = invocation.getArgument(1);
+            copy.setLogicalPath("/file/copy-" + copy.getSeqNo());
+            return Optional.of(copy);
+        });
+        when(metadataStorage.updateStorage(any(), any(), any(), any(), eq(7L), any())).thenReturn(false);
+        when(metadataStorage.updateStorage(any(), any(), any(), any(), eq(8L), any())).thenReturn(true);
+
+        StorageMigration status = run(StorageMode.OBJECT_STORE);
+
+        assertEquals(1, status.getMoved());
+        assertEquals(0, status.getFailed());
+        verify(objectStoreFileStorage).deleteFile(argThat(copy -> "/file/copy-7".equals(copy.getLogicalPath())));
+        verify(metadataStorage).updateStorage("file-1", StorageMode.OBJECT_STORE, "/file/copy-8", null, 8L, 1L);
+        // metadata are equal by id, the versions tell the reads apart
+        verify(localFileStorage).deleteFile(argThat(source -> source.getSeqNo() == 8L));
+        verify(localFileStorage, never()).deleteFile(argThat(source -> source.getSeqNo() == 7L));
+    }
+
+    @Test
+    void shouldKeepFileInPlace_WhenCopyFails() throws Exception {
+        MediaFileMetadata metadata = TestObjectsBuilder.buildMetadata("file-1");
+        when(metadataStorage.findStoredElsewhere(eq(StorageMode.OBJECT_STORE), eq(true), anyCollection(), eq(10)))
+                .thenReturn(List.of(metadata)).thenReturn(List.of());
+        when(metadataStorage.getMetadata("file-1")).thenReturn(Optional.of(metadata));
+        when(localFileStorage.getFileRandomAccess(metadata)).thenReturn(Optional.empty());
+
+        StorageMigration status = run(StorageMode.OBJECT_STORE);
+
+        assertEquals(0, status.getMoved());
+        assertEquals(1, status.getFailed());
+        verify(metadataStorage, never()).updateStorage(any(), any(), any(), any(), any(), any());
+        verify(localFileStorage, never()).deleteFile(any());
+    }
+
+    private StorageMigration run(StorageMode target) throws InterruptedException {
+        storageMover.start(target);
+        for (int i = 0; i < 100 && storageMover.getStatus().isRunning(); i++) {
+            Thread.sleep(50);
+        }
+        StorageMigration status = storageMover.getStatus();
+        assertFalse(status.isRunning());
+        return status;
+    }
+
+}
@@ -0,0 +1,54 @@
+package com.jumkid.vault.util;
+
+import com.jumkid.vault.TestObjectsBuilder;
+import com.jumkid.vault.model.MediaFileMetadata;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HttpCachePolicyTest {
+
+    private static final String BLOB_ID = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+
+    private HttpCachePolicy httpCachePolicy;
+
+    @BeforeEach
+    void setup() {
+        httpCachePolicy = new HttpCachePolicy();
+        ReflectionTestUtils.setField(httpCachePolicy, "thumbnailMaxAge", Duration.ofDays(7));
+        ReflectionTestUtils.setField(httpCachePolicy, "contentMaxAge", Duration.ZERO);
+        ReflectionTestUtils.setField(httpCachePolicy, "downloadMaxAge", Duration.ofHours(1));
+    }
+
+    @Test
+    void shouldChangeContentETagOnly_WhenTitleChangesWithSameBlob() {
+        MediaFileMetadata before = TestObjectsBuilder.buildMetadata(null);
+        before.setBlobId(BLOB_ID);
+        MediaFileMetadata after = TestObjectsBuilder.buildMetadata(null);
+        after.setBlobId(BLOB_ID);
+        after.setTitle("new title");
+
+        assertNotEquals(httpCachePolicy.forContent(before, "text-title").eTag(),
+                httpCachePolicy.forContent(after, "text-title").eTag());
+        assertEquals(httpCachePolicy.forThumbnail(before, "small").eTag(),
+                httpCachePolicy.forThumbnail(after, "small").eTag());
+    }
+
+    @Test
+    void shouldChangeDownloadETag_WhenFilenameChangesWithSameBlob() {
+        MediaFileMetadata before = TestObjectsBuilder.buildMetadata(null);
+        before.setBlobId(BLOB_ID);
+        MediaFileMetadata after = TestObjectsBuilder.buildMetadata(null);
+        after.setBlobId(BLOB_ID);
+        after.setFilename("renamed.html");
+
+        String eTag = httpCachePolicy.forDownload(before).eTag();
+        assertTrue(eTag.startsWith('"' + BLOB_ID.substring(0, 32)));
+        assertNotEquals(eTag, httpCachePolicy.forDownload(after).eTag());
+    }
+
+}
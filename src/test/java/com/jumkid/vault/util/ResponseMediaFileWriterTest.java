@@ -0,0 +1,163 @@
+package com.jumkid.vault.util;
+
+import com.jumkid.vault.TestObjectsBuilder;
+import com.jumkid.vault.controller.dto.MediaFile;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseMediaFileWriterTest {
+
+    private static final int FILE_SIZE = 200 * 1024;
+
+    private static final HttpCachePolicy.Validators VALIDATORS =
+            new HttpCachePolicy.Validators("\"etag\"", 0, "no-cache");
+
+    @TempDir
+    Path dataHome;
+
+    private ResponseMediaFileWriter writer;
+
+    private MediaFile mediaFile;
+
+    private Path file;
+
+    private byte[] content;
+
+    @BeforeEach
+    void setup() throws Exception {
+        writer = new ResponseMediaFileWriter();
+        ReflectionTestUtils.setField(writer, "zeroCopy", true);
+
+        content = new byte[FILE_SIZE];
+        for (int i = 0; i < content.length; i++) content[i] = (byte) (i % 251);
+        file = Files.write(dataHome.resolve("media"), content);
+
+        mediaFile = MediaFile.builder().uuid(TestObjectsBuilder.DUMMY_ID).filename("media.bin")
+                .mimeType("application/octet-stream").build();
+    }
+
+    @Test
+    void shouldServeBytesOfEachRange_WhenCopied() throws Exception {
+        assertArrayEquals(content, stream(null, false).getContentAsByteArray());
+
+        MockHttpServletResponse single = stream("bytes=100-70099", false);
+        assertEquals(206, single.getStatus());
+        assertEquals("bytes 100-70099/" + FILE_SIZE, single.getHeader("Content-Range"));
+        assertArrayEquals(Arrays.copyOfRange(content, 100, 70100), single.getContentAsByteArray());
+
+        MockHttpServletResponse suffix = stream("bytes=-10", false);
+        assertArrayEquals(Arrays.copyOfRange(content, FILE_SIZE - 10, FILE_SIZE), suffix.getContentAsByteArray());
+
+        MockHttpServletResponse open = stream("bytes=" + (FILE_SIZE - 5) + "-", false);
+        assertArrayEquals(Arrays.copyOfRange(content, FILE_SIZE - 5, FILE_SIZE), open.getContentAsByteArray());
+    }
+
+    @Test
+    void shouldLeaveRangeToSendfile_WhenContainerSupportsIt() throws Exception {
+        MockHttpServletRequest request = request("bytes=100-70099", true);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+            writer.stream(mediaFile, fc, file, VALIDATORS, request, response);
+        }
+
+        assertEquals(206, response.getStatus());
+        assertEquals(70000, response.getContentLengthLong());
+        assertEquals(0, response.getContentAsByteArray().length);
+        assertEquals(file.toAbsolutePath().toString(), request.getAttribute("org.apache.tomcat.sendfile.filename"));
+        assertEquals(100L, request.getAttribute("org.apache.tomcat.sendfile.start"));
+        assertEquals(70100L, request.getAttribute("org.apache.tomcat.sendfile.end"));
+    }
+
+    @Test
+    void shouldCopyEachPart_WhenMultipleRangesRequested() throws Exception {
+        MockHttpServletRequest request = request("bytes=0-9,100-109", true);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+            writer.stream(mediaFile, fc, file, VALIDATORS, request, response);
+        }
+
+        assertNull(request.getAttribute("org.apache.tomcat.sendfile.filename"));
+        byte[] body = response.getContentAsByteArray();
+        assertTrue(indexOf(body, Arrays.copyOfRange(content, 0, 10)) >= 0);
+        assertTrue(indexOf(body, Arrays.copyOfRange(content, 100, 110)) >= 0);
+    }
+
+    @Test
+    void shouldSetStreamHeaders_WhenStreamedFromMappedBuffer() throws Exception {
+        MediaFile textFile = MediaFile.builder().uuid(TestObjectsBuilder.DUMMY_ID).filename("media.txt")
+                .mimeType("text/plain").build();
+        MockHttpServletResponse fromChannel = new MockHttpServletResponse();
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+            writer.stream(textFile, fc, null, VALIDATORS, request(null, false), fromChannel);
+        }
+
+        MockHttpServletResponse fromBuffer = new MockHttpServletResponse();
+        writer.stream(textFile, ByteBuffer.wrap(content).asReadOnlyBuffer(), VALIDATORS, request(null, false), fromBuffer);
+
+        assertEquals("bytes", fromBuffer.getHeader("Accept-Ranges"));
+        assertEquals(FILE_SIZE, fromBuffer.getContentLengthLong());
+        for (String header : List.of("Accept-Ranges", "Content-Length", "Content-Type", "Content-Disposition", "ETag",
+                "Cache-Control")) {
+            assertEquals(fromChannel.getHeader(header), fromBuffer.getHeader(header), header);
+        }
+        assertArrayEquals(content, fromBuffer.getContentAsByteArray());
+    }
+
+    @Test
+    void shouldGzipMappedBuffer_WhenClientAcceptsIt() throws Exception {
+        MediaFile textFile = MediaFile.builder().uuid(TestObjectsBuilder.DUMMY_ID).filename("media.txt")
+                .mimeType("text/plain").build();
+        MockHttpServletRequest request = request(null, false);
+        request.addHeader("Accept-Encoding", "gzip, deflate");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        writer.stream(textFile, ByteBuffer.wrap(content).asReadOnlyBuffer(), VALIDATORS, request, response);
+
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        assertNull(response.getHeader("Content-Length"));
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(response.getContentAsByteArray()))) {
+            assertArrayEquals(content, gzip.readAllBytes());
+        }
+    }
+
+    private MockHttpServletResponse stream(String range, boolean sendfileSupported) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+            writer.stream(mediaFile, fc, file, VALIDATORS, request(range, sendfileSupported), response);
+        }
+        return response;
+    }
+
+    private MockHttpServletRequest request(String range, boolean sendfileSupported) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        if (range != null) request.addHeader("Range", range);
+        if (sendfileSupported) request.setAttribute("org.apache.tomcat.sendfile.support", Boolean.TRUE);
+        return request;
+    }
+
+    private static int indexOf(byte[] body, byte[] part) {
+        for (int i = 0; i + part.length <= body.length; i++) {
+            if (Arrays.equals(body, i, i + part.length, part, 0, part.length)) return i;
+        }
+        return -1;
+    }
+
+}